@@ -0,0 +1,179 @@
+package Controller;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import DAO.ChangeCapture;
+import DAO.MessagePurger;
+import DAO.MessageResharder;
+import DAO.ReplicaSet;
+import DAO.StoreSnapshotter;
+import Service.HotFeedCache;
+import Util.AppConfig;
+import Util.ShardRouter;
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+
+/**
+ * The AdminController exposes operational endpoints under /admin.
+ *
+ * Every request must carry the value of admin.token in the X-Admin-Token header. When admin.token is not
+ * configured the endpoints answer 404, as if they did not exist.
+ *
+ * - GET /admin/shards: the shards and how many ranges of the ring each one owns.
+ * - POST /admin/shards/moves with {"point": n, "target": s}: starts moving range n to shard s.
+ * - GET /admin/shards/moves: the progress of the running or last move.
+ * - GET /admin/replicas: the replication position and lag of every read replica.
+ * - GET /admin/changes: the offsets, size and consumer checkpoints of the change event log.
+ * - GET /admin/purge: how many deleted messages have been purged and when the store was last compacted.
+ * - GET /admin/snapshots: the snapshot settings and the last snapshot and restore.
+ * - POST /admin/snapshots: takes a snapshot of the message store in the background.
+ * - GET /admin/hot-accounts: the accounts whose feeds are read most, and which of their feeds are kept in memory.
+ * - GET /admin/pipeline: the workers, queue length and counters of every stage of message creation.
+ */
+public class AdminController {
+
+    private static final String TOKEN_HEADER = "X-Admin-Token";
+
+    private final ShardRouter router;
+    private final MessageResharder resharder;
+    private final ReplicaSet replicas;
+    private final ChangeCapture capture;
+    private final MessagePurger purger;
+    private final StoreSnapshotter snapshotter;
+    private final HotFeedCache hotFeeds;
+    private final MessageCreationPipeline creationPipeline;
+    private final byte[] token;
+
+    /**
+     * @param hotFeeds         The cache of the most read feeds whose state is reported.
+     * @param creationPipeline The message creation pipeline whose stages are reported.
+     */
+    public AdminController(HotFeedCache hotFeeds, MessageCreationPipeline creationPipeline) {
+        this(ShardRouter.getDefault(), new MessageResharder(), ReplicaSet.getDefault(), ChangeCapture.getDefault(),
+                MessagePurger.getDefault(), StoreSnapshotter.getDefault(), hotFeeds, creationPipeline,
+                AppConfig.getString("admin.token", null));
+    }
+
+    /**
+     * @param router           The router whose shards are described.
+     * @param resharder        The resharder that runs range moves.
+     * @param replicas         The read replicas whose state is reported.
+     * @param capture          The change event log whose state is reported.
+     * @param purger           The purger of deleted messages whose progress is reported.
+     * @param snapshotter      The snapshotter of the message store, run and reported on.
+     * @param hotFeeds         The cache of the most read feeds whose state is reported.
+     * @param creationPipeline The message creation pipeline whose stages are reported.
+     * @param token            The token callers must present, or null to disable the endpoints.
+     */
+    public AdminController(ShardRouter router, MessageResharder resharder, ReplicaSet replicas,
+            ChangeCapture capture, MessagePurger purger, StoreSnapshotter snapshotter, HotFeedCache hotFeeds,
+            MessageCreationPipeline creationPipeline, String token) {
+        this.router = router;
+        this.resharder = resharder;
+        this.replicas = replicas;
+        this.capture = capture;
+        this.purger = purger;
+        this.snapshotter = snapshotter;
+        this.hotFeeds = hotFeeds;
+        this.creationPipeline = creationPipeline;
+        this.token = token == null || token.isEmpty() ? null : token.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Registers the admin endpoints and their guard on the application.
+     *
+     * @param app the Javalin application
+     */
+    public void register(Javalin app) {
+        app.before("/admin/*", this::checkToken);
+        app.get("/admin/shards", this::getShards);
+        app.get("/admin/shards/moves", this::getMove);
+        app.post("/admin/shards/moves", this::startMove);
+        app.get("/admin/replicas", this::getReplicas);
+        app.get("/admin/changes", this::getChanges);
+        app.get("/admin/purge", this::getPurge);
+        app.get("/admin/snapshots", this::getSnapshots);
+        app.post("/admin/snapshots", this::takeSnapshot);
+        app.get("/admin/hot-accounts", this::getHotAccounts);
+        app.get("/admin/pipeline", this::getPipeline);
+    }
+
+    private void checkToken(Context ctx) {
+        if (token == null) {
+            throw new RequestRejectedException(404, "Not found", Collections.emptyMap());
+        }
+        String presented = ctx.header(TOKEN_HEADER);
+        // Constant-time comparison so the token cannot be guessed from response times
+        if (presented == null || !MessageDigest.isEqual(token, presented.getBytes(StandardCharsets.UTF_8))) {
+            throw new RequestRejectedException(403, "Invalid admin token", Collections.emptyMap());
+        }
+    }
+
+    private void getShards(Context ctx) {
+        ctx.json(router.describe());
+    }
+
+    private void getReplicas(Context ctx) {
+        ctx.json(replicas.describe());
+    }
+
+    private void getChanges(Context ctx) {
+        ctx.json(capture.describe());
+    }
+
+    private void getPurge(Context ctx) {
+        ctx.json(purger.describe());
+    }
+
+    private void getSnapshots(Context ctx) {
+        ctx.json(snapshotter.describe());
+    }
+
+    private void takeSnapshot(Context ctx) {
+        snapshotter.requestSnapshot();
+        ctx.status(202);
+    }
+
+    private void getHotAccounts(Context ctx) {
+        ctx.json(hotFeeds.describe());
+    }
+
+    private void getPipeline(Context ctx) {
+        ctx.json(creationPipeline.describe());
+    }
+
+    private void getMove(Context ctx) {
+        MessageResharder.Move move = resharder.getCurrentMove();
+        if (move == null) {
+            ctx.status(404);
+            return;
+        }
+        ctx.json(move.describe());
+    }
+
+    private void startMove(Context ctx) throws JsonProcessingException {
+        JsonNode body = new ObjectMapper().readTree(ctx.body());
+        if (body == null || !body.path("point").canConvertToInt() || !body.path("target").canConvertToInt()) {
+            ctx.status(400);
+            return;
+        }
+        try {
+            MessageResharder.Move move = resharder.start(body.get("point").asInt(), body.get("target").asInt());
+            ctx.status(202);
+            ctx.json(move.describe());
+        } catch (IllegalArgumentException e) {
+            ctx.status(400);
+            ctx.json(Map.of("error", e.getMessage()));
+        } catch (IllegalStateException e) {
+            ctx.status(409);
+            ctx.json(Map.of("error", e.getMessage()));
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package Controller;
+
+import java.util.Collections;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import Util.AdaptiveConcurrencyLimiter;
+import Util.AppConfig;
+import io.javalin.http.Context;
+import io.javalin.http.HandlerType;
+
+/**
+ * The AdmissionController sits in front of the SocialMediaController routes and decides whether a request is
+ * allowed to run at all. Reads and writes have separate adaptive concurrency budgets, so a burst of one kind of
+ * traffic cannot starve the other. Requests over the budget are rejected straight away with 503 and a
+ * Retry-After header rather than being queued by Jetty until the client gives up.
+ *
+ * Logins and registrations have a third budget of their own. They spend most of their time hashing a password
+ * on purpose, so their latency says nothing about how loaded the database is, and mixed into the write budget
+ * it would shrink that budget for nothing. With a budget of their own, users can still sign in while the rest of
+ * the write traffic is being shed.
+ */
+public class AdmissionController {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AdmissionController.class);
+    private static final String PERMIT_ATTRIBUTE = "admission.permit";
+    private static final String START_ATTRIBUTE = "admission.start";
+
+    private final boolean enabled;
+    private final AdaptiveConcurrencyLimiter readLimiter;
+    private final AdaptiveConcurrencyLimiter writeLimiter;
+    private final AdaptiveConcurrencyLimiter passwordLimiter;
+    private final LongSupplier nanoClock;
+
+    // Default constructor reading the budgets from AppConfig
+    public AdmissionController() {
+        this(AppConfig.getBoolean("admission.enabled", true),
+                new AdaptiveConcurrencyLimiter("read",
+                        AppConfig.getInt("admission.read.initial", 64),
+                        AppConfig.getInt("admission.read.min", 8),
+                        AppConfig.getInt("admission.read.max", 512)),
+                new AdaptiveConcurrencyLimiter("write",
+                        AppConfig.getInt("admission.write.initial", 32),
+                        AppConfig.getInt("admission.write.min", 4),
+                        AppConfig.getInt("admission.write.max", 256)),
+                new AdaptiveConcurrencyLimiter("password",
+                        AppConfig.getInt("admission.password.initial", 8),
+                        AppConfig.getInt("admission.password.min", 2),
+                        AppConfig.getInt("admission.password.max", 64)));
+    }
+
+    /**
+     * Constructor that allows the limiters to be supplied directly, useful for testing purposes.
+     *
+     * @param enabled         false to admit every request.
+     * @param readLimiter     The budget shared by GET requests.
+     * @param writeLimiter    The budget shared by the other POST, PATCH and DELETE requests.
+     * @param passwordLimiter The budget shared by POST /login and POST /register, which hash a password.
+     */
+    public AdmissionController(boolean enabled, AdaptiveConcurrencyLimiter readLimiter,
+            AdaptiveConcurrencyLimiter writeLimiter, AdaptiveConcurrencyLimiter passwordLimiter) {
+        this(enabled, readLimiter, writeLimiter, passwordLimiter, System::nanoTime);
+    }
+
+    /**
+     * Constructor that also allows the clock request latencies are measured with to be supplied, useful for testing
+     * purposes.
+     *
+     * @param nanoClock Returns the current time in nanoseconds, as System.nanoTime does.
+     */
+    public AdmissionController(boolean enabled, AdaptiveConcurrencyLimiter readLimiter,
+            AdaptiveConcurrencyLimiter writeLimiter, AdaptiveConcurrencyLimiter passwordLimiter,
+            LongSupplier nanoClock) {
+        this.enabled = enabled;
+        this.readLimiter = readLimiter;
+        this.writeLimiter = writeLimiter;
+        this.passwordLimiter = passwordLimiter;
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Before-handler: takes a permit from the matching budget or rejects the request with 503.
+     *
+     * @param ctx the Javalin context object representing the current HTTP request and response
+     */
+    public void admit(Context ctx) {
+        if (!enabled) {
+            return;
+        }
+        AdaptiveConcurrencyLimiter limiter = limiterFor(ctx);
+        if (!limiter.tryAcquire(0)) {
+            LOGGER.warn("Shedding {} {}: {} limit {} reached", ctx.method(), ctx.path(), limiter.getName(),
+                    limiter.getLimit());
+            throw new RequestRejectedException(503, "Server overloaded",
+                    Collections.singletonMap("Retry-After", Integer.toString(limiter.retryAfterSeconds())));
+        }
+        ctx.attribute(PERMIT_ATTRIBUTE, limiter);
+        ctx.attribute(START_ATTRIBUTE, nanoClock.getAsLong());
+    }
+
+    /**
+     * After-handler: returns the permit taken in {@link #admit(Context)} and records the request latency.
+     * Javalin runs after-handlers even when the endpoint threw, so permits are never leaked.
+     *
+     * @param ctx the Javalin context object representing the current HTTP request and response
+     */
+    public void complete(Context ctx) {
+        AdaptiveConcurrencyLimiter limiter = ctx.attribute(PERMIT_ATTRIBUTE);
+        if (limiter == null) {
+            return;
+        }
+        ctx.attribute(PERMIT_ATTRIBUTE, null);
+        Long start = ctx.attribute(START_ATTRIBUTE);
+        long rtt = start == null ? 0 : nanoClock.getAsLong() - start;
+        // Server errors usually mean a failed dependency rather than a slow one, so they do not move the limit.
+        limiter.release(rtt, ctx.statusCode() >= 500);
+    }
+
+    private AdaptiveConcurrencyLimiter limiterFor(Context ctx) {
+        HandlerType method = ctx.method();
+        if (method == HandlerType.GET || method == HandlerType.HEAD) {
+            return readLimiter;
+        }
+        if (hashesPassword(ctx)) {
+            return passwordLimiter;
+        }
+        // A lookup of many messages only reads, even though its IDs come in a POST body
+        return SocialMediaController.MESSAGE_LOOKUP_PATH.equals(ctx.path()) ? readLimiter : writeLimiter;
+    }
+
+    private boolean hashesPassword(Context ctx) {
+        return ctx.method() == HandlerType.POST && ("/login".equals(ctx.path()) || "/register".equals(ctx.path()));
+    }
+
+    public AdaptiveConcurrencyLimiter getReadLimiter() {
+        return readLimiter;
+    }
+
+    public AdaptiveConcurrencyLimiter getWriteLimiter() {
+        return writeLimiter;
+    }
+
+    public AdaptiveConcurrencyLimiter getPasswordLimiter() {
+        return passwordLimiter;
+    }
+}
@@ -0,0 +1,110 @@
+package Controller;
+
+import java.util.Collections;
+import java.util.Optional;
+import java.util.function.IntPredicate;
+import java.util.regex.Pattern;
+
+import Service.SessionTokenService;
+import Util.AppConfig;
+import io.javalin.http.Context;
+import io.javalin.http.HandlerType;
+
+/**
+ * The AuthFilter authenticates requests to the routes that modify messages (POST /messages, PATCH and DELETE
+ * /messages/{message_id}), like them (POST and DELETE /messages/{message_id}/likes) or delete accounts (DELETE
+ * /accounts/{account_id}) from the "Authorization: Bearer <token>" header issued by /login. The token is verified
+ * locally, without any session or database lookup, and the account it carries is stored on the request for the
+ * handlers to authorize against.
+ *
+ * A request with a missing token is let through unauthenticated unless auth.required is set, so that clients
+ * written before tokens existed keep working; a request with an invalid or expired token is always rejected
+ * with 401.
+ *
+ * Tokens are not stored, so one issued to an account that is deleted afterwards would stay valid until it
+ * expires; the filter therefore also refuses the tokens of accounts whose deletion has started.
+ *
+ * A token sent on any other request, such as a read, is verified too, so that the ConsistencyFilter can hold the
+ * account's reads to its own latest write. There a missing token is never required, and an invalid one is
+ * ignored rather than rejected: the request is simply served as an anonymous one.
+ */
+public class AuthFilter {
+
+    private static final String ACCOUNT_ATTRIBUTE = "auth.account_id";
+    private static final String BEARER_PREFIX = "Bearer ";
+    // The POST routes that need a token: creating a message and liking one; other POSTs, such as the lookup, are reads
+    private static final String MESSAGES_PATH = "/messages";
+    private static final Pattern LIKES_PATH = Pattern.compile("/messages/[^/]+/likes");
+
+    private final SessionTokenService tokenService;
+    private final boolean required;
+    private final IntPredicate deletedAccount;
+
+    public AuthFilter(SessionTokenService tokenService) {
+        this(tokenService, accountId -> false);
+    }
+
+    /**
+     * @param tokenService   The service used to verify tokens.
+     * @param deletedAccount Tells whether an account is deleted, so that its tokens are refused.
+     */
+    public AuthFilter(SessionTokenService tokenService, IntPredicate deletedAccount) {
+        this(tokenService, AppConfig.getBoolean("auth.required", false), deletedAccount);
+    }
+
+    /**
+     * @param tokenService   The service used to verify tokens.
+     * @param required       true to reject protected requests that carry no token.
+     * @param deletedAccount Tells whether an account is deleted, so that its tokens are refused.
+     */
+    public AuthFilter(SessionTokenService tokenService, boolean required, IntPredicate deletedAccount) {
+        this.tokenService = tokenService;
+        this.required = required;
+        this.deletedAccount = deletedAccount;
+    }
+
+    /**
+     * Before-handler: verifies the bearer token of a request, and rejects a protected request whose token is
+     * invalid, or missing while tokens are required.
+     *
+     * @param ctx the Javalin context object representing the current HTTP request and response
+     */
+    public void authenticate(Context ctx) {
+        boolean protectedRequest = isProtected(ctx);
+        String header = ctx.header("Authorization");
+        if (header == null || !header.startsWith(BEARER_PREFIX)) {
+            if (required && protectedRequest) {
+                throw unauthorized();
+            }
+            return;
+        }
+        Optional<Integer> accountId = tokenService.verify(header.substring(BEARER_PREFIX.length()).trim())
+                .filter(id -> !deletedAccount.test(id));
+        if (accountId.isPresent()) {
+            ctx.attribute(ACCOUNT_ATTRIBUTE, accountId.get());
+        } else if (protectedRequest) {
+            throw unauthorized();
+        }
+    }
+
+    /**
+     * @param ctx the Javalin context object representing the current HTTP request and response
+     * @return the ID of the account the request was authenticated as, if it carried a valid token.
+     */
+    public static Optional<Integer> authenticatedAccount(Context ctx) {
+        return Optional.ofNullable(ctx.attribute(ACCOUNT_ATTRIBUTE));
+    }
+
+    private boolean isProtected(Context ctx) {
+        HandlerType method = ctx.method();
+        String path = ctx.path();
+        return (method == HandlerType.POST && (MESSAGES_PATH.equals(path) || LIKES_PATH.matcher(path).matches()))
+                || ((method == HandlerType.PATCH || method == HandlerType.DELETE) && path.startsWith("/messages/"))
+                || (method == HandlerType.DELETE && path.startsWith("/accounts/"));
+    }
+
+    private RequestRejectedException unauthorized() {
+        return new RequestRejectedException(401, "Invalid or missing token",
+                Collections.singletonMap("WWW-Authenticate", "Bearer"));
+    }
+}
@@ -0,0 +1,79 @@
+package Controller;
+
+import java.util.Optional;
+
+import DAO.ReadConsistency;
+import DAO.ReplicaSet;
+import io.javalin.http.Context;
+
+/**
+ * The ConsistencyFilter gives every client read-your-writes consistency when reads are served by replicas.
+ *
+ * A request that writes gets an X-Consistency-Token response header holding the replication log position of its
+ * last write. A client echoing that header on later requests is only served by replicas that have applied the
+ * write. Clients using a bearer token do not need to: the position of an account's latest write is remembered
+ * until every replica has applied it, and the account's requests are held to it automatically.
+ */
+public class ConsistencyFilter {
+
+    static final String TOKEN_HEADER = "X-Consistency-Token";
+
+    private final ReplicaSet replicas;
+
+    public ConsistencyFilter() {
+        this(ReplicaSet.getDefault());
+    }
+
+    /**
+     * @param replicas The replicas reads may be served from.
+     */
+    public ConsistencyFilter(ReplicaSet replicas) {
+        this.replicas = replicas;
+    }
+
+    /**
+     * Before-handler, registered after the AuthFilter: sets the log position the request's reads must reflect.
+     *
+     * @param ctx the Javalin context object representing the current HTTP request and response
+     */
+    public void before(Context ctx) {
+        ReadConsistency.clear();
+        if (!replicas.isEnabled()) {
+            return;
+        }
+        String token = ctx.header(TOKEN_HEADER);
+        if (token != null) {
+            try {
+                ReadConsistency.require(Long.parseLong(token.trim()));
+            } catch (NumberFormatException e) {
+                // An unreadable token only costs the client its read-your-writes guarantee
+            }
+        }
+        Optional<Integer> accountId = AuthFilter.authenticatedAccount(ctx);
+        accountId.ifPresent(id -> ReadConsistency.require(replicas.lastWriteOf(id)));
+    }
+
+    /**
+     * After-handler: hands the position of the request's writes back to the client.
+     *
+     * @param ctx the Javalin context object representing the current HTTP request and response
+     */
+    public void after(Context ctx) {
+        noteWrite(ctx, ReadConsistency.lastWrite());
+        ReadConsistency.clear();
+    }
+
+    /**
+     * Hands the position of a write back to the client and remembers it for the authenticated account, for a
+     * request whose write was made on another thread.
+     *
+     * @param ctx the Javalin context object representing the current HTTP request and response
+     * @param lsn the log position of the request's last write, or 0 if it made none.
+     */
+    public void noteWrite(Context ctx, long lsn) {
+        if (lsn > 0) {
+            ctx.header(TOKEN_HEADER, Long.toString(lsn));
+            AuthFilter.authenticatedAccount(ctx).ifPresent(id -> replicas.noteAccountWrite(id, lsn));
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package Controller;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import DAO.ReadConsistency;
+import Model.Account;
+import Model.Message;
+import Service.AccountService;
+import Service.MessageService;
+import Service.ServiceException;
+import Util.AppConfig;
+import Util.PipelineStage;
+
+/**
+ * The MessageCreationPipeline runs POST /messages as five stages, each with its own bounded queue and workers,
+ * instead of all of it on the request thread:
+ *
+ * - decode: reads the message from the request body and applies the account's rate limit.
+ * - validate: checks the message text.
+ * - authorize: looks the author up, unless a session token already proved who it is, and checks it is the account
+ *   posting.
+ * - persist: inserts the message.
+ * - notify: updates the recent messages, stats, kept feeds and change listeners.
+ *
+ * The request thread only queues the request and returns; the response is written when the notify stage is done.
+ * The stages never touch the request's context, which is not safe to share between threads: the read consistency
+ * the request requires is carried to each stage's worker, and the rate limit headers and the write's log position
+ * are carried back on the Creation for the response.
+ * When a stage cannot keep up, the stages before it wait for room and the decode queue fills, at which point new
+ * requests are refused with 503 and Retry-After. Each stage's workers and queue are messages.pipeline.{stage}.workers
+ * and messages.pipeline.{stage}.queue, and GET /admin/pipeline shows how busy and how full each one is.
+ */
+public class MessageCreationPipeline {
+
+    private final ObjectMapper jsonMapper;
+    private final AccountService accountService;
+    private final MessageService messageService;
+    private final RateLimitFilter rateLimitFilter;
+    private final PipelineStage<Creation> first;
+
+    /**
+     * One message being created, filled in stage by stage.
+     */
+    public static final class Creation {
+        final byte[] body;
+        final Optional<Integer> principal;
+        // The log position the request's reads must reflect, set on the request thread by the ConsistencyFilter
+        final long requiredLsn;
+        Message message;
+        Message created;
+        // The requests the account has left under its rate limit, for the response headers
+        long limitRemaining = RateLimitFilter.NOT_LIMITED;
+        // The log position of the insert, or 0 if it was not logged
+        long writeLsn;
+        CompletableFuture<Creation> done;
+
+        Creation(byte[] body, Optional<Integer> principal, long requiredLsn) {
+            this.body = body;
+            this.principal = principal;
+            this.requiredLsn = requiredLsn;
+        }
+
+        /**
+         * @return a future completed with this creation once the message is created, or exceptionally with what
+         *         stopped it.
+         */
+        public CompletableFuture<Creation> getDone() {
+            return done;
+        }
+
+        /**
+         * @return the created message, once done.
+         */
+        public Message getCreated() {
+            return created;
+        }
+
+        /**
+         * @return the requests the account has left under its rate limit, once the decode stage is done; NOT_LIMITED
+         *         until then or if rate limiting is disabled.
+         */
+        public long getLimitRemaining() {
+            return limitRemaining;
+        }
+
+        /**
+         * @return the log position of the insert, once done; 0 if it was not logged.
+         */
+        public long getWriteLsn() {
+            return writeLsn;
+        }
+    }
+
+    /**
+     * Creates the stages and starts their workers.
+     *
+     * @param jsonMapper      The mapper the request body is read with.
+     * @param accountService  The service authors are looked up with.
+     * @param messageService  The service whose creation steps the stages run.
+     * @param rateLimitFilter The filter applying the per-account limit.
+     */
+    public MessageCreationPipeline(ObjectMapper jsonMapper, AccountService accountService,
+            MessageService messageService, RateLimitFilter rateLimitFilter) {
+        this.jsonMapper = jsonMapper;
+        this.accountService = accountService;
+        this.messageService = messageService;
+        this.rateLimitFilter = rateLimitFilter;
+        // Built from the last stage back, as each stage is given the next one
+        PipelineStage<Creation> notify = stage("notify", 1, 256,
+                creation -> messageService.publishNewMessage(creation.created), null);
+        PipelineStage<Creation> persist = stage("persist", 4, 128,
+                creation -> creation.created = messageService.persistNewMessage(creation.message), notify);
+        PipelineStage<Creation> authorize = stage("authorize", 4, 128, this::authorize, persist);
+        PipelineStage<Creation> validate = stage("validate", 1, 256,
+                creation -> messageService.validateNewMessage(creation.message), authorize);
+        this.first = stage("decode", 2, 256, this::decode, validate);
+    }
+
+    private static PipelineStage<Creation> stage(String name, int workers, int capacity,
+            Consumer<Creation> step, PipelineStage<Creation> next) {
+        return new PipelineStage<>("create-" + name,
+                AppConfig.getInt("messages.pipeline." + name + ".workers", workers),
+                AppConfig.getInt("messages.pipeline." + name + ".queue", capacity), consistent(step), next);
+    }
+
+    /**
+     * Runs a step with the read consistency of its request on the worker's thread, as the request thread would,
+     * and takes back the position of any write the step made, leaving nothing behind for the worker's next job.
+     */
+    private static Consumer<Creation> consistent(Consumer<Creation> step) {
+        return creation -> {
+            ReadConsistency.clear();
+            ReadConsistency.require(Math.max(creation.requiredLsn, creation.writeLsn));
+            try {
+                step.accept(creation);
+                creation.writeLsn = Math.max(creation.writeLsn, ReadConsistency.lastWrite());
+            } finally {
+                ReadConsistency.clear();
+            }
+        };
+    }
+
+    /**
+     * Queues a request to create a message. Called on the request thread, whose read consistency the stages
+     * apply.
+     *
+     * @param body      The request body.
+     * @param principal The account a session token authenticated, if any.
+     * @return the queued creation; null if the pipeline is full.
+     */
+    public Creation submit(byte[] body, Optional<Integer> principal) {
+        Creation creation = new Creation(body, principal, ReadConsistency.required());
+        creation.done = first.offer(creation);
+        return creation.done == null ? null : creation;
+    }
+
+    private void decode(Creation creation) {
+        try {
+            creation.message = jsonMapper.readValue(creation.body, Message.class);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        creation.limitRemaining = rateLimitFilter.limitByAccount(RateLimitFilter.CREATE_MESSAGE,
+                creation.principal.orElse(creation.message.getPosted_by()));
+    }
+
+    private void authorize(Creation creation) {
+        if (creation.principal.isPresent()) {
+            // The token already proves the account exists, so no lookup is needed
+            messageService.authorizeNewMessage(creation.message, creation.principal.get());
+            return;
+        }
+        Optional<Account> account = accountService.getAccountById(creation.message.getPosted_by());
+        if (!account.isPresent()) {
+            throw new ServiceException("Account must exist when posting a new message");
+        }
+        messageService.authorizeNewMessage(creation.message, account.get().getAccount_id());
+    }
+
+    /**
+     * Stops every stage's workers, e.g. when the server stops. Creations still queued fail with a
+     * RejectedExecutionException, which their requests answer with 503.
+     */
+    public void stop() {
+        first.stop();
+    }
+
+    /**
+     * @return the workers, queue and counters of every stage, in pipeline order.
+     */
+    public List<Map<String, Object>> describe() {
+        List<Map<String, Object>> stages = new ArrayList<>();
+        for (PipelineStage<Creation> stage = first; stage != null; stage = stage.getNext()) {
+            stages.add(stage.describe());
+        }
+        return stages;
+    }
+}
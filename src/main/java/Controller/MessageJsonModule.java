@@ -0,0 +1,83 @@
+package Controller;
+
+import java.io.IOException;
+import java.util.function.IntToLongFunction;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import Model.Message;
+import Model.MessageView;
+
+/**
+ * The MessageJsonModule teaches Jackson to write a message's like count next to its fields, without the Message
+ * model having to carry it.
+ *
+ * The count is looked up while the message is written, which costs one in-memory map lookup. It is written as
+ * "likes" only when the message has any, so the JSON of a message nobody liked is exactly what it always was.
+ */
+public class MessageJsonModule extends SimpleModule {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @param likes Gives the like count of a message ID.
+     */
+    public MessageJsonModule(IntToLongFunction likes) {
+        super("MessageJsonModule");
+        addSerializer(Message.class, new MessageSerializer(likes));
+        addSerializer(MessageView.class, new MessageViewSerializer(likes));
+    }
+
+    private static void write(JsonGenerator generator, IntToLongFunction likes, int messageId, int postedBy,
+            String messageText, long timePostedEpoch) throws IOException {
+        generator.writeStartObject();
+        generator.writeNumberField("message_id", messageId);
+        generator.writeNumberField("posted_by", postedBy);
+        generator.writeStringField("message_text", messageText);
+        generator.writeNumberField("time_posted_epoch", timePostedEpoch);
+        long count = likes.applyAsLong(messageId);
+        if (count > 0) {
+            generator.writeNumberField("likes", count);
+        }
+        generator.writeEndObject();
+    }
+
+    private static class MessageSerializer extends StdSerializer<Message> {
+        private static final long serialVersionUID = 1L;
+
+        private final transient IntToLongFunction likes;
+
+        MessageSerializer(IntToLongFunction likes) {
+            super(Message.class);
+            this.likes = likes;
+        }
+
+        @Override
+        public void serialize(Message message, JsonGenerator generator, SerializerProvider provider)
+                throws IOException {
+            write(generator, likes, message.getMessage_id(), message.getPosted_by(), message.getMessage_text(),
+                    message.getTime_posted_epoch());
+        }
+    }
+
+    // The read side's immutable copies are written exactly like the messages they copy
+    private static class MessageViewSerializer extends StdSerializer<MessageView> {
+        private static final long serialVersionUID = 1L;
+
+        private final transient IntToLongFunction likes;
+
+        MessageViewSerializer(IntToLongFunction likes) {
+            super(MessageView.class);
+            this.likes = likes;
+        }
+
+        @Override
+        public void serialize(MessageView message, JsonGenerator generator, SerializerProvider provider)
+                throws IOException {
+            write(generator, likes, message.getMessage_id(), message.getPosted_by(), message.getMessage_text(),
+                    message.getTime_posted_epoch());
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package Controller;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntToLongFunction;
+
+import Model.Message;
+import Model.MessageView;
+import Util.AppConfig;
+
+/**
+ * The MessageJsonWriter writes lists of messages as JSON straight into bytes, for the endpoints that return many
+ * messages at once.
+ *
+ * A message has four fields of fixed types, so going through Jackson's generator, with its per-call state, char
+ * buffers and encoder, does far more work than the output needs. Here the constant parts of the output (the
+ * braces, quotes and field names) are encoded to UTF-8 once, numbers are written digit by digit with no
+ * intermediate String, and the text is escaped and encoded in a single pass. The bytes go to a buffer each thread
+ * reuses from one response to the next, and from there to the response in one write. Buffers grown past
+ * json.buffer.max-pooled-bytes are dropped after use so that one huge response does not pin its memory.
+ *
+ * The output is the same as MessageJsonModule's: the four fields, then "likes" only when there are any. Strings
+ * are escaped the way Jackson escapes them by default.
+ */
+public final class MessageJsonWriter {
+
+    private static final byte[] MESSAGE_ID = ascii("{\"message_id\":");
+    private static final byte[] POSTED_BY = ascii(",\"posted_by\":");
+    private static final byte[] MESSAGE_TEXT = ascii(",\"message_text\":");
+    private static final byte[] TIME_POSTED_EPOCH = ascii(",\"time_posted_epoch\":");
+    private static final byte[] LIKES = ascii(",\"likes\":");
+    private static final byte[] NULL = ascii("null");
+    private static final byte[] HEX = ascii("0123456789ABCDEF");
+    private static final byte[] MIN_LONG = ascii(Long.toString(Long.MIN_VALUE));
+
+    private static final int MAX_POOLED_BYTES = AppConfig.getInt("json.buffer.max-pooled-bytes", 1 << 20);
+    private static final ThreadLocal<Buffer> BUFFERS = ThreadLocal.withInitial(Buffer::new);
+
+    private final IntToLongFunction likes;
+
+    /**
+     * @param likes Gives the like count of a message ID.
+     */
+    public MessageJsonWriter(IntToLongFunction likes) {
+        this.likes = likes;
+    }
+
+    /**
+     * Writes messages as a JSON array.
+     *
+     * @param messages the messages.
+     * @param out      where the JSON goes, in one write.
+     * @throws IOException if writing to out fails.
+     */
+    public void writeMessages(List<Message> messages, OutputStream out) throws IOException {
+        Buffer buffer = BUFFERS.get();
+        try {
+            writeArray(buffer, messages);
+            out.write(buffer.bytes, 0, buffer.size);
+        } finally {
+            release(buffer);
+        }
+    }
+
+    /**
+     * Encodes messages as a JSON array, e.g. to be cached.
+     *
+     * @param messages the messages.
+     * @return the JSON, in an array of its own.
+     */
+    public byte[] toBytes(List<Message> messages) {
+        Buffer buffer = BUFFERS.get();
+        try {
+            writeArray(buffer, messages);
+            return Arrays.copyOf(buffer.bytes, buffer.size);
+        } finally {
+            release(buffer);
+        }
+    }
+
+    private void writeArray(Buffer buffer, List<Message> messages) {
+        buffer.put((byte) '[');
+        for (int i = 0; i < messages.size(); i++) {
+            Message message = messages.get(i);
+            if (i > 0) {
+                buffer.put((byte) ',');
+            }
+            writeMessage(buffer, message.getMessage_id(), message.getPosted_by(), message.getMessage_text(),
+                    message.getTime_posted_epoch());
+        }
+        buffer.put((byte) ']');
+    }
+
+    /**
+     * Writes immutable message views as a JSON array.
+     *
+     * @param messages the messages.
+     * @param out      where the JSON goes, in one write.
+     * @throws IOException if writing to out fails.
+     */
+    public void writeViews(List<MessageView> messages, OutputStream out) throws IOException {
+        Buffer buffer = BUFFERS.get();
+        try {
+            buffer.put((byte) '[');
+            for (int i = 0; i < messages.size(); i++) {
+                MessageView message = messages.get(i);
+                if (i > 0) {
+                    buffer.put((byte) ',');
+                }
+                writeMessage(buffer, message.getMessage_id(), message.getPosted_by(), message.getMessage_text(),
+                        message.getTime_posted_epoch());
+            }
+            buffer.put((byte) ']');
+            out.write(buffer.bytes, 0, buffer.size);
+        } finally {
+            release(buffer);
+        }
+    }
+
+    private void writeMessage(Buffer buffer, int messageId, int postedBy, String messageText, long timePostedEpoch) {
+        buffer.put(MESSAGE_ID);
+        writeLong(buffer, messageId);
+        buffer.put(POSTED_BY);
+        writeLong(buffer, postedBy);
+        buffer.put(MESSAGE_TEXT);
+        writeString(buffer, messageText);
+        buffer.put(TIME_POSTED_EPOCH);
+        writeLong(buffer, timePostedEpoch);
+        long count = likes.applyAsLong(messageId);
+        if (count > 0) {
+            buffer.put(LIKES);
+            writeLong(buffer, count);
+        }
+        buffer.put((byte) '}');
+    }
+
+    private static void writeLong(Buffer buffer, long value) {
+        if (value == Long.MIN_VALUE) {
+            buffer.put(MIN_LONG);
+            return;
+        }
+        if (value < 0) {
+            buffer.put((byte) '-');
+            value = -value;
+        }
+        int digits = 1;
+        for (long rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        buffer.ensure(digits);
+        int position = buffer.size + digits;
+        do {
+            buffer.bytes[--position] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        buffer.size += digits;
+    }
+
+    private static void writeString(Buffer buffer, String value) {
+        if (value == null) {
+            buffer.put(NULL);
+            return;
+        }
+        int length = value.length();
+        // Worst case: every char becomes a six-byte escape
+        buffer.ensure(length * 6 + 2);
+        byte[] bytes = buffer.bytes;
+        int position = buffer.size;
+        bytes[position++] = '"';
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                if (c == '"' || c == '\\') {
+                    bytes[position++] = '\\';
+                    bytes[position++] = (byte) c;
+                } else if (c < 0x20) {
+                    position = escapeControl(bytes, position, c);
+                } else {
+                    bytes[position++] = (byte) c;
+                }
+            } else if (c < 0x800) {
+                bytes[position++] = (byte) (0xC0 | (c >> 6));
+                bytes[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // Like Jackson, characters outside the BMP, and unpaired surrogates, are written as escapes
+                position = escapeUnicode(bytes, position, c);
+            } else {
+                bytes[position++] = (byte) (0xE0 | (c >> 12));
+                bytes[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                bytes[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        bytes[position++] = '"';
+        buffer.size = position;
+    }
+
+    private static int escapeControl(byte[] bytes, int position, char c) {
+        bytes[position++] = '\\';
+        switch (c) {
+            case '\b':
+                bytes[position++] = 'b';
+                break;
+            case '\t':
+                bytes[position++] = 't';
+                break;
+            case '\n':
+                bytes[position++] = 'n';
+                break;
+            case '\f':
+                bytes[position++] = 'f';
+                break;
+            case '\r':
+                bytes[position++] = 'r';
+                break;
+            default:
+                return escapeUnicode(bytes, position - 1, c);
+        }
+        return position;
+    }
+
+    private static int escapeUnicode(byte[] bytes, int position, char c) {
+        bytes[position++] = '\\';
+        bytes[position++] = 'u';
+        bytes[position++] = HEX[c >> 12];
+        bytes[position++] = HEX[(c >> 8) & 0xF];
+        bytes[position++] = HEX[(c >> 4) & 0xF];
+        bytes[position++] = HEX[c & 0xF];
+        return position;
+    }
+
+    private static void release(Buffer buffer) {
+        if (buffer.bytes.length > MAX_POOLED_BYTES) {
+            BUFFERS.remove();
+        } else {
+            buffer.size = 0;
+        }
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * A growable byte array, reused by one thread.
+     */
+    private static final class Buffer {
+        byte[] bytes = new byte[8192];
+        int size;
+
+        void ensure(int extra) {
+            if (size + extra > bytes.length) {
+                byte[] grown = new byte[Math.max(bytes.length * 2, size + extra)];
+                System.arraycopy(bytes, 0, grown, 0, size);
+                bytes = grown;
+            }
+        }
+
+        void put(byte value) {
+            ensure(1);
+            bytes[size++] = value;
+        }
+
+        void put(byte[] values) {
+            ensure(values.length);
+            System.arraycopy(values, 0, bytes, size, values.length);
+            size += values.length;
+        }
+    }
+}
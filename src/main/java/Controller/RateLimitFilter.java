@@ -0,0 +1,177 @@
+package Controller;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import Util.AppConfig;
+import Util.TokenBucketRateLimiter;
+import io.javalin.http.Context;
+import io.javalin.http.HandlerType;
+
+/**
+ * The RateLimitFilter protects the expensive write routes (POST /messages and PATCH /messages/{message_id})
+ * from a handful of clients flooding them. Every protected route has two token-bucket limits: one per client IP,
+ * applied before the request body is read, and one per account, applied by the handler as soon as it knows which
+ * account the request acts for. A request over either limit is answered with 429 and the usual
+ * X-RateLimit-Limit, X-RateLimit-Remaining and Retry-After headers.
+ *
+ * Limits are configured per route through AppConfig, e.g. ratelimit.create-message.account.rate and
+ * ratelimit.create-message.account.burst. Rejections are counted rather than logged one by one: each limit logs
+ * how many requests it rejected at most once every ratelimit.log-interval-ms.
+ */
+public class RateLimitFilter {
+
+    public static final String CREATE_MESSAGE = "create-message";
+    public static final String UPDATE_MESSAGE = "update-message";
+    /**
+     * What {@link #limitByAccount(String, int)} returns when rate limiting is disabled.
+     */
+    public static final long NOT_LIMITED = -1;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RateLimitFilter.class);
+
+    private final boolean enabled;
+    private final long logIntervalNanos;
+    private final Map<String, Limit<String>> ipLimits = new HashMap<>();
+    private final Map<String, Limit<Integer>> accountLimits = new HashMap<>();
+
+    /**
+     * One token-bucket limit, with its X-RateLimit-Limit value formatted once and the rejections counted since
+     * they were last logged.
+     */
+    private static final class Limit<K> {
+        final TokenBucketRateLimiter<K> limiter;
+        final String limitHeader;
+        final AtomicLong rejected = new AtomicLong();
+        final AtomicLong nextLogNanos = new AtomicLong(System.nanoTime());
+
+        Limit(TokenBucketRateLimiter<K> limiter) {
+            this.limiter = limiter;
+            this.limitHeader = Integer.toString(limiter.getBurst());
+        }
+    }
+
+    // Default constructor reading the per-route limits from AppConfig
+    public RateLimitFilter() {
+        this.enabled = AppConfig.getBoolean("ratelimit.enabled", true);
+        this.logIntervalNanos = TimeUnit.MILLISECONDS.toNanos(AppConfig.getLong("ratelimit.log-interval-ms", 10_000));
+        int maxKeys = AppConfig.getInt("ratelimit.max-keys", 100_000);
+        long sweepMillis = AppConfig.getLong("ratelimit.sweep-interval-ms", 1_000);
+        for (String route : new String[] { CREATE_MESSAGE, UPDATE_MESSAGE }) {
+            ipLimits.put(route, new Limit<>(new TokenBucketRateLimiter<>(route + ".ip",
+                    AppConfig.getDouble("ratelimit." + route + ".ip.rate", 50),
+                    AppConfig.getInt("ratelimit." + route + ".ip.burst", 100), maxKeys, sweepMillis)));
+            accountLimits.put(route, new Limit<>(new TokenBucketRateLimiter<>(route + ".account",
+                    AppConfig.getDouble("ratelimit." + route + ".account.rate", 10),
+                    AppConfig.getInt("ratelimit." + route + ".account.burst", 20), maxKeys, sweepMillis)));
+        }
+    }
+
+    /**
+     * Before-handler: applies the per-IP limit of the route the request targets, if it is a protected one.
+     *
+     * @param ctx the Javalin context object representing the current HTTP request and response
+     */
+    public void limitByIp(Context ctx) {
+        String route = routeOf(ctx);
+        if (!enabled || route == null) {
+            return;
+        }
+        Limit<String> limit = ipLimits.get(route);
+        setHeaders(ctx, limit, apply(limit, ctx.ip()));
+    }
+
+    /**
+     * Applies the per-account limit of a protected route. Called by the handler once the acting account is known.
+     *
+     * @param ctx       the Javalin context object representing the current HTTP request and response
+     * @param route     one of the route names declared by this class
+     * @param accountId the account the request acts for
+     * @throws RequestRejectedException if the account is over its limit
+     */
+    public void limitByAccount(Context ctx, String route, int accountId) {
+        setLimitHeaders(ctx, route, limitByAccount(route, accountId));
+    }
+
+    /**
+     * Applies the per-account limit of a protected route off the request thread, leaving the caller to set the
+     * headers on the response with {@link #setLimitHeaders(Context, String, long)}.
+     *
+     * @param route     one of the route names declared by this class
+     * @param accountId the account the request acts for
+     * @return the number of requests the account has left, or NOT_LIMITED if rate limiting is disabled
+     * @throws RequestRejectedException if the account is over its limit
+     */
+    public long limitByAccount(String route, int accountId) {
+        if (!enabled) {
+            return NOT_LIMITED;
+        }
+        return apply(accountLimits.get(route), accountId);
+    }
+
+    /**
+     * Sets the rate limit headers of an accepted request on the response.
+     *
+     * @param ctx       the Javalin context object representing the current HTTP request and response
+     * @param route     the route the per-account limit was applied for
+     * @param remaining what {@link #limitByAccount(String, int)} returned; nothing is set for NOT_LIMITED
+     */
+    public void setLimitHeaders(Context ctx, String route, long remaining) {
+        if (remaining != NOT_LIMITED) {
+            setHeaders(ctx, accountLimits.get(route), remaining);
+        }
+    }
+
+    /**
+     * Stops the limiters' background sweeps, e.g. when the server stops.
+     */
+    public void stop() {
+        ipLimits.values().forEach(limit -> limit.limiter.stop());
+        accountLimits.values().forEach(limit -> limit.limiter.stop());
+    }
+
+    private static void setHeaders(Context ctx, Limit<?> limit, long remaining) {
+        ctx.header("X-RateLimit-Limit", limit.limitHeader);
+        ctx.header("X-RateLimit-Remaining", Long.toString(remaining));
+    }
+
+    private <K> long apply(Limit<K> limit, K key) {
+        long result = limit.limiter.tryAcquire(key);
+        if (result >= 0) {
+            return result;
+        }
+        logRejection(limit, key);
+        long retryAfterSeconds = Math.max(1, (-result + 999_999_999L) / 1_000_000_000L);
+        throw new RequestRejectedException(429, "Rate limit exceeded", Map.of("X-RateLimit-Limit", limit.limitHeader,
+                "X-RateLimit-Remaining", "0", "Retry-After", Long.toString(retryAfterSeconds)));
+    }
+
+    // A flood of rejected requests would otherwise log one line each, so rejections are only counted, and the
+    // count is logged at most once per interval by whichever rejection finds the interval over
+    private <K> void logRejection(Limit<K> limit, K key) {
+        limit.rejected.incrementAndGet();
+        long now = System.nanoTime();
+        long next = limit.nextLogNanos.get();
+        if (now - next >= 0 && limit.nextLogNanos.compareAndSet(next, now + logIntervalNanos)) {
+            LOGGER.warn("Rate limit {} exceeded {} times since last logged, last by {}", limit.limiter.getName(),
+                    limit.rejected.getAndSet(0), key);
+        }
+    }
+
+    private String routeOf(Context ctx) {
+        HandlerType method = ctx.method();
+        String path = ctx.path();
+        if (method == HandlerType.POST && "/messages".equals(path)) {
+            return CREATE_MESSAGE;
+        }
+        if (method == HandlerType.PATCH && path.startsWith("/messages/")) {
+            return UPDATE_MESSAGE;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,37 @@
+package Controller;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * RequestRejectedException is thrown by the request filters registered in SocialMediaController when a request
+ * is refused before reaching its endpoint handler, for example because the server is overloaded or because the
+ * caller has exceeded its rate limit. It carries the HTTP status and the response headers that tell the client
+ * when to come back.
+ */
+public class RequestRejectedException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int status;
+    private final transient Map<String, String> headers;
+
+    /**
+     * @param status  The HTTP status code to respond with.
+     * @param message A short description used for logging.
+     * @param headers The response headers to set on the rejected request.
+     */
+    public RequestRejectedException(int status, String message, Map<String, String> headers) {
+        super(message);
+        this.status = status;
+        this.headers = headers == null ? Collections.emptyMap() : Collections.unmodifiableMap(headers);
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+}
@@ -0,0 +1,309 @@
+package Controller;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
+
+import DAO.ReplicaSet;
+import Service.MessageChangeListener;
+import Util.AppConfig;
+import io.javalin.http.Context;
+
+/**
+ * The ResponseCache holds the encoded bodies of the most read message responses, GET /messages/{id} and GET
+ * /accounts/{id}/messages, so that serving one again is a map lookup and a single write: no service call, no
+ * query and no serialization.
+ *
+ * An entry is the JSON exactly as the handler would have written it, plus its gzip encoding, made the first time a
+ * client that accepts gzip asks for it. Entries are kept in least recently used order and evicted once their bytes
+ * add up to more than responses.cache.max-bytes; a response larger than responses.cache.max-entry-bytes is served
+ * but never held.
+ *
+ * Entries are dropped by the services' change listeners when a message, or its like count, changes: the message's
+ * own entry and the feed of the account that posted it. Each key also has a version, taken from a table of
+ * counters striped by key that every change bumps. A handler reads the version before it loads the response and
+ * the entry is only stored if the version has not moved since, so a response loaded just before a change can
+ * never be stored just after it.
+ *
+ * When reads are served by replicas the cache stays empty: a response loaded from a replica that has not applied
+ * a change yet would outlive the invalidation that change caused.
+ */
+public final class ResponseCache implements MessageChangeListener {
+
+    private static final int VERSION_STRIPES = 1024;
+    // The map entry, key, Entry object and array headers, roughly
+    private static final int ENTRY_OVERHEAD = 96;
+    private static final long FEED = 1L << 32;
+
+    private final long maxBytes;
+    private final int maxEntryBytes;
+    private final int gzipMinBytes;
+    private final AtomicLongArray versions = new AtomicLongArray(VERSION_STRIPES);
+    // Access order, so the first entry is the least recently used
+    private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long bytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * An encoded response.
+     */
+    public static final class Entry {
+        private final byte[] json;
+        private final String etag;
+        private volatile byte[] gzip;
+
+        Entry(byte[] json, String etag) {
+            this.json = json;
+            this.etag = etag;
+        }
+
+        /**
+         * @return the encoded JSON, which must not be changed.
+         */
+        public byte[] getJson() {
+            return json;
+        }
+
+        int size() {
+            byte[] gzipped = gzip;
+            return ENTRY_OVERHEAD + json.length + (gzipped == null ? 0 : gzipped.length);
+        }
+    }
+
+    // Default constructor reading the limits from AppConfig
+    public ResponseCache() {
+        this(ReplicaSet.getDefault().isEnabled() ? 0 : AppConfig.getLong("responses.cache.max-bytes", 16L << 20),
+                AppConfig.getInt("responses.cache.max-entry-bytes", 256 << 10),
+                AppConfig.getInt("responses.cache.gzip-min-bytes", 1500));
+    }
+
+    /**
+     * Constructor that allows the limits to be chosen, useful for testing purposes.
+     *
+     * @param maxBytes      The total size of the entries held, or 0 to hold none.
+     * @param maxEntryBytes The largest response held.
+     * @param gzipMinBytes  The smallest response sent gzipped; smaller ones gain little or nothing from it.
+     */
+    public ResponseCache(long maxBytes, int maxEntryBytes, int gzipMinBytes) {
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = maxEntryBytes;
+        this.gzipMinBytes = gzipMinBytes;
+    }
+
+    /**
+     * @param messageId The ID of a message.
+     * @return the key of the GET /messages/{id} response.
+     */
+    public static long messageKey(int messageId) {
+        return messageId & 0xFFFFFFFFL;
+    }
+
+    /**
+     * @param accountId The ID of an account.
+     * @return the key of the GET /accounts/{id}/messages response.
+     */
+    public static long feedKey(int accountId) {
+        return FEED | (accountId & 0xFFFFFFFFL);
+    }
+
+    /**
+     * @param key A response key.
+     * @return the current version of the key, to pass to {@link #put} with a response loaded after this call.
+     */
+    public long version(long key) {
+        return versions.get(stripe(key));
+    }
+
+    /**
+     * @param key A response key.
+     * @return the cached response, or null.
+     */
+    public Entry get(long key) {
+        if (maxBytes <= 0) {
+            return null;
+        }
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        (entry == null ? misses : hits).increment();
+        return entry;
+    }
+
+    /**
+     * Caches a response, unless its key has changed since the version was read.
+     *
+     * @param key     The response key.
+     * @param version The version of the key read before the response was loaded.
+     * @param json    The encoded response.
+     * @return the entry to write, whether or not it was stored.
+     */
+    public Entry put(long key, long version, byte[] json) {
+        return put(key, version, json, null);
+    }
+
+    /**
+     * Caches a response with the ETag header it is sent with, unless its key has changed since the version was
+     * read.
+     *
+     * @param key     The response key.
+     * @param version The version of the key read before the response was loaded.
+     * @param json    The encoded response.
+     * @param etag    The value of the ETag header, or null for none.
+     * @return the entry to write, whether or not it was stored.
+     */
+    public Entry put(long key, long version, byte[] json, String etag) {
+        Entry entry = new Entry(json, etag);
+        if (maxBytes <= 0 || json.length > maxEntryBytes) {
+            return entry;
+        }
+        synchronized (entries) {
+            // Checked under the lock that invalidate() removes under, so a change is either seen here or
+            // removes what is stored here
+            if (version != versions.get(stripe(key))) {
+                return entry;
+            }
+            Entry replaced = entries.put(key, entry);
+            if (replaced != null) {
+                bytes -= replaced.size();
+            }
+            bytes += entry.size();
+            evict();
+        }
+        return entry;
+    }
+
+    /**
+     * Writes a response: its gzip encoding if the client accepts it and the response is large enough, otherwise
+     * the JSON. The bytes go to the servlet response directly, as they must not be compressed again.
+     *
+     * @param key   The response key.
+     * @param entry The response.
+     * @param ctx   the Javalin context object representing the current HTTP request and response
+     * @throws IOException if writing the response fails.
+     */
+    public void write(long key, Entry entry, Context ctx) throws IOException {
+        ctx.contentType("application/json");
+        if (entry.etag != null) {
+            ctx.header("ETag", entry.etag);
+        }
+        byte[] body = entry.json;
+        if (body.length >= gzipMinBytes) {
+            ctx.header("Vary", "Accept-Encoding");
+            if (acceptsGzip(ctx.header("Accept-Encoding"))) {
+                body = gzipped(key, entry);
+                ctx.header("Content-Encoding", "gzip");
+            }
+        }
+        OutputStream out = ctx.res().getOutputStream();
+        out.write(body);
+    }
+
+    private byte[] gzipped(long key, Entry entry) {
+        byte[] gzipped = entry.gzip;
+        if (gzipped != null) {
+            return gzipped;
+        }
+        // Two threads may both encode a new entry; either result is right
+        gzipped = gzip(entry.json);
+        synchronized (entries) {
+            if (entry.gzip == null && entries.get(key) == entry) {
+                entry.gzip = gzipped;
+                bytes += gzipped.length;
+                evict();
+            } else if (entry.gzip == null) {
+                entry.gzip = gzipped;
+            }
+        }
+        return gzipped;
+    }
+
+    private static byte[] gzip(byte[] json) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(json.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(json);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            if (parts[0].trim().equalsIgnoreCase("gzip")) {
+                // Only an explicit q=0 refuses it
+                return parts.length < 2 || !parts[1].trim().matches("q=0(\\.0*)?");
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Drops the response of a message and the feed of the account that posted it.
+     */
+    @Override
+    public void messageChanged(int messageId, int postedBy) {
+        invalidate(messageKey(messageId));
+        invalidate(feedKey(postedBy));
+    }
+
+    /**
+     * Drops a response and moves its key to a new version.
+     *
+     * @param key The response key.
+     */
+    public void invalidate(long key) {
+        versions.incrementAndGet(stripe(key));
+        synchronized (entries) {
+            Entry removed = entries.remove(key);
+            if (removed != null) {
+                bytes -= removed.size();
+            }
+        }
+    }
+
+    // Called with the lock held
+    private void evict() {
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            bytes -= eldest.next().size();
+            eldest.remove();
+            evictions.increment();
+        }
+    }
+
+    private static int stripe(long key) {
+        long mixed = key * 0x9E3779B97F4A7C15L;
+        return (int) (mixed >>> 54) & (VERSION_STRIPES - 1);
+    }
+
+    /**
+     * @return the size, limits and hit counts of the cache.
+     */
+    public Map<String, Object> describe() {
+        Map<String, Object> description = new LinkedHashMap<>();
+        synchronized (entries) {
+            description.put("entries", entries.size());
+            description.put("bytes", bytes);
+        }
+        description.put("maxBytes", maxBytes);
+        description.put("hits", hits.sum());
+        description.put("misses", misses.sum());
+        description.put("evictions", evictions.sum());
+        return description;
+    }
+}
@@ -1,29 +1,101 @@
 package Controller;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import DAO.MessageDao;
 import Model.Account;
 import Model.Message;
+import Model.MessageView;
+import Service.AccountDeletionJob;
 import Service.AccountService;
 import Service.MessageService;
+import Service.PermissionDeniedException;
+import Service.ReactionService;
+import Service.ServiceBusyException;
 import Service.ServiceException;
+import Service.VersionConflictException;
+import Service.SessionTokenService;
+import Util.AppConfig;
 import io.javalin.Javalin;
 import io.javalin.http.Context;
+import io.javalin.json.JavalinJackson;
 
 public class SocialMediaController {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(SocialMediaController.class);
+
+    // Page sizes for the time-range and recent message queries
+    private static final int DEFAULT_PAGE_SIZE = 20;
+    private static final int MAX_PAGE_SIZE = 1000;
+    // The most IDs one multi-get request may ask for
+    private static final int MAX_LOOKUP_IDS = AppConfig.getInt("messages.multiget.max-ids", 1000);
+    // Where the IDs of a multi-get too long for a query string are POSTed; a read, for the filters
+    static final String MESSAGE_LOOKUP_PATH = "/messages/lookup";
+
     // Instances for handling account-related and message-related operations
     private final AccountService accountService;
     private final MessageService messageService;
+    // Sheds load before it reaches the endpoint handlers
+    private final AdmissionController admissionController;
+    // Per-IP and per-account limits on the write routes
+    private final RateLimitFilter rateLimitFilter;
+    // Issues and verifies the stateless tokens returned by /login
+    private final SessionTokenService sessionTokenService;
+    private final AuthFilter authFilter;
+    // Read-your-writes consistency when reads are served by replicas
+    private final ConsistencyFilter consistencyFilter;
+    // Operational endpoints under /admin
+    private final AdminController adminController;
+    // Likes, and their counts written into every message response
+    private final ReactionService reactionService;
+    private final ObjectMapper jsonMapper;
+    // Writes the message lists of the busiest endpoints straight to bytes
+    private final MessageJsonWriter messageJsonWriter;
+    // Encoded single-message and account-feed responses, dropped by the services when a message changes
+    private final ResponseCache responseCache;
+    // Runs POST /messages as bounded stages, refusing requests when the first one is full
+    private final MessageCreationPipeline creationPipeline;
 
     public SocialMediaController() {
         // Initialize the accountService and messageService instances
         this.accountService = new AccountService();
         this.messageService = new MessageService();
+        this.admissionController = new AdmissionController();
+        this.rateLimitFilter = new RateLimitFilter();
+        this.sessionTokenService = new SessionTokenService();
+        this.authFilter = new AuthFilter(sessionTokenService, accountService::isAccountDeleted);
+        this.consistencyFilter = new ConsistencyFilter();
+        this.reactionService = new ReactionService();
+        this.jsonMapper = new ObjectMapper().registerModule(new MessageJsonModule(reactionService::getLikes));
+        this.messageJsonWriter = new MessageJsonWriter(reactionService::getLikes);
+        this.responseCache = new ResponseCache();
+        messageService.addChangeListener(responseCache);
+        reactionService.addChangeListener(responseCache);
+        // A deleted message's likes go with it
+        messageService.addDeletionListener(reactionService::messageDeleted);
+        // Messages deleted with their account leave the message service's state, and so the cache, like others
+        accountService.addMessageDeletionListener(messageService::messageDeleted);
+        this.creationPipeline = new MessageCreationPipeline(jsonMapper, accountService, messageService,
+                rateLimitFilter);
+        this.adminController = new AdminController(messageService.getHotFeeds(), creationPipeline);
     }
 
     /**
@@ -33,21 +105,99 @@ public class SocialMediaController {
      * @return an instance of Javalin with predefined endpoints.
      */
     public Javalin startAPI() {
-        Javalin app = Javalin.create();
+        Javalin app = Javalin.create(config -> config.jsonMapper(new JavalinJackson(jsonMapper)));
+        app.before(rateLimitFilter::limitByIp);
+        app.before(authFilter::authenticate);
+        app.before(consistencyFilter::before);
+        app.before(admissionController::admit);
+        app.after(admissionController::complete);
+        app.after(consistencyFilter::after);
+        app.exception(RequestRejectedException.class, this::rejectRequest);
         app.post("/register", this::registerAccount);
         app.post("/login", this::loginAccount);
         app.post("/messages", this::createMessage);
         app.get("/messages", this::getAllMessages);
+        app.post(MESSAGE_LOOKUP_PATH, this::lookUpMessages);
+        // Registered before /messages/{message_id} so that "recent" is not taken for an ID
+        app.get("/messages/recent", this::getRecentMessages);
         app.get("/messages/{message_id}", this::getMessageById);
         app.delete("/messages/{message_id}", this::deleteMessageById);
         app.patch("/messages/{message_id}", this::updateMessageById);
+        app.get("/messages/{message_id}/history", this::getMessageHistory);
+        app.post("/messages/{message_id}/likes", this::likeMessage);
+        app.delete("/messages/{message_id}/likes", this::unlikeMessage);
         app.get("/accounts/{account_id}/messages",
                 this::getMessagesByAccountId);
+        app.delete("/accounts/{account_id}", this::deleteAccount);
+        app.get("/accounts/{account_id}/deletion", this::getAccountDeletion);
+        app.get("/accounts/{account_id}/stats", this::getAccountStats);
+        adminController.register(app);
+        app.events(event -> event.serverStopped(() -> {
+            creationPipeline.stop();
+            rateLimitFilter.stop();
+            messageService.stop();
+        }));
 
         return app;
 
     }
 
+    /**
+     * This method loads what the first requests would otherwise pay for: the
+     * Jackson readers and writers of the models and the prepared statements of
+     * the most common lookups. Main runs it in the background once the server is
+     * listening, so it never delays readiness.
+     */
+    public void warmUp() {
+        long started = System.nanoTime();
+        try {
+            jsonMapper.readValue(jsonMapper.writeValueAsBytes(new Message(1, 1, "warm-up", 0L)), Message.class);
+            jsonMapper.readValue(jsonMapper.writeValueAsBytes(new Account(1, "warm-up", "warm-up")), Account.class);
+            messageService.getLatestMessages(1);
+            warmUpLookup(() -> messageService.getMessageById(0));
+            warmUpLookup(() -> accountService.getAccountById(0));
+            LOGGER.info("Warmed up in {} ms", (System.nanoTime() - started) / 1_000_000);
+        } catch (IOException | RuntimeException e) {
+            // Only the first requests get slower
+            LOGGER.warn("Warm-up failed", e);
+        }
+    }
+
+    private static void warmUpLookup(Runnable lookup) {
+        try {
+            lookup.run();
+        } catch (ServiceException e) {
+            // There is no row 0; the lookup only had to prepare its statement
+        }
+    }
+
+    /**
+     * This method turns a RequestRejectedException thrown by one of the request
+     * filters into a response with an empty body, the rejection status and the
+     * headers telling the client when to retry.
+     *
+     * @param e   the rejection raised by the filter
+     * @param ctx the Javalin context object representing the current HTTP request
+     *            and response
+     */
+    private void rejectRequest(RequestRejectedException e, Context ctx) {
+        e.getHeaders().forEach(ctx::header);
+        ctx.status(e.getStatus());
+        ctx.result("");
+    }
+
+    /**
+     * This method responds with 503 (Service Unavailable) and a Retry-After
+     * header when the service layer refused work because it is saturated.
+     *
+     * @param ctx the Javalin context object representing the current HTTP request
+     *            and response
+     */
+    private void serviceBusy(Context ctx) {
+        ctx.header("Retry-After", "1");
+        ctx.status(503);
+    }
+
     /**
      * This method handles the registration process for new users.
      * It expects a POST request to "/register" with the new account details in the
@@ -59,13 +209,15 @@ public class SocialMediaController {
      *                                 serialization
      */
     private void registerAccount(Context ctx) throws JsonProcessingException {
-        ObjectMapper mapper = new ObjectMapper();
-        Account account = mapper.readValue(ctx.body(), Account.class);
+        Account account = jsonMapper.readValue(ctx.body(), Account.class);
         try {
             Account registeredAccount = accountService.createAccount(account);
 
             // Send the registered account as a JSON response
-            ctx.json(mapper.writeValueAsString(registeredAccount));
+            ctx.json(jsonMapper.writeValueAsString(registeredAccount));
+        } catch (ServiceBusyException e) {
+            // The password hashing pool is saturated; ask the client to retry
+            serviceBusy(ctx);
         } catch (ServiceException e) {
             // Set the response status to 400 (Bad Request) in case of exception
             ctx.status(400);
@@ -75,7 +227,9 @@ public class SocialMediaController {
     /**
      * This method handles the login process for users.
      * It expects a POST request to "/login" with the account credentials in the
-     * request body.
+     * request body. On success a signed session token is returned in the
+     * X-Auth-Token response header; clients send it back as
+     * "Authorization: Bearer <token>". No session state is kept on the server.
      *
      * @param ctx the Javalin context object representing the current HTTP request
      *            and response
@@ -83,23 +237,24 @@ public class SocialMediaController {
      *                                 serialization
      */
     private void loginAccount(Context ctx) throws JsonProcessingException {
-        ObjectMapper mapper = new ObjectMapper(); // it calls a default no-arg constructor from Model.Account - REQUIRED
-                                                  // for Jackson ObjectMapper
-        Account account = mapper.readValue(ctx.body(), Account.class);
+        // it calls a default no-arg constructor from Model.Account - REQUIRED for Jackson ObjectMapper
+        Account account = jsonMapper.readValue(ctx.body(), Account.class);
 
         try {
             Optional<Account> loggedInAccount = accountService
                     .validateLogin(account);
             if (loggedInAccount.isPresent()) {
                 // Send the logged-in account as a JSON response
-                ctx.json(mapper.writeValueAsString(loggedInAccount));
-                ctx.sessionAttribute("logged_in_account",
-                        loggedInAccount.get());
+                ctx.header("X-Auth-Token",
+                        sessionTokenService.issue(loggedInAccount.get().getAccount_id()));
                 ctx.json(loggedInAccount.get());
             } else {
                 // Set the response status to 401 (Unauthorized) if the account is not found
                 ctx.status(401);
             }
+        } catch (ServiceBusyException e) {
+            // The password hashing pool is saturated; ask the client to retry
+            serviceBusy(ctx);
         } catch (ServiceException e) {
             // Set the response status to 401 (Unauthorized) in case of exception
             ctx.status(401);
@@ -109,55 +264,271 @@ public class SocialMediaController {
     /**
      * This method handles the creation of new messages.
      * It expects a POST request to "/messages" with the message details in the
-     * request body.
+     * request body. The request is handed to the creation pipeline and answered
+     * once its last stage is done; when the pipeline is full it is refused with
+     * 503 (Service Unavailable) and a Retry-After header instead.
      *
      * @param ctx the Javalin context object representing the current HTTP request
      *            and response
-     * @throws JsonProcessingException if an error occurs during JSON parsing or
-     *                                 serialization
      */
-    private void createMessage(Context ctx) throws JsonProcessingException {
-        ObjectMapper mapper = new ObjectMapper();
-        Message mappedMessage = mapper.readValue(ctx.body(), Message.class);
+    private void createMessage(Context ctx) {
+        MessageCreationPipeline.Creation creation = creationPipeline.submit(ctx.bodyAsBytes(),
+                AuthFilter.authenticatedAccount(ctx));
+        if (creation == null) {
+            throw new RequestRejectedException(503, "Message creation pipeline full",
+                    Collections.singletonMap("Retry-After", "1"));
+        }
+        // The stages do not touch the context: what they found for the response is set here, once they are done
+        ctx.future(() -> creation.getDone().handle((done, failure) -> {
+            rateLimitFilter.setLimitHeaders(ctx, RateLimitFilter.CREATE_MESSAGE, creation.getLimitRemaining());
+            consistencyFilter.noteWrite(ctx, creation.getWriteLsn());
+            if (failure == null) {
+                ctx.json(creation.getCreated());
+                return null;
+            }
+            Throwable cause = failure instanceof CompletionException && failure.getCause() != null
+                    ? failure.getCause() : failure;
+            if (cause instanceof RequestRejectedException) {
+                rejectRequest((RequestRejectedException) cause, ctx);
+            } else if (cause instanceof ServiceBusyException || cause instanceof RejectedExecutionException) {
+                // Saturated, or the pipeline was stopped with the request still in it
+                serviceBusy(ctx);
+            } else if (cause instanceof ServiceException) {
+                // Set the response status to 400 (Bad Request) in case of exception
+                ctx.status(400);
+            } else {
+                LOGGER.error("Message creation failed", cause);
+                ctx.status(500);
+            }
+            return null;
+        }));
+    }
+
+    /**
+     * This method retrieves all messages.
+     * It expects a GET request to "/messages". When any of the since, until or
+     * limit query parameters is given, only the messages posted in that
+     * time_posted_epoch range are returned, newest first, and they are streamed
+     * to the response as they are read from the database. With an ids query
+     * parameter holding comma-separated message IDs, only those messages are
+     * returned (see writeMessagesByIds).
+     *
+     * @param ctx the Javalin context object representing the current HTTP request
+     *            and response
+     * @throws IOException if an error occurs while writing the response
+     */
+    private void getAllMessages(Context ctx) throws IOException {
+        String ids = ctx.queryParam("ids");
+        if (ids != null) {
+            List<Integer> messageIds = new ArrayList<>();
+            try {
+                for (String id : ids.split(",")) {
+                    if (!id.trim().isEmpty()) {
+                        messageIds.add(Integer.parseInt(id.trim()));
+                    }
+                }
+            } catch (NumberFormatException e) {
+                ctx.status(400);
+                return;
+            }
+            writeMessagesByIds(ctx, messageIds);
+            return;
+        }
+        if (ctx.queryParam("since") == null && ctx.queryParam("until") == null
+                && ctx.queryParam("limit") == null) {
+            List<Message> messages = messageService.getAllMessages();
+            ctx.contentType("application/json");
+            messageJsonWriter.writeMessages(messages, ctx.outputStream());
+            return;
+        }
+        long since;
+        long until;
+        int limit;
+        try {
+            since = parseLongParam(ctx, "since", Long.MIN_VALUE);
+            until = parseLongParam(ctx, "until", Long.MAX_VALUE);
+            limit = (int) Math.min(MAX_PAGE_SIZE, parseLongParam(ctx, "limit", DEFAULT_PAGE_SIZE));
+        } catch (NumberFormatException e) {
+            ctx.status(400);
+            return;
+        }
+        if (since > until || limit < 1) {
+            ctx.status(400);
+            return;
+        }
+        ctx.contentType("application/json");
+        try (JsonGenerator generator = jsonMapper.getFactory().createGenerator(ctx.outputStream())) {
+            generator.writeStartArray();
+            messageService.streamMessagesInRange(since, until, limit, message -> {
+                try {
+                    generator.writeObject(message);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            generator.writeEndArray();
+        }
+    }
+
+    /**
+     * This method retrieves many messages by ID, for ID lists too long for
+     * the query string of GET "/messages?ids=...".
+     * It expects a POST request to "/messages/lookup" with a body of the form
+     * {"ids": [1, 2, 3]}. It reads nothing but messages, so it needs no token.
+     *
+     * @param ctx the Javalin context object representing the current HTTP request
+     *            and response
+     * @throws IOException if an error occurs during JSON parsing or while writing
+     *                     the response
+     */
+    private void lookUpMessages(Context ctx) throws IOException {
+        JsonNode ids = jsonMapper.readTree(ctx.body()).path("ids");
+        if (!ids.isArray()) {
+            ctx.status(400);
+            return;
+        }
+        List<Integer> messageIds = new ArrayList<>(ids.size());
+        for (JsonNode id : ids) {
+            if (!id.canConvertToInt()) {
+                ctx.status(400);
+                return;
+            }
+            messageIds.add(id.asInt());
+        }
+        writeMessagesByIds(ctx, messageIds);
+    }
+
+    /**
+     * Responds with the messages of the given IDs as a JSON array, in the
+     * order the IDs were first given; unknown IDs are left out. The encoded
+     * messages GET "/messages/{message_id}" keeps in the response cache are
+     * used as they are, and the rest are read in one batch and cached in turn.
+     * More than messages.multiget.max-ids IDs are refused with 400.
+     *
+     * @param ctx the Javalin context object representing the current HTTP request
+     *            and response
+     * @param ids the requested message IDs
+     * @throws IOException if an error occurs while writing the response
+     */
+    private void writeMessagesByIds(Context ctx, List<Integer> ids) throws IOException {
+        List<Integer> requested = new ArrayList<>(new LinkedHashSet<>(ids));
+        if (requested.size() > MAX_LOOKUP_IDS) {
+            ctx.status(400);
+            return;
+        }
+        byte[][] encoded = new byte[requested.size()][];
+        List<Integer> missing = new ArrayList<>();
+        Map<Integer, Long> versions = new HashMap<>();
+        for (int i = 0; i < requested.size(); i++) {
+            long key = ResponseCache.messageKey(requested.get(i));
+            ResponseCache.Entry cached = responseCache.get(key);
+            if (cached != null) {
+                encoded[i] = cached.getJson();
+            } else {
+                missing.add(requested.get(i));
+                versions.put(requested.get(i), responseCache.version(key));
+            }
+        }
         try {
-            Optional<Account> account = accountService
-                    .getAccountById(mappedMessage.getPosted_by());
-            Message message = messageService.createMessage(mappedMessage,
-                    account);
-            ctx.json(message);
+            if (!missing.isEmpty()) {
+                Map<Integer, byte[]> loaded = new HashMap<>();
+                for (Message message : messageService.getMessagesByIds(missing)) {
+                    long key = ResponseCache.messageKey(message.getMessage_id());
+                    byte[] json = jsonMapper.writeValueAsBytes(message);
+                    responseCache.put(key, versions.get(message.getMessage_id()), json);
+                    loaded.put(message.getMessage_id(), json);
+                }
+                for (int i = 0; i < requested.size(); i++) {
+                    if (encoded[i] == null) {
+                        encoded[i] = loaded.get(requested.get(i));
+                    }
+                }
+            }
         } catch (ServiceException e) {
-            // Set the response status to 400 (Bad Request) in case of exception
             ctx.status(400);
+            return;
         }
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.write('[');
+        boolean first = true;
+        for (byte[] message : encoded) {
+            if (message != null) {
+                if (!first) {
+                    body.write(',');
+                }
+                body.write(message);
+                first = false;
+            }
+        }
+        body.write(']');
+        ctx.contentType("application/json");
+        body.writeTo(ctx.outputStream());
     }
 
     /**
-     * This method retrieves all messages.
-     * It expects a GET request to "/messages".
+     * This method retrieves the most recently posted messages, newest first.
+     * It expects a GET request to "/messages/recent" with an optional limit query
+     * parameter. Pages that fit in the service's recent-messages window never
+     * reach the database.
      *
      * @param ctx the Javalin context object representing the current HTTP request
      *            and response
+     * @throws IOException if an error occurs while writing the response
      */
-    private void getAllMessages(Context ctx) {
+    private void getRecentMessages(Context ctx) throws IOException {
+        try {
+            int limit = (int) Math.min(MAX_PAGE_SIZE, parseLongParam(ctx, "limit", DEFAULT_PAGE_SIZE));
+            List<MessageView> messages = messageService.getLatestMessages(limit);
+            ctx.contentType("application/json");
+            messageJsonWriter.writeViews(messages, ctx.outputStream());
+        } catch (NumberFormatException | ServiceException e) {
+            ctx.status(400);
+        }
+    }
 
-        List<Message> messages = messageService.getAllMessages();
-        ctx.json(messages);
+    /**
+     * Parses an optional numeric query parameter.
+     *
+     * @param ctx          the Javalin context object representing the current HTTP
+     *                     request and response
+     * @param name         the query parameter name
+     * @param defaultValue the value used when the parameter is absent
+     * @return the parsed value
+     * @throws NumberFormatException if the parameter is present but not a number
+     */
+    private static long parseLongParam(Context ctx, String name, long defaultValue) {
+        String value = ctx.queryParam(name);
+        return value == null || value.isEmpty() ? defaultValue : Long.parseLong(value);
     }
 
     /**
      * This method handles the retrieval of a specific message by its ID.
-     * It expects a GET request to "/messages/{message_id}".
+     * It expects a GET request to "/messages/{message_id}". The encoded
+     * response is cached until the message or its like count changes. The
+     * message's version is sent in the ETag header, to be named in the If-Match
+     * header of a later update.
      *
      * @param ctx the Javalin context object representing the current HTTP request
      *            and response
+     * @throws IOException if an error occurs while writing the response
      */
 
-    private void getMessageById(Context ctx) {
+    private void getMessageById(Context ctx) throws IOException {
         try {
             int id = Integer.parseInt(ctx.pathParam("message_id"));
-            Optional<Message> message = messageService.getMessageById(id);
+            long key = ResponseCache.messageKey(id);
+            ResponseCache.Entry cached = responseCache.get(key);
+            if (cached != null) {
+                responseCache.write(key, cached, ctx);
+                return;
+            }
+            long version = responseCache.version(key);
+            // The version comes from the same row as the body, so the ETag always names the version sent
+            Optional<MessageDao.VersionedMessage> message = messageService.getVersionedMessageById(id);
             if (message.isPresent()) {
-                ctx.json(message.get());
+                String etag = "\"" + message.get().getVersion() + "\"";
+                responseCache.write(key, responseCache.put(key, version,
+                        jsonMapper.writeValueAsBytes(message.get().getMessage()), etag), ctx);
             } else {
                 // If the message is not found, set the response status to 200 (OK)
                 ctx.status(200); // As per test expectations, return a 200 status even if the message is not
@@ -178,7 +549,9 @@ public class SocialMediaController {
 
     /**
      * This method handles the deletion of a specific message by its ID.
-     * It expects a DELETE request to "/messages/{message_id}".
+     * It expects a DELETE request to "/messages/{message_id}". A request whose
+     * session token is for another account than the message's author is
+     * refused with 403 (Forbidden).
      *
      * @param ctx the Javalin context object representing the current HTTP request
      *            and response
@@ -191,8 +564,13 @@ public class SocialMediaController {
             // Attempt to retrieve the message by its ID
             Optional<Message> message = messageService.getMessageById(id);
             if (message.isPresent()) {
-                // The message exists, so delete it
-                messageService.deleteMessage(message.get());
+                // The message exists, so delete it, as its author when the request carries a token
+                Optional<Integer> principal = AuthFilter.authenticatedAccount(ctx);
+                if (principal.isPresent()) {
+                    messageService.deleteMessage(message.get(), principal.get());
+                } else {
+                    messageService.deleteMessage(message.get());
+                }
                 ctx.status(200);
                 // Include the deleted message in the response body
                 ctx.json(message.get());
@@ -201,6 +579,9 @@ public class SocialMediaController {
                 // Set the response status to 200 (OK) to indicate successful deletion
                 ctx.status(200);
             }
+        } catch (PermissionDeniedException e) {
+            // The token is for another account than the message's author
+            ctx.status(403);
         } catch (ServiceException e) {
             // An exception occurred during the deletion process
             // Set the response status to 200 (OK) to handle the exception gracefully
@@ -211,7 +592,10 @@ public class SocialMediaController {
     /**
      * This method handles the update of a specific message by its ID.
      * It expects a PATCH request to "/messages/{message_id}" with the new content
-     * of the message in the request body.
+     * of the message in the request body. An optional If-Match header holding a
+     * version number (as listed by the history endpoint) makes the update
+     * conditional: it fails with 412 (Precondition Failed) if the message has
+     * been changed since, and succeeds with the new version in the ETag header.
      *
      * @param ctx the Javalin context object representing the current HTTP request
      *            and response
@@ -219,20 +603,40 @@ public class SocialMediaController {
      *                                 serialization
      */
     private void updateMessageById(Context ctx) throws JsonProcessingException {
-        ObjectMapper mapper = new ObjectMapper();
-        Message mappedMessage = mapper.readValue(ctx.body(), Message.class);
+        Message mappedMessage = jsonMapper.readValue(ctx.body(), Message.class);
         try {
             int id = Integer.parseInt(ctx.pathParam("message_id"));
             mappedMessage.setMessage_id(id);
 
-            // Update the message with the new content
-            Message messageUpdated = messageService
-                    .updateMessage(mappedMessage);
+            Optional<Integer> principal = AuthFilter.authenticatedAccount(ctx);
+            Optional<Integer> expectedVersion = parseIfMatch(ctx);
+            Message messageUpdated;
+            if (!principal.isPresent()) {
+                // Update the message with the new content, charged to the account that owns it once the service
+                // has read it, and only if nobody changed it since the version the client saw, if one was given
+                messageUpdated = messageService.updateMessage(mappedMessage, expectedVersion, author -> rateLimitFilter
+                        .limitByAccount(ctx, RateLimitFilter.UPDATE_MESSAGE, author));
+            } else if (expectedVersion.isPresent()) {
+                rateLimitFilter.limitByAccount(ctx, RateLimitFilter.UPDATE_MESSAGE, principal.get());
+                // Update the message only if nobody changed it since the version the client saw
+                messageUpdated = messageService.updateMessage(mappedMessage, principal, expectedVersion.get());
+            } else {
+                rateLimitFilter.limitByAccount(ctx, RateLimitFilter.UPDATE_MESSAGE, principal.get());
+                // Update the message with the new content, as its author
+                messageUpdated = messageService.updateMessage(mappedMessage, principal.get());
+            }
+            expectedVersion.ifPresent(version -> ctx.header("ETag", "\"" + (version + 1) + "\""));
 
             // Set the response status to 200 (OK) and include the updated message in the
             // response body
             ctx.json(messageUpdated);
 
+        } catch (VersionConflictException e) {
+            // The message changed since the version named in If-Match
+            ctx.status(412);
+        } catch (NumberFormatException e) {
+            // The message_id or the If-Match version is not a number
+            ctx.status(400);
         } catch (ServiceException e) {
             // An exception occurred during the update process
             // Set the response status to 400 (Bad Request) to indicate a failure in the
@@ -241,30 +645,211 @@ public class SocialMediaController {
         }
     }
 
+    /**
+     * Parses the optional If-Match header of a conditional update. The version
+     * may be quoted like an entity tag ("3") or bare (3).
+     *
+     * @param ctx the Javalin context object representing the current HTTP request
+     *            and response
+     * @return the expected version, or empty if the header is absent
+     * @throws NumberFormatException if the header does not hold a version number
+     */
+    private Optional<Integer> parseIfMatch(Context ctx) {
+        String ifMatch = ctx.header("If-Match");
+        if (ifMatch == null || ifMatch.trim().isEmpty()) {
+            return Optional.empty();
+        }
+        return Optional.of(Integer.parseInt(ifMatch.trim().replace("\"", "")));
+    }
+
+    /**
+     * This method retrieves the versions of a message, newest first: its current
+     * text followed by the texts earlier updates replaced.
+     * It expects a GET request to
+     * "/messages/{message_id}/history?before={version}&limit={n}"; both
+     * parameters are optional, and the next page starts before the lowest
+     * version returned.
+     *
+     * @param ctx the Javalin context object representing the current HTTP request
+     *            and response
+     */
+    private void getMessageHistory(Context ctx) {
+        try {
+            int id = Integer.parseInt(ctx.pathParam("message_id"));
+            int before = (int) Math.min(Integer.MAX_VALUE, parseLongParam(ctx, "before", Integer.MAX_VALUE));
+            int limit = (int) Math.min(MAX_PAGE_SIZE, parseLongParam(ctx, "limit", DEFAULT_PAGE_SIZE));
+            if (limit < 1) {
+                ctx.status(400);
+                return;
+            }
+            ctx.json(messageService.getMessageHistory(id, before, limit));
+        } catch (NumberFormatException e) {
+            ctx.status(400);
+        } catch (ServiceException e) {
+            // The message does not exist
+            ctx.status(404);
+        }
+    }
+
     /**
      * This method retrieves all messages associated with a specific account ID.
-     * It expects a GET request to "/accounts/{account_id}/messages".
+     * It expects a GET request to "/accounts/{account_id}/messages". The encoded
+     * response is cached until one of the account's messages changes.
      *
      * @param ctx the Javalin context object representing the current HTTP request
      *            and response
+     * @throws IOException if an error occurs while writing the response
      */
-    private void getMessagesByAccountId(Context ctx) {
+    private void getMessagesByAccountId(Context ctx) throws IOException {
         try {
             int accountId = Integer.parseInt(ctx.pathParam("account_id"));
+            long key = ResponseCache.feedKey(accountId);
+            ResponseCache.Entry cached = responseCache.get(key);
+            if (cached != null) {
+                responseCache.write(key, cached, ctx);
+                return;
+            }
+            long version = responseCache.version(key);
 
             // Call the messageService to retrieve messages by account ID
             List<Message> messages = messageService
                     .getMessagesByAccountId(accountId);
-            if (!messages.isEmpty()) {
-                // If messages are found, send them as a JSON response
-                ctx.json(messages);
+            // Send them as a JSON response; an account without messages gets an empty array
+            responseCache.write(key, responseCache.put(key, version, messageJsonWriter.toBytes(messages)), ctx);
+        } catch (ServiceException e) {
+            // Handle ServiceException and set the status code to 400 (Bad Request)
+            ctx.status(400);
+        }
+    }
+
+    /**
+     * This method likes a message on behalf of the authenticated account.
+     * It expects a POST request to "/messages/{message_id}/likes" carrying a
+     * bearer token. Liking the same message twice counts once.
+     *
+     * @param ctx the Javalin context object representing the current HTTP request
+     *            and response
+     */
+    private void likeMessage(Context ctx) {
+        react(ctx, true);
+    }
+
+    /**
+     * This method withdraws the authenticated account's like of a message.
+     * It expects a DELETE request to "/messages/{message_id}/likes" carrying a
+     * bearer token.
+     *
+     * @param ctx the Javalin context object representing the current HTTP request
+     *            and response
+     */
+    private void unlikeMessage(Context ctx) {
+        react(ctx, false);
+    }
+
+    private void react(Context ctx, boolean like) {
+        try {
+            int messageId = Integer.parseInt(ctx.pathParam("message_id"));
+            Optional<Integer> principal = AuthFilter.authenticatedAccount(ctx);
+            if (!principal.isPresent()) {
+                // A like belongs to an account, so it always requires a token
+                ctx.header("WWW-Authenticate", "Bearer");
+                ctx.status(401);
+                return;
+            }
+            long likes = like ? reactionService.like(messageId, principal.get())
+                    : reactionService.unlike(messageId, principal.get());
+            ctx.json(Map.of("message_id", messageId, "likes", likes, "liked", like));
+        } catch (NumberFormatException e) {
+            ctx.status(400);
+        } catch (ServiceException e) {
+            // The message does not exist
+            ctx.status(404);
+        }
+    }
+
+    /**
+     * This method retrieves the message count, latest posting time and total
+     * characters of an account. It expects a GET request to
+     * "/accounts/{account_id}/stats" and answers 404 for an unknown account.
+     *
+     * @param ctx the Javalin context object representing the current HTTP request
+     *            and response
+     */
+    private void getAccountStats(Context ctx) {
+        try {
+            int accountId = Integer.parseInt(ctx.pathParam("account_id"));
+            if (!accountService.getAccountById(accountId).isPresent()) {
+                ctx.status(404);
+                return;
+            }
+            ctx.json(messageService.getAccountStats(accountId));
+        } catch (NumberFormatException e) {
+            ctx.status(400);
+        } catch (ServiceException e) {
+            ctx.status(400);
+        }
+    }
+
+    /**
+     * This method starts the deletion of an account and everything it posted.
+     * It expects a DELETE request to "/accounts/{account_id}" carrying a bearer
+     * token of that same account. The account is gone from every endpoint at
+     * once; its messages are removed in the background, and the response (202
+     * Accepted) holds the progress of that work.
+     *
+     * @param ctx the Javalin context object representing the current HTTP request
+     *            and response
+     */
+    private void deleteAccount(Context ctx) {
+        try {
+            int accountId = Integer.parseInt(ctx.pathParam("account_id"));
+            Optional<Integer> principal = AuthFilter.authenticatedAccount(ctx);
+            if (!principal.isPresent()) {
+                // Deleting an account always requires its token
+                ctx.header("WWW-Authenticate", "Bearer");
+                ctx.status(401);
+                return;
+            }
+            if (principal.get() != accountId) {
+                ctx.status(403);
+                return;
+            }
+            Optional<Account> account = accountService.getAccountById(accountId);
+            if (account.isPresent()) {
+                accountService.deleteAccount(account.get());
+            }
+            // Repeating the request reports the deletion already under way
+            Optional<AccountDeletionJob.Progress> progress = accountService.getDeletionProgress(accountId);
+            if (progress.isPresent()) {
+                ctx.status(202);
+                ctx.json(progress.get().describe());
             } else {
-                // If no messages are found, send an empty JSON response
-                ctx.json(messages);
-                ctx.status(200);
+                ctx.status(404);
             }
+        } catch (NumberFormatException e) {
+            ctx.status(400);
         } catch (ServiceException e) {
-            // Handle ServiceException and set the status code to 400 (Bad Request)
+            ctx.status(400);
+        }
+    }
+
+    /**
+     * This method reports the progress of an account's deletion.
+     * It expects a GET request to "/accounts/{account_id}/deletion".
+     *
+     * @param ctx the Javalin context object representing the current HTTP request
+     *            and response
+     */
+    private void getAccountDeletion(Context ctx) {
+        try {
+            int accountId = Integer.parseInt(ctx.pathParam("account_id"));
+            Optional<AccountDeletionJob.Progress> progress = accountService.getDeletionProgress(accountId);
+            if (progress.isPresent()) {
+                ctx.json(progress.get().describe());
+            } else {
+                ctx.status(404);
+            }
+        } catch (NumberFormatException e) {
             ctx.status(400);
         }
     }
@@ -1,30 +1,56 @@
 package DAO;
 
 import Model.Account;
-import Util.ConnectionUtil;
+import Util.ConnectionPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
-import java.sql.Statement;
 import java.sql.SQLException;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Objects;
 import java.util.Optional;
 
 // Created a DAO classes for each table in the SocialMedia.sql database (Account, Message).
 // This class implements the CRUD (Create, Retrieve, Update, Delete) operations for the Account table in the database.
-// Each method creates a PreparedStatement object using the try-with-resources, which helps prevent
-// resource leaks.
+// Each method takes its PreparedStatement from the StatementCache, which prepares each registered Query once per
+// connection, and closes the ResultSet it opens using try-with-resources, which helps prevent resource leaks.
+// Reads may be served by a read replica (see ReplicaSet); writes go to the primary and are logged for the replicas.
 
 public class AccountDao implements BaseDao<Account> {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(AccountDao.class);
 
+    // Converts the current ResultSet row into an Account, reading the columns by index in the order every
+    // account Query selects them: account_id, username, password.
+    static final RowMapper<Account> ACCOUNT_MAPPER = rs -> new Account(
+            rs.getInt(1),
+            rs.getString(2),
+            rs.getString(3));
+
+    private final ReplicaSet replicas;
+    // Records every insert, update and delete as a ChangeEvent
+    private final ChangeCapture capture;
+
+    public AccountDao() {
+        this(ReplicaSet.getDefault(), ChangeCapture.getDefault());
+    }
+
+    // Constructor that reads through the given replicas. Useful for testing purposes.
+    public AccountDao(ReplicaSet replicas) {
+        this(replicas, ChangeCapture.disabled());
+    }
+
+    // Constructor that reads through the given replicas and records mutations in the given change log. Useful for
+    // testing purposes.
+    public AccountDao(ReplicaSet replicas, ChangeCapture capture) {
+        this.replicas = replicas;
+        this.capture = capture;
+    }
+
     // Helper method to handle SQLException
     private void handleSQLException(SQLException e, String sql, String errorMessage) {
         LOGGER.error("SQLException Details: {}", e.getMessage());
@@ -35,10 +61,13 @@ public class AccountDao implements BaseDao<Account> {
     }
 
     /*
-     * The try-with-resources statement is used for 'PreparedStatement',
-     * and 'ResultSet' objects. This ensures that each resource will be properly
-     * closed even if an exception is thrown, thereby helping to prevent resource
-     * leaks in the application.
+     * The try-with-resources statement is used for 'ResultSet' objects. This
+     * ensures that each result will be properly closed even if an exception is
+     * thrown, thereby helping to prevent resource leaks in the application.
+     *
+     * 'PreparedStatement' objects are not closed: they come from the
+     * StatementCache, which keeps them open so they can be reused by the next
+     * call on the same thread and connection.
      *
      * The 'Connection' object isn't included in the try-with-resources block.
      * This is because we're using a singleton connection pattern via the
@@ -57,9 +86,52 @@ public class AccountDao implements BaseDao<Account> {
      * management
      * of database connections would be crucial to prevent resource leaks.
      *
-     * The SQL string is outside the try-with-resources block because it doesn't
-     * need to be closed like the PreparedStatement or ResultSet.
+     * The SQL itself lives in the Query registry rather than in each method.
+     */
+
+    /**
+     * Runs a query expected to return at most one account on a connection
+     * borrowed from the given pool.
+     *
+     * @param pool   The pool to read from.
+     * @param query  The query.
+     * @param binder Sets the query's parameters.
+     * @return An Optional containing the account if found.
+     * @throws SQLException If the query fails.
      */
+    private Optional<Account> queryOne(ConnectionPool pool, Query query, ParameterBinder binder)
+            throws SQLException {
+        Connection conn = pool.borrow();
+        try {
+            PreparedStatement ps = StatementCache.prepare(conn, query);
+            binder.bind(ps);
+            // ResultSet is in a separate try block to ensure it gets closed after use,
+            // even if an exception is thrown during data processing.
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    return Optional.of(ACCOUNT_MAPPER.mapRow(rs));
+                }
+            }
+        } finally {
+            pool.release(conn);
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Looks an account up on a replica when one is current enough for the
+     * request, and on the primary otherwise. A miss on a replica is confirmed on
+     * the primary, because the account may have been created moments ago by
+     * another client.
+     */
+    private Optional<Account> readOne(Query query, ParameterBinder binder) throws SQLException {
+        ConnectionPool pool = replicas.forRead(ReadConsistency.required());
+        Optional<Account> account = queryOne(pool, query, binder);
+        if (!account.isPresent() && pool != replicas.primary()) {
+            account = queryOne(replicas.primary(), query, binder);
+        }
+        return account;
+    }
 
     /**
      * Retrieves an account from the database based on its ID.
@@ -71,22 +143,11 @@ public class AccountDao implements BaseDao<Account> {
     @Override
     public Optional<Account> getById(int id) {
 
-        String sql = "SELECT * FROM account WHERE account_id = ?";
-        Connection conn = ConnectionUtil.getConnection();
-        try (PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setInt(1, id);
-            // ResultSet is in a separate try block to ensure it gets closed after use,
-            // even if an exception is thrown during data processing.
-            try (ResultSet rs = ps.executeQuery()) {
-                if (rs.next()) {
-                    return Optional.of(new Account(
-                            rs.getInt("account_id"),
-                            rs.getString("username"),
-                            rs.getString("password")));
-                }
-            }
+        Query query = Query.ACCOUNT_BY_ID;
+        try {
+            return readOne(query, ps -> ps.setInt(1, id));
         } catch (SQLException e) {
-            handleSQLException(e, sql, "Error while retrieving the account with id: " + id);
+            handleSQLException(e, query.sql(), "Error while retrieving the account with id: " + id);
         }
         return Optional.empty();
     }
@@ -100,20 +161,22 @@ public class AccountDao implements BaseDao<Account> {
     @Override
     public List<Account> getAll() {
         List<Account> accounts = new ArrayList<>();
-        String sql = "SELECT * FROM account";
-        Connection conn = ConnectionUtil.getConnection();
-        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+        Query query = Query.ACCOUNT_ALL;
+        ConnectionPool pool = replicas.forRead(ReadConsistency.required());
+        Connection conn = null;
+        try {
+            conn = pool.borrow();
+            PreparedStatement ps = StatementCache.prepare(conn, query);
             try (ResultSet rs = ps.executeQuery()) {
                 while (rs.next()) {
-                    Account account = new Account(
-                            rs.getInt("account_id"),
-                            rs.getString("username"),
-                            rs.getString("password"));
+                    Account account = ACCOUNT_MAPPER.mapRow(rs);
                     accounts.add(account);
                 }
             }
         } catch (SQLException e) {
-            handleSQLException(e, sql, "Error while retrieving all the accounts");
+            handleSQLException(e, query.sql(), "Error while retrieving all the accounts");
+        } finally {
+            pool.release(conn);
         }
         return accounts;
     }
@@ -127,56 +190,11 @@ public class AccountDao implements BaseDao<Account> {
      */
     public Optional<Account> findAccountByUsername(String username) {
 
-        String sql = "SELECT * FROM account WHERE username = ?";
-        Connection conn = ConnectionUtil.getConnection();
-
-        try (PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setString(1, username);
-            try (ResultSet rs = ps.executeQuery()) {
-                if (rs.next()) {
-                    return Optional.of(new Account(
-                            rs.getInt("account_id"),
-                            rs.getString("username"),
-                            rs.getString("password")));
-                }
-            }
-        } catch (SQLException e) {
-            handleSQLException(e, sql, "Error while finding account with username: " + username);
-        }
-        return Optional.empty();
-    }
-
-    /**
-     * Validates the login credentials by checking if the provided username and
-     * password match an account in the database.
-     *
-     * @param username The username of the account.
-     * @param password The password of the account.
-     * @return An Optional object, which will contain the account if the login was
-     *         successful, otherwise it will be empty.
-     */
-    public Optional<Account> validateLogin(String username, String password) {
-        String sql = "SELECT * FROM account WHERE username = ?";
-        Connection conn = ConnectionUtil.getConnection();
-
-        try (PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setString(1, username);
-            try (ResultSet rs = ps.executeQuery()) {
-                if (rs.next()) {
-                    Account account = new Account(
-                            rs.getInt("account_id"),
-                            rs.getString("username"),
-                            rs.getString("password"));
-
-                    // Compare the provided password with the stored password in the Account object
-                    if (Objects.equals(password, account.getPassword())) {
-                        // Return an Optional containing the authenticated Account
-                        return Optional.of(account);
-                    }
-                }
-            }
+        Query query = Query.ACCOUNT_BY_USERNAME;
+        try {
+            return readOne(query, ps -> ps.setString(1, username));
         } catch (SQLException e) {
-            handleSQLException(e, sql, "Error while validating login for username: " + username);
+            handleSQLException(e, query.sql(), "Error while finding account with username: " + username);
         }
         return Optional.empty();
     }
@@ -188,19 +206,20 @@ public class AccountDao implements BaseDao<Account> {
      * @return true if the username already exists in the database; false otherwise.
      */
     public boolean doesUsernameExist(String username) {
-        String sql = "SELECT COUNT(*) FROM account WHERE username = ?";
-        Connection conn = ConnectionUtil.getConnection();
-        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+        Query query = Query.ACCOUNT_USERNAME_EXISTS;
+        Connection conn = TransactionTemplate.primaryConnection();
+        try {
+            PreparedStatement ps = StatementCache.prepare(conn, query);
             ps.setString(1, username);
             try (ResultSet rs = ps.executeQuery()) {
                 if (rs.next()) {
                     return rs.getInt(1) > 0;
                 }
             } catch (SQLException e) {
-                handleSQLException(e, sql, "Error while checking if username exists: " + username);
+                handleSQLException(e, query.sql(), "Error while checking if username exists: " + username);
             }
         } catch (SQLException e) {
-            handleSQLException(e, sql, "Error while establishing connection");
+            handleSQLException(e, query.sql(), "Error while establishing connection");
         }
         return false;
     }
@@ -214,22 +233,25 @@ public class AccountDao implements BaseDao<Account> {
      */
     @Override
     public Account insert(Account account) {
-        String sql = "INSERT INTO account (username, password) VALUES (?, ?)";
-        Connection conn = ConnectionUtil.getConnection();
-        try (PreparedStatement ps = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
-            ps.setString(1, account.getUsername());
-            ps.setString(2, account.getPassword());
-            ps.executeUpdate();
+        Query query = Query.ACCOUNT_INSERT;
+        Connection conn = TransactionTemplate.primaryConnection();
+        try {
+            return capture.record(-1, () -> replicas.write(() -> {
+                PreparedStatement ps = StatementCache.prepare(conn, query);
+                ps.setString(1, account.getUsername());
+                ps.setString(2, account.getPassword());
+                ps.executeUpdate();
 
-            // Retrieve the generated keys (auto-generated ID)
-            try (ResultSet generatedKeys = ps.getGeneratedKeys()) {
-                if (generatedKeys.next()) {
-                    int generatedAccountId = generatedKeys.getInt(1);
-                    return new Account(generatedAccountId, account.getUsername(), account.getPassword());
-                } else {
-                    throw new DaoException("Creating account failed, no ID obtained.");
+                // Retrieve the generated keys (auto-generated ID)
+                try (ResultSet generatedKeys = ps.getGeneratedKeys()) {
+                    if (generatedKeys.next()) {
+                        int generatedAccountId = generatedKeys.getInt(1);
+                        return new Account(generatedAccountId, account.getUsername(), account.getPassword());
+                    } else {
+                        throw new DaoException("Creating account failed, no ID obtained.");
+                    }
                 }
-            }
+            }, AccountDao::upsertOf), inserted -> ChangeEvent.ofAccount(ChangeEvent.INSERT, inserted));
         } catch (SQLException e) {
             throw new DaoException("Creating account failed due to SQL error", e);
         }
@@ -244,13 +266,17 @@ public class AccountDao implements BaseDao<Account> {
      */
     @Override
     public boolean update(Account account) {
-        String sql = "UPDATE account SET username = ?, password = ? WHERE account_id = ?";
-        Connection conn = ConnectionUtil.getConnection();
-        try (PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setString(1, account.getUsername());
-            ps.setString(2, account.getPassword());
-            ps.setInt(3, account.getAccount_id());
-            int affectedRows = ps.executeUpdate();
+        Query query = Query.ACCOUNT_UPDATE;
+        Connection conn = TransactionTemplate.primaryConnection();
+        try {
+            int affectedRows = capture.record(account.getAccount_id(), () -> replicas.write(() -> {
+                PreparedStatement ps = StatementCache.prepare(conn, query);
+                ps.setString(1, account.getUsername());
+                ps.setString(2, account.getPassword());
+                ps.setInt(3, account.getAccount_id());
+                return ps.executeUpdate();
+            }, rows -> rows > 0 ? upsertOf(account) : null),
+                    rows -> rows > 0 ? ChangeEvent.ofAccount(ChangeEvent.UPDATE, account) : null);
             if (affectedRows > 0) {
                 return true;
             } else {
@@ -270,14 +296,96 @@ public class AccountDao implements BaseDao<Account> {
      */
     @Override
     public boolean delete(Account account) {
-        String sql = "DELETE FROM account WHERE account_id = ?";
-        Connection conn = ConnectionUtil.getConnection();
-        try (PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setInt(1, account.getAccount_id());
-            int affectedRows = ps.executeUpdate();
+        Query query = Query.ACCOUNT_DELETE;
+        Connection conn = TransactionTemplate.primaryConnection();
+        try {
+            int affectedRows = capture.record(account.getAccount_id(), () -> replicas.write(() -> {
+                PreparedStatement ps = StatementCache.prepare(conn, query);
+                ps.setInt(1, account.getAccount_id());
+                return ps.executeUpdate();
+            }, rows -> rows > 0 ? ReplicaSet.Change.of(query, account.getAccount_id()) : null),
+                    rows -> rows > 0 ? ChangeEvent.deleted(ChangeEvent.ACCOUNT, account.getAccount_id()) : null);
             return affectedRows > 0;
         } catch (SQLException e) {
             throw new DaoException("Deleting account failed due to SQL error", e);
         }
     }
+
+    /**
+     * Marks an account as deleted. It disappears from every account lookup at
+     * once, and from the read replicas; the row itself stays, reserving the
+     * username, until its messages have been removed and {@link #purge(int)} is
+     * called.
+     *
+     * @param accountId The ID of the account to delete.
+     * @return true if the account was marked; false if it does not exist or is
+     *         already being deleted.
+     * @throws DaoException if an error occurs while marking the account.
+     */
+    public boolean markDeleted(int accountId) {
+        Query query = Query.ACCOUNT_MARK_DELETED;
+        Connection conn = TransactionTemplate.primaryConnection();
+        long deletedEpoch = System.currentTimeMillis() / 1000;
+        try {
+            int affectedRows = capture.record(accountId, () -> replicas.write(() -> {
+                PreparedStatement ps = StatementCache.prepare(conn, query);
+                ps.setLong(1, deletedEpoch);
+                ps.setInt(2, accountId);
+                return ps.executeUpdate();
+            }, rows -> rows > 0 ? ReplicaSet.Change.of(Query.ACCOUNT_DELETE, accountId) : null),
+                    rows -> rows > 0 ? ChangeEvent.deleted(ChangeEvent.ACCOUNT, accountId) : null);
+            return affectedRows > 0;
+        } catch (SQLException e) {
+            throw new DaoException("Marking account as deleted failed due to SQL error", e);
+        }
+    }
+
+    /**
+     * Retrieves the accounts whose deletion has started but not finished.
+     *
+     * @return the IDs of the accounts marked as deleted, in ascending order.
+     * @throws DaoException if an error occurs while reading them.
+     */
+    public List<Integer> getAccountsBeingDeleted() {
+        Query query = Query.ACCOUNT_BEING_DELETED;
+        List<Integer> accountIds = new ArrayList<>();
+        Connection conn = TransactionTemplate.primaryConnection();
+        try {
+            PreparedStatement ps = StatementCache.prepare(conn, query);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    accountIds.add(rs.getInt(1));
+                }
+            }
+        } catch (SQLException e) {
+            handleSQLException(e, query.sql(), "Error while retrieving the accounts being deleted");
+        }
+        return accountIds;
+    }
+
+    /**
+     * Removes the row of an account marked as deleted. Its deletion was already
+     * recorded and applied to the replicas by {@link #markDeleted(int)}.
+     *
+     * @param accountId The ID of the account to remove.
+     * @return true if the row was removed; false if it no longer exists.
+     * @throws DaoException if the account still has messages or another error
+     *                      occurs.
+     */
+    public boolean purge(int accountId) {
+        Query query = Query.ACCOUNT_DELETE;
+        Connection conn = TransactionTemplate.primaryConnection();
+        try {
+            PreparedStatement ps = StatementCache.prepare(conn, query);
+            ps.setInt(1, accountId);
+            return ps.executeUpdate() > 0;
+        } catch (SQLException e) {
+            throw new DaoException("Removing deleted account failed due to SQL error", e);
+        }
+    }
+
+    private static ReplicaSet.Change upsertOf(Account account) {
+        return ReplicaSet.Change.of(Query.ACCOUNT_UPSERT, account.getAccount_id(), account.getUsername(),
+                account.getPassword());
+    }
 }
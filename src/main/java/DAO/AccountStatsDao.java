@@ -0,0 +1,197 @@
+package DAO;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import Model.AccountStats;
+import Util.ConnectionPool;
+import Util.ShardRouter;
+
+/**
+ * This class implements the DAO for the account_stats table and the
+ * aggregate queries it is built from.
+ *
+ * The table lives on the primary database and is written only by
+ * AccountStatsTracker, which keeps the figures in memory and saves the
+ * changed ones periodically. The aggregates are computed from the messages
+ * of every shard.
+ */
+public class AccountStatsDao {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AccountStatsDao.class);
+
+    private final ShardRouter router;
+
+    public AccountStatsDao() {
+        this(ShardRouter.getDefault());
+    }
+
+    /**
+     * Constructor that reads the messages of the given shards. Useful for
+     * testing purposes.
+     *
+     * @param router The router whose shards hold the messages.
+     */
+    public AccountStatsDao(ShardRouter router) {
+        this.router = router;
+    }
+
+    private void handleSQLException(SQLException e, String sql, String errorMessage) {
+        LOGGER.error("SQLException Details: {}", e.getMessage());
+        LOGGER.error("SQL State: {}", e.getSQLState());
+        LOGGER.error("Error Code: {}", e.getErrorCode());
+        LOGGER.error("SQL: {}", sql);
+        throw new DaoException(errorMessage, e);
+    }
+
+    /**
+     * Computes the figures of every account that has messages, from the
+     * messages themselves. This reads every message once, so it is meant for
+     * startup rather than for requests.
+     *
+     * @return the figures, by account ID.
+     */
+    public Map<Integer, AccountStats> aggregate() {
+        Query query = Query.ACCOUNT_STATS_AGGREGATE;
+        List<Map<Integer, AccountStats>> perShard = router.scatter(shard -> {
+            Map<Integer, AccountStats> stats = new HashMap<>();
+            ConnectionPool pool = router.pool(shard);
+            Connection conn = null;
+            try {
+                conn = pool.borrow();
+                PreparedStatement ps = StatementCache.prepare(conn, query);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        stats.put(rs.getInt(1), new AccountStats(rs.getInt(1), rs.getLong(2), rs.getLong(3),
+                                rs.getLong(4)));
+                    }
+                }
+            } catch (SQLException e) {
+                handleSQLException(e, query.sql(), "Error while aggregating the messages of shard " + shard);
+            } finally {
+                pool.release(conn);
+            }
+            return stats;
+        });
+        // An account's messages are on one shard unless its range has been moved
+        Map<Integer, AccountStats> merged = new HashMap<>();
+        for (Map<Integer, AccountStats> stats : perShard) {
+            stats.forEach((accountId, shardStats) -> merged.merge(accountId, shardStats, (a, b) -> new AccountStats(
+                    accountId, a.getMessage_count() + b.getMessage_count(),
+                    Math.max(a.getLast_posted_epoch(), b.getLast_posted_epoch()),
+                    a.getTotal_characters() + b.getTotal_characters())));
+        }
+        return merged;
+    }
+
+    /**
+     * Looks up the latest time_posted_epoch of an account's messages.
+     *
+     * @param accountId The ID of the account.
+     * @return An Optional containing the time, or empty if the account has no
+     *         messages.
+     */
+    public Optional<Long> getLastPosted(int accountId) {
+        Query query = Query.ACCOUNT_STATS_LAST_POSTED;
+        Long last = null;
+        for (int shard : router.readShardsFor(accountId)) {
+            ConnectionPool pool = router.pool(shard);
+            Connection conn = null;
+            try {
+                conn = pool.borrow();
+                PreparedStatement ps = StatementCache.prepare(conn, query);
+                ps.setInt(1, accountId);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (rs.next()) {
+                        long value = rs.getLong(1);
+                        if (!rs.wasNull() && (last == null || value > last)) {
+                            last = value;
+                        }
+                    }
+                }
+            } catch (SQLException e) {
+                handleSQLException(e, query.sql(), "Error while finding the last message of account " + accountId);
+            } finally {
+                pool.release(conn);
+            }
+        }
+        return Optional.ofNullable(last);
+    }
+
+    /**
+     * Saves the figures of some accounts, replacing what was stored for them.
+     *
+     * @param stats The figures to save.
+     */
+    public void save(Collection<AccountStats> stats) {
+        onPrimary(Query.ACCOUNT_STATS_UPSERT, false, stats, "Error while saving account stats");
+    }
+
+    /**
+     * Replaces the whole table with the given figures.
+     *
+     * @param stats The figures of every account.
+     */
+    public void replaceAll(Collection<AccountStats> stats) {
+        onPrimary(Query.ACCOUNT_STATS_UPSERT, true, stats, "Error while rebuilding account stats");
+    }
+
+    /**
+     * Removes the figures of an account.
+     *
+     * @param accountId The ID of the account.
+     */
+    public void delete(int accountId) {
+        Query query = Query.ACCOUNT_STATS_DELETE;
+        ConnectionPool pool = router.pool(0);
+        Connection conn = null;
+        try {
+            conn = pool.borrow();
+            PreparedStatement ps = StatementCache.prepare(conn, query);
+            ps.setInt(1, accountId);
+            ps.executeUpdate();
+        } catch (SQLException e) {
+            handleSQLException(e, query.sql(), "Error while removing the stats of account " + accountId);
+        } finally {
+            pool.release(conn);
+        }
+    }
+
+    private void onPrimary(Query query, boolean clearFirst, Collection<AccountStats> stats, String errorMessage) {
+        ConnectionPool pool = router.pool(0);
+        Connection conn = null;
+        try {
+            conn = pool.borrow();
+            if (clearFirst) {
+                StatementCache.prepare(conn, Query.ACCOUNT_STATS_CLEAR).executeUpdate();
+            }
+            if (stats.isEmpty()) {
+                return;
+            }
+            PreparedStatement ps = StatementCache.prepare(conn, query);
+            for (AccountStats accountStats : stats) {
+                ps.setInt(1, accountStats.getAccount_id());
+                ps.setLong(2, accountStats.getMessage_count());
+                ps.setObject(3, accountStats.getLast_posted_epoch(), Types.BIGINT);
+                ps.setLong(4, accountStats.getTotal_characters());
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        } catch (SQLException e) {
+            handleSQLException(e, query.sql(), errorMessage);
+        } finally {
+            pool.release(conn);
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package DAO;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+import org.h2.api.ErrorCode;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Util.AppConfig;
+import Util.SegmentedLog;
+import Util.UnitOfWork;
+
+/**
+ * The ChangeCapture class records every committed message and account mutation as a ChangeEvent in a
+ * SegmentedLog, and lets downstream consumers (search indexes, caches, analytics) follow the log instead of
+ * polling the tables.
+ *
+ * An event is appended right after its write succeeds, while a lock striped by the row's key is held, so the
+ * events of any one row are in the order the writes were applied. Writes to different rows do not wait for each
+ * other. An event is lost only if the process dies between the database commit and the append.
+ *
+ * A write made inside a UnitOfWork is only appended once the unit commits, and nothing is appended if it rolls
+ * back. The row's stripe stays locked until the unit ends, so that another write to the row cannot be appended
+ * between this one's commit and its append. A unit that waits too long for a stripe fails with a serialization
+ * error and is retried by TransactionTemplate, which breaks the deadlock two units locking stripes in opposite
+ * orders would otherwise be.
+ *
+ * Consumers read with {@link #poll(String, int, long)}, which resumes from the consumer's committed checkpoint, and
+ * call {@link #commit(String, long)} once they have processed what they read.
+ */
+public class ChangeCapture {
+
+    private static final int STRIPES = 64;
+    // How long a unit of work waits for a stripe before failing, and being retried
+    private static final long STRIPE_WAIT_MILLIS = 500;
+    private static ChangeCapture defaultCapture;
+
+    private final SegmentedLog log;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+
+    /**
+     * An event read back from the log, with its position.
+     */
+    public static final class Entry {
+        private final long offset;
+        private final long timestamp;
+        private final ChangeEvent event;
+
+        Entry(long offset, long timestamp, ChangeEvent event) {
+            this.offset = offset;
+            this.timestamp = timestamp;
+            this.event = event;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public ChangeEvent getEvent() {
+            return event;
+        }
+    }
+
+    /**
+     * @param log the log events are written to, or null to record nothing.
+     */
+    public ChangeCapture(SegmentedLog log) {
+        this.log = log;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * @return a ChangeCapture that records nothing.
+     */
+    public static ChangeCapture disabled() {
+        return new ChangeCapture(null);
+    }
+
+    /**
+     * @return the change log configured through AppConfig (cdc.enabled, cdc.dir, cdc.segment-bytes,
+     *         cdc.retention.bytes, cdc.retention.hours, cdc.fsync), opened on first use.
+     */
+    public static synchronized ChangeCapture getDefault() {
+        if (defaultCapture == null) {
+            if (!AppConfig.getBoolean("cdc.enabled", true)) {
+                defaultCapture = disabled();
+            } else {
+                try {
+                    defaultCapture = new ChangeCapture(new SegmentedLog(
+                            Paths.get(AppConfig.getString("cdc.dir", "./h2/cdc")),
+                            AppConfig.getInt("cdc.segment-bytes", 16 * 1024 * 1024),
+                            AppConfig.getLong("cdc.retention.bytes", 256L * 1024 * 1024),
+                            AppConfig.getLong("cdc.retention.hours", 168) * 3_600_000L,
+                            AppConfig.getBoolean("cdc.fsync", false)));
+                } catch (IOException e) {
+                    throw new IllegalStateException("Unable to open the change log", e);
+                }
+            }
+        }
+        return defaultCapture;
+    }
+
+    public boolean isEnabled() {
+        return log != null;
+    }
+
+    /**
+     * Runs a write and appends the event it produced.
+     *
+     * @param key   the key of the row written, or a negative number for an insert whose key is not known yet.
+     * @param write the write.
+     * @param event builds the event from the write's result; returns null if nothing changed.
+     * @param <T>   the write's result type.
+     * @return the write's result.
+     * @throws SQLException If the write fails; nothing is recorded then.
+     */
+    <T> T record(int key, ReplicaSet.Write<T> write, Function<T, ChangeEvent> event) throws SQLException {
+        if (log == null) {
+            return write.run();
+        }
+        UnitOfWork unit = UnitOfWork.current();
+        if (unit != null) {
+            return recordInUnit(unit, key, write, event);
+        }
+        if (key < 0) {
+            T result = write.run();
+            append(event.apply(result));
+            return result;
+        }
+        ReentrantLock stripe = stripes[key % STRIPES];
+        stripe.lock();
+        try {
+            T result = write.run();
+            append(event.apply(result));
+            return result;
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    private <T> T recordInUnit(UnitOfWork unit, int key, ReplicaSet.Write<T> write,
+            Function<T, ChangeEvent> event) throws SQLException {
+        if (key >= 0) {
+            lockForUnit(unit, key);
+        }
+        T result = write.run();
+        ChangeEvent changeEvent = event.apply(result);
+        if (changeEvent != null) {
+            if (key < 0) {
+                // The new row is invisible to other writers until the unit commits, and locked until it appended
+                lockForUnit(unit, changeEvent.getId());
+            }
+            unit.afterCommit(() -> append(changeEvent));
+        }
+        return result;
+    }
+
+    private void lockForUnit(UnitOfWork unit, int key) throws SQLException {
+        ReentrantLock stripe = stripes[key % STRIPES];
+        boolean locked;
+        try {
+            locked = stripe.tryLock(STRIPE_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting to record a change to " + key, e);
+        }
+        if (!locked) {
+            throw new SQLException("Timed out waiting to record a change to " + key, "40001", ErrorCode.DEADLOCK_1);
+        }
+        unit.whenEnded(stripe::unlock);
+    }
+
+    /**
+     * Appends the event saying that the store was replaced from a snapshot, once the restore is done.
+     */
+    void recordRestore() {
+        if (log != null) {
+            append(ChangeEvent.restored());
+        }
+    }
+
+    private void append(ChangeEvent event) {
+        if (event == null) {
+            return;
+        }
+        try {
+            log.append(mapper.writeValueAsBytes(event));
+        } catch (IOException e) {
+            throw new DaoException("The change event could not be recorded", e);
+        }
+    }
+
+    /**
+     * @param fromOffset the offset of the first event wanted.
+     * @param max        the maximum number of events to return.
+     * @return up to max events in offset order.
+     */
+    public List<Entry> read(long fromOffset, int max) {
+        if (log == null) {
+            return Collections.emptyList();
+        }
+        List<Entry> entries = new ArrayList<>();
+        for (SegmentedLog.Record record : log.read(fromOffset, max)) {
+            try {
+                entries.add(new Entry(record.getOffset(), record.getTimestamp(),
+                        mapper.readValue(record.getPayload(), ChangeEvent.class)));
+            } catch (IOException e) {
+                throw new DaoException("Unreadable change event at offset " + record.getOffset(), e);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Reads the events a consumer has not committed yet, waiting for new ones if it is up to date.
+     *
+     * @param consumer      the consumer's name.
+     * @param max           the maximum number of events to return.
+     * @param timeoutMillis how long to wait for a new event when there is none.
+     * @return up to max events; empty if none arrived in time.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    public List<Entry> poll(String consumer, int max, long timeoutMillis) throws InterruptedException {
+        if (log == null) {
+            return Collections.emptyList();
+        }
+        long from = log.checkpoint(consumer);
+        if (!log.awaitAfter(from, timeoutMillis)) {
+            return Collections.emptyList();
+        }
+        return read(from, max);
+    }
+
+    /**
+     * Records that a consumer has processed every event before an offset.
+     *
+     * @param consumer   the consumer's name.
+     * @param nextOffset the offset of the first event not processed yet.
+     */
+    public void commit(String consumer, long nextOffset) {
+        if (log == null) {
+            return;
+        }
+        try {
+            log.commit(consumer, nextOffset);
+        } catch (IOException e) {
+            throw new DaoException("The checkpoint of " + consumer + " could not be saved", e);
+        }
+    }
+
+    /**
+     * @return the offsets, size and consumer checkpoints of the log, ready to be serialized to JSON.
+     */
+    public Map<String, Object> describe() {
+        Map<String, Object> description = new LinkedHashMap<>();
+        description.put("enabled", log != null);
+        if (log != null) {
+            description.put("startOffset", log.getStartOffset());
+            description.put("nextOffset", log.getNextOffset());
+            description.put("segments", log.getSegmentCount());
+            description.put("bytes", log.getSizeBytes());
+            description.put("checkpoints", log.checkpoints());
+        }
+        return description;
+    }
+}
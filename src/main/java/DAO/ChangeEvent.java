@@ -0,0 +1,123 @@
+package DAO;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import Model.Account;
+import Model.Message;
+
+/**
+ * A ChangeEvent describes one committed insert, update or delete of a message or an account, as recorded in the
+ * change log by ChangeCapture.
+ *
+ * Inserts and updates carry the row as it was written; deletes carry only the key. Account rows never carry the
+ * password hash.
+ *
+ * A restore event, of the STORE entity, says that the whole store was replaced from a snapshot: the events before
+ * it no longer describe the tables, so a consumer rebuilds what it keeps from the tables themselves.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ChangeEvent {
+
+    public static final String MESSAGE = "message";
+    public static final String ACCOUNT = "account";
+    public static final String INSERT = "insert";
+    public static final String UPDATE = "update";
+    public static final String DELETE = "delete";
+    public static final String STORE = "store";
+    public static final String RESTORE = "restore";
+
+    private String entity;
+    private String type;
+    private int id;
+    private Message message;
+    private Account account;
+
+    /**
+     * Default, no-args constructor, used when events are read back from the log.
+     */
+    public ChangeEvent() {
+    }
+
+    private ChangeEvent(String entity, String type, int id, Message message, Account account) {
+        this.entity = entity;
+        this.type = type;
+        this.id = id;
+        this.message = message;
+        this.account = account;
+    }
+
+    /**
+     * @param type    INSERT or UPDATE.
+     * @param message the message as written.
+     * @return the event.
+     */
+    public static ChangeEvent ofMessage(String type, Message message) {
+        return new ChangeEvent(MESSAGE, type, message.getMessage_id(), message, null);
+    }
+
+    /**
+     * @param type    INSERT or UPDATE.
+     * @param account the account as written.
+     * @return the event, without the account's password.
+     */
+    public static ChangeEvent ofAccount(String type, Account account) {
+        return new ChangeEvent(ACCOUNT, type, account.getAccount_id(),
+                null, new Account(account.getAccount_id(), account.getUsername(), null));
+    }
+
+    /**
+     * @param entity MESSAGE or ACCOUNT.
+     * @param id     the key of the deleted row.
+     * @return the event.
+     */
+    public static ChangeEvent deleted(String entity, int id) {
+        return new ChangeEvent(entity, DELETE, id, null, null);
+    }
+
+    /**
+     * @return the event recording that the store was restored from a snapshot.
+     */
+    public static ChangeEvent restored() {
+        return new ChangeEvent(STORE, RESTORE, 0, null, null);
+    }
+
+    public String getEntity() {
+        return entity;
+    }
+
+    public void setEntity(String entity) {
+        this.entity = entity;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public void setId(int id) {
+        this.id = id;
+    }
+
+    public Message getMessage() {
+        return message;
+    }
+
+    public void setMessage(Message message) {
+        this.message = message;
+    }
+
+    public Account getAccount() {
+        return account;
+    }
+
+    public void setAccount(Account account) {
+        this.account = account;
+    }
+}
@@ -7,19 +7,47 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
+import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 import Model.Message;
-import Util.ConnectionUtil;
+import Model.MessageVersion;
+import Util.AppConfig;
+import Util.ConnectionPool;
+import Util.ShardRouter;
 
 /**
  * This class implements the DAO for the Message table in the SocialMedia.sql
  * database.
  * It provides the CRUD (Create, Retrieve, Update, Delete) operations for
  * messages.
+ *
+ * Messages are spread over the shards of a ShardRouter by posted_by. Operations
+ * on one account go to the shard that owns it; operations by message ID start
+ * at the shard encoded in the ID; getAll and the time queries ask every shard
+ * and merge the already sorted results. With the default single shard every
+ * call goes straight to the primary database.
+ *
+ * Reads on the primary database may be served by a read replica (see
+ * ReplicaSet), and writes on it are logged for the replicas. Every insert,
+ * update and delete is also recorded as a ChangeEvent by ChangeCapture; copies
+ * made while resharding are not, as they change no message.
+ *
+ * Deleting a message only sets its deleted_epoch, which every read filters on,
+ * so a delete costs the same however busy the table is. MessagePurger removes
+ * the rows later, in small batches.
  */
 
 public class MessageDao implements BaseDao<Message> {
@@ -27,6 +55,90 @@ public class MessageDao implements BaseDao<Message> {
     // Create a Logger instance for this class.
     private static final Logger LOGGER = LoggerFactory.getLogger(MessageDao.class);
 
+    /**
+     * Converts the current ResultSet row into a Message object. Columns are read
+     * by index in the order every message Query selects them: message_id,
+     * posted_by, message_text, time_posted_epoch.
+     */
+    static final RowMapper<Message> MESSAGE_MAPPER = rs -> new Message(
+            rs.getInt(1),
+            rs.getInt(2),
+            rs.getString(3),
+            rs.getLong(4));
+
+    /**
+     * Converts the current row of MESSAGE_BY_ID into the message and its
+     * version, which is the fifth column.
+     */
+    private static final RowMapper<VersionedMessage> VERSIONED_MAPPER = rs -> new VersionedMessage(
+            MESSAGE_MAPPER.mapRow(rs),
+            rs.getInt(5));
+
+    // Newest first, with the same message_id tie-break as the time queries
+    private static final Comparator<Message> NEWEST_FIRST = Comparator
+            .comparingLong(Message::getTime_posted_epoch).reversed()
+            .thenComparing(Comparator.comparingInt(Message::getMessage_id).reversed());
+    private static final Comparator<Message> BY_ID = Comparator.comparingInt(Message::getMessage_id);
+
+    // The most IDs bound to one MESSAGE_BY_IDS query
+    private static final int IDS_PER_QUERY = AppConfig.getInt("messages.multiget.chunk-size", 100);
+
+    // When any MessageDao last changed a message, so background work can tell a quiet period
+    private static volatile long lastWriteMillis = System.currentTimeMillis();
+
+    private final ShardRouter router;
+    private final ReplicaSet replicas;
+    private final ChangeCapture capture;
+    // Removes the likes of the messages purged
+    private final ReactionDao reactionDao = new ReactionDao();
+
+    /**
+     * Work to run on the connection of one shard.
+     */
+    @FunctionalInterface
+    interface ShardWork<T> {
+        T run(Connection conn) throws SQLException;
+    }
+
+    public MessageDao() {
+        this(ShardRouter.getDefault(), ReplicaSet.getDefault(), ChangeCapture.getDefault());
+    }
+
+    /**
+     * Constructor that routes through the given shards, without read replicas.
+     * Useful for testing purposes.
+     *
+     * @param router The router deciding which shard holds which messages.
+     */
+    public MessageDao(ShardRouter router) {
+        this(router, ReplicaSet.none(), ChangeCapture.disabled());
+    }
+
+    /**
+     * Constructor that routes through the given shards and replicas. Useful for
+     * testing purposes.
+     *
+     * @param router   The router deciding which shard holds which messages.
+     * @param replicas The read replicas of the primary database (shard 0).
+     */
+    public MessageDao(ShardRouter router, ReplicaSet replicas) {
+        this(router, replicas, ChangeCapture.disabled());
+    }
+
+    /**
+     * Constructor that routes through the given shards and replicas and records
+     * every mutation in the given change log. Useful for testing purposes.
+     *
+     * @param router   The router deciding which shard holds which messages.
+     * @param replicas The read replicas of the primary database (shard 0).
+     * @param capture  The change log mutations are recorded in.
+     */
+    public MessageDao(ShardRouter router, ReplicaSet replicas, ChangeCapture capture) {
+        this.router = router;
+        this.replicas = replicas;
+        this.capture = capture;
+    }
+
     /**
      * Helper method to log SQLException details and throw a DaoException with a
      * custom error message
@@ -44,6 +156,93 @@ public class MessageDao implements BaseDao<Message> {
         throw new DaoException(errorMessage, e);
     }
 
+    /**
+     * Runs work on a connection borrowed from one shard's pool, returning the
+     * connection afterwards.
+     *
+     * @param shard The shard to run on.
+     * @param work  The work to run.
+     * @return whatever the work returns.
+     * @throws SQLException If a connection cannot be obtained or the work fails.
+     */
+    <T> T onShard(int shard, ShardWork<T> work) throws SQLException {
+        return onPool(router.pool(shard), work);
+    }
+
+    private <T> T onPool(ConnectionPool pool, ShardWork<T> work) throws SQLException {
+        Connection conn = pool.borrow();
+        try {
+            return work.run(conn);
+        } finally {
+            pool.release(conn);
+        }
+    }
+
+    /**
+     * @param shard       The shard to read from.
+     * @param requiredLsn The oldest replication log position the read may see,
+     *                    taken from ReadConsistency on the request thread.
+     * @return the pool to read from: a replica for the primary shard when one is
+     *         current enough, otherwise the shard itself.
+     */
+    private ConnectionPool readPool(int shard, long requiredLsn) {
+        return shard == 0 && replicas.isEnabled() ? replicas.forRead(requiredLsn) : router.pool(shard);
+    }
+
+    /**
+     * Runs a write on a shard, logging the change for the read replicas when the
+     * shard is the primary database.
+     */
+    private <T> T logged(int shard, ReplicaSet.Write<T> write, Function<T, ReplicaSet.Change> change)
+            throws SQLException {
+        return shard == 0 ? replicas.write(write, change) : write.run();
+    }
+
+    private static ReplicaSet.Change upsertOf(Message message) {
+        return upsertOf(message, 1);
+    }
+
+    private static ReplicaSet.Change upsertOf(Message message, int version) {
+        return ReplicaSet.Change.of(Query.MESSAGE_UPSERT, message.getMessage_id(), message.getPosted_by(),
+                message.getMessage_text(), message.getTime_posted_epoch(), version);
+    }
+
+    /**
+     * A message as read by {@link #getVersionedById(int)}, with its current
+     * version.
+     */
+    public static final class VersionedMessage {
+        private final Message message;
+        private final int version;
+
+        VersionedMessage(Message message, int version) {
+            this.message = message;
+            this.version = version;
+        }
+
+        public Message getMessage() {
+            return message;
+        }
+
+        public int getVersion() {
+            return version;
+        }
+    }
+
+    /**
+     * @param messageId A message ID.
+     * @return every shard, starting with the one the message was created on.
+     */
+    private int[] shardsForMessage(int messageId) {
+        int shardCount = router.getShardCount();
+        int origin = router.originShardOf(messageId);
+        int[] shards = new int[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = (origin + i) % shardCount;
+        }
+        return shards;
+    }
+
     /**
      * Retrieve a specific message by its ID from the database
      *
@@ -53,47 +252,133 @@ public class MessageDao implements BaseDao<Message> {
      */
     @Override
     public Optional<Message> getById(int id) {
-        // The SQL string is outside the try block as it doesn't require closure like
-        // Connection, PreparedStatement, or ResultSet.
-        String sql = "SELECT * FROM message WHERE message_id = ?";
-        Connection conn = ConnectionUtil.getConnection();
-        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+        return getById(id, MESSAGE_MAPPER);
+    }
+
+    /**
+     * Retrieve a specific message by its ID together with its current version,
+     * in the same query as {@link #getById(int)}.
+     *
+     * @param id The ID of the message to retrieve.
+     * @return An Optional containing the message and its version if found;
+     *         otherwise, an empty Optional.
+     */
+    public Optional<VersionedMessage> getVersionedById(int id) {
+        return getById(id, VERSIONED_MAPPER);
+    }
+
+    private <T> Optional<T> getById(int id, RowMapper<T> mapper) {
+        // The statement comes from the StatementCache and stays open for reuse, so
+        // only the ResultSet is closed here.
+        Query query = Query.MESSAGE_BY_ID;
+        long requiredLsn = ReadConsistency.required();
+        ShardWork<Optional<T>> lookup = conn -> {
+            PreparedStatement ps = StatementCache.prepare(conn, query);
             ps.setInt(1, id);
             // ResultSet is in a separate try block to ensure it gets closed after use,
             // even if an exception is thrown during data processing.
             try (ResultSet rs = ps.executeQuery()) {
-                if (rs.next()) {
-                    return Optional.of(mapResultSetToMessage(rs));
+                return rs.next() ? Optional.of(mapper.mapRow(rs)) : Optional.<T>empty();
+            }
+        };
+        try {
+            // A message normally lives on the shard encoded in its ID; it is only
+            // found elsewhere when its range has been moved by resharding.
+            for (int shard : shardsForMessage(id)) {
+                Optional<T> message = onPool(readPool(shard, requiredLsn), lookup);
+                if (message.isPresent()) {
+                    return message;
                 }
             }
+            // A replica may not have applied a message another client just posted
+            if (replicas.isEnabled()) {
+                return onPool(replicas.primary(), lookup);
+            }
         } catch (SQLException e) {
-            handleSQLException(e, sql, "Error while retrieving the message with id: " + id);
+            handleSQLException(e, query.sql(), "Error while retrieving the message with id: " + id);
         }
         return Optional.empty();
     }
 
     /**
-     * Retrieves all messages from the database
+     * Retrieves many messages by their IDs, with one query per chunk of
+     * messages.multiget.chunk-size IDs instead of one per message.
      *
-     * @return A List of all messages in the database.
+     * @param ids The IDs of the messages to retrieve; an ID given twice is
+     *            looked up once.
+     * @return the messages found, in the order their IDs were first given.
+     *         Missing and deleted messages are left out.
      */
-    @Override
-    public List<Message> getAll() {
-        String sql = "SELECT * FROM message";
-        Connection conn = ConnectionUtil.getConnection();
-        List<Message> messages = new ArrayList<>();
-        try (PreparedStatement ps = conn.prepareStatement(sql)) {
-            try (ResultSet rs = ps.executeQuery()) {
-                while (rs.next()) {
-                    messages.add(mapResultSetToMessage(rs));
+    public List<Message> getByIds(List<Integer> ids) {
+        long requiredLsn = ReadConsistency.required();
+        LinkedHashSet<Integer> requested = new LinkedHashSet<>(ids);
+        Map<Integer, Message> found = new HashMap<>();
+        List<Integer> remaining = new ArrayList<>(requested);
+        try {
+            // As in getById, each message is first looked for on the shard encoded in its ID, and only on the
+            // others if its range has been moved by resharding
+            int shardCount = router.getShardCount();
+            for (int attempt = 0; attempt < shardCount && !remaining.isEmpty(); attempt++) {
+                Map<Integer, List<Integer>> byShard = new HashMap<>();
+                for (int id : remaining) {
+                    byShard.computeIfAbsent((router.originShardOf(id) + attempt) % shardCount,
+                            shard -> new ArrayList<>()).add(id);
                 }
+                for (Map.Entry<Integer, List<Integer>> shardIds : byShard.entrySet()) {
+                    lookUpChunks(readPool(shardIds.getKey(), requiredLsn), shardIds.getValue(), found);
+                }
+                remaining.removeIf(found::containsKey);
+            }
+            // A replica may not have applied a message another client just posted
+            if (replicas.isEnabled() && !remaining.isEmpty()) {
+                lookUpChunks(replicas.primary(), remaining, found);
             }
         } catch (SQLException e) {
-            handleSQLException(e, sql, "Error while retrieving all messages");
+            handleSQLException(e, Query.MESSAGE_BY_IDS.sql(), "Error while retrieving " + ids.size() + " messages");
+        }
+        List<Message> messages = new ArrayList<>(found.size());
+        for (int id : requested) {
+            Message message = found.get(id);
+            if (message != null) {
+                messages.add(message);
+            }
         }
         return messages;
     }
 
+    private void lookUpChunks(ConnectionPool pool, List<Integer> ids, Map<Integer, Message> found)
+            throws SQLException {
+        onPool(pool, conn -> {
+            PreparedStatement ps = StatementCache.prepare(conn, Query.MESSAGE_BY_IDS);
+            for (int from = 0; from < ids.size(); from += IDS_PER_QUERY) {
+                List<Integer> chunk = ids.subList(from, Math.min(ids.size(), from + IDS_PER_QUERY));
+                ps.setObject(1, chunk.toArray(new Integer[0]));
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        Message message = MESSAGE_MAPPER.mapRow(rs);
+                        found.put(message.getMessage_id(), message);
+                    }
+                }
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Retrieves all messages from the database
+     *
+     * @return A List of all messages in the database, in message_id order.
+     */
+    @Override
+    public List<Message> getAll() {
+        Query query = Query.MESSAGE_ALL;
+        long requiredLsn = ReadConsistency.required();
+        List<List<Message>> perShard = router.scatter(shard -> queryShard(readPool(shard, requiredLsn), query,
+                ps -> {
+                }, "Error while retrieving all messages"));
+        return merge(perShard, BY_ID, Integer.MAX_VALUE);
+    }
+
     /**
      * Retrieves all messages posted by a specific account from the database
      *
@@ -101,17 +386,109 @@ public class MessageDao implements BaseDao<Message> {
      * @return A List of all messages posted by the specified account.
      */
     public List<Message> getMessagesByAccountId(int accountId) {
-        String sql = "SELECT * FROM message WHERE posted_by = ?";
-        Connection conn = ConnectionUtil.getConnection();
-        try (PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setInt(1, accountId);
-            try (ResultSet rs = ps.executeQuery()) {
-                return mapResultSetToList(rs);
+        Query query = Query.MESSAGE_BY_POSTED_BY;
+        long requiredLsn = ReadConsistency.required();
+        List<List<Message>> perShard = new ArrayList<>();
+        for (int shard : router.readShardsFor(accountId)) {
+            perShard.add(queryShard(readPool(shard, requiredLsn), query, ps -> ps.setInt(1, accountId),
+                    "Error while retrieving a message by account ID: " + accountId));
+        }
+        return perShard.size() == 1 ? perShard.get(0) : merge(perShard, BY_ID, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Retrieves a batch of an account's messages in message_id order, from the
+     * shards themselves rather than the replicas, so that a message just posted
+     * is not missed.
+     *
+     * @param accountId The ID of the account whose messages to retrieve.
+     * @param afterId   Only messages with a greater ID are returned.
+     * @param limit     The maximum number of messages to return.
+     * @return the next messages of the account.
+     */
+    public List<Message> getMessagesByAccountId(int accountId, int afterId, int limit) {
+        Query query = Query.MESSAGE_BY_POSTED_BY_AFTER;
+        List<List<Message>> perShard = new ArrayList<>();
+        for (int shard : router.readShardsFor(accountId)) {
+            perShard.add(queryShard(router.pool(shard), query, ps -> {
+                ps.setInt(1, accountId);
+                ps.setInt(2, afterId);
+                ps.setInt(3, limit);
+            }, "Error while retrieving a message by account ID: " + accountId));
+        }
+        return merge(perShard, BY_ID, limit);
+    }
+
+    /**
+     * Streams the messages posted within a time range, newest first, to a
+     * consumer as they are read. The range query is served by the
+     * time_posted_epoch index in its natural order, so no sorting is needed and,
+     * with a single shard, rows are handed over one at a time instead of being
+     * collected first. With several shards each returns its own newest rows and
+     * those are merged.
+     *
+     * @param since    The earliest time_posted_epoch to include.
+     * @param until    The latest time_posted_epoch to include.
+     * @param limit    The maximum number of messages to return.
+     * @param consumer Receives each message in descending time order.
+     */
+    public void streamMessagesInRange(long since, long until, int limit, Consumer<Message> consumer) {
+        Query query = Query.MESSAGE_RANGE_DESC;
+        String errorMessage = "Error while retrieving messages posted between " + since + " and " + until;
+        long requiredLsn = ReadConsistency.required();
+        if (router.getShardCount() == 1) {
+            try {
+                onPool(readPool(0, requiredLsn), conn -> {
+                    PreparedStatement ps = StatementCache.prepare(conn, query);
+                    ps.setLong(1, since);
+                    ps.setLong(2, until);
+                    ps.setInt(3, limit);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            consumer.accept(MESSAGE_MAPPER.mapRow(rs));
+                        }
+                    }
+                    return null;
+                });
+            } catch (SQLException e) {
+                handleSQLException(e, query.sql(), errorMessage);
             }
-        } catch (SQLException e) {
-            handleSQLException(e, sql, "Error while retrieving a message by account ID: " + accountId);
+            return;
         }
-        return new ArrayList<>();
+        List<List<Message>> perShard = router.scatter(shard -> queryShard(readPool(shard, requiredLsn), query, ps -> {
+            ps.setLong(1, since);
+            ps.setLong(2, until);
+            ps.setInt(3, limit);
+        }, errorMessage));
+        merge(perShard, NEWEST_FIRST, limit).forEach(consumer);
+    }
+
+    /**
+     * Retrieves the messages posted within a time range, newest first.
+     *
+     * @param since The earliest time_posted_epoch to include.
+     * @param until The latest time_posted_epoch to include.
+     * @param limit The maximum number of messages to return.
+     * @return A List of at most limit messages in descending time order.
+     */
+    public List<Message> getMessagesInRange(long since, long until, int limit) {
+        List<Message> messages = new ArrayList<>();
+        streamMessagesInRange(since, until, limit, messages::add);
+        return messages;
+    }
+
+    /**
+     * Retrieves the most recently posted messages, newest first.
+     *
+     * @param limit The maximum number of messages to return.
+     * @return A List of at most limit messages in descending time order.
+     */
+    public List<Message> getLatestMessages(int limit) {
+        Query query = Query.MESSAGE_LATEST;
+        long requiredLsn = ReadConsistency.required();
+        List<List<Message>> perShard = router.scatter(shard -> queryShard(readPool(shard, requiredLsn), query,
+                ps -> ps.setInt(1, limit), "Error while retrieving the latest " + limit + " messages"));
+        return merge(perShard, NEWEST_FIRST, limit);
     }
 
     /**
@@ -123,56 +500,61 @@ public class MessageDao implements BaseDao<Message> {
      */
     @Override
     public Message insert(Message message) {
-        String sql = "INSERT INTO message(posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?)";
-        Connection conn = ConnectionUtil.getConnection();
+        Query query = Query.MESSAGE_INSERT;
 
         // INSERT operation on a table with an auto-incrementing primary key column
         // Database assigns a unique value to the primary key column for the newly
-        // inserted row
+        // inserted row; each shard's identity column hands out its own residue of
+        // IDs, so the value is unique across shards.
         // The generatedKeys feature enables us to retrieve the generated key value
-        try (PreparedStatement ps = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
-            ps.setInt(1, message.getPosted_by());
-            ps.setString(2, message.getMessage_text());
-            ps.setLong(3, message.getTime_posted_epoch());
-
-            ps.executeUpdate();
-
-            // After executing the INSERT statement using ps.executeUpdate()
-            // The ResultSet object named generatedKeys is obtained by calling
-            // ps.getGeneratedKeys()
-            try (ResultSet generatedKeys = ps.getGeneratedKeys()) {
-
-                // Check if any keys were generated by iterating over the ResultSet using
-                // generatedKeys.next()
-                if (generatedKeys.next()) {
-
-                    // By iterating over the ResultSet using generatedKeys.next(), we can access
-                    // the generated key value(s). In this case, since we expect only one key
-                    // (the ID of the inserted message), we use generatedKeys.getInt(1) to retrieve
-                    // the value of the first column in the result set, which represents the
-                    // generated ID.
-
-                    // Retrieve the generated ID
-                    int generatedId = generatedKeys.getInt(1);
-
-                    // Finally, the retrieved ID is used to create a new Message object, combining
-                    // it with the other attributes of the inserted message.
-
-                    // Create a new Message object with the generated ID and other attributes
-                    return new Message(generatedId, message.getPosted_by(), message.getMessage_text(),
-                            message.getTime_posted_epoch());
-                } else {
-                    throw new DaoException("Failed to insert message, no ID obtained.");
+        int shard = router.writeShardFor(message.getPosted_by());
+        try {
+            return wrote(capture.record(-1, () -> logged(shard, () -> onShard(shard, conn -> {
+                PreparedStatement ps = StatementCache.prepare(conn, query);
+                ps.setInt(1, message.getPosted_by());
+                ps.setString(2, message.getMessage_text());
+                ps.setLong(3, message.getTime_posted_epoch());
+
+                ps.executeUpdate();
+
+                // After executing the INSERT statement using ps.executeUpdate()
+                // The ResultSet object named generatedKeys is obtained by calling
+                // ps.getGeneratedKeys()
+                try (ResultSet generatedKeys = ps.getGeneratedKeys()) {
+
+                    // Check if any keys were generated by iterating over the ResultSet using
+                    // generatedKeys.next()
+                    if (generatedKeys.next()) {
+
+                        // By iterating over the ResultSet using generatedKeys.next(), we can access
+                        // the generated key value(s). In this case, since we expect only one key
+                        // (the ID of the inserted message), we use generatedKeys.getInt(1) to retrieve
+                        // the value of the first column in the result set, which represents the
+                        // generated ID.
+
+                        // Retrieve the generated ID
+                        int generatedId = generatedKeys.getInt(1);
+
+                        // Finally, the retrieved ID is used to create a new Message object, combining
+                        // it with the other attributes of the inserted message.
+
+                        // Create a new Message object with the generated ID and other attributes
+                        return new Message(generatedId, message.getPosted_by(), message.getMessage_text(),
+                                message.getTime_posted_epoch());
+                    } else {
+                        throw new DaoException("Failed to insert message, no ID obtained.");
+                    }
                 }
-            }
+            }), MessageDao::upsertOf), inserted -> ChangeEvent.ofMessage(ChangeEvent.INSERT, inserted)));
         } catch (SQLException e) {
-            handleSQLException(e, sql, "Error while inserting a message");
+            handleSQLException(e, query.sql(), "Error while inserting a message");
         }
         throw new DaoException("Failed to insert message");
     }
 
     /**
-     * Update an existing message in the database
+     * Update an existing message in the database. The version it replaces is
+     * archived in the message's history by the same statement.
      *
      * @param message The message to update.
      * @return true if the update was successful; false if the message was not found
@@ -180,23 +562,98 @@ public class MessageDao implements BaseDao<Message> {
      */
     @Override
     public boolean update(Message message) {
-        String sql = "UPDATE message SET posted_by = ?, message_text = ?, time_posted_epoch = ? WHERE message_id = ?";
-        int rowsUpdated = 0;
-        Connection conn = ConnectionUtil.getConnection();
-        try (PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setInt(1, message.getPosted_by());
-            ps.setString(2, message.getMessage_text());
-            ps.setLong(3, message.getTime_posted_epoch());
-            ps.setInt(4, message.getMessage_id());
-            rowsUpdated = ps.executeUpdate();
+        return update(message, null);
+    }
+
+    /**
+     * Update an existing message in the database only if it is still at the
+     * expected version, so that concurrent edits cannot overwrite each other.
+     *
+     * @param message         The message to update.
+     * @param expectedVersion The version the update replaces.
+     * @return true if the update was successful; false if the message was not found
+     *         or has been changed since that version.
+     */
+    public boolean update(Message message, int expectedVersion) {
+        return update(message, Integer.valueOf(expectedVersion));
+    }
+
+    private boolean update(Message message, Integer expectedVersion) {
+        Query query = Query.MESSAGE_UPDATE;
+        long replacedEpoch = System.currentTimeMillis() / 1000;
+        // The version written, which the read replicas are sent along with the text
+        int[] written = { expectedVersion == null ? 0 : expectedVersion + 1 };
+        try {
+            return wrote(capture.record(message.getMessage_id(), () -> writeById(message.getMessage_id(), conn -> {
+                PreparedStatement ps = StatementCache.prepare(conn, query);
+                ps.setLong(1, replacedEpoch);
+                ps.setInt(2, message.getPosted_by());
+                ps.setString(3, message.getMessage_text());
+                ps.setLong(4, message.getTime_posted_epoch());
+                ps.setInt(5, message.getMessage_id());
+                ps.setObject(6, expectedVersion, Types.INTEGER);
+                int rows = ps.executeUpdate();
+                if (rows > 0 && expectedVersion == null && replicas.isEnabled()) {
+                    written[0] = currentVersion(conn, message.getMessage_id());
+                }
+                return rows;
+            }, () -> upsertOf(message, written[0])),
+                    updated -> updated ? ChangeEvent.ofMessage(ChangeEvent.UPDATE, message) : null));
         } catch (SQLException e) {
-            handleSQLException(e, sql, "Error while updating the message with id: " + message.getMessage_id());
+            handleSQLException(e, query.sql(), "Error while updating the message with id: " + message.getMessage_id());
         }
-        return rowsUpdated > 0;
+        return false;
     }
 
     /**
-     * Delete a message from the database
+     * Retrieves the versions of a message, newest first: its current text and
+     * the texts it replaced. This reads the append-only history table and leaves
+     * the message lookups untouched.
+     *
+     * @param messageId     The ID of the message.
+     * @param beforeVersion Only versions lower than this are returned; use
+     *                      Integer.MAX_VALUE for the first page.
+     * @param limit         The maximum number of versions to return.
+     * @return A List of at most limit versions in descending version order.
+     */
+    public List<MessageVersion> getHistory(int messageId, int beforeVersion, int limit) {
+        Query query = Query.MESSAGE_HISTORY;
+        try {
+            // The history lives on the shard holding the message
+            for (int shard : shardsForMessage(messageId)) {
+                List<MessageVersion> versions = onShard(shard, conn -> {
+                    PreparedStatement ps = StatementCache.prepare(conn, query);
+                    ps.setInt(1, messageId);
+                    ps.setInt(2, beforeVersion);
+                    ps.setInt(3, messageId);
+                    ps.setInt(4, beforeVersion);
+                    ps.setInt(5, limit);
+                    List<MessageVersion> found = new ArrayList<>();
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            // getObject rather than getLong/wasNull: H2 does not report the NULL of the
+                            // current version through wasNull once it has passed through the UNION
+                            found.add(new MessageVersion(rs.getInt(1), rs.getInt(2), rs.getString(3),
+                                    rs.getObject(4, Long.class)));
+                        }
+                    }
+                    return found;
+                });
+                if (!versions.isEmpty()) {
+                    return versions;
+                }
+            }
+        } catch (SQLException e) {
+            handleSQLException(e, query.sql(), "Error while retrieving the history of the message with id: "
+                    + messageId);
+        }
+        return new ArrayList<>();
+    }
+
+    /**
+     * Delete a message from the database. The message is marked as deleted and
+     * disappears from every read at once; its row and history are removed later
+     * by MessagePurger. The read replicas drop their copy straight away.
      *
      * @param message The message to delete.
      * @return true if the deletion was successful; false if the message was not
@@ -204,31 +661,366 @@ public class MessageDao implements BaseDao<Message> {
      */
     @Override
     public boolean delete(Message message) {
-        String sql = "DELETE FROM message WHERE message_id = ?";
-        int rowsUpdated = 0;
-        Connection conn = ConnectionUtil.getConnection();
-        try (PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setInt(1, message.getMessage_id());
-            rowsUpdated = ps.executeUpdate();
+        Query query = Query.MESSAGE_TOMBSTONE;
+        long deletedEpoch = System.currentTimeMillis() / 1000;
+        try {
+            return wrote(capture.record(message.getMessage_id(), () -> writeById(message.getMessage_id(), conn -> {
+                PreparedStatement ps = StatementCache.prepare(conn, query);
+                ps.setLong(1, deletedEpoch);
+                ps.setInt(2, message.getMessage_id());
+                return ps.executeUpdate();
+            }, () -> ReplicaSet.Change.of(Query.MESSAGE_DELETE, message.getMessage_id())),
+                    deleted -> deleted ? ChangeEvent.deleted(ChangeEvent.MESSAGE, message.getMessage_id()) : null));
+        } catch (SQLException e) {
+            handleSQLException(e, query.sql(), "Error while deleting the message with id: " + message.getMessage_id());
+        }
+        return false;
+    }
+
+    // Read on the connection of the update, while ReplicaSet holds the log, so no other write comes in between
+    private static int currentVersion(Connection conn, int messageId) throws SQLException {
+        PreparedStatement ps = StatementCache.prepare(conn, Query.MESSAGE_VERSION_BY_ID);
+        ps.setInt(1, messageId);
+        try (ResultSet rs = ps.executeQuery()) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    private static <T> T wrote(T result) {
+        lastWriteMillis = System.currentTimeMillis();
+        return result;
+    }
+
+    /**
+     * @return the time, in milliseconds, at which a message was last inserted,
+     *         updated or deleted through any MessageDao.
+     */
+    static long lastWriteMillis() {
+        return lastWriteMillis;
+    }
+
+    /**
+     * Permanently removes a batch of one shard's deleted messages, with their
+     * likes and history. Messages deleted on the primary database are already
+     * gone from the read replicas, so nothing is logged for them.
+     *
+     * @param shard         The shard to purge.
+     * @param deletedBefore Only messages deleted at or before this epoch second
+     *                      are purged.
+     * @param limit         The maximum number of messages to purge.
+     * @return the number of messages purged.
+     */
+    int purgeShard(int shard, long deletedBefore, int limit) {
+        Query query = Query.MESSAGE_PURGEABLE;
+        try {
+            return purgeSelected(shard, conn -> {
+                PreparedStatement ps = StatementCache.prepare(conn, query);
+                ps.setLong(1, deletedBefore);
+                ps.setInt(2, limit);
+                return ps;
+            });
+        } catch (SQLException e) {
+            handleSQLException(e, query.sql(), "Error while purging deleted messages from shard " + shard);
+        }
+        return 0;
+    }
+
+    /**
+     * Permanently removes a batch of one account's deleted messages, with their
+     * likes and history, from every shard. Used when the account itself is
+     * deleted, which cannot wait for MessagePurger's grace period.
+     *
+     * @param accountId The ID of the account whose messages to purge.
+     * @param limit     The maximum number of messages to purge per shard.
+     * @return the number of messages purged.
+     */
+    public int purgeMessagesByAccountId(int accountId, int limit) {
+        Query query = Query.MESSAGE_PURGEABLE_BY_POSTED_BY;
+        int purged = 0;
+        try {
+            // Every shard, not only the account's: a delete made while a range was moving marked the copies on
+            // both shards
+            for (int shard = 0; shard < router.getShardCount(); shard++) {
+                purged += purgeSelected(shard, conn -> {
+                    PreparedStatement ps = StatementCache.prepare(conn, query);
+                    ps.setInt(1, accountId);
+                    ps.setInt(2, limit);
+                    return ps;
+                });
+            }
         } catch (SQLException e) {
-            handleSQLException(e, sql, "Error while deleting the message with id: " + message.getMessage_id());
+            handleSQLException(e, query.sql(), "Error while purging the messages of account " + accountId);
+        }
+        return purged;
+    }
+
+    /**
+     * Deletes the messages of one shard whose IDs a query selects, likes and
+     * history first: if the purge stops halfway the messages are still marked
+     * and the next pass finishes them. The likes live on the primary database
+     * whichever shard holds the messages.
+     */
+    private int purgeSelected(int shard, ShardWork<PreparedStatement> select) throws SQLException {
+        List<Integer> ids = onShard(shard, conn -> {
+            List<Integer> selected = new ArrayList<>();
+            try (ResultSet rs = select.run(conn).executeQuery()) {
+                while (rs.next()) {
+                    selected.add(rs.getInt(1));
+                }
+            }
+            return selected;
+        });
+        if (ids.isEmpty()) {
+            return 0;
         }
-        return rowsUpdated > 0;
+        reactionDao.removeMessages(ids);
+        return onShard(shard, conn -> {
+            PreparedStatement versions = StatementCache.prepare(conn, Query.MESSAGE_VERSION_PURGE);
+            PreparedStatement messages = StatementCache.prepare(conn, Query.MESSAGE_PURGE);
+            for (int id : ids) {
+                versions.setInt(1, id);
+                versions.addBatch();
+                messages.setInt(1, id);
+                messages.addBatch();
+            }
+            versions.executeBatch();
+            int purged = 0;
+            for (int count : messages.executeBatch()) {
+                purged += Math.max(count, 0);
+            }
+            return purged;
+        });
     }
 
     /**
-     * Helper method to convert a ResultSet row into a Message object
+     * Checkpoints one shard's store, so the space freed by purges can be
+     * compacted.
      *
-     * @param rs The ResultSet containing the row to convert.
-     * @return The converted Message object.
-     * @throws SQLException If an error occurs while processing the ResultSet.
+     * @param shard The shard to checkpoint.
      */
-    private Message mapResultSetToMessage(ResultSet rs) throws SQLException {
-        int messageId = rs.getInt("message_id");
-        int postedBy = rs.getInt("posted_by");
-        String messageText = rs.getString("message_text");
-        long timePostedEpoch = rs.getLong("time_posted_epoch");
-        return new Message(messageId, postedBy, messageText, timePostedEpoch);
+    void checkpointShard(int shard) {
+        Query query = Query.STORE_CHECKPOINT;
+        try {
+            onShard(shard, conn -> StatementCache.prepare(conn, query).executeUpdate());
+        } catch (SQLException e) {
+            handleSQLException(e, query.sql(), "Error while checkpointing shard " + shard);
+        }
+    }
+
+    /**
+     * Applies a write keyed by message ID. It stops at the first shard that
+     * changed a row, except while a range is being moved: the row may then exist
+     * on two shards and both copies must change.
+     *
+     * @param messageId The ID of the message being written.
+     * @param write     The write, returning the number of rows changed.
+     * @param change    The change logged for the replicas when the write
+     *                  changes a row on the primary database.
+     * @return true if any shard changed a row.
+     * @throws SQLException If the write fails on a shard.
+     */
+    private boolean writeById(int messageId, ShardWork<Integer> write, Supplier<ReplicaSet.Change> change)
+            throws SQLException {
+        boolean everywhere = router.isMigrating();
+        boolean changed = false;
+        for (int shard : shardsForMessage(messageId)) {
+            changed |= logged(shard, () -> onShard(shard, write), rows -> rows > 0 ? change.get() : null) > 0;
+            if (changed && !everywhere) {
+                break;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Reads a batch of one shard's messages in message_id order, starting after
+     * the given ID. Used by MessageResharder to walk a shard without holding a
+     * long-running query open.
+     *
+     * @param shard   The shard to read.
+     * @param afterId Only messages with a greater ID are returned.
+     * @param limit   The maximum number of messages to return.
+     * @return the next messages of the shard.
+     */
+    List<Message> scanShard(int shard, int afterId, int limit) {
+        return queryShard(router.pool(shard), Query.MESSAGE_SCAN_AFTER, ps -> {
+            ps.setInt(1, afterId);
+            ps.setInt(2, limit);
+        }, "Error while scanning the messages of shard " + shard);
+    }
+
+    /**
+     * Copies messages from one shard to another with everything stored about
+     * them: their IDs, versions, deletion marks and edit history. A row already
+     * present is only overwritten by a newer version of it, or by its deletion,
+     * so a copy can be repeated safely and a copy read before an update or a
+     * deletion written to both shards does not undo it. The history is written
+     * before the messages, so a copy that stops halfway never shows a message
+     * without it.
+     *
+     * @param source   The shard to copy from.
+     * @param target   The shard to write to.
+     * @param messages The messages to copy.
+     */
+    void copyBetweenShards(int source, int target, List<Message> messages) {
+        Integer[] ids = messages.stream().map(Message::getMessage_id).toArray(Integer[]::new);
+        Query query = Query.MESSAGE_ROW_UPSERT;
+        try {
+            List<Object[]> versions = onShard(source, conn -> readRows(conn, Query.MESSAGE_VERSIONS_BY_IDS, ids, 4));
+            List<Object[]> rows = onShard(source, conn -> readRows(conn, Query.MESSAGE_ROWS_BY_IDS, ids, 6));
+            List<Object[]> live = new ArrayList<>();
+            List<Object[]> deleted = new ArrayList<>();
+            for (Object[] row : rows) {
+                (row[5] == null ? live : deleted).add(row);
+            }
+            // The replicas hold neither the history nor deleted messages: they get the live rows written as plain
+            // upserts, and the deleted ones as removals
+            logged(target, () -> onShard(target, conn -> {
+                writeRows(conn, Query.MESSAGE_VERSION_UPSERT, versions);
+                return writeNewer(conn, live);
+            }), written -> written.isEmpty() ? null : ReplicaSet.Change.ofRows(Query.MESSAGE_UPSERT,
+                    written.stream().map(row -> Arrays.copyOf(row, 5)).collect(Collectors.toList())));
+            logged(target, () -> onShard(target, conn -> writeNewer(conn, deleted)),
+                    written -> written.isEmpty() ? null : ReplicaSet.Change.ofRows(Query.MESSAGE_DELETE,
+                            written.stream().map(row -> new Object[] { row[0] }).collect(Collectors.toList())));
+        } catch (SQLException e) {
+            handleSQLException(e, query.sql(), "Error while copying messages to shard " + target);
+        }
+    }
+
+    private static List<Object[]> readRows(Connection conn, Query query, Integer[] ids, int columns)
+            throws SQLException {
+        PreparedStatement ps = StatementCache.prepare(conn, query);
+        ps.setObject(1, ids);
+        List<Object[]> rows = new ArrayList<>();
+        try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                Object[] row = new Object[columns];
+                for (int i = 0; i < columns; i++) {
+                    row[i] = rs.getObject(i + 1);
+                }
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+
+    private static int writeRows(Connection conn, Query query, List<Object[]> rows) throws SQLException {
+        if (rows.isEmpty()) {
+            return 0;
+        }
+        PreparedStatement ps = StatementCache.prepare(conn, query);
+        for (Object[] row : rows) {
+            for (int i = 0; i < row.length; i++) {
+                ps.setObject(i + 1, row[i]);
+            }
+            ps.addBatch();
+        }
+        ps.executeBatch();
+        return rows.size();
+    }
+
+    /**
+     * Writes copied message rows with MESSAGE_ROW_UPSERT, which skips those the
+     * shard already holds in a newer state.
+     *
+     * @return the rows actually written.
+     */
+    private static List<Object[]> writeNewer(Connection conn, List<Object[]> rows) throws SQLException {
+        if (rows.isEmpty()) {
+            return rows;
+        }
+        PreparedStatement ps = StatementCache.prepare(conn, Query.MESSAGE_ROW_UPSERT);
+        for (Object[] row : rows) {
+            for (int i = 0; i < row.length; i++) {
+                ps.setObject(i + 1, row[i]);
+            }
+            ps.addBatch();
+        }
+        int[] counts = ps.executeBatch();
+        List<Object[]> written = new ArrayList<>();
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                written.add(rows.get(i));
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Deletes messages, with their history, from one shard only. The history
+     * goes first, as in a purge.
+     *
+     * @param shard    The shard to delete from.
+     * @param messages The messages to delete.
+     */
+    void deleteOnShard(int shard, List<Message> messages) {
+        Query query = Query.MESSAGE_DELETE;
+        List<Object[]> rows = new ArrayList<>();
+        for (Message message : messages) {
+            rows.add(new Object[] { message.getMessage_id() });
+        }
+        try {
+            logged(shard, () -> onShard(shard, conn -> {
+                writeRows(conn, Query.MESSAGE_VERSION_PURGE, rows);
+                return writeRows(conn, query, rows);
+            }), count -> ReplicaSet.Change.ofRows(query, rows));
+        } catch (SQLException e) {
+            handleSQLException(e, query.sql(), "Error while removing moved messages from shard " + shard);
+        }
+    }
+
+    private List<Message> queryShard(ConnectionPool pool, Query query, ParameterBinder binder, String errorMessage) {
+        try {
+            return onPool(pool, conn -> {
+                PreparedStatement ps = StatementCache.prepare(conn, query);
+                binder.bind(ps);
+                try (ResultSet rs = ps.executeQuery()) {
+                    return mapResultSetToList(rs);
+                }
+            });
+        } catch (SQLException e) {
+            handleSQLException(e, query.sql(), errorMessage);
+        }
+        return new ArrayList<>();
+    }
+
+    /**
+     * Merges lists that are each sorted by the same order into one sorted list.
+     * Equal messages next to each other, which only happen while a range is
+     * being copied between shards, are kept once.
+     *
+     * @param sorted The sorted lists, e.g. one per shard.
+     * @param order  The order every list is sorted by.
+     * @param limit  The maximum number of messages to return.
+     * @return the merged list.
+     */
+    private static List<Message> merge(List<List<Message>> sorted, Comparator<Message> order, int limit) {
+        if (sorted.size() == 1) {
+            List<Message> only = sorted.get(0);
+            return only.size() <= limit ? only : new ArrayList<>(only.subList(0, limit));
+        }
+        // Heap entries are {list index, position in that list}
+        PriorityQueue<int[]> heads = new PriorityQueue<>(
+                (a, b) -> order.compare(sorted.get(a[0]).get(a[1]), sorted.get(b[0]).get(b[1])));
+        for (int i = 0; i < sorted.size(); i++) {
+            if (!sorted.get(i).isEmpty()) {
+                heads.add(new int[] { i, 0 });
+            }
+        }
+        List<Message> merged = new ArrayList<>();
+        while (!heads.isEmpty() && merged.size() < limit) {
+            int[] head = heads.poll();
+            List<Message> list = sorted.get(head[0]);
+            Message message = list.get(head[1]);
+            if (merged.isEmpty() || merged.get(merged.size() - 1).getMessage_id() != message.getMessage_id()) {
+                merged.add(message);
+            }
+            if (++head[1] < list.size()) {
+                heads.add(head);
+            }
+        }
+        return merged;
     }
 
     /**
@@ -247,7 +1039,7 @@ public class MessageDao implements BaseDao<Message> {
     private List<Message> mapResultSetToList(ResultSet rs) throws SQLException {
         List<Message> messages = new ArrayList<>();
         while (rs.next()) {
-            messages.add(mapResultSetToMessage(rs));
+            messages.add(MESSAGE_MAPPER.mapRow(rs));
         }
         return messages;
     }
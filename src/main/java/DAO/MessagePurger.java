@@ -0,0 +1,207 @@
+package DAO;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import Util.AppConfig;
+import Util.ShardRouter;
+
+/**
+ * The MessagePurger class removes deleted messages for good, in the background.
+ *
+ * MessageDao.delete only marks a message as deleted. Every purge.interval-ms the purger walks the shards and, on
+ * each, hard-deletes the messages that were deleted more than purge.grace-seconds ago, together with their likes and
+ * edit history. It works in batches of purge.batch-size, pausing purge.pause-ms between batches, so a mass deletion is
+ * spread out instead of locking the table for one long statement.
+ *
+ * Once a pass finds nothing left to purge and no message has been written for purge.compact.quiet-ms, the shards
+ * that were purged since the last compaction are checkpointed, at most once every purge.compact.interval-ms. H2
+ * can only shrink its file while closing (SHUTDOWN COMPACT); the checkpoint commits the purges so that the
+ * store's background compaction can rewrite the chunks they emptied.
+ */
+public class MessagePurger {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MessagePurger.class);
+
+    private static MessagePurger defaultPurger;
+
+    private final ShardRouter router;
+    private final MessageDao messageDao;
+    private final long graceSeconds;
+    private final int batchSize;
+    private final long pauseMillis;
+    private final long intervalMillis;
+    private final long compactIntervalMillis;
+    private final long quietMillis;
+    // Shards purged since their last checkpoint
+    private final boolean[] dirty;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "message-purger");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final AtomicLong purged = new AtomicLong();
+    private final AtomicLong passes = new AtomicLong();
+    private final AtomicLong compactions = new AtomicLong();
+    private volatile long lastCompactionMillis = System.currentTimeMillis();
+    private volatile String lastError;
+    private volatile boolean started;
+
+    public MessagePurger() {
+        this(ShardRouter.getDefault(), new MessageDao(), AppConfig.getLong("purge.grace-seconds", 300));
+    }
+
+    /**
+     * Constructor that purges through the given router and DAO. Useful for testing purposes.
+     *
+     * @param router       The router whose shards are purged.
+     * @param messageDao   The DAO used to purge and checkpoint individual shards.
+     * @param graceSeconds How long a deleted message is kept before it is purged.
+     */
+    public MessagePurger(ShardRouter router, MessageDao messageDao, long graceSeconds) {
+        this.router = router;
+        this.messageDao = messageDao;
+        this.graceSeconds = graceSeconds;
+        this.batchSize = AppConfig.getInt("purge.batch-size", 200);
+        this.pauseMillis = AppConfig.getLong("purge.pause-ms", 20);
+        this.intervalMillis = AppConfig.getLong("purge.interval-ms", 30_000);
+        this.compactIntervalMillis = AppConfig.getLong("purge.compact.interval-ms", 3_600_000);
+        this.quietMillis = AppConfig.getLong("purge.compact.quiet-ms", 60_000);
+        this.dirty = new boolean[router.getShardCount()];
+    }
+
+    /**
+     * @return the purger of the application's shards, started on first use.
+     */
+    public static synchronized MessagePurger getDefault() {
+        if (defaultPurger == null) {
+            defaultPurger = new MessagePurger();
+            defaultPurger.start();
+        }
+        return defaultPurger;
+    }
+
+    /**
+     * Starts purging every purge.interval-ms.
+     */
+    public synchronized void start() {
+        if (started) {
+            return;
+        }
+        started = true;
+        executor.scheduleWithFixedDelay(this::runScheduled, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the background purge; a batch in progress is finished first.
+     */
+    public void stop() {
+        executor.shutdown();
+    }
+
+    private void runScheduled() {
+        try {
+            if (purgeOnce() == 0) {
+                compactIfQuiet();
+            }
+            lastError = null;
+        } catch (RuntimeException e) {
+            lastError = e.getMessage();
+            LOGGER.error("Purging deleted messages failed", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Purges every shard of the messages whose grace period is over.
+     *
+     * @return the number of messages purged.
+     * @throws InterruptedException If interrupted while pausing between batches.
+     */
+    public long purgeOnce() throws InterruptedException {
+        long deletedBefore = System.currentTimeMillis() / 1000 - graceSeconds;
+        long total = 0;
+        for (int shard = 0; shard < router.getShardCount(); shard++) {
+            int count;
+            do {
+                count = messageDao.purgeShard(shard, deletedBefore, batchSize);
+                if (count > 0) {
+                    total += count;
+                    purged.addAndGet(count);
+                    synchronized (dirty) {
+                        dirty[shard] = true;
+                    }
+                    pause();
+                }
+            } while (count == batchSize);
+        }
+        passes.incrementAndGet();
+        if (total > 0) {
+            LOGGER.info("Purged {} deleted messages", total);
+        }
+        return total;
+    }
+
+    /**
+     * Checkpoints the purged shards when messages have not been written for a
+     * while and the last compaction is old enough.
+     *
+     * @return true if the shards were checkpointed.
+     */
+    boolean compactIfQuiet() {
+        long now = System.currentTimeMillis();
+        if (now - MessageDao.lastWriteMillis() < quietMillis || now - lastCompactionMillis < compactIntervalMillis) {
+            return false;
+        }
+        boolean compacted = false;
+        for (int shard = 0; shard < dirty.length; shard++) {
+            synchronized (dirty) {
+                if (!dirty[shard]) {
+                    continue;
+                }
+                dirty[shard] = false;
+            }
+            messageDao.checkpointShard(shard);
+            compacted = true;
+        }
+        lastCompactionMillis = now;
+        if (compacted) {
+            compactions.incrementAndGet();
+            LOGGER.info("Checkpointed the purged shards during a quiet period");
+        }
+        return compacted;
+    }
+
+    private void pause() throws InterruptedException {
+        if (pauseMillis > 0) {
+            Thread.sleep(pauseMillis);
+        }
+    }
+
+    /**
+     * @return the purger's settings and progress as a map ready to be serialized to JSON.
+     */
+    public Map<String, Object> describe() {
+        Map<String, Object> description = new LinkedHashMap<>();
+        description.put("graceSeconds", graceSeconds);
+        description.put("batchSize", batchSize);
+        description.put("intervalMillis", intervalMillis);
+        description.put("passes", passes.get());
+        description.put("purged", purged.get());
+        description.put("compactions", compactions.get());
+        description.put("lastCompactionMillis", lastCompactionMillis);
+        if (lastError != null) {
+            description.put("error", lastError);
+        }
+        return description;
+    }
+}
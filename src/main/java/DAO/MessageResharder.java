@@ -0,0 +1,225 @@
+package DAO;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import Model.Message;
+import Util.AppConfig;
+import Util.ShardRouter;
+
+/**
+ * The MessageResharder class moves one range of the shard ring, with all its messages, to another shard while the
+ * application keeps serving requests.
+ *
+ * A move runs in the background in four phases:
+ * 1. the range is marked as migrating, so new messages for it are written to the target shard and reads and
+ *    writes consult both shards;
+ * 2. the range's messages are copied from the source shard to the target in batches of increasing message_id,
+ *    with their versions, deletion marks and edit history, then copied once more so that changes made while the
+ *    first pass ran are carried over;
+ * 3. ownership of the range is handed to the target shard and recorded on the primary database;
+ * 4. the copies left on the source shard, and their history, are deleted in batches, pausing between batches so
+ *    the move does not starve regular traffic.
+ *
+ * Only one move runs at a time. A failed move is abandoned and the range stays with its previous owner; rows
+ * already copied to the target are harmless duplicates that reads ignore and a later move overwrites.
+ */
+public class MessageResharder {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MessageResharder.class);
+
+    public enum Phase {
+        PENDING, COPYING, SWITCHING, CLEANING, DONE, FAILED
+    }
+
+    private final ShardRouter router;
+    private final MessageDao messageDao;
+    private final int batchSize;
+    private final long pauseMillis;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "message-resharder");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicReference<Move> current = new AtomicReference<>();
+
+    public MessageResharder() {
+        this(ShardRouter.getDefault(), new MessageDao());
+    }
+
+    /**
+     * Constructor that moves messages through the given router and DAO. Useful for testing purposes.
+     *
+     * @param router     The router whose ranges are moved.
+     * @param messageDao The DAO used to read, copy and delete messages on individual shards.
+     */
+    public MessageResharder(ShardRouter router, MessageDao messageDao) {
+        this.router = router;
+        this.messageDao = messageDao;
+        this.batchSize = AppConfig.getInt("shards.move.batch-size", 500);
+        this.pauseMillis = AppConfig.getLong("shards.move.pause-ms", 10);
+    }
+
+    /**
+     * Starts moving a range to another shard in the background.
+     *
+     * @param point  The ring point index of the range.
+     * @param target The shard the range moves to.
+     * @return the move, whose progress can be followed through {@link #getCurrentMove()}.
+     * @throws IllegalArgumentException If the range or shard does not exist or the shard already owns the range.
+     * @throws IllegalStateException    If another move is still running.
+     */
+    public Move start(int point, int target) {
+        if (point < 0 || point >= router.getPointCount() || target < 0 || target >= router.getShardCount()) {
+            throw new IllegalArgumentException("Unknown range " + point + " or shard " + target);
+        }
+        int source = router.ownerOf(point);
+        if (source == target) {
+            throw new IllegalArgumentException("Range " + point + " is already on shard " + target);
+        }
+        Move move = new Move(point, source, target);
+        Move previous = current.get();
+        if (previous != null && !previous.isFinished() || !current.compareAndSet(previous, move)) {
+            throw new IllegalStateException("Another move is in progress");
+        }
+        executor.execute(() -> run(move));
+        return move;
+    }
+
+    /**
+     * @return the running or most recently finished move, or null if none was started.
+     */
+    public Move getCurrentMove() {
+        return current.get();
+    }
+
+    private void run(Move move) {
+        LOGGER.info("Moving range {} from shard {} to shard {}", move.point, move.source, move.target);
+        try {
+            router.beginMigration(move.point, move.target);
+            move.phase = Phase.COPYING;
+            copy(move);
+            copy(move);
+            move.phase = Phase.SWITCHING;
+            router.completeMigration(move.point);
+            move.phase = Phase.CLEANING;
+            clean(move);
+            move.phase = Phase.DONE;
+            LOGGER.info("Moved range {} to shard {}: {} messages", move.point, move.target, move.moved.get());
+        } catch (RuntimeException | InterruptedException e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            if (move.phase != Phase.CLEANING) {
+                router.abortMigration(move.point);
+            }
+            move.error = e.getMessage();
+            move.phase = Phase.FAILED;
+            LOGGER.error("Moving range {} to shard {} failed", move.point, move.target, e);
+        }
+    }
+
+    private void copy(Move move) throws InterruptedException {
+        move.copied.set(0);
+        int afterId = 0;
+        List<Message> batch;
+        do {
+            batch = messageDao.scanShard(move.source, afterId, batchSize);
+            List<Message> inRange = inRange(batch, move.point);
+            if (!inRange.isEmpty()) {
+                messageDao.copyBetweenShards(move.source, move.target, inRange);
+                move.copied.addAndGet(inRange.size());
+            }
+            if (!batch.isEmpty()) {
+                afterId = batch.get(batch.size() - 1).getMessage_id();
+            }
+            pause();
+        } while (batch.size() == batchSize);
+    }
+
+    private void clean(Move move) throws InterruptedException {
+        int afterId = 0;
+        List<Message> batch;
+        do {
+            batch = messageDao.scanShard(move.source, afterId, batchSize);
+            List<Message> inRange = inRange(batch, move.point);
+            if (!inRange.isEmpty()) {
+                messageDao.deleteOnShard(move.source, inRange);
+                move.moved.addAndGet(inRange.size());
+            }
+            if (!batch.isEmpty()) {
+                afterId = batch.get(batch.size() - 1).getMessage_id();
+            }
+            pause();
+        } while (batch.size() == batchSize);
+    }
+
+    private List<Message> inRange(List<Message> batch, int point) {
+        List<Message> inRange = new ArrayList<>();
+        for (Message message : batch) {
+            if (router.pointFor(message.getPosted_by()) == point) {
+                inRange.add(message);
+            }
+        }
+        return inRange;
+    }
+
+    private void pause() throws InterruptedException {
+        if (pauseMillis > 0) {
+            Thread.sleep(pauseMillis);
+        }
+    }
+
+    /**
+     * The progress of one range move.
+     */
+    public static class Move {
+        private final int point;
+        private final int source;
+        private final int target;
+        private final AtomicLong copied = new AtomicLong();
+        private final AtomicLong moved = new AtomicLong();
+        private volatile Phase phase = Phase.PENDING;
+        private volatile String error;
+
+        Move(int point, int source, int target) {
+            this.point = point;
+            this.source = source;
+            this.target = target;
+        }
+
+        public boolean isFinished() {
+            return phase == Phase.DONE || phase == Phase.FAILED;
+        }
+
+        public Phase getPhase() {
+            return phase;
+        }
+
+        /**
+         * @return the progress as a map ready to be serialized to JSON.
+         */
+        public Map<String, Object> describe() {
+            Map<String, Object> description = new LinkedHashMap<>();
+            description.put("point", point);
+            description.put("source", source);
+            description.put("target", target);
+            description.put("phase", phase);
+            description.put("copied", copied.get());
+            description.put("removedFromSource", moved.get());
+            if (error != null) {
+                description.put("error", error);
+            }
+            return description;
+        }
+    }
+}
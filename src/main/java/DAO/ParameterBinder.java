@@ -0,0 +1,17 @@
+package DAO;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * A ParameterBinder sets the parameters of a registered Query on its prepared statement before it runs.
+ */
+@FunctionalInterface
+interface ParameterBinder {
+
+    /**
+     * @param ps The statement of the query about to run.
+     * @throws SQLException If a parameter cannot be set.
+     */
+    void bind(PreparedStatement ps) throws SQLException;
+}
@@ -0,0 +1,154 @@
+package DAO;
+
+/**
+ * The Query enum is the central registry of every SQL statement the DAOs execute.
+ *
+ * Keeping the statements here instead of inline in each DAO method gives each one a stable identity, which is what
+ * lets StatementCache prepare it once per connection and reuse it afterwards. Every SELECT lists its columns
+ * explicitly and in a fixed order, so the row mappers can read them by index instead of looking each column up
+ * by name for every row.
+ */
+public enum Query {
+
+    // Column order for every message SELECT: message_id, posted_by, message_text, time_posted_epoch, and for
+    // MESSAGE_BY_ID and MESSAGE_ALL the version after them.
+    // Deleted messages keep their row, with deleted_epoch set, until MessagePurger removes it, so every read
+    // filters them out.
+    MESSAGE_BY_ID("SELECT message_id, posted_by, message_text, time_posted_epoch, version FROM message "
+            + "WHERE message_id = ? AND deleted_epoch IS NULL"),
+    // The parameter is an array of IDs, so chunks of any size share one statement; H2 looks each up in the key
+    MESSAGE_BY_IDS("SELECT message_id, posted_by, message_text, time_posted_epoch FROM message "
+            + "WHERE message_id = ANY(?) AND deleted_epoch IS NULL"),
+    MESSAGE_ALL("SELECT message_id, posted_by, message_text, time_posted_epoch, version FROM message "
+            + "WHERE deleted_epoch IS NULL ORDER BY message_id"),
+    // Ordered by ID, as the shards' results are merged by ID while a range is moving
+    MESSAGE_BY_POSTED_BY("SELECT message_id, posted_by, message_text, time_posted_epoch FROM message "
+            + "WHERE posted_by = ? AND deleted_epoch IS NULL ORDER BY message_id"),
+    // Newest first; the message_id tie-break keeps the order stable for equal timestamps
+    MESSAGE_RANGE_DESC("SELECT message_id, posted_by, message_text, time_posted_epoch FROM message "
+            + "WHERE time_posted_epoch BETWEEN ? AND ? AND deleted_epoch IS NULL "
+            + "ORDER BY time_posted_epoch DESC, message_id DESC LIMIT ?"),
+    MESSAGE_LATEST("SELECT message_id, posted_by, message_text, time_posted_epoch FROM message "
+            + "WHERE deleted_epoch IS NULL ORDER BY time_posted_epoch DESC, message_id DESC LIMIT ?"),
+    // Keyset pagination over one account's messages, used when deleting the account
+    MESSAGE_BY_POSTED_BY_AFTER("SELECT message_id, posted_by, message_text, time_posted_epoch FROM message "
+            + "WHERE posted_by = ? AND message_id > ? AND deleted_epoch IS NULL ORDER BY message_id LIMIT ?"),
+    // Keyset pagination over one shard, used when moving messages between shards. Deleted messages are included:
+    // they move with their mark, so that a deletion made during the move is carried over
+    MESSAGE_SCAN_AFTER("SELECT message_id, posted_by, message_text, time_posted_epoch FROM message "
+            + "WHERE message_id > ? ORDER BY message_id LIMIT ?"),
+    // Whole rows, including the version and the deletion mark, for copying messages between shards
+    MESSAGE_ROWS_BY_IDS("SELECT message_id, posted_by, message_text, time_posted_epoch, version, deleted_epoch "
+            + "FROM message WHERE message_id = ANY(?)"),
+    // A copy only replaces a row of an older version, or the live row of the same version it marks deleted, so
+    // that a copy read before a write made to both shards cannot undo that write
+    MESSAGE_ROW_UPSERT("MERGE INTO message t USING (VALUES (CAST(? AS INT), CAST(? AS INT), "
+            + "CAST(? AS VARCHAR(255)), CAST(? AS BIGINT), CAST(? AS INT), CAST(? AS BIGINT))) "
+            + "s (message_id, posted_by, message_text, time_posted_epoch, version, deleted_epoch) "
+            + "ON t.message_id = s.message_id "
+            + "WHEN MATCHED AND (t.version < s.version OR t.version = s.version AND t.deleted_epoch IS NULL "
+            + "AND s.deleted_epoch IS NOT NULL) THEN UPDATE SET posted_by = s.posted_by, "
+            + "message_text = s.message_text, time_posted_epoch = s.time_posted_epoch, version = s.version, "
+            + "deleted_epoch = s.deleted_epoch "
+            + "WHEN NOT MATCHED THEN INSERT (message_id, posted_by, message_text, time_posted_epoch, version, "
+            + "deleted_epoch) VALUES (s.message_id, s.posted_by, s.message_text, s.time_posted_epoch, s.version, "
+            + "s.deleted_epoch)"),
+    MESSAGE_INSERT("INSERT INTO message(posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?)", true),
+    MESSAGE_UPSERT("MERGE INTO message (message_id, posted_by, message_text, time_posted_epoch, version) "
+            + "KEY (message_id) VALUES (?, ?, ?, ?, ?)"),
+    MESSAGE_VERSION_BY_ID("SELECT version FROM message WHERE message_id = ?"),
+    // Updates the message and archives the version it replaces in a single statement. The last parameter is the
+    // version the caller expects to replace, or NULL to replace whatever version is current.
+    MESSAGE_UPDATE("INSERT INTO message_version (message_id, version, message_text, replaced_epoch) "
+            + "SELECT message_id, version, message_text, ? FROM OLD TABLE (UPDATE message "
+            + "SET posted_by = ?, message_text = ?, time_posted_epoch = ?, version = version + 1 "
+            + "WHERE message_id = ? AND version = COALESCE(?, version) AND deleted_epoch IS NULL)"),
+    // The current version followed by the archived ones, newest first, for versions below the given one. The
+    // history of a deleted message is hidden along with the message.
+    MESSAGE_HISTORY("SELECT message_id, version, message_text, CAST(NULL AS BIGINT) FROM message "
+            + "WHERE message_id = ? AND version < ? AND deleted_epoch IS NULL "
+            + "UNION ALL SELECT message_id, version, message_text, replaced_epoch FROM message_version "
+            + "WHERE message_id IN (SELECT message_id FROM message WHERE message_id = ? AND deleted_epoch IS NULL) "
+            + "AND version < ? ORDER BY 2 DESC LIMIT ?"),
+    // Deleting a message only marks it; the row is removed later by MESSAGE_PURGE
+    MESSAGE_TOMBSTONE("UPDATE message SET deleted_epoch = ? WHERE message_id = ? AND deleted_epoch IS NULL"),
+    // Removes a row outright: copies left behind by resharding, and deletions applied to the read replicas
+    MESSAGE_DELETE("DELETE FROM message WHERE message_id = ?"),
+    // The oldest deleted messages of a shard that are due to be purged
+    MESSAGE_PURGEABLE("SELECT message_id FROM message WHERE deleted_epoch <= ? ORDER BY deleted_epoch LIMIT ?"),
+    // The deleted messages of one account, purged before the account itself is removed
+    MESSAGE_PURGEABLE_BY_POSTED_BY("SELECT message_id FROM message WHERE posted_by = ? AND deleted_epoch IS NOT NULL "
+            + "LIMIT ?"),
+    MESSAGE_VERSION_PURGE("DELETE FROM message_version WHERE message_id = ?"),
+    MESSAGE_VERSIONS_BY_IDS("SELECT message_id, version, message_text, replaced_epoch FROM message_version "
+            + "WHERE message_id = ANY(?)"),
+    MESSAGE_VERSION_UPSERT("MERGE INTO message_version (message_id, version, message_text, replaced_epoch) "
+            + "KEY (message_id, version) VALUES (?, ?, ?, ?)"),
+    MESSAGE_PURGE("DELETE FROM message WHERE message_id = ? AND deleted_epoch IS NOT NULL"),
+    // Commits everything written so far to the store file, which lets H2 compact the chunks purges emptied
+    STORE_CHECKPOINT("CHECKPOINT"),
+
+    // One row per account that likes a message; the counts are kept in memory and flushed to
+    // message_reaction_count as increments
+    REACTION_INSERT("INSERT INTO message_reaction (message_id, account_id, reacted_epoch) "
+            + "SELECT ?, ?, ? WHERE NOT EXISTS "
+            + "(SELECT 1 FROM message_reaction WHERE message_id = ? AND account_id = ?)"),
+    REACTION_DELETE("DELETE FROM message_reaction WHERE message_id = ? AND account_id = ?"),
+    REACTION_COUNT_AGGREGATE("SELECT message_id, COUNT(*) FROM message_reaction GROUP BY message_id"),
+    REACTION_COUNT_ADD("MERGE INTO message_reaction_count c "
+            + "USING (VALUES (CAST(? AS INT), CAST(? AS BIGINT))) d (message_id, delta) "
+            + "ON c.message_id = d.message_id "
+            + "WHEN MATCHED THEN UPDATE SET likes = c.likes + d.delta "
+            + "WHEN NOT MATCHED THEN INSERT (message_id, likes) VALUES (d.message_id, d.delta)"),
+    REACTION_COUNT_UPSERT("MERGE INTO message_reaction_count (message_id, likes) KEY (message_id) VALUES (?, ?)"),
+    REACTION_COUNT_CLEAR("DELETE FROM message_reaction_count"),
+    // A deleted message's likes and count, removed with it
+    REACTION_PURGE("DELETE FROM message_reaction WHERE message_id = ?"),
+    REACTION_COUNT_PURGE("DELETE FROM message_reaction_count WHERE message_id = ?"),
+
+    // Column order for every account_stats SELECT: account_id, message_count, last_posted_epoch, total_characters
+    ACCOUNT_STATS_AGGREGATE("SELECT posted_by, COUNT(*), MAX(time_posted_epoch), SUM(LENGTH(message_text)) "
+            + "FROM message WHERE deleted_epoch IS NULL GROUP BY posted_by"),
+    ACCOUNT_STATS_LAST_POSTED("SELECT MAX(time_posted_epoch) FROM message WHERE posted_by = ? "
+            + "AND deleted_epoch IS NULL"),
+    ACCOUNT_STATS_UPSERT("MERGE INTO account_stats (account_id, message_count, last_posted_epoch, total_characters) "
+            + "KEY (account_id) VALUES (?, ?, ?, ?)"),
+    ACCOUNT_STATS_DELETE("DELETE FROM account_stats WHERE account_id = ?"),
+    ACCOUNT_STATS_CLEAR("DELETE FROM account_stats"),
+
+    // Column order for every account SELECT: account_id, username, password.
+    // An account being deleted keeps its row, with deleted_epoch set, until its messages are gone; reads skip it
+    // but its username stays taken until then.
+    ACCOUNT_BY_ID("SELECT account_id, username, password FROM account WHERE account_id = ? AND deleted_epoch IS NULL"),
+    ACCOUNT_ALL("SELECT account_id, username, password FROM account WHERE deleted_epoch IS NULL"),
+    ACCOUNT_BY_USERNAME("SELECT account_id, username, password FROM account "
+            + "WHERE username = ? AND deleted_epoch IS NULL"),
+    ACCOUNT_USERNAME_EXISTS("SELECT COUNT(*) FROM account WHERE username = ?"),
+    // Accounts whose deletion was started but not finished, e.g. before a restart
+    ACCOUNT_BEING_DELETED("SELECT account_id FROM account WHERE deleted_epoch IS NOT NULL ORDER BY account_id"),
+    ACCOUNT_INSERT("INSERT INTO account (username, password) VALUES (?, ?)", true),
+    ACCOUNT_UPSERT("MERGE INTO account (account_id, username, password) KEY (account_id) VALUES (?, ?, ?)"),
+    ACCOUNT_UPDATE("UPDATE account SET username = ?, password = ? WHERE account_id = ?"),
+    ACCOUNT_MARK_DELETED("UPDATE account SET deleted_epoch = ? WHERE account_id = ? AND deleted_epoch IS NULL"),
+    ACCOUNT_DELETE("DELETE FROM account WHERE account_id = ?");
+
+    private final String sql;
+    private final boolean returnsGeneratedKeys;
+
+    Query(String sql) {
+        this(sql, false);
+    }
+
+    Query(String sql, boolean returnsGeneratedKeys) {
+        this.sql = sql;
+        this.returnsGeneratedKeys = returnsGeneratedKeys;
+    }
+
+    public String sql() {
+        return sql;
+    }
+
+    public boolean returnsGeneratedKeys() {
+        return returnsGeneratedKeys;
+    }
+}
@@ -0,0 +1,173 @@
+package DAO;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.h2.api.ErrorCode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class implements the DAO for the message_reaction and
+ * message_reaction_count tables, which live on the primary database.
+ *
+ * message_reaction holds who liked what and is written on every like, one row
+ * per account and message, so two accounts liking the same message never
+ * touch the same row. message_reaction_count is only written by
+ * ReactionService's periodic flush, with one batched increment per message.
+ */
+public class ReactionDao {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReactionDao.class);
+
+    private void handleSQLException(SQLException e, String sql, String errorMessage) {
+        LOGGER.error("SQLException Details: {}", e.getMessage());
+        LOGGER.error("SQL State: {}", e.getSQLState());
+        LOGGER.error("Error Code: {}", e.getErrorCode());
+        LOGGER.error("SQL: {}", sql);
+        throw new DaoException(errorMessage, e);
+    }
+
+    /**
+     * Records that an account likes a message.
+     *
+     * @param messageId The ID of the message.
+     * @param accountId The ID of the account.
+     * @return true if the like is new; false if the account already liked the
+     *         message.
+     */
+    public boolean addLike(int messageId, int accountId) {
+        Query query = Query.REACTION_INSERT;
+        Connection conn = TransactionTemplate.primaryConnection();
+        try {
+            PreparedStatement ps = StatementCache.prepare(conn, query);
+            ps.setInt(1, messageId);
+            ps.setInt(2, accountId);
+            ps.setLong(3, System.currentTimeMillis() / 1000);
+            ps.setInt(4, messageId);
+            ps.setInt(5, accountId);
+            return ps.executeUpdate() > 0;
+        } catch (SQLException e) {
+            // Two concurrent likes by the same account: the other one won
+            if (e.getErrorCode() == ErrorCode.DUPLICATE_KEY_1) {
+                return false;
+            }
+            handleSQLException(e, query.sql(), "Error while liking message " + messageId);
+        }
+        return false;
+    }
+
+    /**
+     * Withdraws an account's like of a message.
+     *
+     * @param messageId The ID of the message.
+     * @param accountId The ID of the account.
+     * @return true if the account had liked the message.
+     */
+    public boolean removeLike(int messageId, int accountId) {
+        Query query = Query.REACTION_DELETE;
+        Connection conn = TransactionTemplate.primaryConnection();
+        try {
+            PreparedStatement ps = StatementCache.prepare(conn, query);
+            ps.setInt(1, messageId);
+            ps.setInt(2, accountId);
+            return ps.executeUpdate() > 0;
+        } catch (SQLException e) {
+            handleSQLException(e, query.sql(), "Error while unliking message " + messageId);
+        }
+        return false;
+    }
+
+    /**
+     * Removes every like, and the stored count, of deleted messages.
+     *
+     * @param messageIds The IDs of the deleted messages.
+     */
+    public void removeMessages(List<Integer> messageIds) {
+        if (messageIds.isEmpty()) {
+            return;
+        }
+        Query query = Query.REACTION_PURGE;
+        Connection conn = TransactionTemplate.primaryConnection();
+        try {
+            PreparedStatement likes = StatementCache.prepare(conn, Query.REACTION_PURGE);
+            PreparedStatement counts = StatementCache.prepare(conn, Query.REACTION_COUNT_PURGE);
+            for (int messageId : messageIds) {
+                likes.setInt(1, messageId);
+                likes.addBatch();
+                counts.setInt(1, messageId);
+                counts.addBatch();
+            }
+            likes.executeBatch();
+            counts.executeBatch();
+        } catch (SQLException e) {
+            handleSQLException(e, query.sql(), "Error while removing the likes of deleted messages");
+        }
+    }
+
+    /**
+     * Counts the likes of every liked message from the individual likes.
+     *
+     * @return the number of likes, by message ID.
+     */
+    public Map<Integer, Long> countAll() {
+        Query query = Query.REACTION_COUNT_AGGREGATE;
+        Map<Integer, Long> counts = new HashMap<>();
+        Connection conn = TransactionTemplate.primaryConnection();
+        try {
+            PreparedStatement ps = StatementCache.prepare(conn, query);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    counts.put(rs.getInt(1), rs.getLong(2));
+                }
+            }
+        } catch (SQLException e) {
+            handleSQLException(e, query.sql(), "Error while counting likes");
+        }
+        return counts;
+    }
+
+    /**
+     * Adds increments to the stored like counts in one batch.
+     *
+     * @param deltas The change of each message's count, by message ID.
+     */
+    public void addToCounts(Map<Integer, Long> deltas) {
+        writeCounts(Query.REACTION_COUNT_ADD, false, deltas, "Error while saving like counts");
+    }
+
+    /**
+     * Replaces every stored like count.
+     *
+     * @param counts The count of each liked message, by message ID.
+     */
+    public void replaceCounts(Map<Integer, Long> counts) {
+        writeCounts(Query.REACTION_COUNT_UPSERT, true, counts, "Error while rebuilding like counts");
+    }
+
+    private void writeCounts(Query query, boolean clearFirst, Map<Integer, Long> values, String errorMessage) {
+        Connection conn = TransactionTemplate.primaryConnection();
+        try {
+            if (clearFirst) {
+                StatementCache.prepare(conn, Query.REACTION_COUNT_CLEAR).executeUpdate();
+            }
+            if (values.isEmpty()) {
+                return;
+            }
+            PreparedStatement ps = StatementCache.prepare(conn, query);
+            for (Map.Entry<Integer, Long> entry : values.entrySet()) {
+                ps.setInt(1, entry.getKey());
+                ps.setLong(2, entry.getValue());
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        } catch (SQLException e) {
+            handleSQLException(e, query.sql(), errorMessage);
+        }
+    }
+}
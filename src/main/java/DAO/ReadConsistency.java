@@ -0,0 +1,57 @@
+package DAO;
+
+/**
+ * The ReadConsistency class carries, for the request being handled on the current thread, the oldest replication
+ * log position (LSN) a read may be served from.
+ *
+ * Every write the DAOs log raises it to the write's own LSN, so later reads in the same request see the write. A
+ * request filter raises it further for a client that wrote in an earlier request, and clears it when the request
+ * completes. A replica is only used for a read once it has applied the required LSN; see ReplicaSet.
+ */
+public final class ReadConsistency {
+
+    // {required LSN, LSN of the last write made on this thread}
+    private static final ThreadLocal<long[]> STATE = ThreadLocal.withInitial(() -> new long[2]);
+
+    private ReadConsistency() {
+    }
+
+    /**
+     * Requires reads on this thread to reflect at least the given log position.
+     *
+     * @param lsn a log position; positions lower than the current requirement are ignored.
+     */
+    public static void require(long lsn) {
+        long[] state = STATE.get();
+        state[0] = Math.max(state[0], lsn);
+    }
+
+    /**
+     * @return the oldest log position reads on this thread may be served from; 0 when any replica will do.
+     */
+    public static long required() {
+        return STATE.get()[0];
+    }
+
+    /**
+     * @return the log position of the latest write made on this thread, or 0 if it made none.
+     */
+    public static long lastWrite() {
+        return STATE.get()[1];
+    }
+
+    static void noteWrite(long lsn) {
+        long[] state = STATE.get();
+        state[0] = Math.max(state[0], lsn);
+        state[1] = Math.max(state[1], lsn);
+    }
+
+    /**
+     * Forgets the requirement and the writes of the previous request handled on this thread.
+     */
+    public static void clear() {
+        long[] state = STATE.get();
+        state[0] = 0;
+        state[1] = 0;
+    }
+}
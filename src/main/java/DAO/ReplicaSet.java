@@ -0,0 +1,455 @@
+package DAO;
+
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import org.h2.tools.RunScript;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import Util.AppConfig;
+import Util.ConnectionPool;
+import Util.ConnectionUtil;
+import Util.StorageProfile;
+
+/**
+ * The ReplicaSet class keeps read-only copies of the primary database up to date and decides which copy serves a
+ * read.
+ *
+ * Replication happens in the application: every write the DAOs make on the primary is appended, in commit order,
+ * to an in-memory change log as the row it left behind (an upsert) or the key it removed (a delete). One shipper
+ * thread per replica applies the log to its replica in batches and advances that replica's applied position
+ * (LSN). Because every change is idempotent, a replica is bootstrapped by copying the primary's tables after the
+ * log has started and then replaying the log from the beginning. Entries every replica has applied are dropped.
+ *
+ * A read is sent to a replica that has applied at least the LSN the request requires (see ReadConsistency). If
+ * none has, the read waits briefly for one to catch up and otherwise goes to the primary, so a client always sees
+ * its own writes. Point lookups that find nothing on a replica are confirmed on the primary, because the row may
+ * have been created moments ago by another client.
+ *
+ * With the default of no replicas, reads and writes go straight to the primary and nothing is logged.
+ */
+public class ReplicaSet {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReplicaSet.class);
+    private static final String REPLICA_SCHEMA = "SocialMediaReplica.sql";
+    private static final int SNAPSHOT_BATCH = 500;
+    private static ReplicaSet defaultSet;
+
+    private final ConnectionPool primary;
+    private final Replica[] replicas;
+    private final long waitMillis;
+    private final int batchSize;
+    private final NavigableMap<Long, Change> log = new ConcurrentSkipListMap<>();
+    private final Object logLock = new Object();
+    private final Map<Integer, Long> lastWriteByAccount = new ConcurrentHashMap<>();
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    private final AtomicLong primaryReads = new AtomicLong();
+    private long lastLsn;
+    private volatile boolean running;
+
+    /**
+     * A write to run on the primary.
+     */
+    @FunctionalInterface
+    public interface Write<T> {
+        T run() throws SQLException;
+    }
+
+    /**
+     * @param primary    The pool of the primary database.
+     * @param replicas   One pool per replica; empty to disable replication.
+     * @param waitMillis How long a read waits for a replica to catch up before it goes to the primary.
+     * @param batchSize  The maximum number of log entries applied to a replica in one transaction.
+     */
+    public ReplicaSet(ConnectionPool primary, ConnectionPool[] replicas, long waitMillis, int batchSize) {
+        this.primary = primary;
+        this.replicas = new Replica[replicas.length];
+        for (int i = 0; i < replicas.length; i++) {
+            this.replicas[i] = new Replica(i, replicas[i]);
+        }
+        this.waitMillis = waitMillis;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return a replica set without replicas, which sends everything to the primary.
+     */
+    public static ReplicaSet none() {
+        return new ReplicaSet(ConnectionPool.shared("primary", ConnectionUtil::getConnection), new ConnectionPool[0],
+                0, 1);
+    }
+
+    /**
+     * @return the replica set configured through AppConfig (replicas.count, replicas.url, ...), created and started
+     *         on first use.
+     */
+    public static synchronized ReplicaSet getDefault() {
+        if (defaultSet == null) {
+            int count = Math.max(0, AppConfig.getInt("replicas.count", 0));
+            ConnectionPool[] pools = new ConnectionPool[count];
+            String urlPattern = AppConfig.getString("replicas.url", "jdbc:h2:./h2/replica-%d");
+            // Stored like the primary, e.g. in memory under the ephemeral profile
+            StorageProfile storage = StorageProfile.current();
+            for (int i = 0; i < count; i++) {
+                pools[i] = new ConnectionPool("replica-" + i, storage.url(String.format(urlPattern, i)),
+                        AppConfig.getString("replicas.username", "sa"), AppConfig.getString("replicas.password", "sa"),
+                        AppConfig.getInt("replicas.pool.size", 4),
+                        AppConfig.getLong("replicas.pool.timeout-ms", 2_000));
+            }
+            ReplicaSet replicaSet = new ReplicaSet(ConnectionPool.shared("primary", ConnectionUtil::getConnection),
+                    pools, AppConfig.getLong("replicas.wait-ms", 20), AppConfig.getInt("replicas.batch-size", 256));
+            replicaSet.start();
+            defaultSet = replicaSet;
+        }
+        return defaultSet;
+    }
+
+    /**
+     * Copies the primary's tables to every replica and starts shipping the change log to them.
+     */
+    public void start() {
+        if (replicas.length == 0 || running) {
+            return;
+        }
+        // Logging is already on (replicas exist), so writes racing the copy are replayed afterwards
+        running = true;
+        for (Replica replica : replicas) {
+            try {
+                snapshot(replica);
+            } catch (SQLException e) {
+                throw new IllegalStateException("Unable to copy the primary to " + replica.pool.getName(), e);
+            }
+            Thread shipper = new Thread(() -> ship(replica), "replica-shipper-" + replica.index);
+            shipper.setDaemon(true);
+            shipper.start();
+        }
+        LOGGER.info("Replicating the primary to {} replicas", replicas.length);
+    }
+
+    /**
+     * Stops the shipper threads; the replicas keep the data they have applied.
+     */
+    public void stop() {
+        running = false;
+        synchronized (logLock) {
+            logLock.notifyAll();
+        }
+    }
+
+    public boolean isEnabled() {
+        return replicas.length > 0;
+    }
+
+    /**
+     * @return the pool of the primary database.
+     */
+    public ConnectionPool primary() {
+        return primary;
+    }
+
+    /**
+     * @param requiredLsn the oldest log position the read may be served from.
+     * @return the pool of a replica that has applied requiredLsn, or of the primary if none catches up in time.
+     */
+    public ConnectionPool forRead(long requiredLsn) {
+        if (replicas.length == 0) {
+            return primary;
+        }
+        int start = Math.floorMod(nextReplica.getAndIncrement(), replicas.length);
+        for (int i = 0; i < replicas.length; i++) {
+            Replica replica = replicas[(start + i) % replicas.length];
+            if (replica.healthy && replica.applied >= requiredLsn) {
+                return replica.pool;
+            }
+        }
+        Replica replica = replicas[start];
+        if (replica.healthy && waitMillis > 0 && replica.awaitApplied(requiredLsn, waitMillis)) {
+            return replica.pool;
+        }
+        primaryReads.incrementAndGet();
+        return primary;
+    }
+
+    /**
+     * Runs a write on the primary and appends the change it made to the log in the same critical section, so the
+     * log holds changes in the order the primary applied them.
+     *
+     * @param write  The write.
+     * @param change Builds the change to log from the write's result; returns null if nothing changed.
+     * @param <T>    The write's result type.
+     * @return the write's result.
+     * @throws SQLException If the write fails; nothing is logged then.
+     */
+    public <T> T write(Write<T> write, Function<T, Change> change) throws SQLException {
+        if (replicas.length == 0) {
+            return write.run();
+        }
+        long lsn;
+        T result;
+        synchronized (logLock) {
+            result = write.run();
+            Change logged = change.apply(result);
+            if (logged == null) {
+                return result;
+            }
+            lsn = ++lastLsn;
+            log.put(lsn, logged);
+            logLock.notifyAll();
+        }
+        ReadConsistency.noteWrite(lsn);
+        return result;
+    }
+
+    /**
+     * @param accountId an account ID.
+     * @return the log position of the account's latest write not yet applied by every replica, or 0.
+     */
+    public long lastWriteOf(int accountId) {
+        return replicas.length == 0 ? 0 : lastWriteByAccount.getOrDefault(accountId, 0L);
+    }
+
+    /**
+     * Remembers that an account wrote at a log position, so its next requests read at least that position.
+     *
+     * @param accountId an account ID.
+     * @param lsn       the log position of the write.
+     */
+    public void noteAccountWrite(int accountId, long lsn) {
+        if (replicas.length > 0 && lsn > minApplied()) {
+            lastWriteByAccount.merge(accountId, lsn, Math::max);
+        }
+    }
+
+    /**
+     * @return the log position, applied position and lag of every replica, ready to be serialized to JSON.
+     */
+    public Map<String, Object> describe() {
+        long last;
+        synchronized (logLock) {
+            last = lastLsn;
+        }
+        List<Map<String, Object>> described = new ArrayList<>();
+        for (Replica replica : replicas) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("name", replica.pool.getName());
+            entry.put("appliedLsn", replica.applied);
+            entry.put("lag", last - replica.applied);
+            entry.put("healthy", replica.healthy);
+            described.add(entry);
+        }
+        Map<String, Object> description = new LinkedHashMap<>();
+        description.put("lastLsn", last);
+        description.put("pendingChanges", log.size());
+        description.put("readsSentToPrimary", primaryReads.get());
+        description.put("replicas", described);
+        return description;
+    }
+
+    private void snapshot(Replica replica) throws SQLException {
+        Connection conn = replica.pool.borrow();
+        try {
+            InputStream script = ReplicaSet.class.getClassLoader().getResourceAsStream(REPLICA_SCHEMA);
+            if (script == null) {
+                throw new SQLException(REPLICA_SCHEMA + " is missing from the classpath");
+            }
+            RunScript.execute(conn, new InputStreamReader(script, StandardCharsets.UTF_8));
+            copyTable(Query.ACCOUNT_ALL, Query.ACCOUNT_UPSERT, 3, conn);
+            copyTable(Query.MESSAGE_ALL, Query.MESSAGE_UPSERT, 5, conn);
+        } finally {
+            replica.pool.release(conn);
+        }
+    }
+
+    private void copyTable(Query select, Query upsert, int columns, Connection replicaConn) throws SQLException {
+        Connection primaryConn = primary.borrow();
+        try {
+            PreparedStatement target = replicaConn.prepareStatement(upsert.sql());
+            try (PreparedStatement source = primaryConn.prepareStatement(select.sql());
+                    ResultSet rs = source.executeQuery()) {
+                int pending = 0;
+                while (rs.next()) {
+                    for (int column = 1; column <= columns; column++) {
+                        target.setObject(column, rs.getObject(column));
+                    }
+                    target.addBatch();
+                    if (++pending == SNAPSHOT_BATCH) {
+                        target.executeBatch();
+                        pending = 0;
+                    }
+                }
+                if (pending > 0) {
+                    target.executeBatch();
+                }
+            } finally {
+                target.close();
+            }
+        } finally {
+            primary.release(primaryConn);
+        }
+    }
+
+    private void ship(Replica replica) {
+        while (running) {
+            NavigableMap<Long, Change> pending = log.tailMap(replica.applied, false);
+            if (pending.isEmpty()) {
+                synchronized (logLock) {
+                    if (running && lastLsn == replica.applied) {
+                        try {
+                            logLock.wait(1_000);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+                    }
+                }
+                continue;
+            }
+            try {
+                replica.advance(apply(replica, pending));
+                replica.healthy = true;
+                trim();
+            } catch (SQLException e) {
+                // Reads avoid the replica until it applies the log again
+                replica.healthy = false;
+                LOGGER.error("Applying the change log to {} failed; retrying", replica.pool.getName(), e);
+                try {
+                    Thread.sleep(1_000);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private long apply(Replica replica, NavigableMap<Long, Change> pending) throws SQLException {
+        Connection conn = replica.pool.borrow();
+        long appliedLsn = replica.applied;
+        try {
+            conn.setAutoCommit(false);
+            int applied = 0;
+            for (Map.Entry<Long, Change> entry : pending.entrySet()) {
+                entry.getValue().applyTo(conn);
+                appliedLsn = entry.getKey();
+                if (++applied == batchSize) {
+                    break;
+                }
+            }
+            conn.commit();
+            return appliedLsn;
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(true);
+            replica.pool.release(conn);
+        }
+    }
+
+    private long minApplied() {
+        long min = Long.MAX_VALUE;
+        for (Replica replica : replicas) {
+            min = Math.min(min, replica.applied);
+        }
+        return min;
+    }
+
+    private void trim() {
+        long min = minApplied();
+        log.headMap(min, true).clear();
+        lastWriteByAccount.values().removeIf(lsn -> lsn <= min);
+    }
+
+    /**
+     * One entry of the change log: a registered Query and the parameters of one or more executions of it.
+     */
+    public static final class Change {
+        private final Query query;
+        private final List<Object[]> rows;
+
+        private Change(Query query, List<Object[]> rows) {
+            this.query = query;
+            this.rows = rows;
+        }
+
+        /**
+         * @param query  An upsert or delete Query.
+         * @param params Its parameters, in order.
+         * @return the change.
+         */
+        public static Change of(Query query, Object... params) {
+            return new Change(query, Collections.singletonList(params));
+        }
+
+        /**
+         * @param query An upsert or delete Query.
+         * @param rows  The parameters of each execution.
+         * @return the change.
+         */
+        public static Change ofRows(Query query, List<Object[]> rows) {
+            return new Change(query, rows);
+        }
+
+        void applyTo(Connection conn) throws SQLException {
+            PreparedStatement ps = StatementCache.prepare(conn, query);
+            for (Object[] params : rows) {
+                for (int i = 0; i < params.length; i++) {
+                    ps.setObject(i + 1, params[i]);
+                }
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+    }
+
+    private static final class Replica {
+        private final int index;
+        private final ConnectionPool pool;
+        private volatile long applied;
+        private volatile boolean healthy = true;
+
+        Replica(int index, ConnectionPool pool) {
+            this.index = index;
+            this.pool = pool;
+        }
+
+        synchronized void advance(long lsn) {
+            applied = lsn;
+            notifyAll();
+        }
+
+        synchronized boolean awaitApplied(long lsn, long millis) {
+            long deadline = System.nanoTime() + millis * 1_000_000L;
+            while (applied < lsn) {
+                long remaining = (deadline - System.nanoTime()) / 1_000_000L;
+                if (remaining <= 0) {
+                    return false;
+                }
+                try {
+                    wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
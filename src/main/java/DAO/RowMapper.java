@@ -0,0 +1,21 @@
+package DAO;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * A RowMapper turns the current row of a ResultSet into a model object. Mappers read columns by index, in the
+ * order the matching Query lists them, so no column name is resolved while rows are being read.
+ *
+ * @param <T> the model type produced for each row.
+ */
+@FunctionalInterface
+public interface RowMapper<T> {
+
+    /**
+     * @param rs The ResultSet, positioned on the row to map.
+     * @return the model object for that row.
+     * @throws SQLException If a column cannot be read.
+     */
+    T mapRow(ResultSet rs) throws SQLException;
+}
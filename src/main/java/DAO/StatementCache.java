@@ -0,0 +1,125 @@
+package DAO;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import Util.ConnectionPool;
+
+/**
+ * The StatementCache class prepares each registered Query once per connection and hands the same
+ * PreparedStatement back on every later call.
+ *
+ * A PreparedStatement carries its bound parameters and its open ResultSet, so one instance must never be used by
+ * two threads at the same time. Each connection's statements are therefore kept per thread: every request thread
+ * reuses its own statements on the shared connection, and no locking is needed on the way to them.
+ *
+ * The cache holds a connection only until it is closed. The connection pools tell the cache about every connection
+ * they close, including the dedicated connections a failed unit of work discards; the cache then closes the
+ * statements prepared on it and forgets it. Connections closed some other way are found and dropped the same way
+ * the next time a statement is prepared on a connection the cache has not seen. Connections are compared by
+ * identity, as the JDBC drivers in use do not override equals.
+ *
+ * Callers must not close the statements they get from here; they only close the ResultSets they open.
+ */
+public final class StatementCache {
+
+    private static final Map<Connection, Statements> BY_CONNECTION = new ConcurrentHashMap<>();
+
+    static {
+        ConnectionPool.addCloseListener(StatementCache::evict);
+    }
+
+    /**
+     * The statements prepared on one connection: each thread's own, and all of them so they can be closed together.
+     */
+    private static final class Statements {
+        final ThreadLocal<Map<Query, PreparedStatement>> perThread =
+                ThreadLocal.withInitial(() -> new EnumMap<>(Query.class));
+        final Queue<PreparedStatement> all = new ConcurrentLinkedQueue<>();
+    }
+
+    private StatementCache() {
+    }
+
+    /**
+     * @param conn  The connection the statement must run on.
+     * @param query The registered query to prepare.
+     * @return a prepared statement for the query, reused if this thread already prepared it on this connection.
+     * @throws SQLException If the statement cannot be prepared.
+     */
+    public static PreparedStatement prepare(Connection conn, Query query) throws SQLException {
+        Statements statements = BY_CONNECTION.get(conn);
+        if (statements == null) {
+            evictClosedConnections();
+            statements = BY_CONNECTION.computeIfAbsent(conn, key -> new Statements());
+        }
+        Map<Query, PreparedStatement> own = statements.perThread.get();
+        PreparedStatement ps = own.get(query);
+        if (ps == null || ps.isClosed()) {
+            if (ps != null) {
+                statements.all.remove(ps);
+            }
+            ps = query.returnsGeneratedKeys()
+                    ? conn.prepareStatement(query.sql(), Statement.RETURN_GENERATED_KEYS)
+                    : conn.prepareStatement(query.sql());
+            own.put(query, ps);
+            statements.all.add(ps);
+        }
+        return ps;
+    }
+
+    /**
+     * Closes the statements prepared on a connection and forgets the connection, e.g. because it is being closed.
+     *
+     * @param conn The connection.
+     */
+    public static void evict(Connection conn) {
+        Statements statements = BY_CONNECTION.remove(conn);
+        if (statements == null) {
+            return;
+        }
+        PreparedStatement ps;
+        while ((ps = statements.all.poll()) != null) {
+            try {
+                ps.close();
+            } catch (SQLException e) {
+                // the connection is going away either way
+            }
+        }
+    }
+
+    /**
+     * Closes every cached statement and forgets every connection, e.g. after the tables the statements were prepared
+     * against have been dropped and recreated. Useful for testing purposes.
+     */
+    public static void clear() {
+        for (Connection conn : BY_CONNECTION.keySet()) {
+            evict(conn);
+        }
+    }
+
+    /**
+     * @return the number of connections the cache currently holds statements for.
+     */
+    public static int size() {
+        return BY_CONNECTION.size();
+    }
+
+    private static void evictClosedConnections() throws SQLException {
+        Iterator<Connection> connections = BY_CONNECTION.keySet().iterator();
+        while (connections.hasNext()) {
+            Connection conn = connections.next();
+            if (conn.isClosed()) {
+                evict(conn);
+            }
+        }
+    }
+}
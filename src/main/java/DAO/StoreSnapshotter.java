@@ -0,0 +1,878 @@
+package DAO;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import Util.AppConfig;
+import Util.ColumnarTable;
+import Util.ConnectionPool;
+import Util.ShardRouter;
+import Util.UnitOfWork;
+
+/**
+ * The StoreSnapshotter class writes consistent snapshots of the message store to files while the application runs,
+ * and restores the store from them.
+ *
+ * A snapshot reads every table of snapshot.tables that exists on each shard, inside a unit of work at H2's SNAPSHOT
+ * isolation: every table of a shard is read as of the same moment, and because H2 serves such reads from its
+ * multi-version store they neither take locks nor wait for writers. Every shard's snapshot is started before any
+ * shard is read, so the shards are read as of nearly the same moment; they are separate databases, so not exactly
+ * the same one. A snapshot is refused while a range is being moved between shards, as a range copied in part would
+ * be in the file twice, or half on each shard. Rows are written in groups of snapshot.row-group-rows, each encoded
+ * column by column by ColumnarTable. The file is written next to its final name, forced to disk and then renamed,
+ * so a snapshot is either complete or absent. Snapshots are taken every snapshot.interval-ms (0 never takes them),
+ * into snapshot.dir, keeping the newest snapshot.keep.
+ *
+ * A restore replaces the tables the snapshot holds. It checks the whole file against its checksum first, then drops
+ * the tables' secondary indexes and foreign keys and empties the tables. It loads the row groups on
+ * snapshot.restore.threads threads, one by default, in batches that each commit on their own, and then creates
+ * the indexes and foreign keys again. H2 builds an index it creates from the sorted rows, with no transaction
+ * to log and commit each entry in, which costs far less than maintaining it row by row while loading. Foreign
+ * keys are neither checked while loading nor when they are created again, as the snapshot was consistent when
+ * taken. The dropped definitions are kept in the snapshot_restore_index table of their shard until they are
+ * created again, so a restore that dies part way creates them when it is run again. Every index is created from a
+ * full scan of its table, so each shard's page cache is raised to snapshot.restore.cache-kb (256 MB) while
+ * restoring, and put back afterwards. Identity columns then continue after the restored rows, and a restore event
+ * is appended to the change log. A restore must run before the application serves requests; Main runs one at
+ * startup when snapshot.restore names a file, or is "latest". It is refused while read replicas are configured, as
+ * it writes the primary's tables directly and the replicas would keep the rows from before it; restore with
+ * replicas.count=0, and the replicas copy the restored primary when they next start.
+ *
+ * A restore is not atomic: if it fails after the tables were emptied, they hold part of the snapshot. Nothing is
+ * lost as long as the file is kept, so no snapshot is taken, and none is pruned, until a restore succeeds; run the
+ * restore again with the same file.
+ *
+ * The file is an int magic number, a format version and the time it was taken, followed by sections, each a
+ * one-byte marker: a table marker with a shard index and a table name starts a table, which the row group markers
+ * that follow belong to, each with the encoded group's length and bytes. An end marker is followed by a CRC32C of
+ * everything before it.
+ */
+public class StoreSnapshotter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StoreSnapshotter.class);
+    private static final int MAGIC = 0x534D5353;
+    private static final int VERSION = 1;
+    private static final int END = 0;
+    private static final int TABLE = 1;
+    private static final int GROUP = 2;
+    private static final String PREFIX = "snapshot-";
+    private static final String SUFFIX = ".snap";
+    private static final int INSERT_BATCH = 1_000;
+    // Table and column names are written into SQL, so names read from a file must be plain identifiers
+    private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+    // The statements H2's SCRIPT writes for a secondary index and for a foreign key, with the names to drop them by
+    private static final Pattern INDEX_DDL = Pattern.compile("CREATE INDEX (\"PUBLIC\"\\.\"[^\"]+\") ON .*");
+    private static final Pattern FOREIGN_KEY_DDL = Pattern.compile(
+            "ALTER TABLE (\"PUBLIC\"\\.\"[^\"]+\") ADD CONSTRAINT (\"PUBLIC\"\\.\"[^\"]+\") FOREIGN KEY.*");
+    private static final String DROPPED_INDEXES = "snapshot_restore_index";
+    private static StoreSnapshotter defaultSnapshotter;
+
+    private final ShardRouter router;
+    private final ReplicaSet replicas;
+    private final ChangeCapture capture;
+    private final Path dir;
+    private final List<String> tables;
+    private final int rowGroupRows;
+    private final int keep;
+    private final long intervalMillis;
+    private final int restoreThreads;
+    private final int restoreCacheKb;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "store-snapshot");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final AtomicLong snapshots = new AtomicLong();
+    private volatile Map<String, Object> lastSnapshot;
+    private volatile Map<String, Object> lastRestore;
+    private volatile String lastError;
+    // The file of a restore that failed part way, until a restore succeeds
+    private volatile String failedRestore;
+    private volatile boolean started;
+
+    public StoreSnapshotter() {
+        this(ShardRouter.getDefault(), ReplicaSet.getDefault(), ChangeCapture.getDefault(),
+                Paths.get(AppConfig.getString("snapshot.dir", "./h2/snapshots")));
+    }
+
+    /**
+     * Constructor that snapshots the shards of the given router into the given directory, without replicas or a
+     * change log. Useful for testing purposes.
+     *
+     * @param router The router whose shards are snapshotted and restored.
+     * @param dir    The directory the snapshots are written to.
+     */
+    public StoreSnapshotter(ShardRouter router, Path dir) {
+        this(router, ReplicaSet.none(), ChangeCapture.disabled(), dir);
+    }
+
+    /**
+     * @param router   The router whose shards are snapshotted and restored.
+     * @param replicas The read replicas of the primary; a restore is refused while there are any.
+     * @param capture  The change log a restore is recorded in.
+     * @param dir      The directory the snapshots are written to.
+     */
+    public StoreSnapshotter(ShardRouter router, ReplicaSet replicas, ChangeCapture capture, Path dir) {
+        this.router = router;
+        this.replicas = replicas;
+        this.capture = capture;
+        this.dir = dir;
+        this.tables = Collections.unmodifiableList(Arrays.asList(AppConfig.getString("snapshot.tables",
+                "account,message,message_version,account_stats,message_reaction,message_reaction_count,shard_range")
+                .split("\\s*,\\s*")));
+        this.rowGroupRows = Math.max(1, AppConfig.getInt("snapshot.row-group-rows", 16_384));
+        this.keep = Math.max(1, AppConfig.getInt("snapshot.keep", 3));
+        this.intervalMillis = AppConfig.getLong("snapshot.interval-ms", 3_600_000);
+        // Each thread holds one of the db.transaction.pool-size connections to the primary
+        this.restoreThreads = Math.max(1, AppConfig.getInt("snapshot.restore.threads", 1));
+        this.restoreCacheKb = AppConfig.getInt("snapshot.restore.cache-kb", 256 * 1024);
+    }
+
+    /**
+     * @return the snapshotter of the application's shards, started on first use.
+     */
+    public static synchronized StoreSnapshotter getDefault() {
+        if (defaultSnapshotter == null) {
+            defaultSnapshotter = new StoreSnapshotter();
+            defaultSnapshotter.start();
+        }
+        return defaultSnapshotter;
+    }
+
+    /**
+     * Starts taking a snapshot every snapshot.interval-ms, unless that is 0.
+     */
+    public synchronized void start() {
+        if (started || intervalMillis <= 0) {
+            return;
+        }
+        started = true;
+        executor.scheduleWithFixedDelay(this::runScheduled, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops taking snapshots; one in progress is finished first.
+     */
+    public void stop() {
+        executor.shutdown();
+    }
+
+    /**
+     * Takes a snapshot in the background, after the one in progress if any.
+     */
+    public void requestSnapshot() {
+        executor.execute(this::runScheduled);
+    }
+
+    private void runScheduled() {
+        try {
+            snapshot();
+            lastError = null;
+        } catch (IOException | RuntimeException e) {
+            lastError = e.getMessage();
+            LOGGER.error("Taking a snapshot of the message store failed", e);
+        }
+    }
+
+    /**
+     * Writes a snapshot of every shard and deletes the oldest snapshots beyond snapshot.keep.
+     *
+     * @return the snapshot file.
+     * @throws IOException If the file cannot be written.
+     * @throws DaoException If the database cannot be read.
+     * @throws IllegalStateException If a range is being moved between shards, or a restore failed part way.
+     */
+    public synchronized Path snapshot() throws IOException {
+        if (failedRestore != null) {
+            throw new IllegalStateException("The restore from " + failedRestore
+                    + " failed part way; restore it again before taking snapshots");
+        }
+        long started = System.nanoTime();
+        long takenMillis = System.currentTimeMillis();
+        Files.createDirectories(dir);
+        Path file = dir.resolve(String.format("%s%013d%s", PREFIX, takenMillis, SUFFIX));
+        Path partial = dir.resolve(file.getFileName() + ".tmp");
+        long rows;
+        CRC32C crc = new CRC32C();
+        try (FileChannel channel = FileChannel.open(partial, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16), crc));
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeLong(takenMillis);
+            rows = writeShards(out);
+            out.writeByte(END);
+            out.writeInt((int) crc.getValue());
+            out.flush();
+            channel.force(true);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(partial);
+            throw e;
+        }
+        Files.move(partial, file, StandardCopyOption.ATOMIC_MOVE);
+        prune();
+
+        Map<String, Object> taken = new LinkedHashMap<>();
+        taken.put("file", file.getFileName().toString());
+        taken.put("takenMillis", takenMillis);
+        taken.put("rows", rows);
+        taken.put("bytes", Files.size(file));
+        taken.put("durationMillis", (System.nanoTime() - started) / 1_000_000);
+        lastSnapshot = taken;
+        snapshots.incrementAndGet();
+        LOGGER.info("Wrote snapshot {} of {} rows in {} bytes in {} ms", file, rows, taken.get("bytes"),
+                taken.get("durationMillis"));
+        return file;
+    }
+
+    private long writeShards(DataOutputStream out) throws IOException {
+        checkNotMigrating();
+        long rows = 0;
+        UnitOfWork unit = UnitOfWork.begin(UnitOfWork.Isolation.SNAPSHOT);
+        try {
+            // Every shard's snapshot is taken by its first statement, so all of them are started before any is read
+            List<List<String>> existing = new ArrayList<>();
+            for (int shard = 0; shard < router.getShardCount(); shard++) {
+                // The unit keeps the connection, and its snapshot, until it ends
+                ConnectionPool pool = router.pool(shard);
+                Connection conn = pool.borrow();
+                try {
+                    List<String> present = new ArrayList<>();
+                    for (String table : tables) {
+                        if (tableExists(conn, table)) {
+                            present.add(table);
+                        }
+                    }
+                    existing.add(present);
+                } finally {
+                    pool.release(conn);
+                }
+            }
+            // A move begun before the snapshots were started may have copied part of a range to its new shard
+            checkNotMigrating();
+            for (int shard = 0; shard < router.getShardCount(); shard++) {
+                ConnectionPool pool = router.pool(shard);
+                Connection conn = pool.borrow();
+                try {
+                    for (String table : existing.get(shard)) {
+                        rows += writeTable(conn, shard, table, out);
+                    }
+                } finally {
+                    pool.release(conn);
+                }
+            }
+        } catch (SQLException e) {
+            throw new DaoException("Unable to read the message store for a snapshot", e);
+        } finally {
+            // Nothing was written; ending the unit lets go of the snapshot
+            unit.rollback();
+        }
+        return rows;
+    }
+
+    private void checkNotMigrating() {
+        if (router.isMigrating()) {
+            throw new IllegalStateException("A range is being moved between shards; snapshot once it is done");
+        }
+    }
+
+    private long writeTable(Connection conn, int shard, String table, DataOutputStream out)
+            throws SQLException, IOException {
+        out.writeByte(TABLE);
+        out.writeInt(shard);
+        out.writeUTF(table);
+        long rows = 0;
+        try (Statement statement = conn.createStatement();
+                ResultSet rs = statement.executeQuery("SELECT * FROM " + table + " ORDER BY 1")) {
+            ResultSetMetaData metaData = rs.getMetaData();
+            String[] columns = new String[metaData.getColumnCount()];
+            byte[] kinds = new byte[columns.length];
+            for (int column = 0; column < columns.length; column++) {
+                columns[column] = metaData.getColumnName(column + 1);
+                kinds[column] = kindOf(table, columns[column], metaData.getColumnType(column + 1));
+            }
+            ColumnarTable group = new ColumnarTable(table, columns, kinds, rowGroupRows);
+            while (rs.next()) {
+                int row = group.addRow();
+                for (int column = 0; column < columns.length; column++) {
+                    if (kinds[column] == ColumnarTable.NUMBER) {
+                        long value = rs.getLong(column + 1);
+                        if (!rs.wasNull()) {
+                            group.setNumber(row, column, value);
+                        }
+                    } else {
+                        group.setText(row, column, rs.getString(column + 1));
+                    }
+                }
+                rows++;
+                if (group.isFull()) {
+                    writeGroup(group, out);
+                }
+            }
+            if (group.size() > 0) {
+                writeGroup(group, out);
+            }
+        }
+        return rows;
+    }
+
+    private static void writeGroup(ColumnarTable group, DataOutputStream out) throws IOException {
+        byte[] encoded = group.encode();
+        out.writeByte(GROUP);
+        out.writeInt(encoded.length);
+        out.write(encoded);
+        group.clear();
+    }
+
+    private static byte kindOf(String table, String column, int sqlType) throws SQLException {
+        switch (sqlType) {
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+            case Types.BIGINT:
+                return ColumnarTable.NUMBER;
+            case Types.CHAR:
+            case Types.VARCHAR:
+            case Types.LONGVARCHAR:
+                return ColumnarTable.TEXT;
+            default:
+                throw new SQLException("Column " + table + "." + column + " has a type snapshots do not support");
+        }
+    }
+
+    private static boolean tableExists(Connection conn, String table) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement("SELECT 1 FROM INFORMATION_SCHEMA.TABLES "
+                + "WHERE TABLE_SCHEMA = 'PUBLIC' AND TABLE_NAME = UPPER(?)")) {
+            ps.setString(1, table);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    private void prune() throws IOException {
+        List<Path> taken = list();
+        for (int i = 0; i < taken.size() - keep; i++) {
+            Files.deleteIfExists(taken.get(i));
+        }
+    }
+
+    private List<Path> list() throws IOException {
+        List<Path> taken = new ArrayList<>();
+        if (!Files.isDirectory(dir)) {
+            return taken;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, PREFIX + "*" + SUFFIX)) {
+            files.forEach(taken::add);
+        }
+        // The names hold the zero-padded time taken, so they sort oldest first
+        Collections.sort(taken);
+        return taken;
+    }
+
+    /**
+     * @return the newest snapshot in snapshot.dir, or null if there is none.
+     * @throws IOException If the directory cannot be listed.
+     */
+    public Path latest() throws IOException {
+        List<Path> taken = list();
+        return taken.isEmpty() ? null : taken.get(taken.size() - 1);
+    }
+
+    /**
+     * Replaces the tables held by a snapshot with its rows. Must not run while the application serves requests. If
+     * it fails once the tables were emptied, they hold part of the snapshot until it is run again.
+     *
+     * @param file The snapshot file.
+     * @return the number of rows restored.
+     * @throws IOException If the file cannot be read or is not a complete, intact snapshot.
+     * @throws DaoException If the rows cannot be loaded.
+     * @throws IllegalStateException If there are read replicas.
+     */
+    public synchronized long restore(Path file) throws IOException {
+        if (replicas.isEnabled()) {
+            throw new IllegalStateException("A restore would not reach the read replicas; restore with "
+                    + "replicas.count=0 and they copy the restored primary when they next start");
+        }
+        long started = System.nanoTime();
+        Set<TableRef> restored = new LinkedHashSet<>();
+        scan(file, true, (shard, table) -> restored.add(new TableRef(shard, table)), null);
+
+        List<Integer> shards = new ArrayList<>();
+        for (TableRef ref : restored) {
+            if (ref.shard >= router.getShardCount()) {
+                throw new IOException("The snapshot holds shard " + ref.shard + " but there are "
+                        + router.getShardCount() + " shards");
+            }
+            if (!shards.contains(ref.shard)) {
+                shards.add(ref.shard);
+            }
+        }
+        long rows;
+        Map<Integer, List<String>> dropped = new LinkedHashMap<>();
+        Map<Integer, Long> cacheKb = new LinkedHashMap<>();
+        // Kept until the restore succeeds, so that the tables holding part of the file are never snapshotted
+        failedRestore = file.getFileName().toString();
+        try {
+            for (int shard : shards) {
+                execute(shard, "SET REFERENTIAL_INTEGRITY FALSE");
+                long previous = cacheKb(shard);
+                if (previous > 0 && previous < restoreCacheKb) {
+                    // Each index is created from a full scan of its table, which then needs no reads from disk
+                    cacheKb.put(shard, previous);
+                    execute(shard, "SET CACHE_SIZE " + restoreCacheKb);
+                }
+            }
+            for (int shard : shards) {
+                List<String> tablesOfShard = new ArrayList<>();
+                for (TableRef ref : restored) {
+                    if (ref.shard == shard) {
+                        tablesOfShard.add(ref.table);
+                    }
+                }
+                dropped.put(shard, dropIndexes(shard, tablesOfShard));
+            }
+            for (TableRef ref : restored) {
+                execute(ref.shard, "TRUNCATE TABLE " + ref.table);
+            }
+            rows = load(file);
+            for (TableRef ref : restored) {
+                restartIdentity(ref);
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("Restoring {} failed part way; restore it again", file, e);
+            throw e;
+        } finally {
+            try {
+                // Also after a failure, so that the tables holding part of the file keep their indexes
+                for (Map.Entry<Integer, List<String>> shard : dropped.entrySet()) {
+                    createIndexes(shard.getKey(), shard.getValue());
+                }
+            } finally {
+                for (int shard : shards) {
+                    execute(shard, "SET REFERENTIAL_INTEGRITY TRUE");
+                }
+                // The cache size is kept with the database, so it is put back however the restore ended
+                for (Map.Entry<Integer, Long> shard : cacheKb.entrySet()) {
+                    execute(shard.getKey(), "SET CACHE_SIZE " + shard.getValue());
+                }
+            }
+        }
+        if (router.getShardCount() > 1) {
+            // Brings the striding of the message IDs and the moved ranges back in line with the restored rows
+            router.initialise();
+        }
+        failedRestore = null;
+        capture.recordRestore();
+
+        Map<String, Object> done = new LinkedHashMap<>();
+        done.put("file", file.getFileName().toString());
+        done.put("rows", rows);
+        done.put("threads", restoreThreads);
+        done.put("cacheKb", restoreCacheKb);
+        done.put("durationMillis", (System.nanoTime() - started) / 1_000_000);
+        lastRestore = done;
+        LOGGER.info("Restored {} rows from {} on {} threads in {} ms", rows, file, restoreThreads,
+                done.get("durationMillis"));
+        return rows;
+    }
+
+    private long load(Path file) throws IOException {
+        ExecutorService workers = Executors.newFixedThreadPool(restoreThreads, runnable -> {
+            Thread thread = new Thread(runnable, "snapshot-restore");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Bounds the groups read ahead of the workers, and so the memory a restore takes
+        Semaphore reading = new Semaphore(restoreThreads * 2);
+        List<Future<Integer>> loads = new ArrayList<>();
+        try {
+            scan(file, false, null, (shard, encoded) -> {
+                reading.acquireUninterruptibly();
+                loads.add(workers.submit(() -> {
+                    try {
+                        return loadGroup(shard, encoded);
+                    } finally {
+                        reading.release();
+                    }
+                }));
+            });
+            long rows = 0;
+            for (Future<Integer> loaded : loads) {
+                rows += loaded.get();
+            }
+            return rows;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while restoring " + file, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new DaoException("Unable to restore " + file, e.getCause());
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    private int loadGroup(int shard, byte[] encoded) throws IOException {
+        ColumnarTable group = ColumnarTable.decode(encoded);
+        String[] columns = group.getColumns();
+        checkIdentifier(group.getTable());
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(group.getTable()).append(" (");
+        for (int column = 0; column < columns.length; column++) {
+            checkIdentifier(columns[column]);
+            sql.append(column == 0 ? "" : ", ").append(columns[column]);
+        }
+        sql.append(") VALUES (").append(String.join(", ", Collections.nCopies(columns.length, "?"))).append(')');
+
+        ConnectionPool pool = router.pool(shard);
+        // One connection and one statement for the whole group
+        UnitOfWork unit = UnitOfWork.begin(UnitOfWork.Isolation.READ_COMMITTED);
+        try {
+            Connection conn = pool.borrow();
+            try (PreparedStatement ps = conn.prepareStatement(sql.toString())) {
+                for (int row = 0; row < group.size(); row++) {
+                    for (int column = 0; column < columns.length; column++) {
+                        boolean number = group.getKind(column) == ColumnarTable.NUMBER;
+                        if (group.isNull(row, column)) {
+                            ps.setNull(column + 1, number ? Types.BIGINT : Types.VARCHAR);
+                        } else if (number) {
+                            ps.setLong(column + 1, group.getNumber(row, column));
+                        } else {
+                            ps.setString(column + 1, group.getText(row, column));
+                        }
+                    }
+                    ps.addBatch();
+                    if ((row + 1) % INSERT_BATCH == 0) {
+                        ps.executeBatch();
+                        // Committed a batch at a time: H2 inserts more slowly the more uncommitted rows it holds
+                        conn.commit();
+                    }
+                }
+                ps.executeBatch();
+            } finally {
+                pool.release(conn);
+            }
+            unit.commit();
+        } catch (SQLException e) {
+            throw new DaoException("Unable to restore a group of " + group.getTable(), e);
+        } finally {
+            unit.rollback();
+        }
+        return group.size();
+    }
+
+    /**
+     * Drops the secondary indexes and foreign keys of the given tables of a shard, after recording how to create
+     * them again in the shard's snapshot_restore_index table. The definitions a restore that died part way left
+     * there are dropped and returned too.
+     *
+     * @return the statements creating the indexes and then the foreign keys.
+     */
+    private List<String> dropIndexes(int shard, List<String> tablesOfShard) {
+        ConnectionPool pool = router.pool(shard);
+        Connection conn = null;
+        try {
+            conn = pool.borrow();
+            Set<String> indexes = new LinkedHashSet<>();
+            Set<String> foreignKeys = new LinkedHashSet<>();
+            try (Statement statement = conn.createStatement()) {
+                statement.execute("CREATE TABLE IF NOT EXISTS " + DROPPED_INDEXES
+                        + " (ordinal int primary key, ddl varchar)");
+                List<String> definitions = new ArrayList<>();
+                try (ResultSet rs = statement.executeQuery(
+                        "SELECT ddl FROM " + DROPPED_INDEXES + " ORDER BY ordinal")) {
+                    while (rs.next()) {
+                        definitions.add(rs.getString(1));
+                    }
+                }
+                try (ResultSet rs = statement.executeQuery("SCRIPT NODATA NOPASSWORDS NOSETTINGS TABLE "
+                        + String.join(", ", tablesOfShard))) {
+                    while (rs.next()) {
+                        String ddl = rs.getString(1);
+                        definitions.add(ddl.endsWith(";") ? ddl.substring(0, ddl.length() - 1) : ddl);
+                    }
+                }
+                for (String ddl : definitions) {
+                    if (INDEX_DDL.matcher(ddl).matches()) {
+                        indexes.add(ddl);
+                    } else if (FOREIGN_KEY_DDL.matcher(ddl).matches()) {
+                        foreignKeys.add(ddl);
+                    }
+                }
+            }
+            List<String> creates = new ArrayList<>(indexes);
+            creates.addAll(foreignKeys);
+            try (Statement statement = conn.createStatement()) {
+                statement.execute("DELETE FROM " + DROPPED_INDEXES);
+            }
+            try (PreparedStatement ps = conn.prepareStatement("INSERT INTO " + DROPPED_INDEXES
+                    + " (ordinal, ddl) VALUES (?, ?)")) {
+                for (int i = 0; i < creates.size(); i++) {
+                    ps.setInt(1, i);
+                    ps.setString(2, creates.get(i));
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+            // Foreign keys first, as one may use an index that cannot be dropped before it
+            try (Statement statement = conn.createStatement()) {
+                for (String ddl : foreignKeys) {
+                    Matcher names = FOREIGN_KEY_DDL.matcher(ddl);
+                    names.matches();
+                    statement.execute("ALTER TABLE " + names.group(1) + " DROP CONSTRAINT IF EXISTS " + names.group(2));
+                }
+                for (String ddl : indexes) {
+                    Matcher name = INDEX_DDL.matcher(ddl);
+                    name.matches();
+                    statement.execute("DROP INDEX IF EXISTS " + name.group(1));
+                }
+            }
+            return creates;
+        } catch (SQLException e) {
+            throw new DaoException("Unable to drop the indexes of " + tablesOfShard + " on " + pool.getName(), e);
+        } finally {
+            pool.release(conn);
+        }
+    }
+
+    /**
+     * @return the size of the shard's page cache in KB, or 0 if it has none, e.g. because it is in memory.
+     */
+    private long cacheKb(int shard) {
+        ConnectionPool pool = router.pool(shard);
+        Connection conn = null;
+        try {
+            conn = pool.borrow();
+            try (Statement statement = conn.createStatement();
+                    ResultSet rs = statement.executeQuery("SELECT SETTING_VALUE FROM INFORMATION_SCHEMA.SETTINGS "
+                            + "WHERE SETTING_NAME = 'info.CACHE_MAX_SIZE'")) {
+                // Reported in MB
+                return rs.next() ? Long.parseLong(rs.getString(1)) * 1024 : 0;
+            }
+        } catch (SQLException e) {
+            throw new DaoException("Unable to read the cache size of " + pool.getName(), e);
+        } finally {
+            pool.release(conn);
+        }
+    }
+
+    private void createIndexes(int shard, List<String> creates) {
+        for (String ddl : creates) {
+            execute(shard, ddl);
+        }
+        execute(shard, "DELETE FROM " + DROPPED_INDEXES);
+    }
+
+    private void restartIdentity(TableRef ref) {
+        ConnectionPool pool = router.pool(ref.shard);
+        Connection conn = null;
+        try {
+            conn = pool.borrow();
+            String identity = null;
+            try (PreparedStatement ps = conn.prepareStatement("SELECT COLUMN_NAME FROM INFORMATION_SCHEMA.COLUMNS "
+                    + "WHERE TABLE_SCHEMA = 'PUBLIC' AND TABLE_NAME = UPPER(?) AND IS_IDENTITY = 'YES'")) {
+                ps.setString(1, ref.table);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (rs.next()) {
+                        identity = rs.getString(1);
+                    }
+                }
+            }
+            if (identity == null) {
+                return;
+            }
+            long next;
+            try (Statement statement = conn.createStatement();
+                    ResultSet rs = statement.executeQuery(
+                            "SELECT COALESCE(MAX(" + identity + "), 0) + 1 FROM " + ref.table)) {
+                rs.next();
+                next = rs.getLong(1);
+            }
+            try (Statement statement = conn.createStatement()) {
+                statement.execute("ALTER TABLE " + ref.table + " ALTER COLUMN " + identity + " RESTART WITH " + next);
+            }
+        } catch (SQLException e) {
+            throw new DaoException("Unable to restart the identity of " + ref.table, e);
+        } finally {
+            pool.release(conn);
+        }
+    }
+
+    private void execute(int shard, String sql) {
+        ConnectionPool pool = router.pool(shard);
+        Connection conn = null;
+        try {
+            conn = pool.borrow();
+            try (Statement statement = conn.createStatement()) {
+                statement.execute(sql);
+            }
+        } catch (SQLException e) {
+            throw new DaoException("Unable to run " + sql + " on " + pool.getName(), e);
+        } finally {
+            pool.release(conn);
+        }
+    }
+
+    private static void checkIdentifier(String name) throws IOException {
+        if (!IDENTIFIER.matcher(name).matches()) {
+            throw new IOException("Invalid name " + name + " in the snapshot");
+        }
+    }
+
+    @FunctionalInterface
+    private interface TableVisitor {
+        void table(int shard, String table) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface GroupVisitor {
+        void group(int shard, byte[] encoded) throws IOException;
+    }
+
+    /**
+     * Reads a snapshot file section by section. With verify, the groups are skipped and the file is checked against
+     * its checksum; otherwise every group is read and handed to the group visitor.
+     */
+    private static void scan(Path file, boolean verify, TableVisitor tableVisitor, GroupVisitor groupVisitor)
+            throws IOException {
+        CRC32C crc = new CRC32C();
+        try (DataInputStream in = new DataInputStream(new CheckedInputStream(
+                new BufferedInputStream(Files.newInputStream(file), 1 << 16), crc))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is not a snapshot");
+            }
+            int version = in.readUnsignedByte();
+            if (version != VERSION) {
+                throw new IOException(file + " is a snapshot of unknown version " + version);
+            }
+            in.readLong();
+            int shard = -1;
+            for (int marker = in.readUnsignedByte(); marker != END; marker = in.readUnsignedByte()) {
+                if (marker == TABLE) {
+                    shard = in.readInt();
+                    String table = in.readUTF();
+                    checkIdentifier(table);
+                    if (tableVisitor != null) {
+                        tableVisitor.table(shard, table);
+                    }
+                } else if (marker == GROUP && shard >= 0) {
+                    int length = in.readInt();
+                    if (verify) {
+                        // Skipping a CheckedInputStream still reads the bytes into the checksum
+                        while (length > 0) {
+                            int skipped = in.skipBytes(length);
+                            if (skipped <= 0) {
+                                throw new IOException(file + " is truncated");
+                            }
+                            length -= skipped;
+                        }
+                    } else {
+                        byte[] encoded = new byte[length];
+                        in.readFully(encoded);
+                        groupVisitor.group(shard, encoded);
+                    }
+                } else {
+                    throw new IOException(file + " is corrupt: unexpected marker " + marker);
+                }
+            }
+            int expected = (int) crc.getValue();
+            if (verify && (in.readInt() != expected || in.read() != -1)) {
+                throw new IOException(file + " is corrupt: its checksum does not match");
+            }
+        }
+    }
+
+    private static final class TableRef {
+        final int shard;
+        final String table;
+
+        TableRef(int shard, String table) {
+            this.shard = shard;
+            this.table = table;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof TableRef && ((TableRef) o).shard == shard && ((TableRef) o).table.equals(table);
+        }
+
+        @Override
+        public int hashCode() {
+            return shard * 31 + table.hashCode();
+        }
+    }
+
+    /**
+     * @return the snapshot settings and the last snapshot and restore as a map ready to be serialized to JSON.
+     */
+    public Map<String, Object> describe() {
+        Map<String, Object> description = new LinkedHashMap<>();
+        description.put("directory", dir.toString());
+        description.put("intervalMillis", intervalMillis);
+        description.put("tables", tables);
+        description.put("rowGroupRows", rowGroupRows);
+        description.put("snapshots", snapshots.get());
+        if (lastSnapshot != null) {
+            description.put("lastSnapshot", lastSnapshot);
+        }
+        if (lastRestore != null) {
+            description.put("lastRestore", lastRestore);
+        }
+        if (failedRestore != null) {
+            description.put("failedRestore", failedRestore);
+        }
+        if (lastError != null) {
+            description.put("error", lastError);
+        }
+        return description;
+    }
+}
@@ -0,0 +1,157 @@
+package DAO;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.h2.api.ErrorCode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import Util.AppConfig;
+import Util.ConnectionUtil;
+import Util.UnitOfWork;
+
+/**
+ * The TransactionTemplate runs a piece of work, made of any number of DAO calls, as one UnitOfWork: every DAO
+ * joins the same transaction, which commits once when the work returns and rolls back if it throws.
+ *
+ * When the database refuses to serialize the work with another transaction (a deadlock, a lock timeout, or a row
+ * changed since the transaction read it), the whole work is retried from the start, after a short randomized
+ * backoff, up to db.transaction.max-attempts times. The work must therefore be safe to run again: it may read and
+ * write through the DAOs, but anything it changes outside the database, such as caches or listeners, belongs after
+ * execute() returns.
+ *
+ * While replicas are enabled the work runs without a transaction, each statement committing on its own as before.
+ * The replicas' change log is appended as each write is made, in the order the writes are applied, which a
+ * transaction committed later, or rolled back, would break.
+ */
+public class TransactionTemplate {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TransactionTemplate.class);
+    private static TransactionTemplate defaultTemplate;
+
+    private final boolean enabled;
+    private final UnitOfWork.Isolation isolation;
+    private final int maxAttempts;
+    private final long backoffMillis;
+
+    /**
+     * A piece of work run in a transaction.
+     *
+     * @param <T> The work's result type.
+     */
+    @FunctionalInterface
+    public interface Work<T> {
+        T run();
+    }
+
+    /**
+     * @param enabled       false to run work without a transaction.
+     * @param isolation     The isolation level of the transactions.
+     * @param maxAttempts   How many times work is run before a serialization failure is given up on.
+     * @param backoffMillis The longest wait before the first retry; it doubles with each further one.
+     */
+    public TransactionTemplate(boolean enabled, UnitOfWork.Isolation isolation, int maxAttempts,
+            long backoffMillis) {
+        this.enabled = enabled;
+        this.isolation = isolation;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.backoffMillis = backoffMillis;
+    }
+
+    /**
+     * @return the template configured through AppConfig (db.transactions.enabled, db.transaction.isolation,
+     *         db.transaction.max-attempts, db.transaction.retry-backoff-ms), created on first use.
+     */
+    public static synchronized TransactionTemplate getDefault() {
+        if (defaultTemplate == null) {
+            boolean enabled = AppConfig.getBoolean("db.transactions.enabled", true)
+                    && !ReplicaSet.getDefault().isEnabled();
+            defaultTemplate = new TransactionTemplate(enabled,
+                    UnitOfWork.Isolation.valueOf(AppConfig.getString("db.transaction.isolation", "repeatable_read")
+                            .toUpperCase(Locale.ROOT)),
+                    AppConfig.getInt("db.transaction.max-attempts", 3),
+                    AppConfig.getLong("db.transaction.retry-backoff-ms", 5));
+        }
+        return defaultTemplate;
+    }
+
+    /**
+     * Runs work in a transaction, or as part of the one the calling thread already has open.
+     *
+     * @param work The work.
+     * @param <T>  The work's result type.
+     * @return what the work returned, once its transaction has committed.
+     * @throws DaoException If the transaction cannot commit, or the work still fails to serialize on its last
+     *                      attempt; any other exception thrown by the work is rethrown as it is.
+     */
+    public <T> T execute(Work<T> work) {
+        if (!enabled || UnitOfWork.isActive()) {
+            return work.run();
+        }
+        for (int attempt = 1;; attempt++) {
+            UnitOfWork unit = UnitOfWork.begin(isolation);
+            try {
+                T result = work.run();
+                unit.commit();
+                return result;
+            } catch (RuntimeException | SQLException e) {
+                // Rolls back what commit() left, if anything
+                unit.rollback();
+                if (attempt >= maxAttempts || !isSerializationFailure(e)) {
+                    throw e instanceof RuntimeException ? (RuntimeException) e
+                            : new DaoException("The transaction could not be committed", e);
+                }
+                LOGGER.info("Retrying a transaction after a serialization failure, attempt {}: {}", attempt,
+                        e.getMessage());
+                backOff(attempt);
+            }
+        }
+    }
+
+    /**
+     * @param e An exception thrown by a unit of work.
+     * @return true if it, or anything that caused it, is the database refusing to serialize the transaction.
+     */
+    static boolean isSerializationFailure(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException) {
+                SQLException sqlException = (SQLException) cause;
+                int code = sqlException.getErrorCode();
+                if (code == ErrorCode.DEADLOCK_1 || code == ErrorCode.LOCK_TIMEOUT_1
+                        || code == ErrorCode.CONCURRENT_UPDATE_1) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void backOff(int attempt) {
+        long bound = backoffMillis << Math.min(attempt - 1, 10);
+        if (bound <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(bound + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DaoException("Interrupted while retrying a transaction", e);
+        }
+    }
+
+    /**
+     * @return the primary database's shared connection, or the open unit of work's connection to it, for the DAOs
+     *         that use the connection directly rather than through a pool.
+     * @throws DaoException If the unit's connection cannot be opened.
+     */
+    static Connection primaryConnection() {
+        try {
+            return UnitOfWork.join(ConnectionUtil.getConnection());
+        } catch (SQLException e) {
+            throw new DaoException("Error while establishing connection", e);
+        }
+    }
+}
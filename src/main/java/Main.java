@@ -1,15 +1,61 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import Controller.SocialMediaController;
+import DAO.StoreSnapshotter;
+import Util.AppConfig;
+import Util.StorageProfile;
 import io.javalin.Javalin;
 
 /**
  * This class is provided with a main method to allow you to manually run and
  * test your application. This class will not
  * affect your program in any way and you may write whatever code you like here.
+ *
+ * Main starts the application in its production mode: unless db.schema is set,
+ * the database schema is only brought up to date (db.schema=ensure) instead of
+ * being reset to the test data, and the warm-up runs in the background after the
+ * server is listening. The time from JVM start to readiness is logged, and with
+ * startup.exit-after-start=true the application exits right after, which is how
+ * the build records its class-data sharing archive (mvn -P cds package). The
+ * database is stored as the db.profile StorageProfile says. With snapshot.restore
+ * set to a snapshot file, or to "latest" for the newest one in snapshot.dir,
+ * the message store is restored from it before the server starts.
  */
 public class Main {
-    public static void main(String[] args) {
+    private static final Logger LOGGER = LoggerFactory.getLogger(Main.class);
+
+    public static void main(String[] args) throws IOException {
+        if (System.getProperty("db.schema") == null) {
+            System.setProperty("db.schema", AppConfig.getString("db.schema", "ensure"));
+        }
+        LOGGER.info("Opening the database with the {} storage profile", StorageProfile.current());
+        String restore = AppConfig.getString("snapshot.restore", null);
+        if (restore != null) {
+            StoreSnapshotter snapshotter = StoreSnapshotter.getDefault();
+            Path snapshot = "latest".equals(restore) ? snapshotter.latest() : Paths.get(restore);
+            if (snapshot == null) {
+                throw new IOException("There is no snapshot to restore");
+            }
+            snapshotter.restore(snapshot);
+        }
         SocialMediaController controller = new SocialMediaController();
         Javalin app = controller.startAPI();
-        app.start(8080);
+        app.start(AppConfig.getInt("server.port", 8080));
+        LOGGER.info("Ready on port {} in {} ms", app.port(), ManagementFactory.getRuntimeMXBean().getUptime());
+
+        if (AppConfig.getBoolean("startup.exit-after-start", false)) {
+            controller.warmUp();
+            app.stop();
+            System.exit(0);
+        }
+        Thread warmUp = new Thread(controller::warmUp, "warm-up");
+        warmUp.setDaemon(true);
+        warmUp.start();
     }
 }
@@ -0,0 +1,86 @@
+package Model;
+
+/**
+ * This is a class that models the aggregate figures of one account's messages, as returned by the account stats
+ * endpoint.
+ */
+public class AccountStats {
+    /**
+     * The id of the account.
+     */
+    public int account_id;
+    /**
+     * The number of messages the account has posted and not deleted.
+     */
+    public long message_count;
+    /**
+     * The latest time_posted_epoch of those messages; null if there are none.
+     */
+    public Long last_posted_epoch;
+    /**
+     * The combined length of the text of those messages.
+     */
+    public long total_characters;
+
+    /**
+     * A default, no-args constructor, as well as correctly formatted getters and setters, are needed for
+     * Jackson Objectmapper to work.
+     */
+    public AccountStats() {
+    }
+
+    /**
+     * @param account_id
+     * @param message_count
+     * @param last_posted_epoch
+     * @param total_characters
+     */
+    public AccountStats(int account_id, long message_count, Long last_posted_epoch, long total_characters) {
+        this.account_id = account_id;
+        this.message_count = message_count;
+        this.last_posted_epoch = last_posted_epoch;
+        this.total_characters = total_characters;
+    }
+
+    public int getAccount_id() {
+        return account_id;
+    }
+
+    public void setAccount_id(int account_id) {
+        this.account_id = account_id;
+    }
+
+    public long getMessage_count() {
+        return message_count;
+    }
+
+    public void setMessage_count(long message_count) {
+        this.message_count = message_count;
+    }
+
+    public Long getLast_posted_epoch() {
+        return last_posted_epoch;
+    }
+
+    public void setLast_posted_epoch(Long last_posted_epoch) {
+        this.last_posted_epoch = last_posted_epoch;
+    }
+
+    public long getTotal_characters() {
+        return total_characters;
+    }
+
+    public void setTotal_characters(long total_characters) {
+        this.total_characters = total_characters;
+    }
+
+    @Override
+    public String toString() {
+        return "AccountStats{" +
+                "account_id=" + account_id +
+                ", message_count=" + message_count +
+                ", last_posted_epoch=" + last_posted_epoch +
+                ", total_characters=" + total_characters +
+                '}';
+    }
+}
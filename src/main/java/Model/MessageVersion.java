@@ -0,0 +1,88 @@
+package Model;
+
+/**
+ * This is a class that models one version of a message's text, as returned by the message history endpoint.
+ *
+ * Versions are numbered from 1, the text the message was posted with. Every update replaces the current text and
+ * keeps the replaced version, with the time it was replaced, in the history.
+ */
+public class MessageVersion {
+    /**
+     * The id of the message this is a version of.
+     */
+    public int message_id;
+    /**
+     * The version number; the current version has the highest.
+     */
+    public int version;
+    /**
+     * The text of the message in this version.
+     */
+    public String message_text;
+    /**
+     * The epoch time (in seconds) when this version was replaced by the next one; null for the current version.
+     */
+    public Long replaced_epoch;
+
+    /**
+     * A default, no-args constructor, as well as correctly formatted getters and setters, are needed for
+     * Jackson Objectmapper to work.
+     */
+    public MessageVersion() {
+    }
+
+    /**
+     * @param message_id
+     * @param version
+     * @param message_text
+     * @param replaced_epoch
+     */
+    public MessageVersion(int message_id, int version, String message_text, Long replaced_epoch) {
+        this.message_id = message_id;
+        this.version = version;
+        this.message_text = message_text;
+        this.replaced_epoch = replaced_epoch;
+    }
+
+    public int getMessage_id() {
+        return message_id;
+    }
+
+    public void setMessage_id(int message_id) {
+        this.message_id = message_id;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public void setVersion(int version) {
+        this.version = version;
+    }
+
+    public String getMessage_text() {
+        return message_text;
+    }
+
+    public void setMessage_text(String message_text) {
+        this.message_text = message_text;
+    }
+
+    public Long getReplaced_epoch() {
+        return replaced_epoch;
+    }
+
+    public void setReplaced_epoch(Long replaced_epoch) {
+        this.replaced_epoch = replaced_epoch;
+    }
+
+    @Override
+    public String toString() {
+        return "MessageVersion{" +
+                "message_id=" + message_id +
+                ", version=" + version +
+                ", message_text='" + message_text + '\'' +
+                ", replaced_epoch=" + replaced_epoch +
+                '}';
+    }
+}
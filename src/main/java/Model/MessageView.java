@@ -0,0 +1,89 @@
+package Model;
+
+import java.util.Objects;
+
+import Util.StringInterner;
+
+/**
+ * This is an immutable copy of a message, for the read side: what caches hold and what responses are written from.
+ *
+ * Message stays the mutable bean requests are read into and DAOs write from. A MessageView can never change once
+ * created, so any number of caches and responses can share one instance without copying it. Short texts are
+ * canonicalized through {@link StringInterner}, so a text many messages repeat is held once.
+ */
+public final class MessageView {
+    private final int message_id;
+    private final int posted_by;
+    private final String message_text;
+    private final long time_posted_epoch;
+
+    /**
+     * @param message_id
+     * @param posted_by
+     * @param message_text
+     * @param time_posted_epoch
+     */
+    public MessageView(int message_id, int posted_by, String message_text, long time_posted_epoch) {
+        this.message_id = message_id;
+        this.posted_by = posted_by;
+        this.message_text = StringInterner.canonical(message_text);
+        this.time_posted_epoch = time_posted_epoch;
+    }
+
+    /**
+     * @param message the message to copy.
+     * @return an immutable copy of the message.
+     */
+    public static MessageView of(Message message) {
+        return new MessageView(message.getMessage_id(), message.getPosted_by(), message.getMessage_text(),
+                message.getTime_posted_epoch());
+    }
+
+    /**
+     * @return a new mutable Message with the same fields, e.g. to update it.
+     */
+    public Message toMessage() {
+        return new Message(message_id, posted_by, message_text, time_posted_epoch);
+    }
+
+    public int getMessage_id() {
+        return message_id;
+    }
+
+    public int getPosted_by() {
+        return posted_by;
+    }
+
+    public String getMessage_text() {
+        return message_text;
+    }
+
+    public long getTime_posted_epoch() {
+        return time_posted_epoch;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        MessageView message = (MessageView) o;
+        return message_id == message.message_id && posted_by == message.posted_by
+                && time_posted_epoch == message.time_posted_epoch
+                && Objects.equals(message_text, message.message_text);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(message_id, posted_by, message_text, time_posted_epoch);
+    }
+
+    @Override
+    public String toString() {
+        return "MessageView{" +
+                "message_id=" + message_id +
+                ", posted_by=" + posted_by +
+                ", message_text='" + message_text + '\'' +
+                ", time_posted_epoch=" + time_posted_epoch +
+                '}';
+    }
+}
@@ -0,0 +1,249 @@
+package Service;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import DAO.AccountDao;
+import DAO.DaoException;
+import DAO.MessageDao;
+import Model.Message;
+import Util.AppConfig;
+
+/*
+    The AccountDeletionJob removes deleted accounts and everything they posted, in the background.
+
+    Deleting an account only marks it (AccountDao.markDeleted), so the request returns at once and the account
+    vanishes from every lookup. A single worker thread then deletes the account's messages in batches of
+    accounts.delete.batch-size, going through MessageDao.delete so each one is recorded and leaves the replicas
+    like any other deletion, and paced to at most accounts.delete.rate messages per second so a prolific account
+    does not starve the rest of the API. Every deleted message is handed to the deletion listeners, which is how
+    MessageService keeps its in-memory state (account stats, hot feeds, the recent-messages window) in step. The
+    deleted messages are purged, and finally the account row itself.
+
+    The mark on the account row is the only state the job needs: on startup every account still marked is queued
+    again, and the job carries on from whatever messages remain. A failed pass is retried after
+    accounts.delete.retry-ms.
+ */
+
+public class AccountDeletionJob {
+    private static final Logger LOGGER = LoggerFactory.getLogger(AccountDeletionJob.class);
+
+    private static AccountDeletionJob defaultJob;
+
+    public enum Phase {
+        QUEUED, DELETING_MESSAGES, PURGING, DONE, FAILED
+    }
+
+    private final AccountDao accountDao;
+    private final MessageDao messageDao;
+    private final int batchSize;
+    private final int messagesPerSecond;
+    private final long retryMillis;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "account-deletion");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<Integer, Progress> jobs = new ConcurrentHashMap<>();
+    // Told about every message the job deletes
+    private final List<Consumer<Message>> deletionListeners = new CopyOnWriteArrayList<>();
+
+    // Default constructor reading the batch size, rate and retry delay from AppConfig
+    public AccountDeletionJob() {
+        this(new AccountDao(), new MessageDao(), AppConfig.getInt("accounts.delete.batch-size", 100),
+                AppConfig.getInt("accounts.delete.rate", 500), AppConfig.getLong("accounts.delete.retry-ms", 5_000));
+    }
+
+    /**
+     * Constructor that allows external DAOs and limits to be used, useful for testing purposes.
+     *
+     * @param accountDao        The DAO marking and removing accounts.
+     * @param messageDao        The DAO deleting and purging messages.
+     * @param batchSize         The number of messages deleted per batch.
+     * @param messagesPerSecond The maximum number of messages deleted per second, or 0 for no limit.
+     * @param retryMillis       How long to wait before retrying a failed deletion.
+     */
+    public AccountDeletionJob(AccountDao accountDao, MessageDao messageDao, int batchSize, int messagesPerSecond,
+            long retryMillis) {
+        this.accountDao = accountDao;
+        this.messageDao = messageDao;
+        this.batchSize = batchSize;
+        this.messagesPerSecond = messagesPerSecond;
+        this.retryMillis = retryMillis;
+    }
+
+    /**
+     * @return the application's job, which resumes the deletions left unfinished by the last run on first use.
+     */
+    public static synchronized AccountDeletionJob getDefault() {
+        if (defaultJob == null) {
+            defaultJob = new AccountDeletionJob();
+            defaultJob.resume();
+        }
+        return defaultJob;
+    }
+
+    /**
+     * Queues every account that is marked as deleted but still exists.
+     */
+    public void resume() {
+        try {
+            List<Integer> accountIds = accountDao.getAccountsBeingDeleted();
+            if (!accountIds.isEmpty()) {
+                LOGGER.info("Resuming the deletion of {} accounts", accountIds.size());
+            }
+            accountIds.forEach(this::submit);
+        } catch (DaoException e) {
+            LOGGER.error("Unable to find the accounts being deleted", e);
+        }
+    }
+
+    /**
+     * Queues the removal of an account that was marked as deleted. Submitting an
+     * account that is already queued or running has no effect.
+     *
+     * @param accountId The ID of the account.
+     * @return the progress of the account's deletion.
+     */
+    public Progress submit(int accountId) {
+        Progress progress = new Progress(accountId);
+        Progress existing = jobs.putIfAbsent(accountId, progress);
+        if (existing != null) {
+            if (existing.phase != Phase.DONE && existing.phase != Phase.FAILED) {
+                return existing;
+            }
+            jobs.put(accountId, progress);
+        }
+        executor.execute(() -> run(progress));
+        return progress;
+    }
+
+    /**
+     * Registers a listener told about every message the job deletes, after it is deleted.
+     *
+     * @param listener The listener to add.
+     */
+    public void addDeletionListener(Consumer<Message> listener) {
+        deletionListeners.add(listener);
+    }
+
+    /**
+     * @param accountId The ID of an account.
+     * @return true if the account's deletion was started, or resumed, since startup, even if it has finished.
+     */
+    public boolean isDeleted(int accountId) {
+        return jobs.containsKey(accountId);
+    }
+
+    /**
+     * @param accountId The ID of the account.
+     * @return the progress of the account's deletion, if one was submitted since startup.
+     */
+    public Optional<Progress> getProgress(int accountId) {
+        return Optional.ofNullable(jobs.get(accountId));
+    }
+
+    private void run(Progress progress) {
+        try {
+            progress.phase = Phase.DELETING_MESSAGES;
+            deleteMessages(progress);
+            progress.phase = Phase.PURGING;
+            int purged;
+            do {
+                purged = messageDao.purgeMessagesByAccountId(progress.accountId, batchSize);
+                progress.purged.addAndGet(purged);
+                pace(purged);
+            } while (purged > 0);
+            accountDao.purge(progress.accountId);
+            progress.error = null;
+            progress.phase = Phase.DONE;
+            LOGGER.info("Deleted account {} and its {} messages", progress.accountId, progress.deleted.get());
+        } catch (DaoException e) {
+            // Typically a message posted while the account was being deleted; the next pass removes it
+            progress.error = e.getMessage();
+            progress.phase = Phase.FAILED;
+            LOGGER.warn("Deleting account {} failed, retrying in {} ms", progress.accountId, retryMillis, e);
+            executor.schedule(() -> run(progress), retryMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            // The job is shutting down; the account is still marked, so the next start resumes it
+            progress.error = "Interrupted";
+            progress.phase = Phase.FAILED;
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void deleteMessages(Progress progress) throws InterruptedException {
+        int afterId = 0;
+        List<Message> batch;
+        do {
+            batch = messageDao.getMessagesByAccountId(progress.accountId, afterId, batchSize);
+            for (Message message : batch) {
+                if (messageDao.delete(message)) {
+                    progress.deleted.incrementAndGet();
+                    for (Consumer<Message> listener : deletionListeners) {
+                        listener.accept(message);
+                    }
+                }
+            }
+            if (!batch.isEmpty()) {
+                afterId = batch.get(batch.size() - 1).getMessage_id();
+            }
+            pace(batch.size());
+        } while (batch.size() == batchSize);
+    }
+
+    // Sleeps long enough for a batch of the given size to stay within the rate
+    private void pace(int count) throws InterruptedException {
+        if (messagesPerSecond > 0 && count > 0) {
+            Thread.sleep(count * 1000L / messagesPerSecond);
+        }
+    }
+
+    /**
+     * The progress of one account's deletion.
+     */
+    public static class Progress {
+        private final int accountId;
+        private final long startedMillis = System.currentTimeMillis();
+        private final AtomicLong deleted = new AtomicLong();
+        private final AtomicLong purged = new AtomicLong();
+        private volatile Phase phase = Phase.QUEUED;
+        private volatile String error;
+
+        Progress(int accountId) {
+            this.accountId = accountId;
+        }
+
+        public Phase getPhase() {
+            return phase;
+        }
+
+        /**
+         * @return the progress as a map ready to be serialized to JSON.
+         */
+        public Map<String, Object> describe() {
+            Map<String, Object> description = new LinkedHashMap<>();
+            description.put("account_id", accountId);
+            description.put("phase", phase);
+            description.put("messagesDeleted", deleted.get());
+            description.put("messagesPurged", purged.get());
+            description.put("startedMillis", startedMillis);
+            if (error != null) {
+                description.put("error", error);
+            }
+            return description;
+        }
+    }
+}
@@ -2,13 +2,16 @@ package Service;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import DAO.AccountDao;
 import DAO.DaoException;
+import DAO.TransactionTemplate;
 import Model.Account;
+import Model.Message;
 
 /*
     The AccountService class contains business logic for account operations, focusing on business logic validations.
@@ -22,11 +25,16 @@ import Model.Account;
 
 public class AccountService {
     private AccountDao accountDao;
+    private PasswordService passwordService;
+    // Removes deleted accounts and their messages in the background
+    private AccountDeletionJob deletionJob;
+    // Runs the check that a username is free and the insert claiming it as one transaction
+    private final TransactionTemplate transactions;
     private static final Logger LOGGER = LoggerFactory.getLogger(AccountService.class);
 
-    // Default constructor initializing the AccountDao object
+    // Default constructor initializing the AccountDao and PasswordService objects
     public AccountService() {
-        accountDao = new AccountDao();
+        this(new AccountDao(), new PasswordService());
     }
 
     /**
@@ -36,7 +44,33 @@ public class AccountService {
      * @param accountDao The DAO instance to use.
      */
     public AccountService(AccountDao accountDao) {
+        this(accountDao, new PasswordService());
+    }
+
+    /**
+     * Constructor that allows an external AccountDao and PasswordService to be
+     * used, useful for testing purposes.
+     *
+     * @param accountDao      The DAO instance to use.
+     * @param passwordService The service hashing and verifying passwords.
+     */
+    public AccountService(AccountDao accountDao, PasswordService passwordService) {
+        this(accountDao, passwordService, AccountDeletionJob.getDefault());
+    }
+
+    /**
+     * Constructor that allows an external AccountDao, PasswordService and
+     * AccountDeletionJob to be used, useful for testing purposes.
+     *
+     * @param accountDao      The DAO instance to use.
+     * @param passwordService The service hashing and verifying passwords.
+     * @param deletionJob     The job removing deleted accounts and their messages.
+     */
+    public AccountService(AccountDao accountDao, PasswordService passwordService, AccountDeletionJob deletionJob) {
         this.accountDao = accountDao;
+        this.passwordService = passwordService;
+        this.deletionJob = deletionJob;
+        this.transactions = TransactionTemplate.getDefault();
     }
 
     /**
@@ -94,24 +128,64 @@ public class AccountService {
     }
 
     /**
-     * Validate login using the AccountDao.
+     * Validate login by looking the account up with the AccountDao and verifying
+     * the password against its stored hash on the PasswordService pool.
+     * If the stored value is a legacy plaintext password or was hashed with older
+     * parameters, it is transparently replaced by a fresh hash.
      *
      * @param account The account to validate.
-     * @return Optional containing the validated account if it exists.
-     * @throws ServiceException If any exception occurs during validation.
+     * @return Optional containing the validated account if it exists. The
+     *         returned account carries the password that was supplied, never the
+     *         stored hash.
+     * @throws ServiceBusyException If the password pool is saturated.
+     * @throws ServiceException     If any other exception occurs during
+     *                              validation.
      */
     public Optional<Account> validateLogin(Account account) {
         LOGGER.info("Validating login");
         try {
-            Optional<Account> validatedAccount = accountDao.validateLogin(account.getUsername(),
-                    account.getPassword());
-            LOGGER.info("Login validation result: {}", validatedAccount.isPresent());
-            return validatedAccount;
+            Optional<Account> storedAccount = accountDao.findAccountByUsername(account.getUsername());
+            if (!storedAccount.isPresent()) {
+                // As slow as a wrong password, so the response time does not tell which usernames exist
+                passwordService.verifyUnknown(account.getPassword());
+                LOGGER.info("Login validation result: false");
+                return Optional.empty();
+            }
+            if (!passwordService.verify(account.getUsername(), account.getPassword(),
+                    storedAccount.get().getPassword())) {
+                LOGGER.info("Login validation result: false");
+                return Optional.empty();
+            }
+            Account stored = storedAccount.get();
+            if (passwordService.needsRehash(stored.getPassword())) {
+                rehash(stored, account.getPassword());
+            }
+            LOGGER.info("Login validation result: true");
+            return Optional.of(new Account(stored.getAccount_id(), stored.getUsername(), account.getPassword()));
         } catch (DaoException e) {
             throw new ServiceException("Exception occurred while validating login", e);
         }
     }
 
+    /**
+     * Replaces the stored password of an account with a hash made with the
+     * current parameters. A failure here does not fail the login; the upgrade is
+     * simply retried next time.
+     *
+     * @param stored   The account as stored in the database.
+     * @param password The plaintext password that was just verified.
+     */
+    private void rehash(Account stored, String password) {
+        try {
+            String newHash = passwordService.hash(password);
+            accountDao.update(new Account(stored.getAccount_id(), stored.getUsername(), newHash));
+            passwordService.rememberVerified(stored.getUsername(), password, newHash);
+            LOGGER.info("Rehashed password for account {}", stored.getAccount_id());
+        } catch (ServiceException | DaoException e) {
+            LOGGER.info("Deferred password rehash for account {}: {}", stored.getAccount_id(), e.getMessage());
+        }
+    }
+
     /**
      * Insert a new account into the database using the AccountDao.
      *
@@ -120,16 +194,21 @@ public class AccountService {
      * @throws ServiceException If any exception occurs during creation.
      */
     public Account createAccount(Account account) {
-        LOGGER.info("Creating account: {}", account);
+        LOGGER.info("Creating account: {}", account.getUsername());
         try {
             validateAccount(account);
-            Optional<Account> searchedAccount = findAccountByUsername(account.getUsername());
-            if (searchedAccount.isPresent()) {
-                throw new ServiceException("Account already exist");
-            }
-            Account createdAccount = accountDao.insert(account);
-            LOGGER.info("Created account: {}", createdAccount);
-            return createdAccount;
+            // Only the hash is persisted; the response echoes what the client sent. Hashed before the transaction
+            // begins, as it is slow and needs no database
+            String passwordHash = passwordService.hash(account.getPassword());
+            Account createdAccount = transactions.execute(() -> {
+                Optional<Account> searchedAccount = findAccountByUsername(account.getUsername());
+                if (searchedAccount.isPresent()) {
+                    throw new ServiceException("Account already exist");
+                }
+                return accountDao.insert(new Account(account.getUsername(), passwordHash));
+            });
+            LOGGER.info("Created account with ID: {}", createdAccount.getAccount_id());
+            return new Account(createdAccount.getAccount_id(), createdAccount.getUsername(), account.getPassword());
         } catch (DaoException e) {
             throw new ServiceException("Exception occurred while creating account", e);
         }
@@ -143,11 +222,12 @@ public class AccountService {
      * @throws ServiceException If any exception occurs during updating.
      */
     public boolean updateAccount(Account account) {
-        LOGGER.info("Updating account: {}", account);
+        LOGGER.info("Updating account: {}", account.getAccount_id());
         try {
-            account.setPassword(account.password);
-            boolean updated = accountDao.update(account);
-            LOGGER.info("Updated account: {}. Update successful {}", account, updated);
+            Account hashedAccount = new Account(account.getAccount_id(), account.getUsername(),
+                    passwordService.hash(account.getPassword()));
+            boolean updated = accountDao.update(hashedAccount);
+            LOGGER.info("Updated account: {}. Update successful {}", account.getAccount_id(), updated);
             return updated;
         } catch (DaoException e) {
             throw new ServiceException("Exception occurred while while updating account", e);
@@ -155,10 +235,35 @@ public class AccountService {
     }
 
     /**
-     * Deletes an existing account from the database.
+     * Registers a listener told about every message deleted along with its
+     * account.
+     *
+     * @param listener The listener to add.
+     */
+    public void addMessageDeletionListener(Consumer<Message> listener) {
+        deletionJob.addDeletionListener(listener);
+    }
+
+    /**
+     * Checks whether an account is deleted or being deleted, e.g. to refuse the
+     * session tokens issued to it before the deletion.
+     *
+     * @param accountId The ID of the account.
+     * @return true if the account's deletion was started since the application
+     *         started, or was resumed when it started.
+     */
+    public boolean isAccountDeleted(int accountId) {
+        return deletionJob.isDeleted(accountId);
+    }
+
+    /**
+     * Deletes an existing account. The account is marked as deleted at once and
+     * can no longer log in or post; its messages and then the account itself are
+     * removed in the background by the AccountDeletionJob.
      *
      * @param account The account to delete.
-     * @return true if the deletion was successful, false otherwise.
+     * @return true if the deletion was started, false if the account does not
+     *         exist or is already being deleted.
      * @throws ServiceException If any exception occurs during deletion.
      */
     public boolean deleteAccount(Account account) {
@@ -167,7 +272,10 @@ public class AccountService {
             throw new IllegalArgumentException("Account ID cannot be null");
         }
         try {
-            boolean deleted = accountDao.delete(account);
+            boolean deleted = accountDao.markDeleted(account.getAccount_id());
+            if (deleted) {
+                deletionJob.submit(account.getAccount_id());
+            }
             LOGGER.info("Deleted account: {} . Deletion successful {}", account, deleted);
             return deleted;
         } catch (DaoException e) {
@@ -175,6 +283,17 @@ public class AccountService {
         }
     }
 
+    /**
+     * Retrieves the progress of an account's deletion.
+     *
+     * @param accountId The ID of the account.
+     * @return Optional containing the progress if the account's deletion was
+     *         started or resumed since the application started.
+     */
+    public Optional<AccountDeletionJob.Progress> getDeletionProgress(int accountId) {
+        return deletionJob.getProgress(accountId);
+    }
+
     /**
      * Validates the given account based on business rules.
      *
@@ -183,7 +302,7 @@ public class AccountService {
      *                          criteria.
      */
     private void validateAccount(Account account) {
-        LOGGER.info("Validating account: {}", account);
+        LOGGER.info("Validating account: {}", account.getUsername());
         try {
 
             String username = account.getUsername().trim();
@@ -0,0 +1,264 @@
+package Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import DAO.AccountStatsDao;
+import DAO.DaoException;
+import Model.AccountStats;
+import Model.Message;
+import Util.AppConfig;
+
+/*
+    The AccountStatsTracker keeps, for every account, the number of messages it has posted, the time of its latest
+    message and the combined length of their text, so they can be read without loading the messages.
+
+    The figures live in memory and are adjusted by the message write methods of MessageService as they happen. Each
+    account's figures are guarded by one of a fixed set of striped locks, so writes for different accounts rarely
+    wait for each other and a read is a map lookup. Changed accounts are saved to the account_stats table every
+    accounts.stats.flush-ms. When the tracker is created the figures are rebuilt from the messages themselves, so
+    changes not yet flushed when the application stopped are never lost, and the table is rewritten to match.
+    That rebuild reads every message, so the application shares one tracker, getDefault(), until it is stopped.
+
+    The one figure that cannot be adjusted in place is the latest time after that message is deleted; it is then
+    looked up again, with one indexed query, the next time the account is read.
+ */
+
+public class AccountStatsTracker {
+    private static final Logger LOGGER = LoggerFactory.getLogger(AccountStatsTracker.class);
+
+    private static final int LOCK_STRIPES = 64;
+    private static final long NONE = Long.MIN_VALUE;
+    private static AccountStatsTracker defaultTracker;
+
+    // Shared by every tracker: flushing is light and a thread per tracker would be wasted
+    private static final ScheduledExecutorService FLUSHER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "account-stats-flush");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final AccountStatsDao statsDao;
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    private final Map<Integer, Counters> counters = new ConcurrentHashMap<>();
+    private final Set<Integer> dirty = ConcurrentHashMap.newKeySet();
+    private final ScheduledFuture<?> flushTask;
+    private volatile boolean stopped;
+
+    // Default constructor reading the flush interval from AppConfig
+    public AccountStatsTracker() {
+        this(new AccountStatsDao(), AppConfig.getLong("accounts.stats.flush-ms", 5_000));
+    }
+
+    /**
+     * Constructor that allows an external AccountStatsDao to be used, useful for testing purposes.
+     *
+     * @param statsDao    The DAO computing and storing the figures.
+     * @param flushMillis How often changed figures are saved, or 0 to save them only through {@link #flush()}.
+     */
+    public AccountStatsTracker(AccountStatsDao statsDao, long flushMillis) {
+        this.statsDao = statsDao;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+        rebuild();
+        this.flushTask = flushMillis > 0
+                ? FLUSHER.scheduleWithFixedDelay(this::flushQuietly, flushMillis, flushMillis, TimeUnit.MILLISECONDS)
+                : null;
+    }
+
+    /**
+     * @return the application's tracker, created, and so rebuilt, on first use and again after it was stopped.
+     */
+    public static synchronized AccountStatsTracker getDefault() {
+        if (defaultTracker == null || defaultTracker.stopped) {
+            defaultTracker = new AccountStatsTracker();
+        }
+        return defaultTracker;
+    }
+
+    /**
+     * Cancels the periodic flush and saves what is still unsaved. The tracker keeps counting, but nothing saves
+     * its figures any more.
+     */
+    public void stop() {
+        stopped = true;
+        if (flushTask != null) {
+            flushTask.cancel(false);
+        }
+        flushQuietly();
+    }
+
+    /**
+     * Recomputes every account's figures from the messages and rewrites the account_stats table.
+     */
+    public void rebuild() {
+        try {
+            Map<Integer, AccountStats> aggregated = statsDao.aggregate();
+            counters.clear();
+            dirty.clear();
+            aggregated.forEach((accountId, stats) -> counters.put(accountId, new Counters(stats)));
+            statsDao.replaceAll(aggregated.values());
+            LOGGER.info("Rebuilt the stats of {} accounts", aggregated.size());
+        } catch (DaoException e) {
+            LOGGER.warn("Could not rebuild account stats, starting from zero", e);
+        }
+    }
+
+    /**
+     * @param message A message that was just created.
+     */
+    public void messageCreated(Message message) {
+        int accountId = message.getPosted_by();
+        synchronized (lockFor(accountId)) {
+            Counters c = counters.computeIfAbsent(accountId, id -> new Counters());
+            c.count++;
+            c.characters += length(message);
+            c.last = Math.max(c.last, message.getTime_posted_epoch());
+        }
+        dirty.add(accountId);
+    }
+
+    /**
+     * @param message        A message whose text was just replaced.
+     * @param previousLength The length of the text it replaced.
+     */
+    public void messageUpdated(Message message, int previousLength) {
+        int accountId = message.getPosted_by();
+        synchronized (lockFor(accountId)) {
+            Counters c = counters.computeIfAbsent(accountId, id -> new Counters());
+            c.characters += length(message) - previousLength;
+        }
+        dirty.add(accountId);
+    }
+
+    /**
+     * @param message A message that was just deleted.
+     */
+    public void messageDeleted(Message message) {
+        int accountId = message.getPosted_by();
+        synchronized (lockFor(accountId)) {
+            Counters c = counters.get(accountId);
+            if (c == null) {
+                return;
+            }
+            c.count = Math.max(0, c.count - 1);
+            c.characters = Math.max(0, c.characters - length(message));
+            if (c.count == 0) {
+                c.last = NONE;
+                c.lastStale = false;
+            } else if (message.getTime_posted_epoch() >= c.last) {
+                // Only later messages raise it from here; the rest is looked up on the next read
+                c.last = NONE;
+                c.lastStale = true;
+            }
+        }
+        dirty.add(accountId);
+    }
+
+    /**
+     * Retrieves an account's figures.
+     *
+     * @param accountId The ID of the account.
+     * @return the figures; zero for an account without messages.
+     */
+    public AccountStats get(int accountId) {
+        Counters c = counters.get(accountId);
+        if (c == null) {
+            return new AccountStats(accountId, 0, null, 0);
+        }
+        boolean stale;
+        synchronized (lockFor(accountId)) {
+            stale = c.lastStale;
+        }
+        if (stale) {
+            long found = statsDao.getLastPosted(accountId).orElse(NONE);
+            synchronized (lockFor(accountId)) {
+                if (c.lastStale) {
+                    c.last = Math.max(c.last, found);
+                    c.lastStale = false;
+                }
+            }
+            dirty.add(accountId);
+        }
+        synchronized (lockFor(accountId)) {
+            return c.toStats(accountId);
+        }
+    }
+
+    /**
+     * Saves the figures of the accounts changed since the last flush.
+     */
+    public void flush() {
+        List<AccountStats> changed = new ArrayList<>();
+        for (Integer accountId : dirty) {
+            dirty.remove(accountId);
+            Counters c = counters.get(accountId);
+            if (c != null) {
+                synchronized (lockFor(accountId)) {
+                    changed.add(c.toStats(accountId));
+                }
+            }
+        }
+        if (changed.isEmpty()) {
+            return;
+        }
+        try {
+            statsDao.save(changed);
+        } catch (DaoException e) {
+            // Keep them for the next flush
+            changed.forEach(stats -> dirty.add(stats.getAccount_id()));
+            throw e;
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            LOGGER.warn("Could not flush account stats", e);
+        }
+    }
+
+    private Object lockFor(int accountId) {
+        return locks[accountId & (LOCK_STRIPES - 1)];
+    }
+
+    private static int length(Message message) {
+        return message.getMessage_text() == null ? 0 : message.getMessage_text().length();
+    }
+
+    /**
+     * One account's figures; read and written only under the account's lock.
+     */
+    private static class Counters {
+        long count;
+        long last = NONE;
+        long characters;
+        // The latest message was deleted and last must be looked up
+        boolean lastStale;
+
+        Counters() {
+        }
+
+        Counters(AccountStats stats) {
+            this.count = stats.getMessage_count();
+            this.last = stats.getLast_posted_epoch() == null ? NONE : stats.getLast_posted_epoch();
+            this.characters = stats.getTotal_characters();
+        }
+
+        AccountStats toStats(int accountId) {
+            return new AccountStats(accountId, count, last == NONE || lastStale ? null : last, characters);
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import DAO.ReplicaSet;
+import Model.Message;
+import Model.MessageView;
+import Util.AppConfig;
+import Util.HeavyHitters;
+
+/*
+    The HotFeedCache keeps the messages of the accounts whose feeds are read most in memory, so that reading them
+    again does not query the database, even right after the account posts.
+
+    Every feed read that reaches MessageService is offered to a space-saving sketch (HeavyHitters) monitoring
+    accounts.hot.tracked accounts. When a feed is loaded for an account that ranks among the accounts.hot.size
+    most read, with at least accounts.hot.min-reads reads counted, its messages are kept, taking the place of the
+    least read cached account if the cache is full. Feeds of more than accounts.hot.max-messages messages are never
+    kept. The sketch halves its counts every accounts.hot.decay-reads reads, so accounts that cool down are replaced.
+
+    Unlike the response cache, which drops a feed on every change, a kept feed is updated in place by
+    MessageService's writes: a new message is added, an updated one replaced, a deleted one removed. Changes made
+    elsewhere, such as an account deletion removing its messages, drop the feed through messageChanged(). Each
+    account also has a version that every change moves, and a loaded feed is only kept if its version has not moved
+    since the load began, so a load that raced a write is never kept.
+
+    When reads are served by replicas nothing is kept: a feed loaded from a replica behind the primary would miss
+    writes made before the load, which the cache would then never see.
+ */
+
+public class HotFeedCache implements MessageChangeListener {
+
+    private static final int VERSION_STRIPES = 1024;
+    private static final Comparator<MessageView> BY_ID = Comparator.comparingInt(MessageView::getMessage_id);
+
+    private final int size;
+    private final int minReads;
+    private final int maxMessages;
+    private final HeavyHitters reads;
+    // Sorted by message_id, the order the database returns a feed in; replaced whole on every change
+    private final Map<Integer, MessageView[]> feeds = new ConcurrentHashMap<>();
+    // Striped by account, so the table stays the same size however many accounts write; guarded by feeds' monitor
+    private final long[] versions = new long[VERSION_STRIPES];
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder promotions = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    // Default constructor reading the limits from AppConfig
+    public HotFeedCache() {
+        this(ReplicaSet.getDefault().isEnabled() ? 0 : AppConfig.getInt("accounts.hot.size", 16),
+                AppConfig.getInt("accounts.hot.tracked", 128), AppConfig.getInt("accounts.hot.min-reads", 8),
+                AppConfig.getInt("accounts.hot.max-messages", 1000),
+                AppConfig.getLong("accounts.hot.decay-reads", 100_000));
+    }
+
+    /**
+     * Constructor that allows the limits to be chosen, useful for testing purposes.
+     *
+     * @param size        The number of feeds kept, or 0 to keep none.
+     * @param tracked     The number of accounts the sketch monitors.
+     * @param minReads    The reads an account needs before its feed is kept.
+     * @param maxMessages The largest feed kept.
+     * @param decayReads  How many reads pass between two halvings of the counts.
+     */
+    public HotFeedCache(int size, int tracked, int minReads, int maxMessages, long decayReads) {
+        this.size = size;
+        this.minReads = minReads;
+        this.maxMessages = maxMessages;
+        this.reads = new HeavyHitters(Math.max(tracked, size), decayReads);
+    }
+
+    /**
+     * Counts a read of an account's feed.
+     *
+     * @param accountId The ID of the account.
+     * @return the feed's messages in message_id order, or null if it is not kept.
+     */
+    public List<Message> get(int accountId) {
+        reads.offer(accountId);
+        MessageView[] feed = size > 0 ? feeds.get(accountId) : null;
+        if (feed == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        List<Message> messages = new ArrayList<>(feed.length);
+        for (MessageView view : feed) {
+            messages.add(view.toMessage());
+        }
+        return messages;
+    }
+
+    /**
+     * @param accountId The ID of an account.
+     * @return the version of its feed, to pass to {@link #loaded} with a feed loaded after this call.
+     */
+    public long version(int accountId) {
+        synchronized (feeds) {
+            return versions[stripe(accountId)];
+        }
+    }
+
+    /**
+     * Keeps a feed just loaded from the database if its account is hot enough and nothing changed it meanwhile.
+     *
+     * @param accountId The ID of the account.
+     * @param version   The version read before the feed was loaded.
+     * @param messages  The feed, in message_id order.
+     */
+    public void loaded(int accountId, long version, List<Message> messages) {
+        if (size <= 0 || messages.size() > maxMessages || reads.count(accountId) < minReads
+                || !reads.isTop(accountId, size)) {
+            return;
+        }
+        MessageView[] feed = new MessageView[messages.size()];
+        for (int i = 0; i < feed.length; i++) {
+            feed[i] = MessageView.of(messages.get(i));
+        }
+        synchronized (feeds) {
+            if (version != versions[stripe(accountId)] || feeds.containsKey(accountId)) {
+                return;
+            }
+            if (feeds.size() >= size && !evictColderThan(reads.count(accountId))) {
+                return;
+            }
+            feeds.put(accountId, feed);
+            promotions.increment();
+        }
+    }
+
+    // Called with the lock held: drops the least read kept feed if it is read less than count
+    private boolean evictColderThan(long count) {
+        Integer coldest = null;
+        long coldestCount = Long.MAX_VALUE;
+        for (Integer cached : feeds.keySet()) {
+            long cachedCount = reads.count(cached);
+            if (cachedCount < coldestCount) {
+                coldest = cached;
+                coldestCount = cachedCount;
+            }
+        }
+        if (coldest == null || coldestCount >= count) {
+            return false;
+        }
+        feeds.remove(coldest);
+        evictions.increment();
+        return true;
+    }
+
+    /**
+     * Adds a created message to its account's feed, or replaces an updated one, if the feed is kept.
+     *
+     * @param message The message as stored.
+     */
+    public void messageStored(Message message) {
+        MessageView view = MessageView.of(message);
+        synchronized (feeds) {
+            int accountId = message.getPosted_by();
+            versions[stripe(accountId)]++;
+            MessageView[] feed = feeds.get(accountId);
+            if (feed == null) {
+                return;
+            }
+            int position = Arrays.binarySearch(feed, view, BY_ID);
+            MessageView[] updated;
+            if (position >= 0) {
+                updated = feed.clone();
+                updated[position] = view;
+            } else if (feed.length >= maxMessages) {
+                feeds.remove(accountId);
+                return;
+            } else {
+                int insertAt = -position - 1;
+                updated = new MessageView[feed.length + 1];
+                System.arraycopy(feed, 0, updated, 0, insertAt);
+                updated[insertAt] = view;
+                System.arraycopy(feed, insertAt, updated, insertAt + 1, feed.length - insertAt);
+            }
+            feeds.put(accountId, updated);
+        }
+    }
+
+    /**
+     * Removes a deleted message from its account's feed, if the feed is kept.
+     *
+     * @param message The deleted message.
+     */
+    public void messageDeleted(Message message) {
+        synchronized (feeds) {
+            int accountId = message.getPosted_by();
+            versions[stripe(accountId)]++;
+            MessageView[] feed = feeds.get(accountId);
+            if (feed == null) {
+                return;
+            }
+            int position = Arrays.binarySearch(feed, MessageView.of(message), BY_ID);
+            if (position < 0) {
+                return;
+            }
+            MessageView[] updated = new MessageView[feed.length - 1];
+            System.arraycopy(feed, 0, updated, 0, position);
+            System.arraycopy(feed, position + 1, updated, position, updated.length - position);
+            feeds.put(accountId, updated);
+        }
+    }
+
+    /**
+     * Drops the feed of the account that posted a message changed outside MessageService.
+     */
+    @Override
+    public void messageChanged(int messageId, int postedBy) {
+        synchronized (feeds) {
+            versions[stripe(postedBy)]++;
+            feeds.remove(postedBy);
+        }
+    }
+
+    private static int stripe(int accountId) {
+        return (accountId * 0x9E3779B9 >>> 22) & (VERSION_STRIPES - 1);
+    }
+
+    /**
+     * @return the most read accounts with their estimated reads, the accounts whose feeds are kept, and the hit
+     *         counts of the cache.
+     */
+    public Map<String, Object> describe() {
+        List<Map<String, Object>> hot = new ArrayList<>();
+        for (HeavyHitters.Entry entry : reads.top(Math.max(size, 10))) {
+            Map<String, Object> account = new LinkedHashMap<>();
+            account.put("accountId", entry.getKey());
+            account.put("reads", entry.getCount());
+            account.put("maxOvercount", entry.getError());
+            account.put("cached", feeds.containsKey(entry.getKey()));
+            hot.add(account);
+        }
+        Map<String, Object> description = new LinkedHashMap<>();
+        description.put("hotAccounts", hot);
+        description.put("cachedFeeds", feeds.size());
+        description.put("maxCachedFeeds", size);
+        description.put("hits", hits.sum());
+        description.put("misses", misses.sum());
+        description.put("promotions", promotions.sum());
+        description.put("evictions", evictions.sum());
+        return description;
+    }
+}
@@ -0,0 +1,16 @@
+package Service;
+
+/**
+ * Told about every change to what a message response contains: the message being created, updated or deleted,
+ * and its like count changing. Listeners are called on the writing thread, after the change is stored, and must
+ * be quick.
+ */
+@FunctionalInterface
+public interface MessageChangeListener {
+
+    /**
+     * @param messageId The ID of the message that changed.
+     * @param postedBy  The ID of the account that posted it.
+     */
+    void messageChanged(int messageId, int postedBy);
+}
@@ -1,15 +1,24 @@
 package Service;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.stream.Collectors;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import DAO.MessageDao;
 import DAO.DaoException;
-import Model.Account;
+import DAO.TransactionTemplate;
+import Model.AccountStats;
 import Model.Message;
+import Model.MessageVersion;
+import Model.MessageView;
+import Util.AppConfig;
 import io.javalin.http.NotFoundResponse;
 
 /* The Service class contains the business logic for the Message objects and sits between the web layer (controller)
@@ -18,18 +27,83 @@ import io.javalin.http.NotFoundResponse;
 
 public class MessageService {
     private MessageDao messageDao;
+    // The newest messages, kept warm by the write methods below
+    private final RecentMessagesBuffer recentMessages;
+    // Per-account message counts, kept current by the write methods below
+    private final AccountStatsTracker accountStats;
+    // Told about every write, e.g. to drop cached responses
+    private final List<MessageChangeListener> changeListeners = new CopyOnWriteArrayList<>();
+    // Told about every deleted message, e.g. to forget its likes
+    private final List<Consumer<Message>> deletionListeners = new CopyOnWriteArrayList<>();
+    // The feeds of the most read accounts, kept current by the write methods below
+    private final HotFeedCache hotFeeds;
+    // Runs each update's read, checks and write as one transaction
+    private final TransactionTemplate transactions;
     private static final Logger LOGGER = LoggerFactory.getLogger(MessageService.class);
     private static final String DB_ACCESS_ERROR_MSG = "Error accessing the database";
 
     // Default constructor initializing the MessageDao object
     public MessageService() {
-        messageDao = new MessageDao();
+        this(new MessageDao());
     }
 
     // Constructor that allows an external MessageDao to be used, useful for testing
     // purposes.
     public MessageService(MessageDao messageDao) {
+        this(messageDao, AccountStatsTracker.getDefault());
+    }
+
+    // Constructor that allows an external MessageDao and AccountStatsTracker to be
+    // used, useful for testing purposes.
+    public MessageService(MessageDao messageDao, AccountStatsTracker accountStats) {
         this.messageDao = messageDao;
+        this.accountStats = accountStats;
+        this.transactions = TransactionTemplate.getDefault();
+        this.hotFeeds = new HotFeedCache();
+        this.recentMessages = new RecentMessagesBuffer(AppConfig.getInt("messages.recent.capacity", 256));
+        refillRecentMessages();
+    }
+
+    /**
+     * Stop the background work of the service: the periodic flush of the
+     * account stats, which are saved one last time.
+     */
+    public void stop() {
+        accountStats.stop();
+    }
+
+    /**
+     * Register a listener told about every message this service creates,
+     * updates or deletes, once the change is stored.
+     *
+     * @param listener The listener to add
+     */
+    public void addChangeListener(MessageChangeListener listener) {
+        changeListeners.add(listener);
+    }
+
+    /**
+     * Register a listener told about every message deleted, here or by the
+     * AccountDeletionJob, once the deletion is stored.
+     *
+     * @param listener The listener to add
+     */
+    public void addDeletionListener(Consumer<Message> listener) {
+        deletionListeners.add(listener);
+    }
+
+    /**
+     * @return the cache of the most read accounts' feeds, to describe it or to
+     *         tell it about messages changed elsewhere
+     */
+    public HotFeedCache getHotFeeds() {
+        return hotFeeds;
+    }
+
+    private void fireMessageChanged(Message message) {
+        for (MessageChangeListener listener : changeListeners) {
+            listener.messageChanged(message.getMessage_id(), message.getPosted_by());
+        }
     }
 
     /**
@@ -54,6 +128,51 @@ public class MessageService {
         }
     }
 
+    /**
+     * Retrieve a Message by its ID together with its current version, which a
+     * client names in the If-Match header of a conditional update. Both come
+     * from the same query.
+     *
+     * @param id The ID of the Message
+     * @return Optional containing the found Message and its version
+     * @throws ServiceException If the Message is not found or there is a DAO
+     *                          exception
+     */
+    public Optional<MessageDao.VersionedMessage> getVersionedMessageById(int id) {
+        LOGGER.info("Fetching message with ID: {} ", id);
+        try {
+            Optional<MessageDao.VersionedMessage> message = messageDao.getVersionedById(id);
+            if (!message.isPresent()) {
+                throw new ServiceException("Message not found");
+            }
+            return message;
+        } catch (DaoException e) {
+            throw new ServiceException(DB_ACCESS_ERROR_MSG, e);
+        }
+    }
+
+    /**
+     * Retrieve many messages by their IDs in as few queries as possible
+     *
+     * @param ids The IDs of the Messages
+     * @return List of the Messages found, in the order their IDs were first
+     *         given; missing IDs are left out
+     * @throws ServiceException If there is a DAO exception
+     */
+    public List<Message> getMessagesByIds(List<Integer> ids) {
+        LOGGER.info("Fetching {} messages by ID", ids.size());
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        try {
+            List<Message> messages = messageDao.getByIds(ids);
+            LOGGER.info("Fetched {} messages", messages.size());
+            return messages;
+        } catch (DaoException e) {
+            throw new ServiceException(DB_ACCESS_ERROR_MSG, e);
+        }
+    }
+
     /**
      * Retrieve all messages using the MessageDao
      *
@@ -81,7 +200,13 @@ public class MessageService {
     public List<Message> getMessagesByAccountId(int accountId) {
         LOGGER.info("Fetching messages posted by ID account: {}", accountId);
         try {
-            List<Message> messages = messageDao.getMessagesByAccountId(accountId);
+            List<Message> messages = hotFeeds.get(accountId);
+            if (messages != null) {
+                return messages;
+            }
+            long version = hotFeeds.version(accountId);
+            messages = messageDao.getMessagesByAccountId(accountId);
+            hotFeeds.loaded(accountId, version, messages);
             LOGGER.info("Fetched {} messages", messages.size());
             return messages;
         } catch (DaoException e) {
@@ -90,39 +215,123 @@ public class MessageService {
     }
 
     /**
-     * Insert a new message into the database using the MessageDao.
-     * Checks account permissions to ensure that only the message author can create
-     * messages on their behalf.
+     * Stream the messages posted within a time range, newest first, using the
+     * time_posted_epoch index.
      *
-     * @param message The Message to create
-     * @param account The Account creating the Message
-     * @return The created Message
-     * @throws ServiceException If the Account does not exist, the Message is not
-     *                          valid, or there is a DAO exception
+     * @param since    The earliest time_posted_epoch to include
+     * @param until    The latest time_posted_epoch to include
+     * @param limit    The maximum number of messages to return
+     * @param consumer Receives each Message in descending time order
+     * @throws ServiceException If the range is invalid or there is a DAO exception
+     */
+    public void streamMessagesInRange(long since, long until, int limit, Consumer<Message> consumer) {
+        LOGGER.info("Streaming up to {} messages posted between {} and {}", limit, since, until);
+        if (since > until || limit < 1) {
+            throw new ServiceException("Invalid time range or limit");
+        }
+        try {
+            messageDao.streamMessagesInRange(since, until, limit, consumer);
+        } catch (DaoException e) {
+            throw new ServiceException(DB_ACCESS_ERROR_MSG, e);
+        }
+    }
+
+    /**
+     * Retrieve the most recently posted messages, newest first. Any page that
+     * fits in the recent-messages window is served from memory without a
+     * database query.
+     *
+     * @param limit The maximum number of messages to return
+     * @return Unmodifiable list of at most limit messages in descending time
+     *         order, as immutable views that may be shared with the cache
+     * @throws ServiceException If the limit is invalid or there is a DAO exception
      */
-    public Message createMessage(Message message, Optional<Account> account) {
-        LOGGER.info("Creating message: {}", message);
+    public List<MessageView> getLatestMessages(int limit) {
+        LOGGER.info("Fetching latest {} messages", limit);
+        if (limit < 1) {
+            throw new ServiceException("Invalid limit");
+        }
+        Optional<List<MessageView>> held = recentMessages.latest(limit);
+        if (held.isPresent()) {
+            return held.get();
+        }
+        try {
+            // Deletions left the window short, or the page is larger than it: read the database, and reload the
+            // window from the same rows when they cover it
+            long seenWrites = recentMessages.getWrites();
+            List<Message> latest = messageDao.getLatestMessages(Math.max(limit, recentMessages.getCapacity()));
+            recentMessages.reset(latest.subList(0, Math.min(latest.size(), recentMessages.getCapacity())),
+                    seenWrites);
+            return latest.stream().limit(limit).map(MessageView::of).collect(Collectors.toUnmodifiableList());
+        } catch (DaoException e) {
+            throw new ServiceException(DB_ACCESS_ERROR_MSG, e);
+        }
+    }
 
-        // Ensure that the account exists
-        if (!account.isPresent()) {
-            throw new ServiceException("Account must exist when posting a new message");
+    /**
+     * Reload the recent-messages window from the database, at startup.
+     */
+    private void refillRecentMessages() {
+        try {
+            recentMessages.reset(messageDao.getLatestMessages(recentMessages.getCapacity()));
+        } catch (DaoException e) {
+            LOGGER.warn("Could not load recent messages, starting with an empty window", e);
         }
+    }
 
-        // Validate the message
+    /**
+     * The first step of creating a message, run on its own by the staged
+     * creation pipeline (see Controller.MessageCreationPipeline): check the
+     * message is valid.
+     *
+     * @param message The Message to create
+     * @throws ServiceException If the Message is not valid
+     */
+    public void validateNewMessage(Message message) {
         validateMessage(message);
+    }
+
+    /**
+     * The second step of creating a message: check the account creating it is
+     * its author.
+     *
+     * @param message   The Message to create
+     * @param accountId The ID of the account creating the Message
+     * @throws ServiceException If the account is not the author
+     */
+    public void authorizeNewMessage(Message message, int accountId) {
+        checkAccountPermission(accountId, message.getPosted_by());
+    }
 
-        // Check account permission
-        checkAccountPermission(account.get(), message.getPosted_by());
+    /**
+     * The third step of creating a message: insert it into the database.
+     *
+     * @param message A Message that passed the previous steps
+     * @return The created Message, with its generated ID
+     * @throws ServiceException If there is a DAO exception
+     */
+    public Message persistNewMessage(Message message) {
         try {
-            // Insert the message into the database
-            Message createdMessage = messageDao.insert(message);
-            LOGGER.info("Created message: {}", createdMessage);
-            return createdMessage;
+            return messageDao.insert(message);
         } catch (DaoException e) {
             throw new ServiceException(DB_ACCESS_ERROR_MSG, e);
         }
     }
 
+    /**
+     * The last step of creating a message: bring the recent messages, the
+     * account's stats, the kept feeds and the change listeners up to date.
+     *
+     * @param createdMessage The Message returned by persistNewMessage
+     */
+    public void publishNewMessage(Message createdMessage) {
+        recentMessages.add(createdMessage);
+        accountStats.messageCreated(createdMessage);
+        hotFeeds.messageStored(createdMessage);
+        fireMessageChanged(createdMessage);
+        LOGGER.info("Created message: {}", createdMessage);
+    }
+
     /**
      * Update an existing message in the database using the MessageDao.
      * Checks account permissions to ensure that only the message author can update
@@ -134,27 +343,165 @@ public class MessageService {
      *                          there is a DAO exception
      */
     public Message updateMessage(Message message) {
+        return updateMessage(message, Optional.empty());
+    }
+
+    /**
+     * Update an existing message on behalf of an authenticated account, which
+     * must be the author of the message.
+     *
+     * @param message   The Message to update
+     * @param accountId The ID of the account performing the update
+     * @return The updated Message
+     * @throws ServiceException If the Message does not exist, is not valid, the
+     *                          account is not its author, or there is a DAO
+     *                          exception
+     */
+    public Message updateMessage(Message message, int accountId) {
+        return updateMessage(message, Optional.of(accountId));
+    }
+
+    /**
+     * Update an existing message only if it is still at the version the caller
+     * last saw, so that two concurrent edits cannot silently overwrite each other.
+     *
+     * @param message         The Message to update
+     * @param accountId       The ID of the authenticated account performing the
+     *                        update, if any; it must be the author of the message
+     * @param expectedVersion The version of the message the update replaces
+     * @return The updated Message, now at version expectedVersion + 1
+     * @throws VersionConflictException If the message has been changed since
+     *                                  that version
+     * @throws ServiceException         If the Message does not exist, is not
+     *                                  valid, the account is not its author, or
+     *                                  there is a DAO exception
+     */
+    public Message updateMessage(Message message, Optional<Integer> accountId, int expectedVersion) {
+        return updateMessage(message, accountId, Integer.valueOf(expectedVersion), author -> { });
+    }
+
+    /**
+     * Update an existing message for a caller that is not authenticated, telling
+     * chargeAuthor who the author is as soon as the message has been read, so
+     * that e.g. a per-account rate limit can refuse the update before anything
+     * is written and without reading the message a second time.
+     *
+     * @param message         The Message to update
+     * @param expectedVersion The version of the message the update replaces, or
+     *                        empty for an unconditional update
+     * @param chargeAuthor    Called once with the ID of the message's author,
+     *                        even if the transaction is retried; it may throw
+     *                        to refuse the update
+     * @return The updated Message
+     * @throws VersionConflictException If the message has been changed since
+     *                                  the expected version
+     * @throws ServiceException         If the Message does not exist, is not
+     *                                  valid, or there is a DAO exception
+     */
+    public Message updateMessage(Message message, Optional<Integer> expectedVersion, IntConsumer chargeAuthor) {
+        return updateMessage(message, Optional.empty(), expectedVersion.orElse(null), chargeAuthor);
+    }
+
+    private Message updateMessage(Message message, Optional<Integer> accountId) {
+        return updateMessage(message, accountId, null, author -> { });
+    }
+
+    private Message updateMessage(Message message, Optional<Integer> accountId, Integer expectedVersion,
+            IntConsumer chargeAuthor) {
         LOGGER.info("Updating message: {}", message.getMessage_id());
 
-        // Retrieve the existing message by its ID
-        Optional<Message> retrievedMessage = this.getMessageById(message.getMessage_id());
+        // TransactionTemplate runs the block again on a conflict; the author is charged on the first run only
+        boolean[] charged = { false };
+        try {
+            // Read, checked and written in one transaction, so the text the update replaces is the one it read
+            Message previousMessage = transactions.execute(() -> {
+                // Retrieve the existing message by its ID
+                Optional<Message> retrievedMessage = this.getMessageById(message.getMessage_id());
+
+                // Check if the message exists
+                if (!retrievedMessage.isPresent()) {
+                    throw new ServiceException("Message not found");
+                }
+                if (!charged[0]) {
+                    charged[0] = true;
+                    chargeAuthor.accept(retrievedMessage.get().getPosted_by());
+                }
 
-        // Check if the message exists
-        if (!retrievedMessage.isPresent()) {
-            throw new ServiceException("Message not found");
+                // Only the author may change the message
+                if (accountId.isPresent()) {
+                    checkAccountPermission(accountId.get(), retrievedMessage.get().getPosted_by());
+                }
+
+                // Validate the updated message
+                Message updatedMessage = withText(retrievedMessage.get(), message.getMessage_text());
+                validateMessage(updatedMessage);
+
+                // Update the message in the database, archiving the version it replaces
+                if (expectedVersion == null) {
+                    messageDao.update(updatedMessage);
+                } else if (!messageDao.update(updatedMessage, expectedVersion)) {
+                    throw new VersionConflictException("Message " + message.getMessage_id()
+                            + " is no longer at version " + expectedVersion);
+                }
+                return retrievedMessage.get();
+            });
+
+            // Only once the update has committed
+            Message updatedMessage = withText(previousMessage, message.getMessage_text());
+            String previousText = previousMessage.getMessage_text();
+            recentMessages.update(updatedMessage);
+            accountStats.messageUpdated(updatedMessage, previousText == null ? 0 : previousText.length());
+            hotFeeds.messageStored(updatedMessage);
+            fireMessageChanged(updatedMessage);
+            LOGGER.info("Updated message: {}", message);
+            return updatedMessage;
+        } catch (DaoException e) {
+            throw new ServiceException(DB_ACCESS_ERROR_MSG, e);
         }
+    }
 
-        // Update the message text with the new value
-        retrievedMessage.get().setMessage_text(message.getMessage_text());
+    // Builds the updated message rather than changing the one that was read
+    private static Message withText(Message message, String text) {
+        return new Message(message.getMessage_id(), message.getPosted_by(), text, message.getTime_posted_epoch());
+    }
 
-        // Validate the updated message
-        validateMessage(retrievedMessage.get());
+    /**
+     * Retrieve the versions of a message, newest first: its current text
+     * followed by the texts earlier updates replaced.
+     *
+     * @param id            The ID of the Message
+     * @param beforeVersion Only versions lower than this are returned, for paging
+     * @param limit         The maximum number of versions to return
+     * @return List of at most limit versions
+     * @throws ServiceException If the Message is not found or there is a DAO
+     *                          exception
+     */
+    public List<MessageVersion> getMessageHistory(int id, int beforeVersion, int limit) {
+        LOGGER.info("Fetching the history of message with ID: {}", id);
+        try {
+            List<MessageVersion> versions = messageDao.getHistory(id, beforeVersion, limit);
+            if (versions.isEmpty() && !messageDao.getById(id).isPresent()) {
+                throw new ServiceException("Message not found");
+            }
+            return versions;
+        } catch (DaoException e) {
+            throw new ServiceException(DB_ACCESS_ERROR_MSG, e);
+        }
+    }
 
+    /**
+     * Retrieve the aggregate figures of an account's messages from memory,
+     * without reading the messages.
+     *
+     * @param accountId The ID of the account
+     * @return The account's message count, latest posting time and total
+     *         characters
+     * @throws ServiceException If there is a DAO exception
+     */
+    public AccountStats getAccountStats(int accountId) {
+        LOGGER.info("Fetching the stats of account with ID: {}", accountId);
         try {
-            // Update the message in the database
-            messageDao.update(retrievedMessage.get());
-            LOGGER.info("Updated message: {}", message);
-            return retrievedMessage.get();
+            return accountStats.get(accountId);
         } catch (DaoException e) {
             throw new ServiceException(DB_ACCESS_ERROR_MSG, e);
         }
@@ -170,10 +517,33 @@ public class MessageService {
      *                          exception
      */
     public void deleteMessage(Message message) {
+        deleteMessage(message, Optional.empty());
+    }
+
+    /**
+     * Delete an existing message on behalf of an authenticated account, which
+     * must be the author of the message.
+     *
+     * @param message   The Message to delete
+     * @param accountId The ID of the account performing the deletion
+     * @throws PermissionDeniedException If the account is not the author of the
+     *                                   message
+     * @throws ServiceException          If the Message does not exist or there
+     *                                   is a DAO exception
+     */
+    public void deleteMessage(Message message, int accountId) {
+        deleteMessage(message, Optional.of(accountId));
+    }
+
+    private void deleteMessage(Message message, Optional<Integer> accountId) {
         LOGGER.info("Deleting message: {}", message);
+        if (accountId.isPresent()) {
+            checkAccountPermission(accountId.get(), message.getPosted_by());
+        }
         try {
             boolean hasDeletedMessage = messageDao.delete(message);
             if (hasDeletedMessage) {
+                messageDeleted(message);
                 LOGGER.info("Deleted message {}", message);
             } else {
                 throw new NotFoundResponse("Message to delete not found");
@@ -183,6 +553,25 @@ public class MessageService {
         }
     }
 
+    /**
+     * Bring everything this service keeps in memory in step with a message
+     * deleted from the database, here or by the AccountDeletionJob: the account
+     * stats, the hot feeds, the recent-messages window and the change and deletion
+     * listeners.
+     *
+     * @param message The deleted Message
+     */
+    public void messageDeleted(Message message) {
+        accountStats.messageDeleted(message);
+        hotFeeds.messageDeleted(message);
+        fireMessageChanged(message);
+        // A window left short is reloaded by the next read that needs more than it holds
+        recentMessages.remove(message.getMessage_id());
+        for (Consumer<Message> listener : deletionListeners) {
+            listener.accept(message);
+        }
+    }
+
     /**
      * Validate a message by checking if the message_text is null, empty, or
      * exceed the maximum allowed length.
@@ -205,15 +594,15 @@ public class MessageService {
      * Check if the account performing the action is the same as the one that posted
      * the message. This is used to maintain user data integrity and security.
      *
-     * @param account  The Account that is performing the action
-     * @param postedBy The ID of the account that posted the message
-     * @throws ServiceException If the account is not authorized to modify the
-     *                          message
+     * @param accountId The ID of the account that is performing the action
+     * @param postedBy  The ID of the account that posted the message
+     * @throws PermissionDeniedException If the account is not authorized to
+     *                                   modify the message
      */
-    private void checkAccountPermission(Account account, int postedBy) {
+    private void checkAccountPermission(int accountId, int postedBy) {
         LOGGER.info("Checking account permissions for messages");
-        if (account.getAccount_id() != postedBy) {
-            throw new ServiceException("Account not authorized to modify this message");
+        if (accountId != postedBy) {
+            throw new PermissionDeniedException("Account not authorized to modify this message");
         }
     }
 }
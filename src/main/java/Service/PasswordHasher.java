@@ -0,0 +1,129 @@
+package Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/*
+    The PasswordHasher class turns passwords into salted PBKDF2-HMAC-SHA256 hashes and checks passwords against them.
+
+    Hashes are stored as "pbkdf2-sha256$<iterations>$<salt>$<hash>" so that the work factor travels with each hash:
+    raising the configured iteration count does not invalidate existing hashes, it only makes needsRehash() return
+    true for them so they can be upgraded the next time the user logs in. Stored values without that prefix are
+    treated as legacy plaintext passwords, which lets accounts created before hashing existed be upgraded the same way.
+
+    All methods here are deliberately slow and CPU-bound; PasswordService runs them on its own bounded pool.
+ */
+
+public class PasswordHasher {
+    private static final String PREFIX = "pbkdf2-sha256";
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+
+    private final int iterations;
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * @param iterations The PBKDF2 iteration count used for new hashes.
+     */
+    public PasswordHasher(int iterations) {
+        this.iterations = iterations;
+    }
+
+    /**
+     * Hashes a password with a fresh random salt.
+     *
+     * @param password The plaintext password.
+     * @return The encoded hash, including its parameters.
+     */
+    public String hash(String password) {
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        byte[] hash = pbkdf2(password, salt, iterations);
+        Base64.Encoder encoder = Base64.getEncoder().withoutPadding();
+        return PREFIX + "$" + iterations + "$" + encoder.encodeToString(salt) + "$" + encoder.encodeToString(hash);
+    }
+
+    /**
+     * Checks a password against a stored value, in time independent of where they differ.
+     *
+     * @param password The plaintext password supplied by the user.
+     * @param stored   The value stored for the account: an encoded hash or a legacy plaintext password.
+     * @return true if the password matches.
+     */
+    public boolean verify(String password, String stored) {
+        if (password == null || stored == null) {
+            return false;
+        }
+        if (!isHashed(stored)) {
+            return MessageDigest.isEqual(password.getBytes(StandardCharsets.UTF_8),
+                    stored.getBytes(StandardCharsets.UTF_8));
+        }
+        String[] parts = stored.split("\\$");
+        if (parts.length != 4) {
+            return false;
+        }
+        try {
+            int storedIterations = Integer.parseInt(parts[1]);
+            Base64.Decoder decoder = Base64.getDecoder();
+            byte[] salt = decoder.decode(parts[2]);
+            byte[] expected = decoder.decode(parts[3]);
+            return MessageDigest.isEqual(expected, pbkdf2(password, salt, storedIterations));
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Builds a value shaped like a hash at the current iteration count, with a random salt and random hash bytes,
+     * that no password can be expected to match. Verifying a password against it costs as much as against a real
+     * hash, which is what a login for an unknown username does so that its timing matches a wrong password's.
+     *
+     * @return The encoded value.
+     */
+    public String dummyHash() {
+        byte[] salt = new byte[SALT_BYTES];
+        byte[] hash = new byte[HASH_BITS / 8];
+        random.nextBytes(salt);
+        random.nextBytes(hash);
+        Base64.Encoder encoder = Base64.getEncoder().withoutPadding();
+        return PREFIX + "$" + iterations + "$" + encoder.encodeToString(salt) + "$" + encoder.encodeToString(hash);
+    }
+
+    /**
+     * @param stored The value stored for an account.
+     * @return true if the value is plaintext or was hashed with weaker parameters than the current ones.
+     */
+    public boolean needsRehash(String stored) {
+        if (!isHashed(stored)) {
+            return true;
+        }
+        String[] parts = stored.split("\\$");
+        try {
+            return parts.length != 4 || Integer.parseInt(parts[1]) < iterations;
+        } catch (NumberFormatException e) {
+            return true;
+        }
+    }
+
+    private boolean isHashed(String stored) {
+        return stored.startsWith(PREFIX + "$");
+    }
+
+    private byte[] pbkdf2(String password, byte[] salt, int rounds) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, rounds, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new ServiceException("Unable to hash password", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import Util.AppConfig;
+
+/*
+    The PasswordService runs password hashing and verification on a dedicated, fixed-size worker pool with a bounded
+    queue, so a burst of logins or registrations can only ever use that many cores and cannot pile up unbounded work
+    behind the request threads. When the queue is full, or a task waits longer than the configured timeout, the
+    caller gets a ServiceBusyException at once instead of an ever-growing wait; this is what keeps login latency
+    predictable during a credential-stuffing burst.
+
+    Successful verifications are remembered for a short time as a keyed digest of the username, the password and the
+    stored hash. A retry with the same credentials within that window skips PBKDF2 entirely. The cache holds no
+    plaintext, its entries expire, it is bounded in size, and it is bypassed as soon as the stored hash changes.
+ */
+
+public class PasswordService {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PasswordService.class);
+
+    private final PasswordHasher hasher;
+    private final ThreadPoolExecutor executor;
+    private final long timeoutMillis;
+    private final long cacheTtlNanos;
+    private final int cacheMaxEntries;
+    private final Map<String, VerifiedCredential> verifiedCache = new ConcurrentHashMap<>();
+    private final SecretKeySpec cacheKey;
+    // What passwords given for unknown usernames are verified against
+    private final String dummyHash;
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+
+    // Default constructor reading the pool size, queue depth and hash parameters from AppConfig
+    public PasswordService() {
+        this(new PasswordHasher(AppConfig.getInt("password.pbkdf2.iterations", 120_000)),
+                AppConfig.getInt("password.pool.threads", Math.max(1, Runtime.getRuntime().availableProcessors() / 2)),
+                AppConfig.getInt("password.pool.queue", 64),
+                AppConfig.getLong("password.pool.timeout-ms", 2_000),
+                AppConfig.getLong("password.cache.ttl-seconds", 60),
+                AppConfig.getInt("password.cache.max-entries", 10_000));
+    }
+
+    /**
+     * @param hasher          The hasher doing the actual work.
+     * @param threads         The number of worker threads.
+     * @param queueCapacity   The number of tasks that may wait for a worker.
+     * @param timeoutMillis   How long a caller waits for its task before giving up.
+     * @param cacheTtlSeconds How long a successful verification is remembered.
+     * @param cacheMaxEntries The maximum number of remembered verifications.
+     */
+    public PasswordService(PasswordHasher hasher, int threads, int queueCapacity, long timeoutMillis,
+            long cacheTtlSeconds, int cacheMaxEntries) {
+        this.hasher = hasher;
+        this.timeoutMillis = timeoutMillis;
+        this.cacheTtlNanos = TimeUnit.SECONDS.toNanos(cacheTtlSeconds);
+        this.cacheMaxEntries = cacheMaxEntries;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "password-hasher-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+        byte[] secret = new byte[32];
+        new SecureRandom().nextBytes(secret);
+        this.cacheKey = new SecretKeySpec(secret, "HmacSHA256");
+        this.dummyHash = hasher.dummyHash();
+    }
+
+    /**
+     * Hashes a new password on the worker pool.
+     *
+     * @param password The plaintext password.
+     * @return The encoded hash to store.
+     * @throws ServiceBusyException If the pool is saturated.
+     */
+    public String hash(String password) {
+        return run(() -> hasher.hash(password));
+    }
+
+    /**
+     * Verifies a password against the value stored for an account, using the verified-credential cache when
+     * possible and the worker pool otherwise.
+     *
+     * @param username The username the password belongs to.
+     * @param password The plaintext password supplied by the user.
+     * @param stored   The value stored for the account.
+     * @return true if the password matches.
+     * @throws ServiceBusyException If the pool is saturated.
+     */
+    public boolean verify(String username, String password, String stored) {
+        if (password == null || stored == null) {
+            return false;
+        }
+        byte[] digest = credentialDigest(username, password, stored);
+        VerifiedCredential cached = verifiedCache.get(username);
+        if (cached != null && cached.expiresAt - System.nanoTime() > 0 && MessageDigest.isEqual(cached.digest, digest)) {
+            cacheHits.incrementAndGet();
+            return true;
+        }
+        boolean verified = run(() -> hasher.verify(password, stored));
+        if (verified) {
+            remember(username, digest);
+        } else {
+            verifiedCache.remove(username);
+        }
+        return verified;
+    }
+
+    /**
+     * Does the work of verifying a password for a username that has no account, against a dummy hash on the worker
+     * pool, so that a login for an unknown username takes as long as one with a wrong password and its timing does
+     * not tell which usernames exist.
+     *
+     * @param password The plaintext password supplied by the user.
+     * @throws ServiceBusyException If the pool is saturated.
+     */
+    public void verifyUnknown(String password) {
+        if (password != null) {
+            run(() -> hasher.verify(password, dummyHash));
+        }
+    }
+
+    /**
+     * Records that a password is known to match a stored value, e.g. right after the value was rehashed, so that
+     * the next login with the same credentials does not have to verify it again.
+     *
+     * @param username The username the password belongs to.
+     * @param password The plaintext password.
+     * @param stored   The value now stored for the account.
+     */
+    public void rememberVerified(String username, String password, String stored) {
+        remember(username, credentialDigest(username, password, stored));
+    }
+
+    /**
+     * @param stored The value stored for an account.
+     * @return true if the stored value should be replaced by a fresh hash on the next successful login.
+     */
+    public boolean needsRehash(String stored) {
+        return hasher.needsRehash(stored);
+    }
+
+    private <T> T run(Callable<T> task) {
+        Future<T> future;
+        try {
+            future = executor.submit(task);
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            LOGGER.warn("Password pool saturated: {} queued, {} active", getQueueDepth(), getActiveCount());
+            throw new ServiceBusyException("Password hashing pool is saturated", e);
+        }
+        try {
+            return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            rejected.incrementAndGet();
+            throw new ServiceBusyException("Password hashing timed out", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceBusyException("Interrupted while hashing password", e);
+        } catch (ExecutionException e) {
+            throw new ServiceException("Password hashing failed", e.getCause());
+        }
+    }
+
+    private void remember(String username, byte[] digest) {
+        if (verifiedCache.size() >= cacheMaxEntries) {
+            long now = System.nanoTime();
+            verifiedCache.values().removeIf(entry -> entry.expiresAt - now <= 0);
+            if (verifiedCache.size() >= cacheMaxEntries) {
+                return;
+            }
+        }
+        verifiedCache.put(username, new VerifiedCredential(digest, System.nanoTime() + cacheTtlNanos));
+    }
+
+    private byte[] credentialDigest(String username, String password, String stored) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(cacheKey);
+            mac.update(username.getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) 0);
+            mac.update(password.getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) 0);
+            return mac.doFinal(stored.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new ServiceException("Unable to digest credentials", e);
+        }
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public long getCompletedCount() {
+        return executor.getCompletedTaskCount();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    private static final class VerifiedCredential {
+        private final byte[] digest;
+        private final long expiresAt;
+
+        private VerifiedCredential(byte[] digest, long expiresAt) {
+            this.digest = digest;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
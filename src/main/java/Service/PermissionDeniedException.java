@@ -0,0 +1,20 @@
+package Service;
+
+/**
+ * PermissionDeniedException is thrown when an authenticated account tries to change a message it did not post.
+ * Unlike a plain ServiceException it says the request was understood and refused, so the web layer can answer it
+ * with 403 (Forbidden) rather than treating it as a bad or missing message.
+ */
+public class PermissionDeniedException extends ServiceException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructor that takes in a custom message for the exception
+     *
+     * @param message The error message associated with this exception
+     */
+    public PermissionDeniedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,245 @@
+package Service;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import DAO.DaoException;
+import DAO.MessageDao;
+import DAO.ReactionDao;
+import Model.Message;
+import Util.AppConfig;
+
+/*
+    The ReactionService handles likes and keeps every message's like count in memory.
+
+    Whether an account likes a message is stored at once, one row per account and message, which is what makes
+    liking twice harmless. The counts are not: a popular message can be liked thousands of times a second, and
+    incrementing one row for each like would make all of those requests queue for that row. Each count is a
+    LongAdder instead, which spreads concurrent increments over several cells, and reading it is a map lookup, cheap
+    enough to include the count in every message response.
+
+    Every reactions.flush-ms the counts that changed are written to message_reaction_count as one batch of
+    increments. When the service is created the counts are recomputed from the individual likes, so increments not
+    yet flushed when the application stopped are never lost, and the table is rewritten to match.
+ */
+
+public class ReactionService {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReactionService.class);
+
+    // Shared by every service: flushing is light and a thread per service would be wasted
+    private static final ScheduledExecutorService FLUSHER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "reaction-flush");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ReactionDao reactionDao;
+    private final MessageDao messageDao;
+    private final Map<Integer, Counter> counters = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap.KeySetView<Integer, Boolean> dirty = ConcurrentHashMap.newKeySet();
+    // Told about every count that changes, since the counts are part of every message response
+    private final List<MessageChangeListener> changeListeners = new CopyOnWriteArrayList<>();
+
+    // Default constructor reading the flush interval from AppConfig
+    public ReactionService() {
+        this(new ReactionDao(), new MessageDao(), AppConfig.getLong("reactions.flush-ms", 1_000));
+    }
+
+    /**
+     * Constructor that allows external DAOs to be used, useful for testing purposes.
+     *
+     * @param reactionDao The DAO storing likes and counts.
+     * @param messageDao  The DAO used to check that a liked message exists.
+     * @param flushMillis How often changed counts are saved, or 0 to save them only through {@link #flush()}.
+     */
+    public ReactionService(ReactionDao reactionDao, MessageDao messageDao, long flushMillis) {
+        this.reactionDao = reactionDao;
+        this.messageDao = messageDao;
+        rebuild();
+        if (flushMillis > 0) {
+            FLUSHER.scheduleWithFixedDelay(this::flushQuietly, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Recomputes every count from the individual likes and rewrites message_reaction_count.
+     */
+    public void rebuild() {
+        try {
+            Map<Integer, Long> counts = reactionDao.countAll();
+            counters.clear();
+            dirty.clear();
+            counts.forEach((messageId, likes) -> counters.put(messageId, new Counter(likes)));
+            reactionDao.replaceCounts(counts);
+            LOGGER.info("Loaded the like counts of {} messages", counts.size());
+        } catch (DaoException e) {
+            LOGGER.warn("Could not load like counts, starting from zero", e);
+        }
+    }
+
+    /**
+     * Likes a message on behalf of an account. Liking a message again changes
+     * nothing.
+     *
+     * @param messageId The ID of the message.
+     * @param accountId The ID of the account.
+     * @return the message's number of likes.
+     * @throws ServiceException If the message does not exist or there is a DAO
+     *                          exception.
+     */
+    public long like(int messageId, int accountId) {
+        LOGGER.info("Account {} likes message {}", accountId, messageId);
+        try {
+            Optional<Message> message = messageDao.getById(messageId);
+            if (!message.isPresent()) {
+                throw new ServiceException("Message not found");
+            }
+            if (reactionDao.addLike(messageId, accountId)) {
+                adjust(messageId, 1);
+                fireMessageChanged(message.get());
+            }
+            return getLikes(messageId);
+        } catch (DaoException e) {
+            throw new ServiceException("Exception occurred while liking a message", e);
+        }
+    }
+
+    /**
+     * Withdraws an account's like of a message. Unliking a message that is not
+     * liked changes nothing.
+     *
+     * @param messageId The ID of the message.
+     * @param accountId The ID of the account.
+     * @return the message's number of likes.
+     * @throws ServiceException If there is a DAO exception.
+     */
+    public long unlike(int messageId, int accountId) {
+        LOGGER.info("Account {} unlikes message {}", accountId, messageId);
+        try {
+            if (reactionDao.removeLike(messageId, accountId)) {
+                adjust(messageId, -1);
+                // A message deleted since it was liked has no response left to change
+                messageDao.getById(messageId).ifPresent(this::fireMessageChanged);
+            }
+            return getLikes(messageId);
+        } catch (DaoException e) {
+            throw new ServiceException("Exception occurred while unliking a message", e);
+        }
+    }
+
+    /**
+     * Forgets the likes of a deleted message, so its count is neither kept in
+     * memory nor flushed again. Its stored likes are removed now, and if that
+     * fails, when the message is purged.
+     *
+     * @param message The deleted message.
+     */
+    public void messageDeleted(Message message) {
+        int messageId = message.getMessage_id();
+        counters.remove(messageId);
+        dirty.remove(messageId);
+        try {
+            reactionDao.removeMessages(Collections.singletonList(messageId));
+        } catch (DaoException e) {
+            LOGGER.warn("Could not remove the likes of deleted message {}, leaving them to the purge", messageId, e);
+        }
+    }
+
+    /**
+     * Registers a listener told about every message whose like count changes.
+     *
+     * @param listener The listener to add.
+     */
+    public void addChangeListener(MessageChangeListener listener) {
+        changeListeners.add(listener);
+    }
+
+    private void fireMessageChanged(Message message) {
+        for (MessageChangeListener listener : changeListeners) {
+            listener.messageChanged(message.getMessage_id(), message.getPosted_by());
+        }
+    }
+
+    /**
+     * @param messageId The ID of a message.
+     * @return the message's number of likes, from memory.
+     */
+    public long getLikes(int messageId) {
+        Counter counter = counters.get(messageId);
+        return counter == null ? 0 : counter.likes.sum();
+    }
+
+    private void adjust(int messageId, int delta) {
+        counters.computeIfAbsent(messageId, id -> new Counter(0)).likes.add(delta);
+        dirty.add(messageId);
+    }
+
+    /**
+     * Saves the counts that changed since the last flush as one batch of
+     * increments.
+     */
+    public synchronized void flush() {
+        Map<Integer, Long> deltas = new HashMap<>();
+        for (Integer messageId : dirty) {
+            dirty.remove(messageId);
+            Counter counter = counters.get(messageId);
+            if (counter == null) {
+                // Deleted since it changed
+                continue;
+            }
+            // A like landing after this read is still dirty and goes in the next flush
+            long delta = counter.likes.sum() - counter.flushed;
+            if (delta != 0) {
+                deltas.put(messageId, delta);
+            }
+        }
+        if (deltas.isEmpty()) {
+            return;
+        }
+        try {
+            reactionDao.addToCounts(deltas);
+        } catch (DaoException e) {
+            dirty.addAll(deltas.keySet());
+            throw e;
+        }
+        deltas.forEach((messageId, delta) -> {
+            Counter counter = counters.get(messageId);
+            if (counter != null) {
+                counter.flushed += delta;
+            }
+        });
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            LOGGER.warn("Could not flush like counts", e);
+        }
+    }
+
+    /**
+     * One message's count. flushed is only read and written by flush().
+     */
+    private static class Counter {
+        final LongAdder likes = new LongAdder();
+        long flushed;
+
+        Counter(long likes) {
+            this.likes.add(likes);
+            this.flushed = likes;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package Service;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+
+import Model.Message;
+import Model.MessageView;
+
+/*
+    The RecentMessagesBuffer holds the newest messages, by time_posted_epoch, in memory so the global
+    "recent posts" page is served without touching the database.
+
+    It is a fixed-capacity window kept in descending time order. Writers (create, update, delete) are rare compared
+    to readers and the window is small, so every write publishes a new array under a lock while readers just take
+    the current array from a volatile field: reads never block and never see a half-applied change.
+
+    Messages are held as immutable MessageViews, so the buffer hands out the very instances it holds: nobody can
+    change them through a returned reference, and neither reads nor writes copy anything.
+
+    The window always holds the newest messages of the table with none missing in between, though after deletions it
+    may hold fewer than its capacity. It also knows whether it holds the whole table, which is the case when the
+    table had fewer rows than the capacity when the window was loaded and has not outgrown it since. A page of
+    more messages than the window holds is only answered from memory when it holds the whole table; otherwise the
+    caller has to read the database, and can reload the window from what it read.
+ */
+
+public class RecentMessagesBuffer {
+    // Newest first; the message_id tie-break matches the database ORDER BY
+    private static final Comparator<MessageView> NEWEST_FIRST = Comparator
+            .comparingLong(MessageView::getTime_posted_epoch).reversed()
+            .thenComparing(Comparator.comparingInt(MessageView::getMessage_id).reversed());
+
+    private final int capacity;
+    private volatile Window window = new Window(new MessageView[0], true);
+    // Counts the writes, so that a reload read before a write is not applied after it
+    private long writes;
+
+    /**
+     * The messages held, newest first, and whether they are all the messages there are.
+     */
+    private static final class Window {
+        final MessageView[] messages;
+        final boolean whole;
+
+        Window(MessageView[] messages, boolean whole) {
+            this.messages = messages;
+            this.whole = whole;
+        }
+    }
+
+    /**
+     * @param capacity The number of newest messages kept.
+     */
+    public RecentMessagesBuffer(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Replaces the contents of the buffer, e.g. with the newest rows read from the database at startup.
+     *
+     * @param messages The newest messages of the table, in any order, as read with a limit of the capacity; fewer
+     *                 than the capacity means they are the whole table.
+     */
+    public synchronized void reset(List<Message> messages) {
+        writes++;
+        window = new Window(messages.stream().map(MessageView::of).sorted(NEWEST_FIRST)
+                .limit(capacity).toArray(MessageView[]::new), messages.size() < capacity);
+    }
+
+    /**
+     * Replaces the contents of the buffer with rows read from the database, unless the buffer was written to since
+     * {@link #getWrites()} returned the given count, in which case the rows may not include that write.
+     *
+     * @param messages   The newest messages of the table, as for {@link #reset(List)}.
+     * @param seenWrites The write count read before the rows were.
+     * @return true if the rows were applied.
+     */
+    public synchronized boolean reset(List<Message> messages, long seenWrites) {
+        if (writes != seenWrites) {
+            return false;
+        }
+        reset(messages);
+        return true;
+    }
+
+    /**
+     * Adds a newly created message if it is recent enough to belong in the window. A message older than every one
+     * held is only added if the window holds the whole table, as older messages it does not hold may exist.
+     *
+     * @param message The created message, with its generated ID.
+     */
+    public synchronized void add(Message message) {
+        writes++;
+        MessageView view = MessageView.of(message);
+        Window current = window;
+        MessageView[] held = current.messages;
+        int position = Arrays.binarySearch(held, view, NEWEST_FIRST);
+        if (position >= 0) {
+            return;
+        }
+        int insertAt = -position - 1;
+        if (insertAt >= capacity || (insertAt == held.length && !current.whole)) {
+            return;
+        }
+        int newLength = Math.min(capacity, held.length + 1);
+        MessageView[] updated = new MessageView[newLength];
+        System.arraycopy(held, 0, updated, 0, insertAt);
+        updated[insertAt] = view;
+        System.arraycopy(held, insertAt, updated, insertAt + 1, newLength - insertAt - 1);
+        window = new Window(updated, current.whole && held.length < capacity);
+    }
+
+    /**
+     * Replaces a message held in the window with its updated version, if it is held.
+     *
+     * @param message The updated message.
+     */
+    public synchronized void update(Message message) {
+        writes++;
+        Window current = window;
+        MessageView[] held = current.messages;
+        for (int i = 0; i < held.length; i++) {
+            if (held[i].getMessage_id() == message.getMessage_id()) {
+                MessageView[] updated = held.clone();
+                updated[i] = MessageView.of(message);
+                window = new Window(updated, current.whole);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Removes a message from the window, if it is held.
+     *
+     * @param messageId The ID of the deleted message.
+     * @return true if the message was held.
+     */
+    public synchronized boolean remove(int messageId) {
+        writes++;
+        Window current = window;
+        MessageView[] held = current.messages;
+        for (int i = 0; i < held.length; i++) {
+            if (held[i].getMessage_id() == messageId) {
+                MessageView[] updated = new MessageView[held.length - 1];
+                System.arraycopy(held, 0, updated, 0, i);
+                System.arraycopy(held, i + 1, updated, i, held.length - i - 1);
+                window = new Window(updated, current.whole);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param limit The maximum number of messages to return.
+     * @return the newest messages, newest first, as an unmodifiable list; empty if the window holds fewer than
+     *         limit messages and not the whole table, so that only the database can answer.
+     */
+    public Optional<List<MessageView>> latest(int limit) {
+        Window current = window;
+        MessageView[] held = current.messages;
+        if (limit > held.length && !current.whole) {
+            return Optional.empty();
+        }
+        int size = Math.min(limit, held.length);
+        if (size <= 0) {
+            return Optional.of(Collections.emptyList());
+        }
+        // The array is never written after it is published, so the list can be a view of it
+        return Optional.of(Collections.unmodifiableList(Arrays.asList(held).subList(0, size)));
+    }
+
+    /**
+     * @return the number of writes so far, to pass to {@link #reset(List, long)}.
+     */
+    public synchronized long getWrites() {
+        return writes;
+    }
+
+    public int size() {
+        return window.messages.length;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+}
@@ -0,0 +1,31 @@
+package Service;
+
+/**
+ * ServiceBusyException is thrown when the service layer refuses work because one of its bounded resources,
+ * such as the password hashing pool, is saturated. Unlike a plain ServiceException it says nothing about the
+ * request itself, so the web layer answers it with 503 and the client may retry later.
+ */
+public class ServiceBusyException extends ServiceException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructor that takes in a custom message for the exception
+     *
+     * @param message The error message associated with this exception
+     */
+    public ServiceBusyException(String message) {
+        super(message);
+    }
+
+    /**
+     * Constructor that takes in a custom message and the original exception that
+     * causes this exception
+     *
+     * @param message The error message associated with this exception
+     * @param cause   The original exception that caused this ServiceBusyException
+     */
+    public ServiceBusyException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
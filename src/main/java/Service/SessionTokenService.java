@@ -0,0 +1,134 @@
+package Service;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Optional;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import Util.AppConfig;
+
+/*
+    The SessionTokenService issues and verifies the signed tokens handed out by /login.
+
+    A token is "<payload>.<signature>", both base64url without padding. The payload is 13 bytes: a format
+    version, the account_id and the expiry in epoch seconds. The signature is an HMAC-SHA256 of the payload,
+    truncated to 128 bits. Everything needed to authorize a request is inside the token, so verifying one costs a
+    single HMAC and no database or session-store lookup; any replica that shares the secret can verify tokens issued
+    by any other.
+ */
+
+public class SessionTokenService {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SessionTokenService.class);
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    private static final byte VERSION = 1;
+    private static final int PAYLOAD_LENGTH = 1 + Integer.BYTES + Long.BYTES;
+    private static final int SIGNATURE_LENGTH = 16;
+
+    private final SecretKeySpec key;
+    private final long ttlSeconds;
+    // Mac instances are not thread-safe, and creating one per call is comparatively expensive
+    private final ThreadLocal<Mac> macs;
+
+    // Default constructor reading the secret and lifetime from AppConfig
+    public SessionTokenService() {
+        this(secretFromConfig(), AppConfig.getLong("auth.token.ttl-seconds", 3600));
+    }
+
+    /**
+     * Constructor that allows the secret and lifetime to be supplied directly, useful for testing purposes.
+     *
+     * @param secret     The HMAC key shared by every replica.
+     * @param ttlSeconds How long an issued token stays valid.
+     */
+    public SessionTokenService(byte[] secret, long ttlSeconds) {
+        this.key = new SecretKeySpec(secret, HMAC_ALGORITHM);
+        this.ttlSeconds = ttlSeconds;
+        this.macs = ThreadLocal.withInitial(this::newMac);
+    }
+
+    /**
+     * Issues a token for the given account that expires after the configured lifetime.
+     *
+     * @param accountId The ID of the authenticated account.
+     * @return The encoded token.
+     */
+    public String issue(int accountId) {
+        long expiresAt = System.currentTimeMillis() / 1000 + ttlSeconds;
+        byte[] payload = ByteBuffer.allocate(PAYLOAD_LENGTH).put(VERSION).putInt(accountId).putLong(expiresAt)
+                .array();
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        return encoder.encodeToString(payload) + "." + encoder.encodeToString(sign(payload));
+    }
+
+    /**
+     * Verifies a token's signature and expiry.
+     *
+     * @param token The encoded token, as sent by the client.
+     * @return Optional containing the account ID carried by the token if it is valid and not expired.
+     */
+    public Optional<Integer> verify(String token) {
+        if (token == null) {
+            return Optional.empty();
+        }
+        int dot = token.indexOf('.');
+        if (dot <= 0 || dot != token.lastIndexOf('.')) {
+            return Optional.empty();
+        }
+        byte[] payload;
+        byte[] signature;
+        try {
+            Base64.Decoder decoder = Base64.getUrlDecoder();
+            payload = decoder.decode(token.substring(0, dot));
+            signature = decoder.decode(token.substring(dot + 1));
+        } catch (IllegalArgumentException e) {
+            return Optional.empty();
+        }
+        if (payload.length != PAYLOAD_LENGTH || payload[0] != VERSION
+                || !MessageDigest.isEqual(sign(payload), signature)) {
+            return Optional.empty();
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(payload, 1, PAYLOAD_LENGTH - 1);
+        int accountId = buffer.getInt();
+        long expiresAt = buffer.getLong();
+        if (expiresAt < System.currentTimeMillis() / 1000) {
+            LOGGER.info("Rejected expired token for account {}", accountId);
+            return Optional.empty();
+        }
+        return Optional.of(accountId);
+    }
+
+    private byte[] sign(byte[] payload) {
+        return Arrays.copyOf(macs.get().doFinal(payload), SIGNATURE_LENGTH);
+    }
+
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new ServiceException("Unable to initialise token signing", e);
+        }
+    }
+
+    private static byte[] secretFromConfig() {
+        String configured = AppConfig.getString("auth.token.secret", null);
+        if (configured != null) {
+            return Base64.getDecoder().decode(configured);
+        }
+        LOGGER.warn("auth.token.secret is not set; using a random key, tokens will not survive a restart "
+                + "or validate on other replicas");
+        byte[] secret = new byte[32];
+        new SecureRandom().nextBytes(secret);
+        return secret;
+    }
+}
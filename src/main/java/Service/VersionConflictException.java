@@ -0,0 +1,20 @@
+package Service;
+
+/**
+ * VersionConflictException is thrown when an update names the version of a message it expects to replace and the
+ * message has been changed since, so applying the update would silently overwrite another edit. The web layer
+ * answers it with 412 (Precondition Failed).
+ */
+public class VersionConflictException extends ServiceException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructor that takes in a custom message for the exception
+     *
+     * @param message The error message associated with this exception
+     */
+    public VersionConflictException(String message) {
+        super(message);
+    }
+}
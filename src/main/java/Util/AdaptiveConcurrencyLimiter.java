@@ -0,0 +1,133 @@
+package Util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The AdaptiveConcurrencyLimiter class bounds how many requests may be in flight at once and adjusts that bound
+ * from measured latency, in the style of a gradient (TCP Vegas-like) congestion controller.
+ *
+ * Two exponentially weighted averages of the round-trip time are kept: a short one that follows the current
+ * latency and a long one that approximates the latency of the system when it is not queueing. Their ratio is the
+ * gradient. While the short average stays close to the long one the limit grows by a small queue allowance; once
+ * requests start queueing the short average rises, the gradient drops below one and the limit shrinks
+ * proportionally. Work that cannot get a permit is rejected immediately instead of waiting in the server queue,
+ * which keeps latency bounded for the requests that are admitted.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    // Latency tolerated above the no-load baseline before the limit starts to shrink.
+    private static final double RTT_TOLERANCE = 1.5;
+    // Weight of each new sample in the smoothed limit.
+    private static final double LIMIT_SMOOTHING = 0.2;
+    // Weights of each new sample in the short and long latency averages.
+    private static final double SHORT_RTT_WEIGHT = 0.1;
+    private static final double LONG_RTT_WEIGHT = 0.01;
+
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private volatile double limit;
+    // Written under the lock in onSample, read without it by retryAfterSeconds
+    private volatile double shortRttNanos;
+    private double longRttNanos;
+
+    /**
+     * @param name         a label used in logs and metrics.
+     * @param initialLimit the limit used before any latency has been measured.
+     * @param minLimit     the limit never drops below this value.
+     * @param maxLimit     the limit never grows above this value.
+     */
+    public AdaptiveConcurrencyLimiter(String name, int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit < 1 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("Invalid limits for " + name + ": min " + minLimit + ", max " + maxLimit);
+        }
+        this.name = name;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    /**
+     * Tries to take a permit without blocking.
+     *
+     * @param headroom extra permits above the current limit that this caller may use. This lets a class of
+     *                 requests (e.g. logins) keep working after everything else is being shed.
+     * @return true if a permit was taken and {@link #release(long, boolean)} must be called later.
+     */
+    public boolean tryAcquire(int headroom) {
+        int allowed = (int) limit + Math.max(0, headroom);
+        while (true) {
+            int current = inFlight.get();
+            if (current >= allowed) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Returns a permit and feeds the observed latency into the limit calculation.
+     *
+     * @param rttNanos how long the request held the permit.
+     * @param dropped  true if the request failed in a way that says nothing about latency (e.g. it was aborted).
+     */
+    public void release(long rttNanos, boolean dropped) {
+        int inFlightAtCompletion = inFlight.getAndDecrement();
+        if (!dropped && rttNanos > 0) {
+            onSample(rttNanos, inFlightAtCompletion);
+        }
+    }
+
+    private synchronized void onSample(long rttNanos, int inFlightAtCompletion) {
+        if (longRttNanos == 0) {
+            shortRttNanos = rttNanos;
+            longRttNanos = rttNanos;
+            return;
+        }
+        shortRttNanos += (rttNanos - shortRttNanos) * SHORT_RTT_WEIGHT;
+        longRttNanos += (rttNanos - longRttNanos) * LONG_RTT_WEIGHT;
+
+        // When the baseline itself has drifted above the current latency, pull it down quickly so a past
+        // overload does not make the limiter permanently permissive.
+        if (longRttNanos > shortRttNanos * 2) {
+            longRttNanos = shortRttNanos;
+        }
+
+        double current = limit;
+        // Do not grow the limit while the application is not using it; the samples carry no information
+        // about how it would behave with more concurrency.
+        if (inFlightAtCompletion < current / 2) {
+            return;
+        }
+
+        double gradient = Math.max(0.5, Math.min(1.0, RTT_TOLERANCE * longRttNanos / shortRttNanos));
+        double queueAllowance = Math.sqrt(current);
+        double newLimit = current * gradient + queueAllowance;
+        newLimit = current * (1 - LIMIT_SMOOTHING) + newLimit * LIMIT_SMOOTHING;
+        limit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+    }
+
+    /**
+     * @return a hint, in whole seconds, for how long a rejected client should wait before retrying.
+     */
+    public int retryAfterSeconds() {
+        double rttSeconds = shortRttNanos / 1_000_000_000.0;
+        return (int) Math.max(1, Math.ceil(rttSeconds * 4));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+}
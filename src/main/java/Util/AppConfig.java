@@ -0,0 +1,77 @@
+package Util;
+
+/**
+ * The AppConfig class centralises how the application reads its tunable settings.
+ * A setting is looked up as a JVM system property first (e.g. -Dadmission.read.max=200), then as an
+ * environment variable using the upper-case, underscore form of the key (ADMISSION_READ_MAX), and
+ * finally falls back to the default supplied by the caller.
+ *
+ * Keeping every lookup in one place means the defaults stay next to the code that uses them while
+ * deployments can still override any value without a rebuild.
+ */
+public final class AppConfig {
+
+    private AppConfig() {
+    }
+
+    /**
+     * @param key          the setting name, in dotted lower-case form.
+     * @param defaultValue the value used when the setting is not provided.
+     * @return the configured string value, or the default.
+     */
+    public static String getString(String key, String defaultValue) {
+        String value = System.getProperty(key);
+        if (value == null) {
+            value = System.getenv(key.toUpperCase().replace('.', '_').replace('-', '_'));
+        }
+        return value == null || value.trim().isEmpty() ? defaultValue : value.trim();
+    }
+
+    /**
+     * @param key          the setting name, in dotted lower-case form.
+     * @param defaultValue the value used when the setting is missing or not a number.
+     * @return the configured int value, or the default.
+     */
+    public static int getInt(String key, int defaultValue) {
+        try {
+            return Integer.parseInt(getString(key, Integer.toString(defaultValue)));
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * @param key          the setting name, in dotted lower-case form.
+     * @param defaultValue the value used when the setting is missing or not a number.
+     * @return the configured long value, or the default.
+     */
+    public static long getLong(String key, long defaultValue) {
+        try {
+            return Long.parseLong(getString(key, Long.toString(defaultValue)));
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * @param key          the setting name, in dotted lower-case form.
+     * @param defaultValue the value used when the setting is missing or not a number.
+     * @return the configured double value, or the default.
+     */
+    public static double getDouble(String key, double defaultValue) {
+        try {
+            return Double.parseDouble(getString(key, Double.toString(defaultValue)));
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * @param key          the setting name, in dotted lower-case form.
+     * @param defaultValue the value used when the setting is not provided.
+     * @return the configured boolean value, or the default.
+     */
+    public static boolean getBoolean(String key, boolean defaultValue) {
+        return Boolean.parseBoolean(getString(key, Boolean.toString(defaultValue)));
+    }
+}
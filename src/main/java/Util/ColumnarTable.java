@@ -0,0 +1,344 @@
+package Util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A ColumnarTable holds a group of rows of one table column by column, and encodes them compactly.
+ *
+ * Every column is either a number (any integer SQL type) or text. Numbers are stored as the difference from the
+ * previous row's value, as zigzag varints, so an ID column read in key order costs about a byte a row and
+ * timestamps posted close together not much more. Text is stored length-prefixed in UTF-8, or, when at most half
+ * the values are distinct, as a dictionary of the distinct values followed by each row's index into it. Nulls are
+ * kept in a bitmap, written only for columns that have any.
+ *
+ * Encoded, a group is self-describing: it carries the table name, the column names and kinds, and the row count.
+ * It is the unit the message store snapshots are written and restored in.
+ */
+public final class ColumnarTable {
+
+    public static final byte NUMBER = 1;
+    public static final byte TEXT = 2;
+
+    private static final byte PLAIN = 0;
+    private static final byte DICTIONARY = 1;
+
+    private final String table;
+    private final String[] columns;
+    private final byte[] kinds;
+    private final long[][] numbers;
+    private final String[][] texts;
+    private final boolean[][] nulls;
+    private int rows;
+
+    /**
+     * @param table    The name of the table the rows come from.
+     * @param columns  The column names.
+     * @param kinds    The kind of each column, NUMBER or TEXT.
+     * @param capacity The most rows the group holds.
+     */
+    public ColumnarTable(String table, String[] columns, byte[] kinds, int capacity) {
+        this.table = table;
+        this.columns = columns.clone();
+        this.kinds = kinds.clone();
+        this.numbers = new long[columns.length][];
+        this.texts = new String[columns.length][];
+        this.nulls = new boolean[columns.length][capacity];
+        for (int column = 0; column < columns.length; column++) {
+            if (kinds[column] == NUMBER) {
+                numbers[column] = new long[capacity];
+            } else if (kinds[column] == TEXT) {
+                texts[column] = new String[capacity];
+            } else {
+                throw new IllegalArgumentException("Unknown kind " + kinds[column] + " of column " + columns[column]);
+            }
+        }
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    public String[] getColumns() {
+        return columns.clone();
+    }
+
+    public int size() {
+        return rows;
+    }
+
+    public boolean isFull() {
+        return rows == nulls[0].length;
+    }
+
+    /**
+     * Adds a row whose columns are all null until set.
+     *
+     * @return the index of the row.
+     */
+    public int addRow() {
+        if (isFull()) {
+            throw new IllegalStateException("The group of " + table + " is full");
+        }
+        int row = rows++;
+        for (int column = 0; column < columns.length; column++) {
+            nulls[column][row] = true;
+        }
+        return row;
+    }
+
+    /**
+     * Empties the group so it can be filled again.
+     */
+    public void clear() {
+        for (String[] values : texts) {
+            if (values != null) {
+                Arrays.fill(values, 0, rows, null);
+            }
+        }
+        rows = 0;
+    }
+
+    public void setNumber(int row, int column, long value) {
+        numbers[column][row] = value;
+        nulls[column][row] = false;
+    }
+
+    public void setText(int row, int column, String value) {
+        texts[column][row] = value;
+        nulls[column][row] = value == null;
+    }
+
+    public byte getKind(int column) {
+        return kinds[column];
+    }
+
+    public boolean isNull(int row, int column) {
+        return nulls[column][row];
+    }
+
+    public long getNumber(int row, int column) {
+        return numbers[column][row];
+    }
+
+    public String getText(int row, int column) {
+        return texts[column][row];
+    }
+
+    /**
+     * @return the rows encoded column by column.
+     */
+    public byte[] encode() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 + rows * columns.length * 4);
+        writeString(out, table);
+        writeVarint(out, columns.length);
+        for (int column = 0; column < columns.length; column++) {
+            writeString(out, columns[column]);
+            out.write(kinds[column]);
+        }
+        writeVarint(out, rows);
+        for (int column = 0; column < columns.length; column++) {
+            writeNulls(out, nulls[column]);
+            if (kinds[column] == NUMBER) {
+                writeNumbers(out, column);
+            } else {
+                writeTexts(out, column);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private void writeNulls(ByteArrayOutputStream out, boolean[] columnNulls) {
+        byte[] bitmap = new byte[(rows + 7) / 8];
+        boolean any = false;
+        for (int row = 0; row < rows; row++) {
+            if (columnNulls[row]) {
+                bitmap[row >>> 3] |= 1 << (row & 7);
+                any = true;
+            }
+        }
+        out.write(any ? 1 : 0);
+        if (any) {
+            out.write(bitmap, 0, bitmap.length);
+        }
+    }
+
+    private void writeNumbers(ByteArrayOutputStream out, int column) {
+        long previous = 0;
+        for (int row = 0; row < rows; row++) {
+            if (!nulls[column][row]) {
+                long value = numbers[column][row];
+                writeVarint(out, zigzag(value - previous));
+                previous = value;
+            }
+        }
+    }
+
+    private void writeTexts(ByteArrayOutputStream out, int column) {
+        Map<String, Integer> dictionary = new HashMap<>();
+        int present = 0;
+        for (int row = 0; row < rows; row++) {
+            if (!nulls[column][row]) {
+                present++;
+                dictionary.putIfAbsent(texts[column][row], dictionary.size());
+            }
+        }
+        if (dictionary.size() * 2L > present) {
+            out.write(PLAIN);
+            for (int row = 0; row < rows; row++) {
+                if (!nulls[column][row]) {
+                    writeString(out, texts[column][row]);
+                }
+            }
+            return;
+        }
+        out.write(DICTIONARY);
+        String[] entries = new String[dictionary.size()];
+        dictionary.forEach((value, index) -> entries[index] = value);
+        writeVarint(out, entries.length);
+        for (String entry : entries) {
+            writeString(out, entry);
+        }
+        for (int row = 0; row < rows; row++) {
+            if (!nulls[column][row]) {
+                writeVarint(out, dictionary.get(texts[column][row]));
+            }
+        }
+    }
+
+    /**
+     * @param encoded A group returned by {@link #encode()}.
+     * @return the group decoded.
+     * @throws IOException If the bytes are not a valid group.
+     */
+    public static ColumnarTable decode(byte[] encoded) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(encoded);
+        try {
+            String table = readString(in);
+            String[] columns = new String[readCount(in)];
+            byte[] kinds = new byte[columns.length];
+            for (int column = 0; column < columns.length; column++) {
+                columns[column] = readString(in);
+                kinds[column] = in.get();
+            }
+            int rows = readCount(in);
+            ColumnarTable group = new ColumnarTable(table, columns, kinds, Math.max(1, rows));
+            group.rows = rows;
+            for (int column = 0; column < columns.length; column++) {
+                group.readNulls(in, column);
+                if (kinds[column] == NUMBER) {
+                    group.readNumbers(in, column);
+                } else {
+                    group.readTexts(in, column);
+                }
+            }
+            if (in.hasRemaining()) {
+                throw new IOException("Trailing bytes after the group of " + table);
+            }
+            return group;
+        } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new IOException("Invalid column group", e);
+        }
+    }
+
+    private void readNulls(ByteBuffer in, int column) {
+        if (in.get() == 0) {
+            return;
+        }
+        byte[] bitmap = new byte[(rows + 7) / 8];
+        in.get(bitmap);
+        for (int row = 0; row < rows; row++) {
+            nulls[column][row] = (bitmap[row >>> 3] & (1 << (row & 7))) != 0;
+        }
+    }
+
+    private void readNumbers(ByteBuffer in, int column) {
+        long previous = 0;
+        for (int row = 0; row < rows; row++) {
+            if (!nulls[column][row]) {
+                previous += unzigzag(readVarint(in));
+                numbers[column][row] = previous;
+            }
+        }
+    }
+
+    private void readTexts(ByteBuffer in, int column) throws IOException {
+        byte encoding = in.get();
+        if (encoding == PLAIN) {
+            for (int row = 0; row < rows; row++) {
+                if (!nulls[column][row]) {
+                    texts[column][row] = readString(in);
+                }
+            }
+            return;
+        }
+        if (encoding != DICTIONARY) {
+            throw new IOException("Unknown text encoding " + encoding);
+        }
+        String[] entries = new String[readCount(in)];
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = readString(in);
+        }
+        for (int row = 0; row < rows; row++) {
+            if (!nulls[column][row]) {
+                texts[column][row] = entries[(int) readVarint(in)];
+            }
+        }
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarint(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Varint longer than 64 bits");
+    }
+
+    private static int readCount(ByteBuffer in) throws IOException {
+        long count = readVarint(in);
+        // Every counted item takes at least a byte, so a larger count can only come from a corrupt group
+        if (count < 0 || count > in.remaining() * 8L + 8) {
+            throw new IOException("Invalid count " + count);
+        }
+        return (int) count;
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static String readString(ByteBuffer in) throws IOException {
+        int length = readCount(in);
+        String value = new String(in.array(), in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+}
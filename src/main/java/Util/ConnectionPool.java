@@ -0,0 +1,195 @@
+package Util;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * The ConnectionPool class hands out connections to one database and takes them back when the caller is done.
+ *
+ * Connections are opened lazily up to a fixed maximum and then reused; when every connection is in use, callers
+ * wait up to a timeout for one to be returned rather than opening more. A pool can also be "shared", in which case
+ * it always hands out the same connection from a supplier and returning it does nothing. That is how the primary
+ * database keeps using the single ConnectionUtil connection while still being addressed like every other pool.
+ *
+ * While the calling thread has a UnitOfWork open, borrow() hands out the unit's connection to the pool's database
+ * instead, and release() leaves it with the unit until the unit ends.
+ *
+ * Every borrow() must be paired with a release() in a finally block.
+ */
+public class ConnectionPool {
+
+    // Told about every connection a pool closes, e.g. to close the statements cached for it
+    private static final List<Consumer<Connection>> CLOSE_LISTENERS = new CopyOnWriteArrayList<>();
+
+    private final String name;
+    private final String url;
+    private final String username;
+    private final String password;
+    private final int maxSize;
+    private final long timeoutMillis;
+    private final Supplier<Connection> shared;
+    private final BlockingQueue<Connection> idle;
+    private final AtomicInteger opened = new AtomicInteger();
+    private volatile boolean closed;
+
+    /**
+     * @param name          a label used in error messages.
+     * @param url           the JDBC URL of the database.
+     * @param username      the database user.
+     * @param password      the database password.
+     * @param maxSize       the maximum number of connections kept open.
+     * @param timeoutMillis how long borrow() waits for a free connection.
+     */
+    public ConnectionPool(String name, String url, String username, String password, int maxSize,
+            long timeoutMillis) {
+        this(name, url, username, password, maxSize, timeoutMillis, null);
+    }
+
+    private ConnectionPool(String name, String url, String username, String password, int maxSize,
+            long timeoutMillis, Supplier<Connection> shared) {
+        this.name = name;
+        this.url = url;
+        this.username = username;
+        this.password = password;
+        this.maxSize = maxSize;
+        this.timeoutMillis = timeoutMillis;
+        this.shared = shared;
+        this.idle = new ArrayBlockingQueue<>(Math.max(1, maxSize));
+    }
+
+    /**
+     * @param name     a label used in error messages.
+     * @param supplier supplies the single connection every caller shares.
+     * @return a pool that always hands out the supplied connection.
+     */
+    public static ConnectionPool shared(String name, Supplier<Connection> supplier) {
+        return new ConnectionPool(name, null, null, null, 1, 0, supplier);
+    }
+
+    /**
+     * @return a connection, opened if the pool has not reached its maximum yet.
+     * @throws SQLException If no connection becomes free within the timeout or one cannot be opened.
+     */
+    public Connection borrow() throws SQLException {
+        if (UnitOfWork.isActive()) {
+            return UnitOfWork.borrowFor(this, shared == null ? null : shared.get());
+        }
+        if (shared != null) {
+            return shared.get();
+        }
+        return borrowOutsideUnit();
+    }
+
+    // Borrows a connection of the pool's own, for a unit of work or for a caller outside one
+    Connection borrowOutsideUnit() throws SQLException {
+        while (true) {
+            Connection conn = idle.poll();
+            if (conn == null) {
+                conn = openIfBelowMax();
+            }
+            if (conn == null) {
+                try {
+                    conn = idle.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Interrupted while waiting for a connection to " + name, e);
+                }
+                if (conn == null) {
+                    throw new SQLException("Timed out waiting for a connection to " + name);
+                }
+            }
+            if (!conn.isClosed()) {
+                return conn;
+            }
+            opened.decrementAndGet();
+        }
+    }
+
+    /**
+     * Returns a connection obtained from {@link #borrow()}.
+     *
+     * @param conn the connection to return; null is ignored.
+     */
+    public void release(Connection conn) {
+        if (shared != null || conn == null || UnitOfWork.holds(conn)) {
+            return;
+        }
+        if (closed || !idle.offer(conn)) {
+            closeQuietly(conn);
+            opened.decrementAndGet();
+        }
+    }
+
+    // Closes a connection that can no longer be used, freeing its place in the pool
+    void discard(Connection conn) {
+        closeQuietly(conn);
+        opened.decrementAndGet();
+    }
+
+    /**
+     * Closes every idle connection. Connections currently borrowed are closed when they are released rather than
+     * returned to the pool.
+     */
+    public void close() {
+        closed = true;
+        Connection conn;
+        while ((conn = idle.poll()) != null) {
+            closeQuietly(conn);
+            opened.decrementAndGet();
+        }
+    }
+
+    private Connection openIfBelowMax() throws SQLException {
+        while (true) {
+            int current = opened.get();
+            if (current >= maxSize) {
+                return null;
+            }
+            if (opened.compareAndSet(current, current + 1)) {
+                try {
+                    return DriverManager.getConnection(url, username, password);
+                } catch (SQLException e) {
+                    opened.decrementAndGet();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Registers a listener told about every connection any pool closes, just before it is closed.
+     *
+     * @param listener the listener to add.
+     */
+    public static void addCloseListener(Consumer<Connection> listener) {
+        CLOSE_LISTENERS.add(listener);
+    }
+
+    private static void closeQuietly(Connection conn) {
+        for (Consumer<Connection> listener : CLOSE_LISTENERS) {
+            listener.accept(conn);
+        }
+        try {
+            conn.close();
+        } catch (SQLException e) {
+            // the connection is being discarded either way
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getOpenCount() {
+        return shared != null ? 1 : opened.get();
+    }
+}
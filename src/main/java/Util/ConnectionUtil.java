@@ -35,13 +35,19 @@ public class ConnectionUtil {
     private static Connection connection = null;
     /**
      * @return an active connection to the database and set up the database tables if this is the first time the
-     * Connection has been established
+     * Connection has been established. With db.schema=ensure (the production startup mode, see Main) the tables are
+     * only brought up to date by SchemaInitializer instead of being dropped and recreated. The database is opened
+     * with the settings of the db.profile StorageProfile.
      */
     public static Connection getConnection(){
         if(connection == null){
             try {
-                connection = DriverManager.getConnection(url, username, password);
-                resetTestDatabase();
+                connection = DriverManager.getConnection(StorageProfile.current().url(url), username, password);
+                if ("ensure".equals(AppConfig.getString("db.schema", "reset"))) {
+                    SchemaInitializer.ensure(connection);
+                } else {
+                    resetTestDatabase();
+                }
             } catch (SQLException e) {
                 e.printStackTrace();
             }
@@ -0,0 +1,205 @@
+package Util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * HeavyHitters finds the most frequent keys of a stream in fixed memory, with the space-saving algorithm of
+ * Metwally, Agrawal and El Abbadi.
+ *
+ * At most capacity keys are monitored, each with a count and an error: the most the count may overstate how often
+ * the key was really offered. A key that is not monitored takes the place of the monitored key with the lowest
+ * count, and starts from that count plus one, the lowest count becoming its error. Any key offered more than
+ * n / capacity times out of n is therefore always monitored, and count - error never overstates a key.
+ *
+ * The monitored keys are kept in a min-heap by count, so an offer costs O(log capacity) whether or not the key is
+ * monitored. Every decayEvery offers all counts and errors are halved, which keeps the heap's order, so that keys
+ * no longer offered make way for new ones.
+ *
+ * All methods are synchronized; an offer is a hash lookup and a few swaps.
+ */
+public final class HeavyHitters {
+
+    private final int capacity;
+    private final long decayEvery;
+    // A min-heap by count over the first size slots
+    private final int[] keys;
+    private final long[] counts;
+    private final long[] errors;
+    private final Map<Integer, Integer> slots;
+    private int size;
+    private long offeredSinceDecay;
+
+    /**
+     * A monitored key.
+     */
+    public static final class Entry {
+        private final int key;
+        private final long count;
+        private final long error;
+
+        Entry(int key, long count, long error) {
+            this.key = key;
+            this.count = count;
+            this.error = error;
+        }
+
+        public int getKey() {
+            return key;
+        }
+
+        /**
+         * @return how often the key was offered, overstated by at most the error.
+         */
+        public long getCount() {
+            return count;
+        }
+
+        public long getError() {
+            return error;
+        }
+    }
+
+    /**
+     * @param capacity   The number of keys monitored.
+     * @param decayEvery How many offers pass between two halvings of the counts, or 0 to never halve them.
+     */
+    public HeavyHitters(int capacity, long decayEvery) {
+        this.capacity = Math.max(1, capacity);
+        this.decayEvery = decayEvery;
+        this.keys = new int[this.capacity];
+        this.counts = new long[this.capacity];
+        this.errors = new long[this.capacity];
+        this.slots = new HashMap<>(this.capacity * 2);
+    }
+
+    /**
+     * Counts one occurrence of a key.
+     *
+     * @param key The key.
+     * @return the key's count after the offer.
+     */
+    public synchronized long offer(int key) {
+        if (decayEvery > 0 && ++offeredSinceDecay >= decayEvery) {
+            offeredSinceDecay = 0;
+            decay();
+        }
+        Integer slot = slots.get(key);
+        if (slot != null) {
+            counts[slot]++;
+            return counts[siftDown(slot)];
+        }
+        if (size < capacity) {
+            keys[size] = key;
+            counts[size] = 1;
+            errors[size] = 0;
+            slots.put(key, size);
+            size++;
+            return counts[siftUp(size - 1)];
+        }
+        // Replace the key with the lowest count, at the root
+        slots.remove(keys[0]);
+        keys[0] = key;
+        errors[0] = counts[0];
+        counts[0]++;
+        slots.put(key, 0);
+        return counts[siftDown(0)];
+    }
+
+    /**
+     * @param key A key.
+     * @return the key's count, or 0 if it is not monitored.
+     */
+    public synchronized long count(int key) {
+        Integer slot = slots.get(key);
+        return slot == null ? 0 : counts[slot];
+    }
+
+    /**
+     * @param k The number of keys wanted.
+     * @return the k monitored keys with the highest counts, highest first.
+     */
+    public synchronized List<Entry> top(int k) {
+        List<Entry> entries = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            entries.add(new Entry(keys[i], counts[i], errors[i]));
+        }
+        entries.sort((a, b) -> Long.compare(b.count, a.count));
+        return entries.size() > k ? new ArrayList<>(entries.subList(0, k)) : entries;
+    }
+
+    /**
+     * @param key A key.
+     * @param k   The number of keys ranked.
+     * @return true if fewer than k monitored keys have a higher count than the key, which must be monitored.
+     */
+    public synchronized boolean isTop(int key, int k) {
+        Integer slot = slots.get(key);
+        if (slot == null) {
+            return false;
+        }
+        long count = counts[slot];
+        int higher = 0;
+        for (int i = 0; i < size && higher < k; i++) {
+            if (counts[i] > count) {
+                higher++;
+            }
+        }
+        return higher < k;
+    }
+
+    private void decay() {
+        // Halving keeps every pair of counts in the same order, so the heap stays valid
+        for (int i = 0; i < size; i++) {
+            counts[i] /= 2;
+            errors[i] /= 2;
+        }
+    }
+
+    private int siftUp(int slot) {
+        while (slot > 0) {
+            int parent = (slot - 1) / 2;
+            if (counts[parent] <= counts[slot]) {
+                break;
+            }
+            swap(slot, parent);
+            slot = parent;
+        }
+        return slot;
+    }
+
+    private int siftDown(int slot) {
+        while (true) {
+            int smallest = slot;
+            int left = 2 * slot + 1;
+            int right = left + 1;
+            if (left < size && counts[left] < counts[smallest]) {
+                smallest = left;
+            }
+            if (right < size && counts[right] < counts[smallest]) {
+                smallest = right;
+            }
+            if (smallest == slot) {
+                return slot;
+            }
+            swap(slot, smallest);
+            slot = smallest;
+        }
+    }
+
+    private void swap(int a, int b) {
+        int key = keys[a];
+        keys[a] = keys[b];
+        keys[b] = key;
+        long count = counts[a];
+        counts[a] = counts[b];
+        counts[b] = count;
+        long error = errors[a];
+        errors[a] = errors[b];
+        errors[b] = error;
+        slots.put(keys[a], a);
+        slots.put(keys[b], b);
+    }
+}
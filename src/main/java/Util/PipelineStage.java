@@ -0,0 +1,196 @@
+package Util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * A PipelineStage is one step of a staged pipeline: a bounded queue of jobs and a fixed number of worker threads
+ * that take jobs from it, apply the stage's step to each, and hand it to the next stage, or complete the job's
+ * future after the last one.
+ *
+ * Jobs enter the first stage with {@link #offer}, which refuses a job when the queue is full. Between stages a
+ * worker waits for room in the next queue instead. A saturated stage therefore stops the stages before it, whose
+ * queues fill in turn, until the first one refuses new jobs: the caller sees the backpressure at once rather than
+ * the jobs piling up anywhere.
+ *
+ * A step that throws, even an Error, completes the job's future exceptionally and the job goes no further; the
+ * worker goes on with the next job. Once stopped, a stage refuses new jobs and completes those still queued with a
+ * RejectedExecutionException, so that nobody waits on a job no worker will take. Every stage counts the
+ * jobs it processed, failed and refused, and the time jobs spent waiting in its queue, being processed, and
+ * waiting for room in the next queue, which is where a saturated downstream stage shows.
+ *
+ * @param <T> The job type, the same through every stage; each step reads the job and records its result on it.
+ */
+public final class PipelineStage<T> {
+
+    private final String name;
+    private final Consumer<T> step;
+    private final BlockingQueue<Job<T>> queue;
+    private final Thread[] workers;
+    private final PipelineStage<T> next;
+
+    private final AtomicInteger busy = new AtomicInteger();
+    private final LongAdder processed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder refused = new LongAdder();
+    private final LongAdder queuedNanos = new LongAdder();
+    private final LongAdder serviceNanos = new LongAdder();
+    private final LongAdder blockedNanos = new LongAdder();
+    private volatile boolean stopped;
+
+    private static final class Job<T> {
+        final T value;
+        final CompletableFuture<T> done;
+        final long enqueued = System.nanoTime();
+
+        Job(T value, CompletableFuture<T> done) {
+            this.value = value;
+            this.done = done;
+        }
+    }
+
+    /**
+     * Creates a stage and starts its workers, which are daemon threads.
+     *
+     * @param name     The stage name, used for its threads and its metrics.
+     * @param workers  The number of worker threads.
+     * @param capacity The number of jobs the queue holds.
+     * @param step     What the stage does to each job.
+     * @param next     The stage jobs go to next, or null for the last one.
+     */
+    public PipelineStage(String name, int workers, int capacity, Consumer<T> step, PipelineStage<T> next) {
+        this.name = name;
+        this.step = step;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        this.next = next;
+        this.workers = new Thread[Math.max(1, workers)];
+        for (int i = 0; i < this.workers.length; i++) {
+            this.workers[i] = new Thread(this::work, name + "-" + i);
+            this.workers[i].setDaemon(true);
+            this.workers[i].start();
+        }
+    }
+
+    /**
+     * Queues a job if there is room.
+     *
+     * @param value The job.
+     * @return a future completed with the job once every stage has processed it, or null if the queue is full or
+     *         the stage is stopped.
+     */
+    public CompletableFuture<T> offer(T value) {
+        CompletableFuture<T> done = new CompletableFuture<>();
+        if (stopped || !queue.offer(new Job<>(value, done))) {
+            refused.increment();
+            return null;
+        }
+        if (stopped) {
+            // Stopped while the job was queued; the drain may have run before it
+            drain();
+        }
+        return done;
+    }
+
+    private void work() {
+        while (!Thread.currentThread().isInterrupted()) {
+            Job<T> job;
+            try {
+                job = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            long started = System.nanoTime();
+            queuedNanos.add(started - job.enqueued);
+            busy.incrementAndGet();
+            try {
+                step.accept(job.value);
+            } catch (Throwable e) {
+                // An Error too: the worker must live on, and the job's caller must hear of it
+                failed.increment();
+                job.done.completeExceptionally(e);
+                continue;
+            } finally {
+                serviceNanos.add(System.nanoTime() - started);
+                processed.increment();
+                busy.decrementAndGet();
+            }
+            if (next == null) {
+                job.done.complete(job.value);
+            } else if (!handOff(job)) {
+                return;
+            }
+        }
+    }
+
+    private boolean handOff(Job<T> job) {
+        long started = System.nanoTime();
+        try {
+            next.queue.put(new Job<>(job.value, job.done));
+            if (next.stopped) {
+                next.drain();
+            }
+            return true;
+        } catch (InterruptedException e) {
+            job.done.completeExceptionally(new RejectedExecutionException(name + " was stopped", e));
+            return false;
+        } finally {
+            blockedNanos.add(System.nanoTime() - started);
+        }
+    }
+
+    /**
+     * Stops the workers of this stage and the stages after it, and completes the jobs still queued exceptionally
+     * with a RejectedExecutionException. A job a worker is processing is finished, then refused by the next stage.
+     */
+    public void stop() {
+        stopped = true;
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+        drain();
+        if (next != null) {
+            next.stop();
+        }
+    }
+
+    private void drain() {
+        for (Job<T> job = queue.poll(); job != null; job = queue.poll()) {
+            job.done.completeExceptionally(new RejectedExecutionException(name + " was stopped"));
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public PipelineStage<T> getNext() {
+        return next;
+    }
+
+    /**
+     * @return the stage's workers, queue and counters, with mean times in microseconds.
+     */
+    public Map<String, Object> describe() {
+        long count = Math.max(1, processed.sum());
+        Map<String, Object> description = new LinkedHashMap<>();
+        description.put("stage", name);
+        description.put("workers", workers.length);
+        description.put("busy", busy.get());
+        description.put("queued", queue.size());
+        description.put("capacity", queue.size() + queue.remainingCapacity());
+        description.put("processed", processed.sum());
+        description.put("failed", failed.sum());
+        description.put("refused", refused.sum());
+        description.put("meanQueuedMicros", queuedNanos.sum() / count / 1_000);
+        description.put("meanServiceMicros", serviceNanos.sum() / count / 1_000);
+        description.put("meanBlockedMicros", blockedNanos.sum() / count / 1_000);
+        return description;
+    }
+}
@@ -0,0 +1,88 @@
+package Util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.zip.CRC32;
+
+import org.h2.tools.RunScript;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The SchemaInitializer brings the primary database up to date without touching its data, for the production
+ * startup mode (db.schema=ensure).
+ *
+ * The schema is SocialMediaSchema.sql, loaded from the classpath rather than from the source tree, and every
+ * statement in it is idempotent. Running it is still the slowest part of connecting, so the checksum of the script
+ * that was last applied is kept in the schema_version table: when it matches, a single primary key lookup replaces
+ * parsing and running the script, and startup does no DDL at all.
+ */
+public final class SchemaInitializer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SchemaInitializer.class);
+    static final String SCHEMA = "SocialMediaSchema.sql";
+
+    private SchemaInitializer() {
+    }
+
+    /**
+     * Applies SocialMediaSchema.sql unless the database already has this version of it.
+     *
+     * @param conn a connection to the primary database.
+     * @return true if the script was run; false if the schema was already current.
+     * @throws SQLException if the script is missing or cannot be applied.
+     */
+    public static boolean ensure(Connection conn) throws SQLException {
+        long started = System.nanoTime();
+        String script = readScript();
+        CRC32 crc = new CRC32();
+        crc.update(script.getBytes(StandardCharsets.UTF_8));
+        long checksum = crc.getValue();
+
+        try (Statement statement = conn.createStatement()) {
+            statement.execute("CREATE TABLE IF NOT EXISTS schema_version "
+                    + "(script varchar(64) primary key, checksum bigint, applied_epoch bigint)");
+        }
+        try (PreparedStatement ps = conn.prepareStatement("SELECT checksum FROM schema_version WHERE script = ?")) {
+            ps.setString(1, SCHEMA);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next() && rs.getLong(1) == checksum) {
+                    LOGGER.info("Schema is current, checked in {} ms", (System.nanoTime() - started) / 1_000_000);
+                    return false;
+                }
+            }
+        }
+
+        RunScript.execute(conn, new StringReader(script));
+        try (PreparedStatement ps = conn.prepareStatement(
+                "MERGE INTO schema_version (script, checksum, applied_epoch) KEY (script) VALUES (?, ?, ?)")) {
+            ps.setString(1, SCHEMA);
+            ps.setLong(2, checksum);
+            ps.setLong(3, System.currentTimeMillis() / 1000);
+            ps.executeUpdate();
+        }
+        LOGGER.info("Applied {} in {} ms", SCHEMA, (System.nanoTime() - started) / 1_000_000);
+        return true;
+    }
+
+    private static String readScript() throws SQLException {
+        try (InputStream in = SchemaInitializer.class.getClassLoader().getResourceAsStream(SCHEMA)) {
+            if (in == null) {
+                throw new SQLException(SCHEMA + " is missing from the classpath");
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            in.transferTo(out);
+            return out.toString(StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new SQLException("Unable to read " + SCHEMA, e);
+        }
+    }
+}
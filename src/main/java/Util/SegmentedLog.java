@@ -0,0 +1,415 @@
+package Util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.zip.CRC32C;
+
+/**
+ * The SegmentedLog class is an append-only log of byte records stored in memory-mapped files.
+ *
+ * Every record gets the next offset of a single increasing sequence. Records are written to the active segment, a
+ * file of fixed size mapped into memory; when it is full a new segment is started, named after the first offset it
+ * holds. Appending is a copy into the mapping, and reading is a copy out of it, so neither makes a system call.
+ *
+ * Each record is stored as its length, a CRC32C of its timestamp and payload, its timestamp and its payload. The
+ * length is written last, so a record torn by a crash reads as the end of the log, and the log is recovered on
+ * open by scanning the segments up to the first empty or corrupt record.
+ *
+ * Readers tail the log from an offset and wait for new records with {@link #awaitAfter(long, long)}. Named
+ * consumers record how far they have read with {@link #commit(String, long)}; checkpoints are kept in a small
+ * properties file next to the segments. Old segments are deleted when the log grows past its size limit or when
+ * their newest record is older than the age limit, whether or not every consumer has read them; a consumer that
+ * falls that far behind resumes from the oldest record still kept.
+ */
+public class SegmentedLog implements Closeable {
+
+    private static final int HEADER_BYTES = 16;
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String CHECKPOINTS = "checkpoints.properties";
+
+    private final Path dir;
+    private final int segmentBytes;
+    private final long retentionBytes;
+    private final long retentionMillis;
+    private final boolean fsync;
+    private final Map<String, Long> checkpoints = new TreeMap<>();
+    private volatile Segment[] segments;
+
+    /**
+     * A record read back from the log.
+     */
+    public static final class Record {
+        private final long offset;
+        private final long timestamp;
+        private final byte[] payload;
+
+        Record(long offset, long timestamp, byte[] payload) {
+            this.offset = offset;
+            this.timestamp = timestamp;
+            this.payload = payload;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public byte[] getPayload() {
+            return payload;
+        }
+    }
+
+    /**
+     * Opens the log in a directory, recovering the segments and checkpoints already there.
+     *
+     * @param dir             the directory holding the segments.
+     * @param segmentBytes    the size of each segment file.
+     * @param retentionBytes  the total size above which the oldest segments are deleted.
+     * @param retentionMillis the age after which a segment whose newest record is older is deleted.
+     * @param fsync           true to force every append to disk before it returns.
+     * @throws IOException If the directory or a segment cannot be read.
+     */
+    public SegmentedLog(Path dir, int segmentBytes, long retentionBytes, long retentionMillis, boolean fsync)
+            throws IOException {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.retentionBytes = retentionBytes;
+        this.retentionMillis = retentionMillis;
+        this.fsync = fsync;
+        Files.createDirectories(dir);
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + SEGMENT_SUFFIX)) {
+            stream.forEach(files::add);
+        }
+        Collections.sort(files);
+        List<Segment> opened = new ArrayList<>();
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            opened.add(new Segment(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())),
+                    file));
+        }
+        if (opened.isEmpty()) {
+            opened.add(new Segment(0, segmentPath(0)));
+        }
+        segments = opened.toArray(new Segment[0]);
+        loadCheckpoints();
+        applyRetention();
+    }
+
+    /**
+     * Appends a record.
+     *
+     * @param payload the record's bytes.
+     * @return the record's offset.
+     * @throws IOException If a new segment cannot be created.
+     */
+    public synchronized long append(byte[] payload) throws IOException {
+        if (payload.length > segmentBytes - HEADER_BYTES) {
+            throw new IllegalArgumentException("Record of " + payload.length + " bytes does not fit in a segment");
+        }
+        Segment active = segments[segments.length - 1];
+        if (!active.hasRoomFor(payload.length)) {
+            active.force();
+            Segment next = new Segment(active.nextOffset(), segmentPath(active.nextOffset()));
+            Segment[] rolled = Arrays.copyOf(segments, segments.length + 1);
+            rolled[rolled.length - 1] = next;
+            segments = rolled;
+            active = next;
+            applyRetention();
+        }
+        long offset = active.append(payload, System.currentTimeMillis());
+        if (fsync) {
+            active.force();
+        }
+        notifyAll();
+        return offset;
+    }
+
+    /**
+     * Reads records in offset order.
+     *
+     * @param fromOffset the offset of the first record wanted; offsets already deleted are skipped.
+     * @param max        the maximum number of records to return.
+     * @return up to max records starting at fromOffset, or at the oldest record kept if that is later.
+     */
+    public List<Record> read(long fromOffset, int max) {
+        Segment[] current = segments;
+        List<Record> records = new ArrayList<>();
+        long offset = Math.max(fromOffset, current[0].baseOffset);
+        for (Segment segment : current) {
+            if (records.size() >= max) {
+                break;
+            }
+            if (offset >= segment.nextOffset()) {
+                continue;
+            }
+            offset = segment.read(offset, max - records.size(), records);
+        }
+        return records;
+    }
+
+    /**
+     * Waits until a record with an offset at or after the given one exists.
+     *
+     * @param offset        the offset waited for.
+     * @param timeoutMillis how long to wait at most.
+     * @return true if such a record exists.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    public synchronized boolean awaitAfter(long offset, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (getNextOffset() <= offset) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+
+    /**
+     * @return the offset of the oldest record kept.
+     */
+    public long getStartOffset() {
+        return segments[0].baseOffset;
+    }
+
+    /**
+     * @return the offset the next appended record will get.
+     */
+    public long getNextOffset() {
+        Segment[] current = segments;
+        return current[current.length - 1].nextOffset();
+    }
+
+    public int getSegmentCount() {
+        return segments.length;
+    }
+
+    /**
+     * @return the bytes used by records across all segments.
+     */
+    public long getSizeBytes() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.writePosition;
+        }
+        return size;
+    }
+
+    /**
+     * @param consumer a consumer name.
+     * @return the offset the consumer should read next: its committed checkpoint, or the oldest record kept.
+     */
+    public long checkpoint(String consumer) {
+        synchronized (checkpoints) {
+            return Math.max(checkpoints.getOrDefault(consumer, 0L), getStartOffset());
+        }
+    }
+
+    /**
+     * @return every consumer's committed checkpoint.
+     */
+    public Map<String, Long> checkpoints() {
+        synchronized (checkpoints) {
+            return new TreeMap<>(checkpoints);
+        }
+    }
+
+    /**
+     * Records how far a consumer has read, durably.
+     *
+     * @param consumer   a consumer name.
+     * @param nextOffset the offset the consumer should read next.
+     * @throws IOException If the checkpoint file cannot be written.
+     */
+    public void commit(String consumer, long nextOffset) throws IOException {
+        synchronized (checkpoints) {
+            checkpoints.put(consumer, nextOffset);
+            Properties properties = new Properties();
+            checkpoints.forEach((name, offset) -> properties.setProperty(name, Long.toString(offset)));
+            Path temporary = dir.resolve(CHECKPOINTS + ".tmp");
+            try (OutputStream out = Files.newOutputStream(temporary)) {
+                properties.store(out, null);
+            }
+            Files.move(temporary, dir.resolve(CHECKPOINTS), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (Segment segment : segments) {
+            segment.force();
+            segment.channel.close();
+        }
+    }
+
+    private void loadCheckpoints() throws IOException {
+        Path file = dir.resolve(CHECKPOINTS);
+        if (!Files.exists(file)) {
+            return;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            properties.load(in);
+        }
+        for (String name : properties.stringPropertyNames()) {
+            checkpoints.put(name, Long.parseLong(properties.getProperty(name)));
+        }
+    }
+
+    // Called with the log locked, or from the constructor
+    private void applyRetention() throws IOException {
+        long total = getSizeBytes();
+        long cutoff = System.currentTimeMillis() - retentionMillis;
+        int drop = 0;
+        // The active segment is always kept
+        while (drop < segments.length - 1) {
+            Segment oldest = segments[drop];
+            if (total <= retentionBytes && oldest.lastTimestamp >= cutoff) {
+                break;
+            }
+            total -= oldest.writePosition;
+            drop++;
+        }
+        if (drop == 0) {
+            return;
+        }
+        Segment[] dropped = Arrays.copyOf(segments, drop);
+        segments = Arrays.copyOfRange(segments, drop, segments.length);
+        for (Segment segment : dropped) {
+            segment.channel.close();
+            Files.deleteIfExists(segment.path);
+        }
+    }
+
+    private Path segmentPath(long baseOffset) {
+        return dir.resolve(String.format("%020d%s", baseOffset, SEGMENT_SUFFIX));
+    }
+
+    private final class Segment {
+        private final long baseOffset;
+        private final Path path;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        // Start position of each record; published to readers through count
+        private volatile int[] positions = new int[64];
+        private volatile int count;
+        private int writePosition;
+        private long lastTimestamp;
+
+        Segment(long baseOffset, Path path) throws IOException {
+            this.baseOffset = baseOffset;
+            this.path = path;
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+            recover();
+        }
+
+        private void recover() {
+            CRC32C crc = new CRC32C();
+            int position = 0;
+            while (position + HEADER_BYTES <= segmentBytes) {
+                int length = buffer.getInt(position);
+                if (length <= 0 || position + HEADER_BYTES + length > segmentBytes) {
+                    break;
+                }
+                ByteBuffer body = buffer.duplicate();
+                body.position(position + 8).limit(position + HEADER_BYTES + length);
+                crc.reset();
+                crc.update(body);
+                if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+                    break;
+                }
+                lastTimestamp = buffer.getLong(position + 8);
+                addPosition(position);
+                position += HEADER_BYTES + length;
+            }
+            writePosition = position;
+            if (count == 0) {
+                lastTimestamp = System.currentTimeMillis();
+            }
+        }
+
+        boolean hasRoomFor(int length) {
+            return writePosition + HEADER_BYTES + length <= segmentBytes;
+        }
+
+        long nextOffset() {
+            return baseOffset + count;
+        }
+
+        long append(byte[] payload, long timestamp) {
+            int position = writePosition;
+            buffer.putLong(position + 8, timestamp);
+            ByteBuffer body = buffer.duplicate();
+            body.position(position + HEADER_BYTES);
+            body.put(payload);
+            body.position(position + 8).limit(position + HEADER_BYTES + payload.length);
+            CRC32C crc = new CRC32C();
+            crc.update(body);
+            buffer.putInt(position + 4, (int) crc.getValue());
+            // The length goes last: until it is written the record reads as the end of the log
+            buffer.putInt(position, payload.length);
+            writePosition = position + HEADER_BYTES + payload.length;
+            lastTimestamp = timestamp;
+            long offset = nextOffset();
+            addPosition(position);
+            return offset;
+        }
+
+        private void addPosition(int position) {
+            int[] current = positions;
+            if (count == current.length) {
+                current = Arrays.copyOf(current, current.length * 2);
+            }
+            current[count] = position;
+            positions = current;
+            count++;
+        }
+
+        long read(long offset, int max, List<Record> into) {
+            int available = count;
+            int[] starts = positions;
+            int index = (int) (offset - baseOffset);
+            while (index < available && max-- > 0) {
+                int position = starts[index];
+                int length = buffer.getInt(position);
+                byte[] payload = new byte[length];
+                ByteBuffer body = buffer.duplicate();
+                body.position(position + HEADER_BYTES);
+                body.get(payload);
+                into.add(new Record(baseOffset + index, buffer.getLong(position + 8), payload));
+                index++;
+            }
+            return baseOffset + index;
+        }
+
+        void force() {
+            buffer.force();
+        }
+    }
+}
@@ -0,0 +1,388 @@
+package Util;
+
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.IntFunction;
+
+import org.h2.tools.RunScript;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The ShardRouter class decides which database holds the messages of an account.
+ *
+ * Messages are spread over N shards by consistent hashing of posted_by: every shard owns a number of points on a
+ * hash ring and an account belongs to the first point at or after the hash of its ID. Each shard is reached through
+ * its own ConnectionPool. Shard 0 is the primary database, which also holds the account table, and keeps using the
+ * single ConnectionUtil connection; shards 1..N-1 are separate file-backed H2 databases.
+ *
+ * Message IDs stay globally unique without coordination: the identity column of shard s starts at s + 1 and
+ * increments by N, so the shard a message was created on is (message_id - 1) mod N. With the default of one shard
+ * that is the plain 1, 2, 3... sequence, and routing costs nothing.
+ *
+ * A range of the ring (one point) can be moved to another shard while the application runs; see
+ * DAO.MessageResharder. While a range is migrating, new messages for it are written to the target shard and reads
+ * consult both shards. Completed moves are recorded in the shard_range table on the primary so they survive
+ * restarts.
+ */
+public class ShardRouter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ShardRouter.class);
+    private static final String SHARD_SCHEMA = "SocialMediaShard.sql";
+    private static ShardRouter defaultRouter;
+
+    private final ConnectionPool[] pools;
+    private final long[] points;
+    private final AtomicIntegerArray owners;
+    private final AtomicIntegerArray migratingTo;
+    private final AtomicInteger migrations = new AtomicInteger();
+    private final ThreadPoolExecutor scatterExecutor;
+
+    /**
+     * @param pools          one connection pool per shard; index 0 is the primary database.
+     * @param pointsPerShard the number of ring points each shard owns initially.
+     */
+    public ShardRouter(ConnectionPool[] pools, int pointsPerShard) {
+        this.pools = pools.clone();
+        int shardCount = pools.length;
+        int pointCount = shardCount == 1 ? 1 : shardCount * pointsPerShard;
+        long[][] ring = new long[pointCount][2];
+        for (int shard = 0, i = 0; shard < shardCount; shard++) {
+            for (int k = 0; k < pointCount / shardCount; k++, i++) {
+                ring[i][0] = mix(shard * 0x9E3779B97F4A7C15L + k);
+                ring[i][1] = shard;
+            }
+        }
+        Arrays.sort(ring, (a, b) -> Long.compare(a[0], b[0]));
+        this.points = new long[pointCount];
+        this.owners = new AtomicIntegerArray(pointCount);
+        this.migratingTo = new AtomicIntegerArray(pointCount);
+        for (int i = 0; i < pointCount; i++) {
+            points[i] = ring[i][0];
+            owners.set(i, (int) ring[i][1]);
+            migratingTo.set(i, -1);
+        }
+        // As many threads per shard as its pool has connections by default, so that concurrent scatters wait for a
+        // connection rather than queueing for a thread while connections are free
+        int threads = shardCount * Math.max(1, AppConfig.getInt("shards.scatter.threads-per-shard",
+                AppConfig.getInt("shards.pool.size", 4)));
+        AtomicInteger threadCount = new AtomicInteger();
+        this.scatterExecutor = shardCount == 1 ? null : new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "shard-scatter-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        if (scatterExecutor != null) {
+            scatterExecutor.allowCoreThreadTimeOut(true);
+        }
+    }
+
+    /**
+     * @return the router configured through AppConfig (shards.count, shards.url, shards.pool.size, ...),
+     *         created and, for more than one shard, initialised on first use.
+     */
+    public static synchronized ShardRouter getDefault() {
+        if (defaultRouter == null) {
+            int shardCount = Math.max(1, AppConfig.getInt("shards.count", 1));
+            ConnectionPool[] pools = new ConnectionPool[shardCount];
+            pools[0] = ConnectionPool.shared("shard-0", ConnectionUtil::getConnection);
+            String urlPattern = AppConfig.getString("shards.url", "jdbc:h2:./h2/shard-%d");
+            // Stored like shard 0, the main database, e.g. in memory under the ephemeral profile
+            StorageProfile storage = StorageProfile.current();
+            for (int shard = 1; shard < shardCount; shard++) {
+                pools[shard] = new ConnectionPool("shard-" + shard, storage.url(String.format(urlPattern, shard)),
+                        AppConfig.getString("shards.username", "sa"), AppConfig.getString("shards.password", "sa"),
+                        AppConfig.getInt("shards.pool.size", 4), AppConfig.getLong("shards.pool.timeout-ms", 2_000));
+            }
+            ShardRouter router = new ShardRouter(pools, AppConfig.getInt("shards.points-per-shard", 64));
+            if (shardCount > 1) {
+                router.initialise();
+            }
+            defaultRouter = router;
+        }
+        return defaultRouter;
+    }
+
+    /**
+     * Creates the message schema on the secondary shards, sets up the ID striding on every shard and loads the
+     * ranges moved by earlier resharding.
+     */
+    public void initialise() {
+        for (int shard = 0; shard < pools.length; shard++) {
+            ConnectionPool pool = pools[shard];
+            Connection conn = null;
+            try {
+                conn = pool.borrow();
+                if (shard > 0) {
+                    runSchema(conn);
+                }
+                configureIdentity(conn, shard);
+            } catch (SQLException e) {
+                throw new IllegalStateException("Unable to initialise " + pool.getName(), e);
+            } finally {
+                pool.release(conn);
+            }
+        }
+        loadMovedRanges();
+        LOGGER.info("Routing messages over {} shards and {} ring points", pools.length, points.length);
+    }
+
+    private void runSchema(Connection conn) throws SQLException {
+        InputStream script = ShardRouter.class.getClassLoader().getResourceAsStream(SHARD_SCHEMA);
+        if (script == null) {
+            throw new SQLException(SHARD_SCHEMA + " is missing from the classpath");
+        }
+        RunScript.execute(conn, new InputStreamReader(script, StandardCharsets.UTF_8));
+    }
+
+    private void configureIdentity(Connection conn, int shard) throws SQLException {
+        long next;
+        try (Statement statement = conn.createStatement();
+                ResultSet rs = statement.executeQuery("SELECT COALESCE(MAX(message_id), 0) + 1 FROM message")) {
+            rs.next();
+            next = rs.getLong(1);
+        }
+        next += Math.floorMod(shard - (next - 1), pools.length);
+        try (Statement statement = conn.createStatement()) {
+            statement.execute("ALTER TABLE message ALTER COLUMN message_id RESTART WITH " + next);
+            statement.execute("ALTER TABLE message ALTER COLUMN message_id SET INCREMENT BY " + pools.length);
+        }
+    }
+
+    private void loadMovedRanges() {
+        ConnectionPool primary = pools[0];
+        Connection conn = null;
+        try {
+            conn = primary.borrow();
+            try (Statement statement = conn.createStatement()) {
+                statement.execute("CREATE TABLE IF NOT EXISTS shard_range (point_index int primary key, shard int)");
+                try (ResultSet rs = statement.executeQuery("SELECT point_index, shard FROM shard_range")) {
+                    while (rs.next()) {
+                        int point = rs.getInt(1);
+                        int shard = rs.getInt(2);
+                        if (point < points.length && shard < pools.length) {
+                            owners.set(point, shard);
+                        }
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Unable to load the shard ranges", e);
+        } finally {
+            primary.release(conn);
+        }
+    }
+
+    public int getShardCount() {
+        return pools.length;
+    }
+
+    public int getPointCount() {
+        return points.length;
+    }
+
+    /**
+     * @param shard a shard index.
+     * @return the connection pool of that shard.
+     */
+    public ConnectionPool pool(int shard) {
+        return pools[shard];
+    }
+
+    /**
+     * @param accountId an account ID (a message's posted_by).
+     * @return the index of the ring point, i.e. the range, the account belongs to.
+     */
+    public int pointFor(int accountId) {
+        if (points.length == 1) {
+            return 0;
+        }
+        int index = Arrays.binarySearch(points, mix(accountId));
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return index == points.length ? 0 : index;
+    }
+
+    /**
+     * @param point a ring point index.
+     * @return the shard currently owning that range.
+     */
+    public int ownerOf(int point) {
+        return owners.get(point);
+    }
+
+    /**
+     * @param accountId an account ID.
+     * @return the shard new messages of the account are written to.
+     */
+    public int writeShardFor(int accountId) {
+        int point = pointFor(accountId);
+        int target = migratingTo.get(point);
+        return target >= 0 ? target : owners.get(point);
+    }
+
+    /**
+     * @param accountId an account ID.
+     * @return the shards that may hold messages of the account: its owner, plus the target of a move in progress.
+     */
+    public int[] readShardsFor(int accountId) {
+        int point = pointFor(accountId);
+        int owner = owners.get(point);
+        int target = migratingTo.get(point);
+        return target >= 0 && target != owner ? new int[] { owner, target } : new int[] { owner };
+    }
+
+    /**
+     * @param messageId a message ID.
+     * @return the shard the message was created on, which is where it is looked for first.
+     */
+    public int originShardOf(int messageId) {
+        return Math.floorMod(messageId - 1, pools.length);
+    }
+
+    /**
+     * @return true while any range is being moved between shards.
+     */
+    public boolean isMigrating() {
+        return migrations.get() > 0;
+    }
+
+    /**
+     * Starts routing new writes of a range to a target shard; reads consult both shards until the move completes.
+     *
+     * @param point  the ring point index of the range.
+     * @param target the shard the range is moving to.
+     */
+    public void beginMigration(int point, int target) {
+        if (!migratingTo.compareAndSet(point, -1, target)) {
+            throw new IllegalStateException("Range " + point + " is already being moved");
+        }
+        migrations.incrementAndGet();
+    }
+
+    /**
+     * Hands ownership of a range over to the shard it was moved to and records the move on the primary.
+     *
+     * @param point the ring point index of the range.
+     */
+    public void completeMigration(int point) {
+        int target = migratingTo.get(point);
+        if (target < 0) {
+            return;
+        }
+        persistMovedRange(point, target);
+        owners.set(point, target);
+        migratingTo.set(point, -1);
+        migrations.decrementAndGet();
+    }
+
+    /**
+     * Abandons a move; the range stays with its previous owner.
+     *
+     * @param point the ring point index of the range.
+     */
+    public void abortMigration(int point) {
+        if (migratingTo.getAndSet(point, -1) >= 0) {
+            migrations.decrementAndGet();
+        }
+    }
+
+    private void persistMovedRange(int point, int shard) {
+        ConnectionPool primary = pools[0];
+        Connection conn = null;
+        try {
+            conn = primary.borrow();
+            try (PreparedStatement ps = conn.prepareStatement(
+                    "MERGE INTO shard_range (point_index, shard) KEY (point_index) VALUES (?, ?)")) {
+                ps.setInt(1, point);
+                ps.setInt(2, shard);
+                ps.executeUpdate();
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Unable to record the move of range " + point, e);
+        } finally {
+            primary.release(conn);
+        }
+    }
+
+    /**
+     * Runs a task against every shard, in parallel when there is more than one, and collects the results in shard
+     * order.
+     *
+     * @param perShard the task, given the shard index.
+     * @param <T>      the result type.
+     * @return the results, one per shard.
+     */
+    public <T> List<T> scatter(IntFunction<T> perShard) {
+        List<T> results = new ArrayList<>(pools.length);
+        if (scatterExecutor == null) {
+            results.add(perShard.apply(0));
+            return results;
+        }
+        List<Future<T>> futures = new ArrayList<>(pools.length);
+        for (int shard = 0; shard < pools.length; shard++) {
+            int index = shard;
+            futures.add(scatterExecutor.submit(() -> perShard.apply(index)));
+        }
+        for (Future<T> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while querying the shards", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        return results;
+    }
+
+    /**
+     * @return for each shard, the number of ring points it owns.
+     */
+    public Map<String, Object> describe() {
+        int[] owned = new int[pools.length];
+        for (int i = 0; i < points.length; i++) {
+            owned[owners.get(i)]++;
+        }
+        Map<String, Object> description = new LinkedHashMap<>();
+        description.put("shards", pools.length);
+        description.put("points", points.length);
+        description.put("pointsPerShard", owned);
+        description.put("migrating", migrations.get());
+        return description;
+    }
+
+    // The finalisation step of MurmurHash3's 64-bit hash: cheap and spreads consecutive IDs over the whole ring
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+}
@@ -0,0 +1,51 @@
+package Util;
+
+import java.util.Locale;
+
+/**
+ * The StorageProfile decides how H2 stores the main database, chosen at startup with db.profile. The extra shards
+ * (shards.url) and the read replicas (replicas.url) are opened with the same profile:
+ *
+ * - default: the file database with H2's own settings, as it always was.
+ * - durable: the file database, stored on every commit (WRITE_DELAY=0), so a commit that returned survives a
+ *   crash, with a db.cache-kb (64 MiB) page cache.
+ * - throughput: the file database, stored in the background at most db.write-delay-ms (2000) after a commit, with
+ *   a db.cache-kb (256 MiB) page cache. Commits are cheaper, and the last moments of them are lost in a crash.
+ * - ephemeral: an in-memory database that lives as long as the process, for tests and benchmarks.
+ *
+ * H2 2.x keeps no transaction log to sync separately: how often the store is written is the only durability
+ * setting, so that is what the profiles trade.
+ */
+public enum StorageProfile {
+    DEFAULT,
+    DURABLE,
+    THROUGHPUT,
+    EPHEMERAL;
+
+    /**
+     * @return the profile named by db.profile, or DEFAULT.
+     * @throws IllegalArgumentException If db.profile names no profile.
+     */
+    public static StorageProfile current() {
+        return valueOf(AppConfig.getString("db.profile", "default").toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * @param fileUrl The JDBC URL of the file database, without settings.
+     * @return the URL to open the database with under this profile.
+     */
+    public String url(String fileUrl) {
+        switch (this) {
+            case DURABLE:
+                return fileUrl + ";WRITE_DELAY=0;CACHE_SIZE=" + AppConfig.getInt("db.cache-kb", 64 * 1024);
+            case THROUGHPUT:
+                return fileUrl + ";WRITE_DELAY=" + AppConfig.getInt("db.write-delay-ms", 2_000)
+                        + ";CACHE_SIZE=" + AppConfig.getInt("db.cache-kb", 256 * 1024);
+            case EPHEMERAL:
+                // Named after the file so that different databases stay apart, and kept open between connections
+                return "jdbc:h2:mem:" + fileUrl.substring(fileUrl.lastIndexOf('/') + 1) + ";DB_CLOSE_DELAY=-1";
+            default:
+                return fileUrl;
+        }
+    }
+}
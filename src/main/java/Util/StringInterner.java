@@ -0,0 +1,39 @@
+package Util;
+
+/**
+ * The StringInterner hands out one shared instance for equal short strings, so that a text repeated across many
+ * cached messages ("gm", "lol", "+1") is held in memory once.
+ *
+ * It is a fixed-size, direct-mapped table: a string goes to the slot its hash picks and replaces whatever was
+ * there, so memory stays bounded however many distinct strings pass through, and a string that stops being repeated
+ * is simply overwritten and collected. Unlike String.intern() nothing is kept forever, and unlike a map there is no
+ * lock: a slot holds an immutable reference, so a racing write can only cost a missed deduplication. Long strings
+ * are rarely repeated and are returned as they are.
+ */
+public final class StringInterner {
+
+    private static final int MAX_LENGTH = AppConfig.getInt("strings.intern.max-length", 64);
+    private static final String[] TABLE = new String[Integer.highestOneBit(
+            Math.max(1, AppConfig.getInt("strings.intern.slots", 16_384)))];
+
+    private StringInterner() {
+    }
+
+    /**
+     * @param value a string, or null.
+     * @return an equal string, shared with earlier callers when possible.
+     */
+    public static String canonical(String value) {
+        if (value == null || value.length() > MAX_LENGTH) {
+            return value;
+        }
+        int hash = value.hashCode();
+        int slot = (hash ^ (hash >>> 16)) & (TABLE.length - 1);
+        String existing = TABLE[slot];
+        if (value.equals(existing)) {
+            return existing;
+        }
+        TABLE[slot] = value;
+        return value;
+    }
+}
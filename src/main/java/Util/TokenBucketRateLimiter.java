@@ -0,0 +1,154 @@
+package Util;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The TokenBucketRateLimiter class keeps one token bucket per key (an account id, an IP address, ...).
+ *
+ * Each bucket is stored as a single AtomicLong holding its "theoretical arrival time", the generic cell rate
+ * form of a token bucket: taking a token is one compare-and-set, so no locks are held, and once a key has its
+ * bucket nothing but the key itself is allocated on the request path. A bucket whose theoretical arrival time is
+ * in the past is full, which means it carries no state worth keeping and can be evicted. A background task sweeps the map of such buckets, and of the
+ * least recently used ones if it is still over its bound, so memory follows the number of recently active keys
+ * instead of every key ever seen without the request threads ever scanning the map.
+ *
+ * @param <K> the type of key the buckets are indexed by.
+ */
+public class TokenBucketRateLimiter<K> {
+
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    // Shared by every limiter; each one schedules its own sweep and cancels it in stop()
+    private static final ScheduledExecutorService SWEEPER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "rate-limit-sweep");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * A bucket's theoretical arrival time, with the last time a token was asked of it.
+     */
+    private static final class Bucket extends AtomicLong {
+        private static final long serialVersionUID = 1L;
+
+        volatile long lastUsed;
+
+        Bucket(long now) {
+            super(now);
+            this.lastUsed = now;
+        }
+    }
+
+    private final String name;
+    private final int burst;
+    private final long intervalNanos;
+    private final long capacityNanos;
+    private final int maxKeys;
+    private final Map<K, Bucket> buckets = new ConcurrentHashMap<>();
+    private final AtomicBoolean sweepQueued = new AtomicBoolean();
+    private final ScheduledFuture<?> sweeps;
+
+    /**
+     * @param name          a label used in logs and response headers.
+     * @param ratePerSecond the sustained number of tokens added to each bucket per second.
+     * @param burst         the size of each bucket, i.e. how many requests may be made back to back.
+     * @param maxKeys       the number of buckets kept before the least recently used ones are evicted.
+     * @param sweepMillis   how often the full and, when over maxKeys, the least recently used buckets are swept.
+     */
+    public TokenBucketRateLimiter(String name, double ratePerSecond, int burst, int maxKeys, long sweepMillis) {
+        if (ratePerSecond <= 0 || burst < 1 || maxKeys < 1 || sweepMillis < 1) {
+            throw new IllegalArgumentException("Invalid rate limit for " + name);
+        }
+        this.name = name;
+        this.burst = burst;
+        this.intervalNanos = Math.max(1, (long) (NANOS_PER_SECOND / ratePerSecond));
+        this.capacityNanos = intervalNanos * burst;
+        this.maxKeys = maxKeys;
+        this.sweeps = SWEEPER.scheduleWithFixedDelay(this::sweep, sweepMillis, sweepMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Tries to take one token from the bucket of the given key.
+     *
+     * @param key the key whose bucket to use.
+     * @return the number of tokens left (zero or more) if a token was taken, otherwise the negated number of
+     *         nanoseconds until a token will be available.
+     */
+    public long tryAcquire(K key) {
+        long now = System.nanoTime();
+        Bucket bucket = buckets.get(key);
+        if (bucket == null) {
+            bucket = newBucket(key, now);
+        }
+        bucket.lastUsed = now;
+        while (true) {
+            long tat = bucket.get();
+            long newTat = Math.max(tat, now) + intervalNanos;
+            long debt = newTat - now;
+            if (debt > capacityNanos) {
+                return -(debt - capacityNanos);
+            }
+            if (bucket.compareAndSet(tat, newTat)) {
+                return (capacityNanos - debt) / intervalNanos;
+            }
+        }
+    }
+
+    private Bucket newBucket(K key, long now) {
+        // Over the bound the next sweep is brought forward, but the request thread never scans the map itself
+        if (buckets.size() >= maxKeys && sweepQueued.compareAndSet(false, true)) {
+            SWEEPER.execute(this::sweep);
+        }
+        Bucket created = new Bucket(now);
+        Bucket existing = buckets.putIfAbsent(key, created);
+        return existing == null ? created : existing;
+    }
+
+    /**
+     * Removes the buckets that have refilled completely. If that is not enough to get back under the bound, the
+     * least recently used buckets are dropped; the worst case is that their keys get a fresh, full bucket.
+     */
+    private void sweep() {
+        sweepQueued.set(false);
+        long now = System.nanoTime();
+        buckets.values().removeIf(bucket -> bucket.get() <= now);
+        int excess = buckets.size() - (maxKeys - maxKeys / 10);
+        if (excess <= 0) {
+            return;
+        }
+        List<Map.Entry<K, Bucket>> entries = new ArrayList<>(buckets.entrySet());
+        entries.sort(Comparator.comparingLong(entry -> entry.getValue().lastUsed));
+        for (int i = 0; i < excess && i < entries.size(); i++) {
+            buckets.remove(entries.get(i).getKey(), entries.get(i).getValue());
+        }
+    }
+
+    /**
+     * Stops sweeping this limiter's buckets, e.g. when the server stops.
+     */
+    public void stop() {
+        sweeps.cancel(false);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getBurst() {
+        return burst;
+    }
+
+    public int size() {
+        return buckets.size();
+    }
+}
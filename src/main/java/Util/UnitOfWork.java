@@ -0,0 +1,245 @@
+package Util;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A UnitOfWork is one transaction per database, bound to the thread that began it. While it is open, every
+ * connection a DAO borrows from a ConnectionPool, or takes through {@link #join(Connection)}, is the unit's
+ * connection for that database, with auto-commit off. The DAOs take part without knowing it; the unit commits, or
+ * rolls back, once at the end.
+ *
+ * The primary database is otherwise reached through the single connection ConnectionUtil shares between all
+ * threads, which cannot carry one thread's transaction. A unit of work therefore uses a connection of its own for
+ * that database, from a small pool of db.transaction.pool-size connections opened to the same URL.
+ *
+ * Code that must act on the outcome, such as a log that may only record committed changes, registers actions
+ * with {@link #afterCommit(Runnable)} and {@link #whenEnded(Runnable)}.
+ *
+ * Units are begun, committed and rolled back by TransactionTemplate, which also decides the isolation level and
+ * retries.
+ */
+public final class UnitOfWork {
+
+    private static final ThreadLocal<UnitOfWork> CURRENT = new ThreadLocal<>();
+    // The pools of dedicated connections to the databases behind shared connections, keyed by the shared connection
+    private static final Map<Connection, ConnectionPool> DEDICATED = new ConcurrentHashMap<>();
+
+    /**
+     * The isolation levels a unit of work can run at.
+     */
+    public enum Isolation {
+        READ_COMMITTED(Connection.TRANSACTION_READ_COMMITTED),
+        REPEATABLE_READ(Connection.TRANSACTION_REPEATABLE_READ),
+        // H2's level at which every statement reads the data as of the transaction's first statement, across tables
+        SNAPSHOT(6),
+        SERIALIZABLE(Connection.TRANSACTION_SERIALIZABLE);
+
+        private final int level;
+
+        Isolation(int level) {
+            this.level = level;
+        }
+    }
+
+    private final Isolation isolation;
+    // Keyed by the pool, or by the shared connection for shared pools, so that every pool over one database joins
+    // the same transaction
+    private final Map<Object, Binding> bindings = new IdentityHashMap<>();
+    private final List<Runnable> afterCommit = new ArrayList<>();
+    private final List<Runnable> whenEnded = new ArrayList<>();
+
+    /**
+     * A connection taken for the unit, and the pool it goes back to.
+     */
+    private static final class Binding {
+        final ConnectionPool source;
+        final Connection conn;
+        final int previousIsolation;
+
+        Binding(ConnectionPool source, Connection conn, int previousIsolation) {
+            this.source = source;
+            this.conn = conn;
+            this.previousIsolation = previousIsolation;
+        }
+    }
+
+    private UnitOfWork(Isolation isolation) {
+        this.isolation = isolation;
+    }
+
+    /**
+     * Begins a unit of work on the calling thread.
+     *
+     * @param isolation The isolation level of its transactions.
+     * @return the unit, to be ended with {@link #commit()} or {@link #rollback()}.
+     * @throws IllegalStateException If the thread already has one.
+     */
+    public static UnitOfWork begin(Isolation isolation) {
+        if (CURRENT.get() != null) {
+            throw new IllegalStateException("A unit of work is already open on this thread");
+        }
+        UnitOfWork unit = new UnitOfWork(isolation);
+        CURRENT.set(unit);
+        return unit;
+    }
+
+    /**
+     * @return true if the calling thread has a unit of work open.
+     */
+    public static boolean isActive() {
+        return CURRENT.get() != null;
+    }
+
+    /**
+     * @return the unit of work open on the calling thread, or null.
+     */
+    public static UnitOfWork current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Registers an action to run once every database has committed, before the unit ends. An exception it throws
+     * is thrown by {@link #commit()}; the changes stay committed.
+     *
+     * @param action The action.
+     */
+    public void afterCommit(Runnable action) {
+        afterCommit.add(action);
+    }
+
+    /**
+     * Registers an action to run when the unit ends, whether it committed or not, such as releasing a lock taken
+     * for the unit.
+     *
+     * @param action The action.
+     */
+    public void whenEnded(Runnable action) {
+        whenEnded.add(action);
+    }
+
+    /**
+     * @param shared A connection shared between threads, such as ConnectionUtil's.
+     * @return the open unit of work's connection to the same database, or shared itself when the thread has no
+     *         unit of work open.
+     * @throws SQLException If the unit's connection cannot be opened.
+     */
+    public static Connection join(Connection shared) throws SQLException {
+        UnitOfWork unit = CURRENT.get();
+        return unit == null ? shared : unit.connectionFor(shared, () -> dedicatedPool(shared));
+    }
+
+    // Called by ConnectionPool.borrow() while a unit is open
+    static Connection borrowFor(ConnectionPool pool, Connection shared) throws SQLException {
+        UnitOfWork unit = CURRENT.get();
+        if (shared != null) {
+            return unit.connectionFor(shared, () -> dedicatedPool(shared));
+        }
+        return unit.connectionFor(pool, () -> pool);
+    }
+
+    // Called by ConnectionPool.release(): the unit's connections stay with it until it ends
+    static boolean holds(Connection conn) {
+        UnitOfWork unit = CURRENT.get();
+        if (unit == null) {
+            return false;
+        }
+        for (Binding binding : unit.bindings.values()) {
+            if (binding.conn == conn) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @FunctionalInterface
+    private interface PoolSource {
+        ConnectionPool get() throws SQLException;
+    }
+
+    private Connection connectionFor(Object key, PoolSource source) throws SQLException {
+        Binding binding = bindings.get(key);
+        if (binding == null) {
+            ConnectionPool pool = source.get();
+            Connection conn = pool.borrowOutsideUnit();
+            try {
+                int previousIsolation = conn.getTransactionIsolation();
+                conn.setAutoCommit(false);
+                conn.setTransactionIsolation(isolation.level);
+                binding = new Binding(pool, conn, previousIsolation);
+            } catch (SQLException e) {
+                pool.release(conn);
+                throw e;
+            }
+            bindings.put(key, binding);
+        }
+        return binding.conn;
+    }
+
+    private static ConnectionPool dedicatedPool(Connection shared) throws SQLException {
+        ConnectionPool pool = DEDICATED.get(shared);
+        if (pool == null) {
+            String url = shared.getMetaData().getURL();
+            pool = DEDICATED.computeIfAbsent(shared, conn -> new ConnectionPool("transactions", url,
+                    AppConfig.getString("db.username", "sa"), AppConfig.getString("db.password", "sa"),
+                    AppConfig.getInt("db.transaction.pool-size", 8),
+                    AppConfig.getLong("db.transaction.pool.timeout-ms", 2_000)));
+        }
+        return pool;
+    }
+
+    /**
+     * Commits every database the unit used, runs the after-commit actions, and ends the unit. Nothing more is
+     * committed once one commit fails; the rest are rolled back.
+     *
+     * @throws SQLException If a commit fails.
+     */
+    public void commit() throws SQLException {
+        try {
+            for (Binding binding : bindings.values()) {
+                binding.conn.commit();
+            }
+            for (Runnable action : afterCommit) {
+                action.run();
+            }
+        } finally {
+            end();
+        }
+    }
+
+    /**
+     * Rolls back every database the unit used and ends the unit, unless it has ended already. Failures to roll back
+     * are ignored: the connection is discarded and the database drops its transaction.
+     */
+    public void rollback() {
+        end();
+    }
+
+    private void end() {
+        CURRENT.remove();
+        List<Binding> ended = new ArrayList<>(bindings.values());
+        bindings.clear();
+        for (Binding binding : ended) {
+            try {
+                // Rolls back whatever was not committed; a no-op after a successful commit
+                binding.conn.rollback();
+                binding.conn.setAutoCommit(true);
+                binding.conn.setTransactionIsolation(binding.previousIsolation);
+                binding.source.release(binding.conn);
+            } catch (SQLException e) {
+                binding.source.discard(binding.conn);
+            }
+        }
+        List<Runnable> actions = new ArrayList<>(whenEnded);
+        afterCommit.clear();
+        whenEnded.clear();
+        for (Runnable action : actions) {
+            action.run();
+        }
+    }
+}
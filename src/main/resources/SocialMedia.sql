@@ -1,17 +1,57 @@
+-- Test schema: drops every table and reseeds it, see ConnectionUtil.resetTestDatabase. The schema used in
+-- production is SocialMediaSchema.sql; keep the two in step.
+drop table if exists message_reaction_count;
+drop table if exists message_reaction;
+drop table if exists account_stats;
+drop table if exists message_version;
 drop table if exists message;
 drop table if exists account;
 create table account (
     account_id int primary key auto_increment,
     username varchar(255) unique,
-    password varchar(255)
+    password varchar(255),
+    -- Set when the account's deletion starts; the row is removed once its messages are gone
+    deleted_epoch bigint
 );
 create table message (
     message_id int primary key auto_increment,
     posted_by int,
     message_text varchar(255),
     time_posted_epoch bigint,
+    version int default 1 not null,
+    -- Set when the message is deleted; the row is purged in the background later
+    deleted_epoch bigint,
     foreign key (posted_by) references  account(account_id)
 );
+create index message_time_posted_idx on message (time_posted_epoch desc, message_id desc);
+create index message_deleted_idx on message (deleted_epoch);
+-- Append-only: every update of a message copies the version it replaces here
+create table message_version (
+    message_id int,
+    version int,
+    message_text varchar(255),
+    replaced_epoch bigint,
+    primary key (message_id, version)
+);
+-- Per-account figures kept in memory by AccountStatsTracker and flushed here periodically
+create table account_stats (
+    account_id int primary key,
+    message_count bigint,
+    last_posted_epoch bigint,
+    total_characters bigint
+);
+-- Likes, one row per account and message. Messages may live on other shards, so there is no foreign key.
+create table message_reaction (
+    message_id int,
+    account_id int,
+    reacted_epoch bigint,
+    primary key (message_id, account_id)
+);
+-- Like counts, kept in memory by ReactionService and flushed here as batched increments
+create table message_reaction_count (
+    message_id int primary key,
+    likes bigint not null
+);
 
 insert into account (username, password) values ('testuser1', 'password');
 insert into message (posted_by, message_text, time_posted_epoch) values (1,'test message 1',1669947792);
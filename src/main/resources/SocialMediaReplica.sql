@@ -0,0 +1,24 @@
+-- Schema of the read replicas. Each replica is rebuilt from a copy of the primary when the application starts,
+-- then kept current by the change log, which applies upserts and deletes by primary key only.
+drop table if exists message;
+drop table if exists account;
+create table account (
+    account_id int primary key,
+    username varchar(255),
+    password varchar(255),
+    -- Always null, like message.deleted_epoch
+    deleted_epoch bigint
+);
+create index account_username_idx on account (username);
+create table message (
+    message_id int primary key,
+    posted_by int,
+    message_text varchar(255),
+    time_posted_epoch bigint,
+    -- Copied from the primary, so that a message read here carries the version its ETag names
+    version int default 1 not null,
+    -- Always null: deletions reach the replicas as removals, but the reads share their queries with the primary
+    deleted_epoch bigint
+);
+create index message_time_posted_idx on message (time_posted_epoch desc, message_id desc);
+create index message_posted_by_idx on message (posted_by);
@@ -0,0 +1,47 @@
+-- Idempotent schema of the primary database, run by Util.SchemaInitializer when db.schema=ensure (the production
+-- startup mode). Unlike SocialMedia.sql it never drops anything and inserts no test data, so it is safe to run
+-- against a database that already holds messages. Keep it in step with SocialMedia.sql.
+create table if not exists account (
+    account_id int primary key auto_increment,
+    username varchar(255) unique,
+    password varchar(255),
+    deleted_epoch bigint
+);
+create table if not exists message (
+    message_id int primary key auto_increment,
+    posted_by int,
+    message_text varchar(255),
+    time_posted_epoch bigint,
+    version int default 1 not null,
+    deleted_epoch bigint,
+    foreign key (posted_by) references  account(account_id)
+);
+-- Databases created before messages were versioned or soft deleted, or accounts soft deleted
+alter table account add column if not exists deleted_epoch bigint;
+alter table message add column if not exists version int default 1 not null;
+alter table message add column if not exists deleted_epoch bigint;
+create index if not exists message_time_posted_idx on message (time_posted_epoch desc, message_id desc);
+create index if not exists message_deleted_idx on message (deleted_epoch);
+create table if not exists message_version (
+    message_id int,
+    version int,
+    message_text varchar(255),
+    replaced_epoch bigint,
+    primary key (message_id, version)
+);
+create table if not exists account_stats (
+    account_id int primary key,
+    message_count bigint,
+    last_posted_epoch bigint,
+    total_characters bigint
+);
+create table if not exists message_reaction (
+    message_id int,
+    account_id int,
+    reacted_epoch bigint,
+    primary key (message_id, account_id)
+);
+create table if not exists message_reaction_count (
+    message_id int primary key,
+    likes bigint not null
+);
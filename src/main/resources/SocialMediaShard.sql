@@ -0,0 +1,23 @@
+-- Schema of the secondary message shards (shard 1 and up). Accounts live only on the primary database, so
+-- posted_by has no foreign key here; MessageService checks that the account exists before inserting.
+create table if not exists message (
+    message_id int primary key auto_increment,
+    posted_by int,
+    message_text varchar(255),
+    time_posted_epoch bigint,
+    version int default 1 not null,
+    deleted_epoch bigint
+);
+-- Shards created before messages were versioned or soft deleted
+alter table message add column if not exists version int default 1 not null;
+alter table message add column if not exists deleted_epoch bigint;
+create table if not exists message_version (
+    message_id int,
+    version int,
+    message_text varchar(255),
+    replaced_epoch bigint,
+    primary key (message_id, version)
+);
+create index if not exists message_time_posted_idx on message (time_posted_epoch desc, message_id desc);
+create index if not exists message_posted_by_idx on message (posted_by);
+create index if not exists message_deleted_idx on message (deleted_epoch);
@@ -0,0 +1,146 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class AccountDeletionTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Posting messages, then sending an http request to DELETE localhost:8080/accounts/1 with the account's token
+     *
+     * Expected Response:
+     *  Status Code: 202, then the deletion finishes in the background and removes the account's messages
+     */
+    @Test
+    public void deleteAccountWithMessages() throws Exception {
+        String token = login();
+        for (int i = 0; i < 5; i++) {
+            Assert.assertEquals(200, postMessage("message " + i, token).statusCode());
+        }
+
+        HttpResponse<String> response = deleteAccount(1, "Bearer " + token);
+        Assert.assertEquals(202, response.statusCode());
+        Assert.assertEquals(1, objectMapper.readTree(response.body()).get("account_id").asInt());
+
+        // The account is gone at once, and so is the token issued to it
+        HttpRequest loginRequest = loginRequest();
+        Assert.assertEquals(401, webClient.send(loginRequest, HttpResponse.BodyHandlers.ofString()).statusCode());
+        Assert.assertEquals(401, postMessage("after the deletion", token).statusCode());
+
+        JsonNode progress = null;
+        for (int attempt = 0; attempt < 100; attempt++) {
+            progress = objectMapper.readTree(get("/accounts/1/deletion"));
+            if ("DONE".equals(progress.get("phase").asText())) {
+                break;
+            }
+            Thread.sleep(50);
+        }
+        Assert.assertEquals("DONE", progress.get("phase").asText());
+        Assert.assertEquals(6, progress.get("messagesDeleted").asInt());
+        Assert.assertEquals("[]", get("/accounts/1/messages"));
+        Assert.assertEquals("[]", get("/messages"));
+        // The recent-messages window was told about the deletions too
+        Assert.assertEquals("[]", get("/messages/recent"));
+    }
+
+    /**
+     * Sending an http request to DELETE localhost:8080/accounts/1 without a token, and with the token of another
+     * account
+     *
+     * Expected Response:
+     *  Status Code: 401 without a token, 403 with another account's token
+     */
+    @Test
+    public void deleteAccountRequiresItsOwnToken() throws IOException, InterruptedException {
+        Assert.assertEquals(401, deleteAccount(1, null).statusCode());
+        Assert.assertEquals(403, deleteAccount(2, "Bearer " + login()).statusCode());
+        Assert.assertEquals(200, webClient.send(loginRequest(), HttpResponse.BodyHandlers.ofString()).statusCode());
+    }
+
+    private HttpRequest loginRequest() {
+        return HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/login"))
+                .POST(HttpRequest.BodyPublishers.ofString("{" +
+                        "\"username\": \"testuser1\", " +
+                        "\"password\": \"password\" }"))
+                .header("Content-Type", "application/json")
+                .build();
+    }
+
+    private String login() throws IOException, InterruptedException {
+        HttpResponse<String> response = webClient.send(loginRequest(), HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, response.statusCode());
+        return response.headers().firstValue("X-Auth-Token").orElseThrow();
+    }
+
+    private HttpResponse<String> postMessage(String text, String token) throws IOException, InterruptedException {
+        HttpRequest postMessageRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{"+
+                        "\"posted_by\":1, " +
+                        "\"message_text\": \"" + text + "\", " +
+                        "\"time_posted_epoch\": 1669947792}"))
+                .header("Content-Type", "application/json")
+                .header("Authorization", "Bearer " + token)
+                .build();
+        return webClient.send(postMessageRequest, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpResponse<String> deleteAccount(int accountId, String authorization)
+            throws IOException, InterruptedException {
+        HttpRequest.Builder builder = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/accounts/" + accountId))
+                .DELETE();
+        if (authorization != null) {
+            builder.header("Authorization", authorization);
+        }
+        return webClient.send(builder.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private String get(String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, response.statusCode());
+        return response.body();
+    }
+}
@@ -0,0 +1,165 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import DAO.AccountStatsDao;
+import Model.AccountStats;
+import Model.Message;
+import Service.AccountStatsTracker;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class AccountStatsTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Posting, updating and deleting messages, then sending an http request to GET localhost:8080/accounts/1/stats
+     * after each change
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: the account's message count, latest time and total characters, following every change
+     */
+    @Test
+    public void statsFollowMessageChanges() throws IOException, InterruptedException {
+        // The seeded message: "test message 1", posted at 1669947792
+        assertStats(1, 1669947792L, 14);
+
+        Message latest = postMessage("hello", 1669947800);
+        postMessage("hi", 1669947795);
+        assertStats(3, 1669947800L, 21);
+
+        HttpRequest patch = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/" + latest.getMessage_id()))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\": \"hello again\" }"))
+                .header("Content-Type", "application/json")
+                .build();
+        Assert.assertEquals(200, webClient.send(patch, HttpResponse.BodyHandlers.ofString()).statusCode());
+        assertStats(3, 1669947800L, 27);
+
+        HttpRequest delete = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/" + latest.getMessage_id()))
+                .DELETE()
+                .build();
+        Assert.assertEquals(200, webClient.send(delete, HttpResponse.BodyHandlers.ofString()).statusCode());
+        // The latest message is gone, so the time falls back to the next one
+        assertStats(2, 1669947795L, 16);
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/accounts/99/stats (account id does NOT exist in db)
+     *
+     * Expected Response:
+     *  Status Code: 404
+     */
+    @Test
+    public void statsOfMissingAccount() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/accounts/99/stats"))
+                .build();
+        Assert.assertEquals(404, webClient.send(request, HttpResponse.BodyHandlers.ofString()).statusCode());
+    }
+
+    /**
+     * A tracker rebuilt from the messages agrees with the counters, and flushing saves them to account_stats.
+     */
+    @Test
+    public void statsAreRebuiltAndFlushed() throws Exception {
+        postMessage("hello", 1669947800);
+
+        AccountStatsTracker tracker = new AccountStatsTracker(new AccountStatsDao(), 0);
+        AccountStats stats = tracker.get(1);
+        Assert.assertEquals(2, stats.getMessage_count());
+        Assert.assertEquals(Long.valueOf(1669947800L), stats.getLast_posted_epoch());
+        Assert.assertEquals(19, stats.getTotal_characters());
+
+        tracker.messageCreated(new Message(10, 1, "abc", 1669947900L));
+        tracker.flush();
+        try (PreparedStatement ps = ConnectionUtil.getConnection().prepareStatement(
+                "SELECT message_count, last_posted_epoch, total_characters FROM account_stats WHERE account_id = 1")) {
+            try (ResultSet rs = ps.executeQuery()) {
+                Assert.assertTrue(rs.next());
+                Assert.assertEquals(3, rs.getLong(1));
+                Assert.assertEquals(1669947900L, rs.getLong(2));
+                Assert.assertEquals(22, rs.getLong(3));
+            }
+        }
+    }
+
+    /**
+     * Services share the application's tracker, so it is rebuilt once, until it is stopped; the next one asked for
+     * is then a new tracker.
+     */
+    @Test
+    public void trackerIsSharedUntilStopped() {
+        AccountStatsTracker tracker = AccountStatsTracker.getDefault();
+        Assert.assertSame(tracker, AccountStatsTracker.getDefault());
+        tracker.stop();
+        AccountStatsTracker next = AccountStatsTracker.getDefault();
+        Assert.assertNotSame(tracker, next);
+        next.stop();
+    }
+
+    private void assertStats(long count, Long last, long characters) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/accounts/1/stats"))
+                .build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, response.statusCode());
+        AccountStats stats = objectMapper.readValue(response.body(), AccountStats.class);
+        Assert.assertEquals(1, stats.getAccount_id());
+        Assert.assertEquals(count, stats.getMessage_count());
+        Assert.assertEquals(last, stats.getLast_posted_epoch());
+        Assert.assertEquals(characters, stats.getTotal_characters());
+    }
+
+    private Message postMessage(String text, long epoch) throws IOException, InterruptedException {
+        HttpRequest postMessageRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{"+
+                        "\"posted_by\":1, " +
+                        "\"message_text\": \"" + text + "\", " +
+                        "\"time_posted_epoch\": " + epoch + "}"))
+                .header("Content-Type", "application/json")
+                .build();
+        HttpResponse<String> response = webClient.send(postMessageRequest, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, response.statusCode());
+        return objectMapper.readValue(response.body(), Message.class);
+    }
+}
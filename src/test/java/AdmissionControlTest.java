@@ -0,0 +1,121 @@
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import Controller.AdmissionController;
+import Controller.RequestRejectedException;
+import Util.AdaptiveConcurrencyLimiter;
+import io.javalin.http.Context;
+import io.javalin.http.HandlerType;
+
+public class AdmissionControlTest {
+
+    // The time the admission controller reads, moved by the tests
+    long now;
+
+    /**
+     * While latency stays at its baseline and the permits are in use the limit grows, and once latency rises well
+     * above the baseline it shrinks again.
+     */
+    @Test
+    public void limitGrowsAtBaselineAndShrinksWhenLatencyRises() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test", 10, 2, 30);
+        for (int round = 0; round < 10; round++) {
+            useEveryPermit(limiter, TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        int grown = limiter.getLimit();
+        Assert.assertTrue("limit " + grown, grown > 10);
+
+        for (int round = 0; round < 2; round++) {
+            useEveryPermit(limiter, TimeUnit.MILLISECONDS.toNanos(20));
+        }
+        Assert.assertTrue("limit " + limiter.getLimit(), limiter.getLimit() < grown);
+        Assert.assertEquals(0, limiter.getInFlight());
+    }
+
+    /**
+     * A write over the budget is refused with 503 and a Retry-After derived from the latency the clock measured,
+     * while logins and registrations have a budget of their own, whose slow password hashing does not move the
+     * write budget's latency; a read has its own budget too.
+     */
+    @Test
+    public void requestsOverTheBudgetAreRefusedButLoginsHaveTheirOwn() {
+        AdaptiveConcurrencyLimiter reads = new AdaptiveConcurrencyLimiter("read", 1, 1, 1);
+        AdaptiveConcurrencyLimiter writes = new AdaptiveConcurrencyLimiter("write", 1, 1, 1);
+        AdaptiveConcurrencyLimiter passwords = new AdaptiveConcurrencyLimiter("password", 1, 1, 1);
+        AdmissionController admission = new AdmissionController(true, reads, writes, passwords, () -> now);
+
+        // One write taking three seconds on the clock makes that the latency Retry-After is derived from
+        Context first = request(HandlerType.POST, "/messages");
+        admission.admit(first);
+        now += TimeUnit.SECONDS.toNanos(3);
+        admission.complete(first);
+        Assert.assertEquals(0, writes.getInFlight());
+
+        // A registration taking thirty seconds is measured against its own budget only
+        Context registration = request(HandlerType.POST, "/register");
+        admission.admit(registration);
+        now += TimeUnit.SECONDS.toNanos(30);
+        admission.complete(registration);
+        Assert.assertEquals(0, passwords.getInFlight());
+
+        Context write = request(HandlerType.POST, "/messages");
+        admission.admit(write);
+        try {
+            admission.admit(request(HandlerType.PATCH, "/messages/1"));
+            Assert.fail("A write over the budget was admitted");
+        } catch (RequestRejectedException e) {
+            Assert.assertEquals(503, e.getStatus());
+            Assert.assertEquals("12", e.getHeaders().get("Retry-After"));
+        }
+
+        Context login = request(HandlerType.POST, "/login");
+        admission.admit(login);
+        Assert.assertEquals(1, writes.getInFlight());
+        Assert.assertEquals(1, passwords.getInFlight());
+        try {
+            admission.admit(request(HandlerType.POST, "/login"));
+            Assert.fail("A login over its budget was admitted");
+        } catch (RequestRejectedException e) {
+            Assert.assertEquals(503, e.getStatus());
+            Assert.assertEquals("120", e.getHeaders().get("Retry-After"));
+        }
+        Context read = request(HandlerType.GET, "/messages");
+        admission.admit(read);
+
+        admission.complete(login);
+        admission.complete(write);
+        admission.complete(read);
+        Assert.assertEquals(0, writes.getInFlight());
+        Assert.assertEquals(0, passwords.getInFlight());
+        Assert.assertEquals(0, reads.getInFlight());
+    }
+
+    // Takes every permit the limit allows and returns them all with the given latency
+    private static void useEveryPermit(AdaptiveConcurrencyLimiter limiter, long rttNanos) {
+        int taken = 0;
+        while (limiter.tryAcquire(0)) {
+            taken++;
+        }
+        for (int i = 0; i < taken; i++) {
+            limiter.release(rttNanos, false);
+        }
+    }
+
+    // A context of the given request which keeps its attributes and answers 200
+    private static Context request(HandlerType method, String path) {
+        Context ctx = Mockito.mock(Context.class);
+        Map<String, Object> attributes = new HashMap<>();
+        Mockito.when(ctx.method()).thenReturn(method);
+        Mockito.when(ctx.path()).thenReturn(path);
+        Mockito.when(ctx.statusCode()).thenReturn(200);
+        Mockito.doAnswer(call -> attributes.put(call.getArgument(0), call.getArgument(1)))
+                .when(ctx).attribute(Mockito.anyString(), Mockito.any());
+        Mockito.when(ctx.attribute(Mockito.anyString())).thenAnswer(call -> attributes.get(call.getArgument(0)));
+        return ctx;
+    }
+}
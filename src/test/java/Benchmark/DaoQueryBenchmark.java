@@ -0,0 +1,96 @@
+package Benchmark;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import DAO.MessageDao;
+import Model.Message;
+import Util.ConnectionUtil;
+
+/**
+ * Measures the per-query overhead of the DAO read path. Each "uncached" benchmark reproduces the previous
+ * implementation (a fresh prepareStatement with SELECT * per call and name-based column lookups), and its
+ * counterpart calls the current MessageDao, which reuses statements from the StatementCache and maps rows by
+ * column index.
+ *
+ * Run with: mvn -P bench test -Djmh.include=DaoQueryBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DaoQueryBenchmark {
+
+    private static final int MESSAGES = 100;
+
+    private MessageDao messageDao;
+    private Connection conn;
+
+    @Setup
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+        conn = ConnectionUtil.getConnection();
+        messageDao = new MessageDao();
+        for (int i = 0; i < MESSAGES; i++) {
+            messageDao.insert(new Message(1, "benchmark message " + i, 1669947792L + i));
+        }
+    }
+
+    @Benchmark
+    public Optional<Message> getByIdUncached() throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement("SELECT * FROM message WHERE message_id = ?")) {
+            ps.setInt(1, 50);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? Optional.of(mapByName(rs)) : Optional.empty();
+            }
+        }
+    }
+
+    @Benchmark
+    public Optional<Message> getByIdCached() {
+        return messageDao.getById(50);
+    }
+
+    @Benchmark
+    public List<Message> getByAccountUncached() throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement("SELECT * FROM message WHERE posted_by = ?")) {
+            ps.setInt(1, 1);
+            try (ResultSet rs = ps.executeQuery()) {
+                List<Message> messages = new ArrayList<>();
+                while (rs.next()) {
+                    messages.add(mapByName(rs));
+                }
+                return messages;
+            }
+        }
+    }
+
+    @Benchmark
+    public List<Message> getByAccountCached() {
+        return messageDao.getMessagesByAccountId(1);
+    }
+
+    private static Message mapByName(ResultSet rs) throws SQLException {
+        return new Message(rs.getInt("message_id"), rs.getInt("posted_by"), rs.getString("message_text"),
+                rs.getLong("time_posted_epoch"));
+    }
+}
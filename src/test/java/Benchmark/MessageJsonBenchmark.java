@@ -0,0 +1,84 @@
+package Benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.MessageJsonModule;
+import Controller.MessageJsonWriter;
+import Model.Message;
+
+/**
+ * Compares the ways a list of messages can be written as JSON: Jackson's reflective bean serializer (what a plain
+ * ObjectMapper does), Jackson with MessageJsonModule's hand-written serializer, and MessageJsonWriter's direct
+ * encoding into a pooled byte buffer. Every variant writes the same bytes to a discarding stream, so the figures
+ * are the cost of serialization alone. The bench profile runs JMH with the GC profiler; compare the
+ * gc.alloc.rate.norm rows (bytes allocated per operation) as well as the throughput.
+ *
+ * Run with: mvn -P bench test -Djmh.include=MessageJsonBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageJsonBenchmark {
+
+    @Param({ "20", "1000" })
+    public int size;
+
+    // Not OutputStream.nullOutputStream(): Jackson closes its target, and that one refuses writes once closed
+    private final OutputStream discard = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+    private final ObjectMapper beans = new ObjectMapper();
+    private final ObjectMapper module = new ObjectMapper().registerModule(new MessageJsonModule(messageId -> 0));
+    private final MessageJsonWriter writer = new MessageJsonWriter(messageId -> 0);
+    private List<Message> messages;
+
+    @Setup
+    public void setUp() {
+        messages = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            messages.add(new Message(i + 1, i % 50 + 1, "benchmark message number " + i, 1669947792L + i));
+        }
+    }
+
+    @Benchmark
+    public void jacksonBeans() throws IOException {
+        beans.writeValue(discard, messages);
+    }
+
+    @Benchmark
+    public void jacksonModule() throws IOException {
+        module.writeValue(discard, messages);
+    }
+
+    @Benchmark
+    public void directBytes() throws IOException {
+        writer.writeMessages(messages, discard);
+    }
+}
@@ -0,0 +1,141 @@
+package Benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import DAO.StoreSnapshotter;
+import Util.ConnectionPool;
+import Util.ConnectionUtil;
+import Util.ShardRouter;
+
+/**
+ * Times restoring the main database from a StoreSnapshotter snapshot, on one and on four threads, next to replaying
+ * an H2 SQL script of the same data (SCRIPT TO, then RUNSCRIPT FROM after dropping everything) for comparison. The
+ * four-thread restore only gains where there are cores to run it on. The database holds the test data plus 200,000
+ * messages spread over 20,000 accounts. The sizes of the snapshot and of the script are printed once the data is
+ * loaded. Both take several runs to settle, hence the five warmup runs.
+ *
+ * Run with: mvn -P bench test -Djmh.include=SnapshotRestoreBenchmark
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class SnapshotRestoreBenchmark {
+
+    private static final Path DIR = Paths.get("target/snapshot-benchmark");
+    private static final Path SCRIPT = DIR.resolve("replay.sql");
+    private static final int MESSAGES = 200_000;
+
+    /**
+     * A database holding the messages, with its snapshot restored on the given number of threads.
+     */
+    @State(Scope.Benchmark)
+    public static class Restore {
+
+        @Param({ "1", "4" })
+        public int threads;
+
+        StoreSnapshotter snapshotter;
+        Path snapshot;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException, SQLException {
+            System.setProperty("snapshot.restore.threads", Integer.toString(threads));
+            load();
+            snapshotter = new StoreSnapshotter(new ShardRouter(
+                    new ConnectionPool[] { ConnectionPool.shared("shard-0", ConnectionUtil::getConnection) }, 1),
+                    DIR);
+            snapshot = snapshotter.snapshot();
+            System.out.printf("%nSnapshot: %d bytes%n", Files.size(snapshot));
+        }
+    }
+
+    /**
+     * A database holding the messages, dumped to a SQL script and dropped before every replay.
+     */
+    @State(Scope.Benchmark)
+    public static class Replay {
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException, SQLException {
+            load();
+            Files.deleteIfExists(SCRIPT);
+            execute("SCRIPT TO '" + SCRIPT + "'");
+            System.out.printf("%nSQL script: %d bytes%n", Files.size(SCRIPT));
+        }
+
+        @Setup(Level.Invocation)
+        public void drop() throws SQLException {
+            execute("DROP ALL OBJECTS");
+        }
+    }
+
+    @Benchmark
+    public long restoreSnapshot(Restore state) throws IOException {
+        return state.snapshotter.restore(state.snapshot);
+    }
+
+    @Benchmark
+    public void replaySqlScript(Replay state) throws SQLException {
+        execute("RUNSCRIPT FROM '" + SCRIPT + "'");
+    }
+
+    // Resets the database to the test data and adds the messages, spread over a tenth as many accounts
+    private static void load() throws IOException, SQLException {
+        System.setProperty("cdc.enabled", "false");
+        ConnectionUtil.resetTestDatabase();
+        Files.createDirectories(DIR);
+        Connection conn = ConnectionUtil.getConnection();
+        int accounts = MESSAGES / 10;
+        try (PreparedStatement ps = conn.prepareStatement(
+                "INSERT INTO account (username, password) VALUES (?, ?)")) {
+            for (int i = 0; i < accounts; i++) {
+                ps.setString(1, "benchmark user " + i);
+                ps.setString(2, "$2a$10$abcdefghijklmnopqrstuv" + i);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+        try (PreparedStatement ps = conn.prepareStatement(
+                "INSERT INTO message (posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?)")) {
+            for (int i = 0; i < MESSAGES; i++) {
+                ps.setInt(1, 1 + i % accounts);
+                ps.setString(2, "benchmark message number " + i);
+                ps.setLong(3, 1669947792L + i * 7L);
+                ps.addBatch();
+                if (i % 1_000 == 999) {
+                    ps.executeBatch();
+                }
+            }
+            ps.executeBatch();
+        }
+    }
+
+    private static void execute(String sql) throws SQLException {
+        try (Statement statement = ConnectionUtil.getConnection().createStatement()) {
+            statement.execute(sql);
+        }
+    }
+}
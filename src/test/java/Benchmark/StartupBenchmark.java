@@ -0,0 +1,162 @@
+package Benchmark;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the time from launching the application's JVM until Main logs that the server is listening, for the
+ * two schema modes (reset: the test script is re-run; ensure: the production schema check) with and without a
+ * class-data sharing archive. Every invocation is a fresh JVM, so JIT warm-up does not apply and a few single shots
+ * are enough.
+ *
+ * CDS only accepts jars on the classpath, so every launch uses target/classes packed into
+ * target/startup-benchmark.jar followed by the dependency jars, and the archive is recorded on first use in
+ * target/startup-benchmark.jsa with that same classpath, which CDS requires to match. It is recorded from a class
+ * list dumped by one launch, which works from JDK 11 on.
+ *
+ * Run with: mvn -P bench test -Djmh.include=StartupBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StartupBenchmark {
+
+    private static final String READY = "Ready on port";
+    private static final File ARCHIVE = new File("target/startup-benchmark.jsa");
+    private static final File CLASS_LIST = new File("target/startup-benchmark.classlist");
+    private static final File JAR = new File("target/startup-benchmark.jar");
+
+    @Param({ "reset", "ensure" })
+    public String schema;
+
+    @Param({ "off", "on" })
+    public String cds;
+
+    private String classpath;
+
+    @Setup
+    public void setUp() throws IOException, InterruptedException {
+        packClasses(Paths.get("target/classes"));
+        StringBuilder path = new StringBuilder(JAR.getPath());
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            if (entry.endsWith(".jar")) {
+                path.append(File.pathSeparator).append(entry);
+            }
+        }
+        classpath = path.toString();
+        if ("on".equals(cds) && !ARCHIVE.exists()) {
+            // Two steps, as in the cds profile, since -XX:ArchiveClassesAtExit needs JDK 13
+            record(launch("-XX:DumpLoadedClassList=" + CLASS_LIST.getPath(), "-Dstartup.exit-after-start=true"));
+            record(new ProcessBuilder(java(), "-Xshare:dump", "-XX:SharedClassListFile=" + CLASS_LIST.getPath(),
+                    "-XX:SharedArchiveFile=" + ARCHIVE.getPath(), "-classpath", classpath)
+                    .redirectErrorStream(true).start());
+            if (!ARCHIVE.exists()) {
+                throw new IllegalStateException("Could not record " + ARCHIVE);
+            }
+        }
+    }
+
+    private static void record(Process process) throws IOException, InterruptedException {
+        drain(process);
+        if (process.waitFor() != 0) {
+            throw new IllegalStateException("Could not record " + ARCHIVE);
+        }
+    }
+
+    @Benchmark
+    public void startToReady() throws IOException, InterruptedException {
+        Process process = "on".equals(cds) ? launch("-XX:SharedArchiveFile=" + ARCHIVE.getPath()) : launch();
+        try (BufferedReader output = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = output.readLine()) != null) {
+                if (line.contains(READY)) {
+                    break;
+                }
+            }
+            if (line == null) {
+                throw new IllegalStateException("The application exited before it was ready");
+            }
+        } finally {
+            // Stop it gracefully so H2 releases its lock on the database for the next launch
+            process.destroy();
+            if (!process.waitFor(30, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+            }
+        }
+    }
+
+    private Process launch(String... jvmOptions) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(java());
+        for (String option : jvmOptions) {
+            command.add(option);
+        }
+        command.add("-Ddb.schema=" + schema);
+        command.add("-Dserver.port=0");
+        command.add("-classpath");
+        command.add(classpath);
+        command.add("Main");
+        return new ProcessBuilder(command).redirectErrorStream(true).start();
+    }
+
+    private static String java() {
+        return System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+    }
+
+    private static void packClasses(Path classes) throws IOException {
+        try (Stream<Path> files = Files.walk(classes)) {
+            long newest = files.mapToLong(file -> file.toFile().lastModified()).max().orElse(0);
+            if (JAR.exists() && JAR.lastModified() >= newest) {
+                return;
+            }
+        }
+        // The archive is only valid for the jar it was recorded with
+        Files.deleteIfExists(ARCHIVE.toPath());
+        try (JarOutputStream jar = new JarOutputStream(new FileOutputStream(JAR));
+                Stream<Path> files = Files.walk(classes)) {
+            for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                jar.putNextEntry(new JarEntry(classes.relativize(file).toString().replace(File.separatorChar, '/')));
+                Files.copy(file, jar);
+                jar.closeEntry();
+            }
+        }
+    }
+
+    private static void drain(Process process) throws IOException {
+        try (BufferedReader output = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            while (output.readLine() != null) {
+                // The archive is written when the process exits
+            }
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package Benchmark;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import DAO.MessageDao;
+import Model.Message;
+import Util.ConnectionUtil;
+import Util.StorageProfile;
+
+/**
+ * Measures the message write path, MessageDao.insert committing one message at a time, under each StorageProfile.
+ * Every profile runs in a fork of its own, since the main database is opened once per JVM. The change log is
+ * turned off so that only the storage is compared.
+ *
+ * The durability side of the trade-off is printed after each profile's run: a child JVM inserts into a database
+ * opened with the same profile for a second, prints how many inserts had returned, and halts without closing
+ * anything; the database is then reopened and the rows that survived are counted. This is a process crash. The
+ * operating system still writes out what H2 had handed to it, so a power loss can lose more than reported. The
+ * ephemeral profile is not probed: its database lives in the process, so none of it survives a restart.
+ *
+ * Run with: mvn -P bench test -Djmh.include=StorageProfileBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StorageProfileBenchmark {
+
+    private static final String PROBE_URL = "jdbc:h2:./h2/storage-probe";
+    private static final long PROBE_MILLIS = 1_000;
+
+    @Param({ "default", "durable", "throughput", "ephemeral" })
+    public String profile;
+
+    private MessageDao messageDao;
+    private long posted = 1669947792L;
+
+    @Setup
+    public void setUp() {
+        System.setProperty("db.profile", profile);
+        System.setProperty("cdc.enabled", "false");
+        ConnectionUtil.resetTestDatabase();
+        messageDao = new MessageDao();
+    }
+
+    @Benchmark
+    public Message insertMessage() {
+        return messageDao.insert(new Message(1, "benchmark message", posted++));
+    }
+
+    @TearDown(Level.Trial)
+    public void reportCrashLoss() throws IOException, InterruptedException, SQLException {
+        StorageProfile storage = StorageProfile.valueOf(profile.toUpperCase());
+        if (storage == StorageProfile.EPHEMERAL) {
+            // Reopening after the crash would open a new, empty in-memory database, not what the probe wrote
+            System.out.printf("%nStorage profile %s: in-memory, nothing survives a restart%n", profile);
+            return;
+        }
+        deleteProbeDatabase();
+        Process process = new ProcessBuilder(System.getProperty("java.home") + File.separator + "bin"
+                + File.separator + "java", "-classpath", System.getProperty("java.class.path"),
+                CrashProbe.class.getName(), storage.name()).redirectErrorStream(true).start();
+        long acknowledged = -1;
+        try (BufferedReader output = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = output.readLine()) != null) {
+                if (line.startsWith(CrashProbe.ACKNOWLEDGED)) {
+                    acknowledged = Long.parseLong(line.substring(CrashProbe.ACKNOWLEDGED.length()));
+                }
+            }
+        }
+        process.waitFor();
+        long survived = 0;
+        try (Connection conn = DriverManager.getConnection(storage.url(PROBE_URL), "sa", "sa");
+                Statement statement = conn.createStatement();
+                ResultSet rs = statement.executeQuery("select count(*) from information_schema.tables"
+                        + " where table_name = 'PROBE'")) {
+            rs.next();
+            if (rs.getInt(1) > 0) {
+                try (ResultSet rows = statement.executeQuery("select count(*) from probe")) {
+                    rows.next();
+                    survived = rows.getLong(1);
+                }
+            }
+        }
+        deleteProbeDatabase();
+        System.out.printf("%nStorage profile %s: %d inserts returned before a crash, %d survived it (%d lost)%n",
+                profile, acknowledged, survived, acknowledged - survived);
+    }
+
+    private static void deleteProbeDatabase() throws IOException {
+        Files.deleteIfExists(Paths.get("./h2/storage-probe.mv.db"));
+        Files.deleteIfExists(Paths.get("./h2/storage-probe.trace.db"));
+    }
+
+    /**
+     * Inserts rows one commit at a time into the probe database for a second, prints how many inserts returned,
+     * and halts the JVM as a crash would, without closing the database.
+     */
+    public static final class CrashProbe {
+
+        static final String ACKNOWLEDGED = "acknowledged=";
+
+        public static void main(String[] args) throws SQLException {
+            StorageProfile storage = StorageProfile.valueOf(args[0]);
+            Connection conn = DriverManager.getConnection(storage.url(PROBE_URL), "sa", "sa");
+            try (Statement statement = conn.createStatement()) {
+                statement.execute("create table probe (id int primary key, message_text varchar(255))");
+            }
+            PreparedStatement ps = conn.prepareStatement("insert into probe values (?, ?)");
+            long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(PROBE_MILLIS);
+            int acknowledged = 0;
+            while (System.nanoTime() < end) {
+                ps.setInt(1, acknowledged + 1);
+                ps.setString(2, "benchmark message");
+                ps.executeUpdate();
+                acknowledged++;
+            }
+            System.out.println(ACKNOWLEDGED + acknowledged);
+            System.out.flush();
+            Runtime.getRuntime().halt(1);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import DAO.ChangeCapture;
+import DAO.ChangeEvent;
+import DAO.MessageDao;
+import DAO.ReplicaSet;
+import Model.Message;
+import Util.ConnectionPool;
+import Util.ConnectionUtil;
+import Util.SegmentedLog;
+import Util.ShardRouter;
+
+public class ChangeCaptureTest {
+    // Small segments so that a handful of events spans several of them
+    private static final int SEGMENT_BYTES = 512;
+
+    Path dir;
+    SegmentedLog log;
+    MessageDao messageDao;
+
+    /**
+     * Before every test, reset the database and open an empty change log in a temporary directory.
+     */
+    @Before
+    public void setUp() throws IOException {
+        ConnectionUtil.resetTestDatabase();
+        dir = Files.createTempDirectory("cdc-test");
+        log = new SegmentedLog(dir, SEGMENT_BYTES, Long.MAX_VALUE, Long.MAX_VALUE, false);
+        ShardRouter router = new ShardRouter(
+                new ConnectionPool[] { ConnectionPool.shared("primary", ConnectionUtil::getConnection) }, 1);
+        messageDao = new MessageDao(router, ReplicaSet.none(), new ChangeCapture(log));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        log.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    /**
+     * Inserts, updates and deletes are recorded in order with increasing offsets, and a consumer resumes from its
+     * checkpoint after the log is reopened.
+     */
+    @Test
+    public void mutationsAreRecordedAndConsumedFromCheckpoints() throws Exception {
+        Message message = messageDao.insert(new Message(1, "captured", 1669947800L));
+        message.setMessage_text("captured and edited");
+        messageDao.update(message);
+        messageDao.delete(message);
+        // Missing rows change nothing and record nothing
+        messageDao.delete(message);
+
+        ChangeCapture capture = new ChangeCapture(log);
+        List<ChangeCapture.Entry> entries = capture.poll("search", 10, 0);
+        Assert.assertEquals(3, entries.size());
+        Assert.assertEquals(ChangeEvent.INSERT, entries.get(0).getEvent().getType());
+        Assert.assertEquals(ChangeEvent.UPDATE, entries.get(1).getEvent().getType());
+        Assert.assertEquals("captured and edited", entries.get(1).getEvent().getMessage().getMessage_text());
+        Assert.assertEquals(ChangeEvent.DELETE, entries.get(2).getEvent().getType());
+        Assert.assertEquals(message.getMessage_id(), entries.get(2).getEvent().getId());
+        for (int i = 0; i < entries.size(); i++) {
+            Assert.assertEquals(i, entries.get(i).getOffset());
+        }
+        capture.commit("search", entries.get(1).getOffset() + 1);
+
+        log.close();
+        log = new SegmentedLog(dir, SEGMENT_BYTES, Long.MAX_VALUE, Long.MAX_VALUE, false);
+        capture = new ChangeCapture(log);
+        Assert.assertEquals(3, log.getNextOffset());
+        entries = capture.poll("search", 10, 0);
+        Assert.assertEquals(1, entries.size());
+        Assert.assertEquals(ChangeEvent.DELETE, entries.get(0).getEvent().getType());
+        Assert.assertEquals(3, capture.poll("new-consumer", 10, 0).size());
+    }
+
+    /**
+     * Records roll over into new segments and the oldest segments are dropped once the size limit is exceeded.
+     */
+    @Test
+    public void oldSegmentsAreDroppedBySize() throws IOException {
+        log.close();
+        log = new SegmentedLog(dir, SEGMENT_BYTES, 2 * SEGMENT_BYTES, Long.MAX_VALUE, false);
+        byte[] payload = new byte[100];
+        for (int i = 0; i < 40; i++) {
+            Assert.assertEquals(i, log.append(payload));
+        }
+        Assert.assertTrue(log.getSegmentCount() <= 3);
+        Assert.assertTrue(log.getStartOffset() > 0);
+        List<SegmentedLog.Record> records = log.read(0, 100);
+        Assert.assertEquals(log.getStartOffset(), records.get(0).getOffset());
+        Assert.assertEquals(39, records.get(records.size() - 1).getOffset());
+    }
+}
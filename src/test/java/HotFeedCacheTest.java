@@ -0,0 +1,96 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import Model.Message;
+import Service.HotFeedCache;
+import Util.HeavyHitters;
+
+public class HotFeedCacheTest {
+
+    /**
+     * Two keys making up a third of a stream of a thousand others are monitored, ranked first and counted without
+     * being understated, in a sketch of only twenty keys.
+     */
+    @Test
+    public void sketchFindsTheHeavyHitters() {
+        List<Integer> stream = new ArrayList<>();
+        for (int key = 100; key < 1100; key++) {
+            stream.add(key);
+        }
+        for (int i = 0; i < 300; i++) {
+            stream.add(7);
+        }
+        for (int i = 0; i < 200; i++) {
+            stream.add(9);
+        }
+        Collections.shuffle(stream, new Random(42));
+
+        HeavyHitters sketch = new HeavyHitters(20, 0);
+        for (int key : stream) {
+            sketch.offer(key);
+        }
+        List<HeavyHitters.Entry> top = sketch.top(2);
+        Assert.assertEquals(7, top.get(0).getKey());
+        Assert.assertEquals(9, top.get(1).getKey());
+        Assert.assertTrue(top.get(0).getCount() >= 300);
+        Assert.assertTrue(top.get(0).getCount() - top.get(0).getError() <= 300);
+        Assert.assertTrue(sketch.isTop(9, 2));
+        Assert.assertFalse(sketch.isTop(9, 1));
+    }
+
+    /**
+     * A feed read often enough is kept, then follows the account's writes without being loaded again, until a
+     * change made elsewhere drops it.
+     */
+    @Test
+    public void hotFeedIsKeptAndUpdatedByWrites() {
+        HotFeedCache cache = new HotFeedCache(1, 8, 3, 10, 0);
+        List<Message> feed = Arrays.asList(new Message(1, 1, "first", 1L), new Message(3, 1, "third", 3L));
+        for (int i = 0; i < 3; i++) {
+            Assert.assertNull(cache.get(1));
+            cache.loaded(1, cache.version(1), feed);
+        }
+        Assert.assertEquals(feed, cache.get(1));
+
+        cache.messageStored(new Message(2, 1, "second", 2L));
+        cache.messageStored(new Message(3, 1, "third, edited", 3L));
+        cache.messageDeleted(new Message(1, 1, "first", 1L));
+        Assert.assertEquals(Arrays.asList(new Message(2, 1, "second", 2L), new Message(3, 1, "third, edited", 3L)),
+                cache.get(1));
+
+        cache.messageChanged(2, 1);
+        Assert.assertNull(cache.get(1));
+    }
+
+    /**
+     * A feed loaded before a write to its account is not kept, and a hotter account takes the place of a colder
+     * one when the cache is full.
+     */
+    @Test
+    public void staleLoadsAreNotKeptAndColderFeedsMakeWay() {
+        HotFeedCache cache = new HotFeedCache(1, 8, 2, 10, 0);
+        List<Message> feed = Arrays.asList(new Message(1, 1, "first", 1L));
+        cache.get(1);
+        cache.get(1);
+        long version = cache.version(1);
+        cache.messageStored(new Message(4, 1, "posted meanwhile", 4L));
+        cache.loaded(1, version, feed);
+        Assert.assertNull(cache.get(1));
+        cache.loaded(1, cache.version(1), feed);
+        Assert.assertNotNull(cache.get(1));
+
+        List<Message> otherFeed = Arrays.asList(new Message(2, 2, "other", 2L));
+        for (int i = 0; i < 5; i++) {
+            cache.get(2);
+        }
+        cache.loaded(2, cache.version(2), otherFeed);
+        Assert.assertEquals(otherFeed, cache.get(2));
+        Assert.assertNull(cache.get(1));
+    }
+}
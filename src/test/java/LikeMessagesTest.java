@@ -0,0 +1,197 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import DAO.MessageDao;
+import DAO.ReactionDao;
+import Model.Message;
+import Service.ReactionService;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class LikeMessagesTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Sending an http request to POST localhost:8080/messages/1/likes twice with a token, then reading the message,
+     * then withdrawing the like with DELETE localhost:8080/messages/1/likes
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: the message counts one like, shown as "likes" on the message until it is withdrawn
+     */
+    @Test
+    public void likeMessageOnce() throws IOException, InterruptedException {
+        String token = login();
+
+        Assert.assertEquals(1, react("POST", 1, token).get("likes").asLong());
+        Assert.assertEquals(1, react("POST", 1, token).get("likes").asLong());
+        Assert.assertEquals(1, getMessage().get("likes").asLong());
+
+        Assert.assertEquals(0, react("DELETE", 1, token).get("likes").asLong());
+        Assert.assertFalse(getMessage().has("likes"));
+    }
+
+    /**
+     * Sending an http request to POST localhost:8080/messages/1/likes without a token, and for a message that does
+     * not exist
+     *
+     * Expected Response:
+     *  Status Code: 401 without a token, 404 for the missing message
+     */
+    @Test
+    public void likeRequiresTokenAndMessage() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/1/likes"))
+                .POST(HttpRequest.BodyPublishers.noBody())
+                .build();
+        Assert.assertEquals(401, webClient.send(request, HttpResponse.BodyHandlers.ofString()).statusCode());
+
+        request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/100/likes"))
+                .POST(HttpRequest.BodyPublishers.noBody())
+                .header("Authorization", "Bearer " + login())
+                .build();
+        Assert.assertEquals(404, webClient.send(request, HttpResponse.BodyHandlers.ofString()).statusCode());
+    }
+
+    /**
+     * Many accounts liking the same message at once are all counted, and one flush stores the total.
+     */
+    @Test
+    public void concurrentLikesAreCountedAndFlushed() throws Exception {
+        ReactionService reactions = new ReactionService(new ReactionDao(), new MessageDao(), 0);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        for (int account = 1; account <= 200; account++) {
+            int accountId = account;
+            pool.execute(() -> reactions.like(1, accountId));
+        }
+        pool.shutdown();
+        Assert.assertTrue(pool.awaitTermination(30, TimeUnit.SECONDS));
+        Assert.assertEquals(200, reactions.getLikes(1));
+
+        reactions.flush();
+        try (PreparedStatement ps = ConnectionUtil.getConnection().prepareStatement(
+                "SELECT likes FROM message_reaction_count WHERE message_id = 1")) {
+            try (ResultSet rs = ps.executeQuery()) {
+                Assert.assertTrue(rs.next());
+                Assert.assertEquals(200, rs.getLong(1));
+            }
+        }
+        // A new service recounts from the individual likes
+        Assert.assertEquals(200, new ReactionService(new ReactionDao(), new MessageDao(), 0).getLikes(1));
+    }
+
+    /**
+     * Deleting a liked message with DELETE localhost:8080/messages/1 removes its likes and stored count at once, and
+     * purging a message deleted without the service knowing removes them with the row.
+     */
+    @Test
+    public void likesGoWithTheirMessage() throws Exception {
+        String token = login();
+        react("POST", 1, token);
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/1"))
+                .DELETE()
+                .header("Authorization", "Bearer " + token)
+                .build();
+        Assert.assertEquals(200, webClient.send(request, HttpResponse.BodyHandlers.ofString()).statusCode());
+        Assert.assertEquals(0, countRows("message_reaction"));
+        Assert.assertEquals(0, countRows("message_reaction_count"));
+
+        MessageDao messageDao = new MessageDao();
+        ReactionService reactions = new ReactionService(new ReactionDao(), messageDao, 0);
+        Message message = messageDao.insert(new Message(1, "liked, then deleted", 1669947800L));
+        reactions.like(message.getMessage_id(), 2);
+        reactions.flush();
+        Assert.assertTrue(messageDao.delete(message));
+        Assert.assertEquals(1, countRows("message_reaction"));
+        // Message 1, deleted above, is purged too
+        Assert.assertEquals(2, messageDao.purgeMessagesByAccountId(1, 10));
+        Assert.assertEquals(0, countRows("message_reaction"));
+        Assert.assertEquals(0, countRows("message_reaction_count"));
+    }
+
+    private static long countRows(String table) throws SQLException {
+        try (PreparedStatement ps = ConnectionUtil.getConnection().prepareStatement("SELECT COUNT(*) FROM " + table)) {
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                return rs.getLong(1);
+            }
+        }
+    }
+
+    private String login() throws IOException, InterruptedException {
+        HttpRequest loginRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/login"))
+                .POST(HttpRequest.BodyPublishers.ofString("{" +
+                        "\"username\": \"testuser1\", " +
+                        "\"password\": \"password\" }"))
+                .header("Content-Type", "application/json")
+                .build();
+        HttpResponse<String> response = webClient.send(loginRequest, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, response.statusCode());
+        return response.headers().firstValue("X-Auth-Token").orElseThrow();
+    }
+
+    private JsonNode react(String method, int messageId, String token) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/" + messageId + "/likes"))
+                .method(method, HttpRequest.BodyPublishers.noBody())
+                .header("Authorization", "Bearer " + token)
+                .build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, response.statusCode());
+        return objectMapper.readTree(response.body());
+    }
+
+    private JsonNode getMessage() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/1"))
+                .build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, response.statusCode());
+        return objectMapper.readTree(response.body());
+    }
+}
@@ -0,0 +1,77 @@
+package LoadTest;
+
+import java.util.Arrays;
+
+/**
+ * Collects the latencies of one route. Every sample is kept, which for runs of a few minutes at a few hundred
+ * requests a second is a few megabytes, so the percentiles are exact rather than bucketed.
+ */
+public final class LatencyRecorder {
+
+    private long[] latencies = new long[1024];
+    private int count;
+    private int errors;
+
+    /**
+     * @param latencyNanos the time from the request's scheduled start to its response.
+     * @param ok           whether the response had a 2xx status.
+     */
+    public synchronized void record(long latencyNanos, boolean ok) {
+        if (count == latencies.length) {
+            latencies = Arrays.copyOf(latencies, count * 2);
+        }
+        latencies[count++] = latencyNanos;
+        if (!ok) {
+            errors++;
+        }
+    }
+
+    /**
+     * Counts a request that was never sent because too many were in flight.
+     */
+    public synchronized void recordDropped() {
+        errors++;
+    }
+
+    /**
+     * @return count, errors and the latency percentiles in milliseconds.
+     */
+    public synchronized Summary summarize() {
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        return new Summary(count, errors, percentile(sorted, 50), percentile(sorted, 90), percentile(sorted, 99),
+                percentile(sorted, 99.9), count == 0 ? 0 : sorted[count - 1] / 1e6);
+    }
+
+    // Nearest-rank percentile
+    private static double percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+        return sorted[Math.max(0, rank - 1)] / 1e6;
+    }
+
+    /**
+     * The figures of one route, as written to the report.
+     */
+    public static final class Summary {
+        public final int count;
+        public final int errors;
+        public final double p50Ms;
+        public final double p90Ms;
+        public final double p99Ms;
+        public final double p999Ms;
+        public final double maxMs;
+
+        Summary(int count, int errors, double p50Ms, double p90Ms, double p99Ms, double p999Ms, double maxMs) {
+            this.count = count;
+            this.errors = errors;
+            this.p50Ms = p50Ms;
+            this.p90Ms = p90Ms;
+            this.p99Ms = p99Ms;
+            this.p999Ms = p999Ms;
+            this.maxMs = maxMs;
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package LoadTest;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Util.AppConfig;
+import io.javalin.Javalin;
+
+/**
+ * Drives the application over HTTP with a weighted mix of operations and reports throughput and latency
+ * percentiles per route.
+ *
+ * The workload is an open model: request i is scheduled at start + i / rate whatever happened to the requests
+ * before it, and its latency is measured from that scheduled time. A closed loop that waits for each response
+ * before sending the next request sends less when the server slows down and so hides the very stalls it should
+ * measure (coordinated omission); here a stall shows up in the latency of every request scheduled during it. When
+ * more than loadtest.max-in-flight requests are outstanding, new ones are counted as errors instead of queued.
+ *
+ * Without loadtest.url the application is started in-process on a free port, on a freshly reset database and with
+ * rate limiting off, since all the load comes from one address. Before the run, loadtest.accounts accounts are
+ * registered and logged in and each posts loadtest.messages messages, which the operations then pick from. The
+ * sequence of operation types, and the accounts and texts they use, depends only on loadtest.seed, so two runs
+ * with the same settings send the same mix in the same order. Which messages are read, edited and deleted does
+ * not: posted messages join the pool when their responses arrive, so the pool depends on the server's timing.
+ *
+ * The report is printed and written to target/loadtest/{profile}.json. When
+ * src/test/resources/loadtest/{profile}-baseline.json exists the run is compared with it, and with
+ * loadtest.fail-on-regression=true a regression fails the run. Run with: mvn -P load test [-Dloadtest.profile=...]
+ */
+public class LoadGenerator {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final HttpClient client;
+    private final String baseUrl;
+    private final List<User> users = new ArrayList<>();
+    private final MessagePool messages = new MessagePool();
+    private final Map<Operation, LatencyRecorder> recorders = new EnumMap<>(Operation.class);
+    private final AtomicInteger registrations = new AtomicInteger();
+    private final String runId = Long.toString(System.currentTimeMillis(), 36);
+
+    LoadGenerator(String baseUrl, ExecutorService executor) {
+        this.baseUrl = baseUrl;
+        this.client = HttpClient.newBuilder()
+                .executor(executor)
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+        for (Operation operation : Operation.values()) {
+            recorders.put(operation, new LatencyRecorder());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String profileName = AppConfig.getString("loadtest.profile", "mixed");
+        WorkloadProfile profile = WorkloadProfile.of(profileName, AppConfig.getString("loadtest.mix", null));
+        int rate = AppConfig.getInt("loadtest.rate", 50);
+        int warmupSeconds = AppConfig.getInt("loadtest.warmup-s", 10);
+        int durationSeconds = AppConfig.getInt("loadtest.duration-s", 30);
+        long seed = AppConfig.getLong("loadtest.seed", 42);
+
+        String url = AppConfig.getString("loadtest.url", null);
+        Javalin app = null;
+        if (url == null) {
+            if (System.getProperty("ratelimit.enabled") == null) {
+                System.setProperty("ratelimit.enabled", "false");
+            }
+            app = new SocialMediaController().startAPI().start(0);
+            url = "http://localhost:" + app.port();
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(AppConfig.getInt("loadtest.client-threads", 16));
+        try {
+            LoadGenerator generator = new LoadGenerator(url, executor);
+            generator.seed(AppConfig.getInt("loadtest.accounts", 20), AppConfig.getInt("loadtest.messages", 10));
+            System.out.printf("Running %s at %d req/s for %d s after a %d s warm-up against %s%n", profileName, rate,
+                    durationSeconds, warmupSeconds, url);
+            generator.run(profile, rate, warmupSeconds, durationSeconds, seed,
+                    AppConfig.getInt("loadtest.max-in-flight", 1000));
+
+            LoadReport report = LoadReport.of(profileName, rate, durationSeconds, seed, generator.recorders);
+            System.out.print(report.format());
+            File output = new File("target/loadtest/" + profileName + ".json");
+            report.write(output);
+            System.out.println("Report written to " + output);
+
+            File baselineFile = new File("src/test/resources/loadtest/" + profileName + "-baseline.json");
+            LoadReport baseline = baselineFile.exists() ? LoadReport.read(baselineFile) : null;
+            if (baseline != null && !report.comparableWith(baseline)) {
+                System.out.println(baselineFile + " was recorded with other settings; not comparing");
+            } else if (baseline != null) {
+                List<String> regressions = report.regressionsAgainst(baseline,
+                        AppConfig.getDouble("loadtest.tolerance", 0.2));
+                regressions.forEach(regression -> System.out.println("REGRESSION " + regression));
+                if (regressions.isEmpty()) {
+                    System.out.println("No regression against " + baselineFile);
+                } else if (AppConfig.getBoolean("loadtest.fail-on-regression", false)) {
+                    System.exit(1);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+            if (app != null) {
+                app.stop();
+            }
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Registers and logs in the accounts the operations act as, and posts their first messages.
+     */
+    void seed(int accounts, int messagesPerAccount) throws IOException, InterruptedException {
+        for (int i = 0; i < accounts; i++) {
+            String username = "load-" + runId + "-" + i;
+            HttpResponse<String> registered = client.send(
+                    json("/register", "POST", credentials(username), null), HttpResponse.BodyHandlers.ofString());
+            HttpResponse<String> login = client.send(
+                    json("/login", "POST", credentials(username), null), HttpResponse.BodyHandlers.ofString());
+            if (registered.statusCode() != 200 || login.statusCode() != 200) {
+                throw new IllegalStateException("Could not create account " + username);
+            }
+            users.add(new User(MAPPER.readTree(registered.body()).get("account_id").asInt(), username,
+                    login.headers().firstValue("X-Auth-Token").orElseThrow()));
+        }
+        for (int i = 0; i < users.size(); i++) {
+            for (int j = 0; j < messagesPerAccount; j++) {
+                HttpResponse<String> posted = client.send(post(users.get(i), "seed message " + j),
+                        HttpResponse.BodyHandlers.ofString());
+                messages.add(MAPPER.readTree(posted.body()).get("message_id").asInt(), i);
+            }
+        }
+    }
+
+    /**
+     * Sends the workload at a constant arrival rate. Requests scheduled during the warm-up are sent but not
+     * recorded.
+     */
+    void run(WorkloadProfile profile, int rate, int warmupSeconds, int durationSeconds, long seed, int maxInFlight)
+            throws InterruptedException {
+        Random random = new Random(seed);
+        // Picks messages from a pool that changes with the server's timing, so it draws from its own generator
+        Random picks = new Random(seed + 1);
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        long end = measureFrom + TimeUnit.SECONDS.toNanos(durationSeconds);
+        List<CompletableFuture<?>> pending = new ArrayList<>();
+
+        for (long i = 0;; i++) {
+            long scheduled = start + i * interval;
+            if (scheduled >= end) {
+                break;
+            }
+            long wait = scheduled - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            Operation operation = profile.next(random);
+            boolean measured = scheduled >= measureFrom;
+            LatencyRecorder recorder = recorders.get(operation);
+            if (!inFlight.tryAcquire()) {
+                if (measured) {
+                    recorder.recordDropped();
+                }
+                continue;
+            }
+            Request request = build(operation, random, picks);
+            pending.add(client.sendAsync(request.http, HttpResponse.BodyHandlers.ofString())
+                    .whenComplete((response, failure) -> {
+                        long latency = System.nanoTime() - scheduled;
+                        inFlight.release();
+                        boolean ok = failure == null && response.statusCode() / 100 == 2;
+                        if (measured) {
+                            recorder.record(latency, ok);
+                        }
+                        if (ok && operation == Operation.POST) {
+                            addPosted(response.body(), request.user);
+                        }
+                    }));
+            if (pending.size() >= 10_000) {
+                pending.removeIf(CompletableFuture::isDone);
+            }
+        }
+        CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).exceptionally(failure -> null).join();
+    }
+
+    private Request build(Operation operation, Random random, Random picks) {
+        int userIndex = random.nextInt(users.size());
+        User user = users.get(userIndex);
+        switch (operation) {
+            case REGISTER:
+                String username = "load-" + runId + "-r" + registrations.incrementAndGet();
+                return new Request(json("/register", "POST", credentials(username), null), -1);
+            case LOGIN:
+                return new Request(json("/login", "POST", credentials(user.username), null), -1);
+            case POST:
+                return new Request(post(user, "load message " + random.nextInt(1_000_000)), userIndex);
+            case READ:
+                return new Request(get("/messages/" + messages.pick(picks)[0]), -1);
+            case LIST:
+                return new Request(get("/messages?limit=20"), -1);
+            case PATCH:
+                int[] patched = messages.pick(picks);
+                return new Request(json("/messages/" + patched[0], "PATCH",
+                        "{\"message_text\": \"edited " + random.nextInt(1_000_000) + "\"}",
+                        users.get(patched[1]).token), -1);
+            case DELETE:
+                int[] deleted = messages.take(picks);
+                return new Request(json("/messages/" + deleted[0], "DELETE", "", users.get(deleted[1]).token), -1);
+            default:
+                throw new IllegalArgumentException(operation.name());
+        }
+    }
+
+    private void addPosted(String body, int userIndex) {
+        try {
+            messages.add(MAPPER.readTree(body).get("message_id").asInt(), userIndex);
+        } catch (IOException e) {
+            // Not added to the pool; the other messages are still there to pick from
+        }
+    }
+
+    private HttpRequest post(User user, String text) {
+        return json("/messages", "POST", "{\"posted_by\": " + user.accountId + ", \"message_text\": \"" + text
+                + "\", \"time_posted_epoch\": " + System.currentTimeMillis() / 1000 + "}", user.token);
+    }
+
+    private HttpRequest get(String path) {
+        return HttpRequest.newBuilder(URI.create(baseUrl + path)).timeout(Duration.ofSeconds(30)).GET().build();
+    }
+
+    private HttpRequest json(String path, String method, String body, String token) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(baseUrl + path))
+                .timeout(Duration.ofSeconds(30))
+                .header("Content-Type", "application/json")
+                .method(method, HttpRequest.BodyPublishers.ofString(body));
+        if (token != null) {
+            builder.header("Authorization", "Bearer " + token);
+        }
+        return builder.build();
+    }
+
+    private static String credentials(String username) {
+        return "{\"username\": \"" + username + "\", \"password\": \"load-password\"}";
+    }
+
+    private static final class User {
+        final int accountId;
+        final String username;
+        final String token;
+
+        User(int accountId, String username, String token) {
+            this.accountId = accountId;
+            this.username = username;
+            this.token = token;
+        }
+    }
+
+    private static final class Request {
+        final HttpRequest http;
+        // The index of the user a POST is sent as, so the new message can be added to the pool
+        final int user;
+
+        Request(HttpRequest http, int user) {
+            this.http = http;
+            this.user = user;
+        }
+    }
+
+    /**
+     * The messages the operations pick from, as {message ID, user index} pairs. Deleted messages are taken out
+     * when the delete is sent; posted ones are added when the response arrives.
+     */
+    private static final class MessagePool {
+        private final List<int[]> entries = new ArrayList<>();
+
+        synchronized void add(int messageId, int userIndex) {
+            entries.add(new int[] { messageId, userIndex });
+        }
+
+        synchronized int[] pick(Random random) {
+            return entries.get(random.nextInt(entries.size()));
+        }
+
+        synchronized int[] take(Random random) {
+            // Keep one message so that reads and patches always have something to pick
+            if (entries.size() == 1) {
+                return entries.get(0);
+            }
+            int index = random.nextInt(entries.size());
+            int[] entry = entries.get(index);
+            entries.set(index, entries.get(entries.size() - 1));
+            entries.remove(entries.size() - 1);
+            return entry;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package LoadTest;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * The result of a load test run: the run's settings and, per route, the throughput, errors and latency
+ * percentiles. Reports are written as JSON so that a run can be compared with a committed baseline.
+ */
+public final class LoadReport {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    private final ObjectNode root;
+
+    private LoadReport(ObjectNode root) {
+        this.root = root;
+    }
+
+    /**
+     * @param profile         the workload profile.
+     * @param rate            the scheduled arrival rate, in requests per second.
+     * @param measuredSeconds the length of the measured part of the run.
+     * @param seed            the seed of the operation sequence.
+     * @param recorders       the recorder of each operation.
+     * @return the report of the run.
+     */
+    public static LoadReport of(String profile, int rate, double measuredSeconds, long seed,
+            Map<Operation, LatencyRecorder> recorders) {
+        ObjectNode root = MAPPER.createObjectNode();
+        root.put("profile", profile);
+        root.put("rate", rate);
+        root.put("measured_seconds", measuredSeconds);
+        root.put("seed", seed);
+        root.put("java", System.getProperty("java.version"));
+        root.put("cpus", Runtime.getRuntime().availableProcessors());
+        root.put("recorded", LocalDate.now().toString());
+        ObjectNode routes = root.putObject("routes");
+        recorders.forEach((operation, recorder) -> {
+            LatencyRecorder.Summary summary = recorder.summarize();
+            if (summary.count + summary.errors == 0) {
+                return;
+            }
+            ObjectNode route = routes.putObject(operation.route());
+            route.put("count", summary.count);
+            route.put("throughput", round(summary.count / measuredSeconds));
+            route.put("errors", summary.errors);
+            route.put("p50_ms", round(summary.p50Ms));
+            route.put("p90_ms", round(summary.p90Ms));
+            route.put("p99_ms", round(summary.p99Ms));
+            route.put("p999_ms", round(summary.p999Ms));
+            route.put("max_ms", round(summary.maxMs));
+        });
+        return new LoadReport(root);
+    }
+
+    /**
+     * @param file a report written by {@link #write(File)}.
+     * @return the report.
+     * @throws IOException if the file cannot be read.
+     */
+    public static LoadReport read(File file) throws IOException {
+        return new LoadReport((ObjectNode) MAPPER.readTree(file));
+    }
+
+    public void write(File file) throws IOException {
+        file.getParentFile().mkdirs();
+        MAPPER.writeValue(file, root);
+    }
+
+    /**
+     * @return a table of the routes, one line each.
+     */
+    public String format() {
+        StringBuilder table = new StringBuilder(String.format("%-22s %8s %8s %7s %9s %9s %9s %9s %9s%n", "route",
+                "count", "req/s", "errors", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms"));
+        Iterator<Map.Entry<String, JsonNode>> routes = root.get("routes").fields();
+        while (routes.hasNext()) {
+            Map.Entry<String, JsonNode> route = routes.next();
+            JsonNode r = route.getValue();
+            table.append(String.format("%-22s %8d %8.1f %7d %9.2f %9.2f %9.2f %9.2f %9.2f%n", route.getKey(),
+                    r.get("count").asInt(), r.get("throughput").asDouble(), r.get("errors").asInt(),
+                    r.get("p50_ms").asDouble(), r.get("p90_ms").asDouble(), r.get("p99_ms").asDouble(),
+                    r.get("p999_ms").asDouble(), r.get("max_ms").asDouble()));
+        }
+        return table.toString();
+    }
+
+    /**
+     * @param other another report.
+     * @return whether both runs sent the same workload at the same rate, without which comparing them means little.
+     */
+    public boolean comparableWith(LoadReport other) {
+        return root.get("profile").asText().equals(other.root.get("profile").asText())
+                && root.get("rate").asLong() == other.root.get("rate").asLong()
+                && root.get("seed").asLong() == other.root.get("seed").asLong();
+    }
+
+    /**
+     * Compares this run with a baseline. A route regresses when its p99 latency grew, or its throughput shrank, by
+     * more than the tolerance, or when it has errors the baseline did not have.
+     *
+     * @param baseline  the report to compare with.
+     * @param tolerance the allowed relative change, e.g. 0.2 for 20%.
+     * @return one line per regression; empty if there is none.
+     */
+    public List<String> regressionsAgainst(LoadReport baseline, double tolerance) {
+        List<String> regressions = new ArrayList<>();
+        Iterator<Map.Entry<String, JsonNode>> routes = root.get("routes").fields();
+        while (routes.hasNext()) {
+            Map.Entry<String, JsonNode> route = routes.next();
+            JsonNode before = baseline.root.get("routes").get(route.getKey());
+            if (before == null) {
+                continue;
+            }
+            JsonNode after = route.getValue();
+            double p99 = after.get("p99_ms").asDouble();
+            double baselineP99 = before.get("p99_ms").asDouble();
+            if (p99 > baselineP99 * (1 + tolerance)) {
+                regressions.add(String.format("%s: p99 %.2f ms, baseline %.2f ms", route.getKey(), p99, baselineP99));
+            }
+            double throughput = after.get("throughput").asDouble();
+            double baselineThroughput = before.get("throughput").asDouble();
+            if (throughput < baselineThroughput * (1 - tolerance)) {
+                regressions.add(String.format("%s: %.1f req/s, baseline %.1f req/s", route.getKey(), throughput,
+                        baselineThroughput));
+            }
+            if (after.get("errors").asInt() > 0 && before.get("errors").asInt() == 0) {
+                regressions.add(String.format("%s: %d errors, baseline none", route.getKey(),
+                        after.get("errors").asInt()));
+            }
+        }
+        return regressions;
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+}
@@ -0,0 +1,27 @@
+package LoadTest;
+
+/**
+ * The requests a workload is made of, each reported as its own route.
+ */
+public enum Operation {
+    REGISTER("POST /register"),
+    LOGIN("POST /login"),
+    POST("POST /messages"),
+    READ("GET /messages/{id}"),
+    LIST("GET /messages?limit"),
+    PATCH("PATCH /messages/{id}"),
+    DELETE("DELETE /messages/{id}");
+
+    private final String route;
+
+    Operation(String route) {
+        this.route = route;
+    }
+
+    /**
+     * @return the method and path template the operation is reported under.
+     */
+    public String route() {
+        return route;
+    }
+}
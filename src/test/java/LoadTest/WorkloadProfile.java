@@ -0,0 +1,89 @@
+package LoadTest;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * A weighted mix of operations. The named profiles cover the usual shapes of traffic; any other mix can be given
+ * as "operation:weight,..." in loadtest.mix, e.g. "read:80,post:20".
+ */
+public final class WorkloadProfile {
+
+    private final String name;
+    private final Operation[] operations;
+    private final int[] cumulativeWeights;
+
+    private WorkloadProfile(String name, Map<Operation, Integer> weights) {
+        this.name = name;
+        this.operations = new Operation[weights.size()];
+        this.cumulativeWeights = new int[weights.size()];
+        int i = 0;
+        int total = 0;
+        for (Map.Entry<Operation, Integer> entry : weights.entrySet()) {
+            if (entry.getValue() <= 0) {
+                throw new IllegalArgumentException("The weight of " + entry.getKey() + " must be positive");
+            }
+            total += entry.getValue();
+            operations[i] = entry.getKey();
+            cumulativeWeights[i++] = total;
+        }
+        if (total == 0) {
+            throw new IllegalArgumentException("Profile " + name + " has no operations");
+        }
+    }
+
+    /**
+     * @param name a named profile (read-heavy, mixed, write-heavy), or "custom" with the mix given in mix.
+     * @param mix  the weights of a custom profile, as "operation:weight,...".
+     * @return the profile.
+     * @throws IllegalArgumentException if the profile or the mix is unknown.
+     */
+    public static WorkloadProfile of(String name, String mix) {
+        switch (name) {
+            case "read-heavy":
+                return new WorkloadProfile(name, parse("read:70,list:20,post:5,patch:2,delete:1,login:1,register:1"));
+            case "mixed":
+                return new WorkloadProfile(name, parse("read:40,list:20,post:20,patch:10,delete:5,login:3,register:2"));
+            case "write-heavy":
+                return new WorkloadProfile(name, parse("post:45,patch:20,delete:10,read:15,list:5,login:3,register:2"));
+            case "custom":
+                return new WorkloadProfile(name, parse(mix));
+            default:
+                throw new IllegalArgumentException("Unknown workload profile: " + name);
+        }
+    }
+
+    private static Map<Operation, Integer> parse(String mix) {
+        if (mix == null) {
+            throw new IllegalArgumentException("A custom profile needs loadtest.mix");
+        }
+        Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+        for (String part : mix.split(",")) {
+            String[] pair = part.trim().split(":");
+            if (pair.length != 2) {
+                throw new IllegalArgumentException("Expected operation:weight but got " + part);
+            }
+            weights.put(Operation.valueOf(pair[0].trim().toUpperCase()), Integer.parseInt(pair[1].trim()));
+        }
+        return weights;
+    }
+
+    /**
+     * @param random the source of randomness, seeded for reproducible runs.
+     * @return the next operation, drawn by weight.
+     */
+    public Operation next(Random random) {
+        int draw = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            if (draw < cumulativeWeights[i]) {
+                return operations[i];
+            }
+        }
+        throw new IllegalStateException();
+    }
+
+    public String getName() {
+        return name;
+    }
+}
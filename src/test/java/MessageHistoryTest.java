@@ -0,0 +1,155 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.MessageVersion;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class MessageHistoryTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Updating message 1 twice, then sending an http request to GET localhost:8080/messages/1/history
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: the three versions of the message, newest first; only the current one has no replaced_epoch
+     */
+    @Test
+    public void getHistoryAfterTwoUpdates() throws IOException, InterruptedException {
+        Assert.assertEquals(200, patch("second text", null).statusCode());
+        Assert.assertEquals(200, patch("third text", null).statusCode());
+
+        List<MessageVersion> history = getHistory("/messages/1/history");
+
+        Assert.assertEquals(3, history.size());
+        Assert.assertEquals(3, history.get(0).getVersion());
+        Assert.assertEquals("third text", history.get(0).getMessage_text());
+        Assert.assertNull(history.get(0).getReplaced_epoch());
+        Assert.assertEquals("second text", history.get(1).getMessage_text());
+        Assert.assertNotNull(history.get(1).getReplaced_epoch());
+        Assert.assertEquals(1, history.get(2).getVersion());
+        Assert.assertEquals("test message 1", history.get(2).getMessage_text());
+
+        List<MessageVersion> page = getHistory("/messages/1/history?before=3&limit=1");
+        Assert.assertEquals(1, page.size());
+        Assert.assertEquals(2, page.get(0).getVersion());
+    }
+
+    /**
+     * Sending an http request to PATCH localhost:8080/messages/1 with a matching and then a stale If-Match header
+     *
+     * Expected Response:
+     *  Status Code: 200 with ETag "2" for the first update, 412 for the second one
+     */
+    @Test
+    public void updateWithIfMatch() throws IOException, InterruptedException {
+        HttpResponse<String> first = patch("updated message", "\"1\"");
+        Assert.assertEquals(200, first.statusCode());
+        Assert.assertEquals("\"2\"", first.headers().firstValue("ETag").orElse(null));
+
+        HttpResponse<String> stale = patch("lost update", "\"1\"");
+        Assert.assertEquals(412, stale.statusCode());
+
+        List<MessageVersion> history = getHistory("/messages/1/history");
+        Assert.assertEquals(2, history.size());
+        Assert.assertEquals("updated message", history.get(0).getMessage_text());
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages/1 before and after an update
+     *
+     * Expected Response:
+     *  Status Code: 200 with the message's version in the ETag header, which a conditional update can name, also
+     *  when the response comes from the cache
+     */
+    @Test
+    public void getMessageSendsItsVersion() throws IOException, InterruptedException {
+        Assert.assertEquals("\"1\"", getEtag());
+        Assert.assertEquals("\"1\"", getEtag());
+        Assert.assertEquals(200, patch("updated message", getEtag()).statusCode());
+        Assert.assertEquals("\"2\"", getEtag());
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages/100/history (message id does NOT exist in db)
+     *
+     * Expected Response:
+     *  Status Code: 404
+     */
+    @Test
+    public void getHistoryOfMissingMessage() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/100/history"))
+                .build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(404, response.statusCode());
+    }
+
+    private HttpResponse<String> patch(String text, String ifMatch) throws IOException, InterruptedException {
+        HttpRequest.Builder builder = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/1"))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{"+
+                        "\"message_text\": \"" + text + "\" }"))
+                .header("Content-Type", "application/json");
+        if (ifMatch != null) {
+            builder.header("If-Match", ifMatch);
+        }
+        return webClient.send(builder.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private String getEtag() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/1"))
+                .build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, response.statusCode());
+        return response.headers().firstValue("ETag").orElse(null);
+    }
+
+    private List<MessageVersion> getHistory(String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, response.statusCode());
+        return objectMapper.readValue(response.body(), new TypeReference<List<MessageVersion>>(){});
+    }
+}
@@ -0,0 +1,68 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntToLongFunction;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.MessageJsonModule;
+import Controller.MessageJsonWriter;
+import Model.Message;
+import Model.MessageView;
+
+public class MessageJsonWriterTest {
+    // Message 2 has likes, the others none
+    IntToLongFunction likes = messageId -> messageId == 2 ? 7 : 0;
+    ObjectMapper jackson = new ObjectMapper().registerModule(new MessageJsonModule(likes));
+    MessageJsonWriter writer = new MessageJsonWriter(likes);
+
+    /**
+     * The direct writer produces exactly the bytes Jackson does, for texts that need escaping or multi-byte UTF-8.
+     */
+    @Test
+    public void writesWhatJacksonWrites() throws IOException {
+        List<Message> messages = Arrays.asList(
+                new Message(1, 1, "test message 1", 1669947792L),
+                new Message(2, 3, "quote \" backslash \\ slash / tab \t newline \n nul \u0000 unit \u001f del \u007f"
+                        + " lone \ud83d", 0L),
+                new Message(3, Integer.MAX_VALUE, "caf\u00e9 \u20ac \ud83d\ude00 \u4e2d\u6587", Long.MAX_VALUE),
+                new Message(-4, -5, "", -1669947792L),
+                new Message(5, 1, null, 1L));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.writeMessages(messages, out);
+        Assert.assertEquals(new String(jackson.writeValueAsBytes(messages), StandardCharsets.UTF_8),
+                out.toString(StandardCharsets.UTF_8));
+
+        List<MessageView> views = new ArrayList<>();
+        messages.forEach(message -> views.add(MessageView.of(message)));
+        out.reset();
+        writer.writeViews(views, out);
+        Assert.assertEquals(new String(jackson.writeValueAsBytes(messages), StandardCharsets.UTF_8),
+                out.toString(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * A list larger than the pooled buffer is written whole, and the next one starts from an empty buffer.
+     */
+    @Test
+    public void writesLargeListsAndReusesTheBuffer() throws IOException {
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < 5_000; i++) {
+            messages.add(new Message(i, i % 10, "message number " + i, 1669947792L + i));
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.writeMessages(messages, out);
+        Assert.assertArrayEquals(jackson.writeValueAsBytes(messages), out.toByteArray());
+
+        out.reset();
+        writer.writeMessages(messages.subList(0, 1), out);
+        Assert.assertArrayEquals(jackson.writeValueAsBytes(messages.subList(0, 1)), out.toByteArray());
+    }
+}
@@ -0,0 +1,71 @@
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import DAO.MessageDao;
+import DAO.MessagePurger;
+import Model.Message;
+import Util.ConnectionPool;
+import Util.ConnectionUtil;
+import Util.ShardRouter;
+
+public class MessagePurgeTest {
+    MessageDao messageDao;
+    MessagePurger purger;
+
+    /**
+     * Before every test, reset the database and create a purger without a grace period.
+     */
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+        ShardRouter router = new ShardRouter(
+                new ConnectionPool[] { ConnectionPool.shared("primary", ConnectionUtil::getConnection) }, 1);
+        messageDao = new MessageDao(router);
+        purger = new MessagePurger(router, messageDao, 0);
+    }
+
+    /**
+     * A deleted message disappears from every read at once, while its row stays until the purger removes it
+     * together with its history.
+     */
+    @Test
+    public void deletedMessagesAreHiddenThenPurged() throws Exception {
+        Message message = messageDao.insert(new Message(1, "short lived", 1669947800L));
+        message.setMessage_text("short lived, edited");
+        messageDao.update(message);
+
+        Assert.assertTrue(messageDao.delete(message));
+        // Deleting again changes nothing
+        Assert.assertFalse(messageDao.delete(message));
+        Assert.assertFalse(messageDao.getById(message.getMessage_id()).isPresent());
+        Assert.assertFalse(messageDao.getAll().contains(message));
+        Assert.assertFalse(messageDao.getMessagesByAccountId(1).contains(message));
+        Assert.assertFalse(messageDao.getLatestMessages(10).contains(message));
+        Assert.assertTrue(messageDao.getHistory(message.getMessage_id(), Integer.MAX_VALUE, 10).isEmpty());
+        Assert.assertFalse(messageDao.update(message));
+        Assert.assertEquals(1, count("SELECT COUNT(*) FROM message WHERE message_id = ?", message.getMessage_id()));
+
+        Assert.assertEquals(1, purger.purgeOnce());
+        Assert.assertEquals(0, count("SELECT COUNT(*) FROM message WHERE message_id = ?", message.getMessage_id()));
+        Assert.assertEquals(0, count("SELECT COUNT(*) FROM message_version WHERE message_id = ?",
+                message.getMessage_id()));
+        // The seeded message was never deleted
+        Assert.assertTrue(messageDao.getById(1).isPresent());
+        Assert.assertEquals(0, purger.purgeOnce());
+    }
+
+    private static int count(String sql, int id) throws SQLException {
+        try (PreparedStatement ps = ConnectionUtil.getConnection().prepareStatement(sql)) {
+            ps.setInt(1, id);
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                return rs.getInt(1);
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Model.Message;
+import Model.MessageView;
+import Service.RecentMessagesBuffer;
+
+public class MessageViewTest {
+    RecentMessagesBuffer buffer;
+
+    @Before
+    public void setUp() {
+        buffer = new RecentMessagesBuffer(10);
+        buffer.reset(Arrays.asList(new Message(1, 1, "first", 100L), new Message(2, 1, "second", 200L)));
+    }
+
+    /**
+     * The buffer shares the instances it holds instead of copying them on every read, and they cannot be changed.
+     */
+    @Test
+    public void bufferSharesImmutableViews() {
+        List<MessageView> first = buffer.latest(2).orElseThrow();
+        List<MessageView> second = buffer.latest(2).orElseThrow();
+        Assert.assertSame(first.get(0), second.get(0));
+        Assert.assertEquals(new MessageView(2, 1, "second", 200L), first.get(0));
+        Assert.assertThrows(UnsupportedOperationException.class, () -> first.remove(0));
+
+        // Changing the message a view was made from does not change the view
+        Message message = new Message(3, 1, "third", 300L);
+        buffer.add(message);
+        message.setMessage_text("changed");
+        Assert.assertEquals("third", buffer.latest(1).orElseThrow().get(0).getMessage_text());
+    }
+
+    /**
+     * Once deletions have left a full window short it no longer answers pages larger than what it holds, and a
+     * message older than everything it holds is not appended after a gap.
+     */
+    @Test
+    public void shortWindowDoesNotAnswerLargerPages() {
+        RecentMessagesBuffer small = new RecentMessagesBuffer(3);
+        small.reset(Arrays.asList(new Message(1, 1, "a", 100L), new Message(2, 1, "b", 200L),
+                new Message(3, 1, "c", 300L)));
+        Assert.assertFalse(small.latest(4).isPresent());
+        Assert.assertTrue(small.remove(3));
+        Assert.assertTrue(small.remove(2));
+        Assert.assertEquals(1, small.latest(1).orElseThrow().size());
+        Assert.assertFalse(small.latest(2).isPresent());
+
+        // An older message may have rows between it and the window that the window does not hold
+        small.add(new Message(4, 1, "old", 50L));
+        Assert.assertEquals(1, small.size());
+        small.add(new Message(5, 1, "new", 400L));
+        Assert.assertEquals(2, small.latest(2).orElseThrow().size());
+
+        // The setUp window holds the whole table, so it answers any page
+        Assert.assertEquals(2, buffer.latest(5).orElseThrow().size());
+    }
+
+    /**
+     * Equal short texts are held once, however they were built.
+     */
+    @Test
+    public void repeatedTextsAreCanonicalized() {
+        MessageView a = new MessageView(1, 1, new String("good morning"), 100L);
+        MessageView b = new MessageView(2, 2, new String("good morning"), 200L);
+        Assert.assertSame(a.getMessage_text(), b.getMessage_text());
+    }
+}
@@ -0,0 +1,152 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import DAO.MessageDao;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class MultiGetMessagesTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, add messages 2 to 4, restart the Javalin app, and create a new
+     * webClient and ObjectMapper for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException, SQLException {
+        ConnectionUtil.resetTestDatabase();
+        insertMessages(3);
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages?ids=3,1,99,3,2, after message 1 has been read once
+     * on its own
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: messages 3, 1 and 2 in that order; the unknown ID and the repeated one are left out, and the
+     *  message read before is the same as on its own
+     */
+    @Test
+    public void getMessagesByIdsInRequestOrder() throws IOException, InterruptedException {
+        HttpResponse<String> single = send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/1")).build());
+
+        HttpResponse<String> response = send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages?ids=3,1,99,3,2")).build());
+        Assert.assertEquals(200, response.statusCode());
+        List<Message> messages = objectMapper.readValue(response.body(), new TypeReference<List<Message>>() {
+        });
+        Assert.assertEquals(3, messages.size());
+        Assert.assertEquals(3, messages.get(0).getMessage_id());
+        Assert.assertEquals(1, messages.get(1).getMessage_id());
+        Assert.assertEquals(2, messages.get(2).getMessage_id());
+        Assert.assertEquals(objectMapper.readValue(single.body(), Message.class), messages.get(1));
+
+        HttpResponse<String> badId = send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages?ids=1,x")).build());
+        Assert.assertEquals(400, badId.statusCode());
+    }
+
+    /**
+     * Sending an http request to POST localhost:8080/messages/lookup with {"ids": [4, 2]}, then deleting message 4
+     * and asking again
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: messages 4 and 2, then only message 2
+     */
+    @Test
+    public void lookUpMessagesByPost() throws IOException, InterruptedException {
+        Assert.assertEquals("[4, 2]", ids(lookUp("{\"ids\": [4, 2]}")));
+
+        HttpResponse<String> deleted = send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/4")).DELETE().build());
+        Assert.assertEquals(200, deleted.statusCode());
+        Assert.assertEquals("[2]", ids(lookUp("{\"ids\": [4, 2]}")));
+
+        Assert.assertEquals(400, lookUp("{\"ids\": \"4,2\"}").statusCode());
+    }
+
+    /**
+     * The DAO looks up more IDs than fit in one query, in chunks, and returns them in the order asked for.
+     */
+    @Test
+    public void getByIdsAcrossChunks() throws SQLException {
+        insertMessages(250);
+        List<Integer> ids = new ArrayList<>();
+        for (int id = 254; id >= 1; id--) {
+            ids.add(id);
+        }
+        List<Message> messages = new MessageDao().getByIds(ids);
+        Assert.assertEquals(254, messages.size());
+        for (int i = 0; i < messages.size(); i++) {
+            Assert.assertEquals((int) ids.get(i), messages.get(i).getMessage_id());
+        }
+    }
+
+    private HttpResponse<String> lookUp(String body) throws IOException, InterruptedException {
+        return send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/lookup"))
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .build());
+    }
+
+    private HttpResponse<String> send(HttpRequest request) throws IOException, InterruptedException {
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private String ids(HttpResponse<String> response) throws IOException {
+        Assert.assertEquals(200, response.statusCode());
+        List<Integer> ids = new ArrayList<>();
+        for (Message message : objectMapper.readValue(response.body(), new TypeReference<List<Message>>() {
+        })) {
+            ids.add(message.getMessage_id());
+        }
+        return ids.toString();
+    }
+
+    private static void insertMessages(int count) throws SQLException {
+        try (PreparedStatement ps = ConnectionUtil.getConnection().prepareStatement(
+                "insert into message (posted_by, message_text, time_posted_epoch) values (1, ?, ?)")) {
+            for (int i = 0; i < count; i++) {
+                ps.setString(1, "another message " + i);
+                ps.setLong(2, 1669947793L + i);
+                ps.executeUpdate();
+            }
+        }
+    }
+}
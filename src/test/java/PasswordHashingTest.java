@@ -0,0 +1,154 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import DAO.AccountDao;
+import Model.Account;
+import Service.AccountService;
+import Service.PasswordHasher;
+import Service.PasswordService;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class PasswordHashingTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Registering a new user, then logging in with the same credentials
+     *
+     * Expected Result:
+     *  Only a hash of the password is stored, and the login succeeds with status 200
+     */
+    @Test
+    public void registeredPasswordIsHashed() throws IOException, InterruptedException, SQLException {
+        HttpResponse<String> registration = post("/register", "user", "password");
+        Assert.assertEquals(200, registration.statusCode());
+
+        Assert.assertNotEquals("password", storedPassword("user"));
+
+        HttpResponse<String> login = post("/login", "user", "password");
+        Assert.assertEquals(200, login.statusCode());
+        Assert.assertEquals(new Account(2, "user", "password"), objectMapper.readValue(login.body(), Account.class));
+    }
+
+    /**
+     * Logging in as the seeded user, whose password is stored in plaintext
+     *
+     * Expected Result:
+     *  The login succeeds and the stored plaintext is replaced by a hash; logging in again still succeeds
+     */
+    @Test
+    public void legacyPasswordIsRehashedOnLogin() throws IOException, InterruptedException, SQLException {
+        Assert.assertEquals("password", storedPassword("testuser1"));
+
+        Assert.assertEquals(200, post("/login", "testuser1", "password").statusCode());
+        Assert.assertNotEquals("password", storedPassword("testuser1"));
+
+        Assert.assertEquals(200, post("/login", "testuser1", "password").statusCode());
+        Assert.assertEquals(401, post("/login", "testuser1", "wrong-password").statusCode());
+    }
+
+    /**
+     * Logging in with a username that has no account
+     *
+     * Expected Result:
+     *  The login fails, after verifying the password on the pool as a wrong password for a real account would
+     */
+    @Test
+    public void unknownUsernameCostsAVerification() {
+        PasswordHasher hasher = Mockito.spy(new PasswordHasher(1_000));
+        AccountService accountService = new AccountService(new AccountDao(),
+                new PasswordService(hasher, 1, 4, 2_000, 60, 100));
+
+        Assert.assertFalse(accountService.validateLogin(new Account("nobody", "password")).isPresent());
+        Mockito.verify(hasher).verify(Mockito.eq("password"), Mockito.startsWith("pbkdf2-sha256$1000$"));
+    }
+
+    /**
+     * Registering while the password pool cannot finish any hash within its timeout
+     *
+     * Expected Response:
+     *  Status Code: 503
+     *  Response Headers: Retry-After
+     */
+    @Test
+    public void saturatedPasswordPoolAnswers503() throws IOException, InterruptedException {
+        app.stop();
+        System.setProperty("password.pool.threads", "1");
+        System.setProperty("password.pool.timeout-ms", "1");
+        try {
+            socialMediaController = new SocialMediaController();
+            app = socialMediaController.startAPI();
+            app.start(8080);
+        } finally {
+            System.clearProperty("password.pool.threads");
+            System.clearProperty("password.pool.timeout-ms");
+        }
+
+        HttpResponse<String> registration = post("/register", "user", "password");
+        Assert.assertEquals(503, registration.statusCode());
+        Assert.assertEquals("1", registration.headers().firstValue("Retry-After").orElse(null));
+    }
+
+    private HttpResponse<String> post(String path, String username, String password)
+            throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .POST(HttpRequest.BodyPublishers.ofString("{" +
+                        "\"username\": \"" + username + "\", " +
+                        "\"password\": \"" + password + "\" }"))
+                .header("Content-Type", "application/json")
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private String storedPassword(String username) throws SQLException {
+        Connection conn = ConnectionUtil.getConnection();
+        try (PreparedStatement ps = conn.prepareStatement("select password from account where username = ?")) {
+            ps.setString(1, username);
+            try (ResultSet rs = ps.executeQuery()) {
+                Assert.assertTrue(rs.next());
+                return rs.getString(1);
+            }
+        }
+    }
+}
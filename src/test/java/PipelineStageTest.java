@@ -0,0 +1,143 @@
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import Util.PipelineStage;
+
+public class PipelineStageTest {
+
+    /**
+     * Each job goes through every stage in order, and a step that throws fails its job without stopping the
+     * stage.
+     */
+    @Test
+    public void jobsGoThroughEveryStage() throws Exception {
+        PipelineStage<StringBuilder> last = new PipelineStage<>("last", 1, 4, job -> job.append("b"), null);
+        PipelineStage<StringBuilder> first = new PipelineStage<>("first", 2, 4, job -> {
+            if (job.length() > 0) {
+                throw new IllegalArgumentException("not empty");
+            }
+            job.append("a");
+        }, last);
+        try {
+            Assert.assertEquals("ab", first.offer(new StringBuilder()).get(5, TimeUnit.SECONDS).toString());
+            try {
+                first.offer(new StringBuilder("x")).get(5, TimeUnit.SECONDS);
+                Assert.fail("The failed job completed");
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof IllegalArgumentException);
+            }
+            Assert.assertEquals("ab", first.offer(new StringBuilder()).get(5, TimeUnit.SECONDS).toString());
+            Assert.assertEquals(1L, first.describe().get("failed"));
+            Assert.assertEquals(2L, last.describe().get("processed"));
+        } finally {
+            first.stop();
+        }
+    }
+
+    /**
+     * A stalled last stage fills its queue, the stage before it then waits for room with a full queue of its own,
+     * and only then are new jobs refused at the entry; once the last stage resumes every accepted job completes.
+     */
+    @Test
+    public void stalledStageRefusesJobsAtTheEntry() throws Exception {
+        CountDownLatch stalled = new CountDownLatch(1);
+        PipelineStage<Integer> last = new PipelineStage<>("last", 1, 1, job -> {
+            try {
+                stalled.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, null);
+        PipelineStage<Integer> first = new PipelineStage<>("first", 1, 1, job -> { }, last);
+        try {
+            // One job in the last stage's step, one in its queue, one waiting in first's worker, one in first's queue
+            CompletableFuture<?>[] accepted = new CompletableFuture<?>[4];
+            for (int i = 0; i < accepted.length; i++) {
+                accepted[i] = offerWhenThereIsRoom(first, i);
+            }
+            long refusedBefore = (Long) first.describe().get("refused");
+            Assert.assertNull(first.offer(4));
+            Map<String, Object> entry = first.describe();
+            Assert.assertEquals(refusedBefore + 1, entry.get("refused"));
+            Assert.assertEquals(1, entry.get("queued"));
+
+            stalled.countDown();
+            CompletableFuture.allOf(accepted).get(5, TimeUnit.SECONDS);
+            Assert.assertEquals(4L, last.describe().get("processed"));
+        } finally {
+            first.stop();
+        }
+    }
+
+    /**
+     * A step throwing an Error fails its job and the worker goes on; stopping the stage fails the jobs still
+     * queued instead of leaving them waiting, and refuses new ones.
+     */
+    @Test
+    public void errorsFailTheJobAndStopFailsTheQueue() throws Exception {
+        CountDownLatch stalled = new CountDownLatch(1);
+        PipelineStage<Integer> stage = new PipelineStage<>("only", 1, 4, job -> {
+            if (job == 0) {
+                throw new StackOverflowError();
+            }
+            if (job == 2) {
+                try {
+                    stalled.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, null);
+        try {
+            try {
+                stage.offer(0).get(5, TimeUnit.SECONDS);
+                Assert.fail("The failed job completed");
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof StackOverflowError);
+            }
+            Assert.assertEquals(1, (int) stage.offer(1).get(5, TimeUnit.SECONDS));
+
+            CompletableFuture<Integer> running = stage.offer(2);
+            while ((Integer) stage.describe().get("busy") == 0) {
+                Thread.sleep(5);
+            }
+            CompletableFuture<Integer> queued = stage.offer(3);
+            stage.stop();
+            try {
+                queued.get(5, TimeUnit.SECONDS);
+                Assert.fail("A queued job completed after the stop");
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof RejectedExecutionException);
+            }
+            Assert.assertNull(stage.offer(4));
+            // The job being processed is finished
+            Assert.assertEquals(2, (int) running.get(5, TimeUnit.SECONDS));
+        } finally {
+            stalled.countDown();
+            stage.stop();
+        }
+    }
+
+    // The stages fill asynchronously, so a job may find the entry queue not yet drained into the next stage
+    private static CompletableFuture<Integer> offerWhenThereIsRoom(PipelineStage<Integer> stage, int job)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (System.nanoTime() < deadline) {
+            CompletableFuture<Integer> done = stage.offer(job);
+            if (done != null) {
+                // Let the workers move it along before the next offer
+                Thread.sleep(50);
+                return done;
+            }
+            Thread.sleep(10);
+        }
+        throw new AssertionError("Job " + job + " was never accepted");
+    }
+}
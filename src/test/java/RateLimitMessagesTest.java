@@ -0,0 +1,157 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class RateLimitMessagesTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Sending a burst of http requests to POST localhost:8080/messages for the same account, well above its
+     * default burst of 20
+     *
+     * Expected Response:
+     *  Status Code: 200 until the account's bucket is empty, then 429
+     *  Response Headers: X-RateLimit-Limit, X-RateLimit-Remaining and Retry-After
+     */
+    @Test
+    public void createMessageRateLimited() throws IOException, InterruptedException {
+        HttpResponse<String> limited = null;
+        for (int i = 0; i < 60 && limited == null; i++) {
+            HttpRequest postMessageRequest = HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:8080/messages"))
+                    .POST(HttpRequest.BodyPublishers.ofString("{"+
+                            "\"posted_by\":1, " +
+                            "\"message_text\": \"burst message " + i + "\", " +
+                            "\"time_posted_epoch\": 1669947792}"))
+                    .header("Content-Type", "application/json")
+                    .build();
+            HttpResponse<String> response = webClient.send(postMessageRequest, HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() == 429) {
+                limited = response;
+            } else {
+                Assert.assertEquals(200, response.statusCode());
+                Assert.assertEquals("20", response.headers().firstValue("X-RateLimit-Limit").orElse(null));
+                Assert.assertTrue(response.headers().firstValue("X-RateLimit-Remaining").isPresent());
+            }
+        }
+
+        Assert.assertNotNull(limited);
+        Assert.assertEquals("", limited.body());
+        Assert.assertEquals("20", limited.headers().firstValue("X-RateLimit-Limit").orElse(null));
+        Assert.assertEquals("0", limited.headers().firstValue("X-RateLimit-Remaining").orElse(null));
+        Assert.assertTrue(limited.headers().firstValue("Retry-After").isPresent());
+    }
+
+    /**
+     * Sending http requests to POST localhost:8080/messages while the database is held in exclusive mode, so that
+     * the creation pipeline, given one worker and a queue of one per stage, cannot drain
+     *
+     * Expected Response:
+     *  Status Code: 503 with a Retry-After header once the pipeline is full, then 200 for every request it took once
+     *  the database is released
+     */
+    @Test
+    public void createMessageRefusedWhenPipelineFull() throws Exception {
+        app.stop();
+        String[] settings = { "admission.enabled", "messages.pipeline.decode.workers",
+                "messages.pipeline.decode.queue", "messages.pipeline.validate.queue",
+                "messages.pipeline.authorize.workers", "messages.pipeline.authorize.queue",
+                "messages.pipeline.persist.workers", "messages.pipeline.persist.queue",
+                "messages.pipeline.notify.queue" };
+        for (String setting : settings) {
+            System.setProperty(setting, setting.startsWith("admission") ? "false" : "1");
+        }
+        try {
+            app = new SocialMediaController().startAPI();
+        } finally {
+            for (String setting : settings) {
+                System.clearProperty(setting);
+            }
+        }
+        app.start(8080);
+
+        List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+        try (Connection exclusive = DriverManager.getConnection("jdbc:h2:./h2/db", "sa", "sa");
+                Statement statement = exclusive.createStatement()) {
+            statement.execute("SET EXCLUSIVE 1");
+            try {
+                for (int i = 0; i < 15; i++) {
+                    HttpRequest postMessageRequest = HttpRequest.newBuilder()
+                            .uri(URI.create("http://localhost:8080/messages"))
+                            .POST(HttpRequest.BodyPublishers.ofString("{"+
+                                    "\"posted_by\":1, " +
+                                    "\"message_text\": \"queued message " + i + "\", " +
+                                    "\"time_posted_epoch\": 1669947792}"))
+                            .header("Content-Type", "application/json")
+                            .build();
+                    responses.add(webClient.sendAsync(postMessageRequest, HttpResponse.BodyHandlers.ofString()));
+                }
+                // The refused requests are answered at once; the others wait for the database
+                long deadline = System.currentTimeMillis() + 10_000;
+                while (responses.stream().noneMatch(CompletableFuture::isDone)
+                        && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(50);
+                }
+            } finally {
+                statement.execute("SET EXCLUSIVE 0");
+            }
+        }
+
+        int refused = 0;
+        for (CompletableFuture<HttpResponse<String>> future : responses) {
+            HttpResponse<String> response = future.get(30, TimeUnit.SECONDS);
+            if (response.statusCode() == 503) {
+                refused++;
+                Assert.assertEquals("1", response.headers().firstValue("Retry-After").orElse(null));
+            } else {
+                Assert.assertEquals(200, response.statusCode());
+            }
+        }
+        Assert.assertTrue(refused > 0);
+        Assert.assertTrue(refused < responses.size());
+    }
+}
@@ -0,0 +1,224 @@
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.AuthFilter;
+import Controller.ConsistencyFilter;
+import Controller.MessageCreationPipeline;
+import Controller.RateLimitFilter;
+import DAO.AccountDao;
+import DAO.MessageDao;
+import DAO.Query;
+import DAO.ReadConsistency;
+import DAO.ReplicaSet;
+import Model.Account;
+import Model.Message;
+import Service.AccountService;
+import Service.MessageService;
+import Service.SessionTokenService;
+import Util.ConnectionPool;
+import Util.ConnectionUtil;
+import Util.ShardRouter;
+import io.javalin.http.Context;
+import io.javalin.http.HandlerType;
+
+public class ReadReplicaTest {
+    ConnectionPool replicaPool;
+    ReplicaSet replicas;
+    AccountDao accountDao;
+    MessageDao messageDao;
+
+    /**
+     * Before every test, reset the primary database and start one file-backed replica of it.
+     */
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+        replicaPool = new ConnectionPool("replica-test", "jdbc:h2:./h2/test-replica", "sa", "sa", 2, 1000);
+        replicas = new ReplicaSet(ConnectionPool.shared("primary", ConnectionUtil::getConnection),
+                new ConnectionPool[] { replicaPool }, 1000, 64);
+        replicas.start();
+        accountDao = new AccountDao(replicas);
+        messageDao = new MessageDao(new ShardRouter(new ConnectionPool[] { replicas.primary() }, 1), replicas);
+        ReadConsistency.clear();
+    }
+
+    @After
+    public void tearDown() {
+        ReadConsistency.clear();
+        replicas.stop();
+        replicaPool.close();
+    }
+
+    /**
+     * The replica starts as a copy of the primary, and writes made afterwards are shipped to it and visible to the
+     * writer straight away.
+     */
+    @Test
+    public void writesAreShippedAndReadBack() throws Exception {
+        Assert.assertEquals(1, countOnReplica("account"));
+        Assert.assertEquals(1, countOnReplica("message"));
+
+        Account account = accountDao.insert(new Account("replicated", "password"));
+        Message message = messageDao.insert(new Message(account.getAccount_id(), "shipped", 1669947800L));
+        Assert.assertTrue(ReadConsistency.lastWrite() > 0);
+
+        // Read-your-writes: this thread requires the position of its own write
+        Assert.assertEquals(message, messageDao.getById(message.getMessage_id()).orElse(null));
+        Assert.assertEquals(account, accountDao.findAccountByUsername("replicated").orElse(null));
+
+        Assert.assertEquals(0L, replicaLag());
+        Assert.assertEquals(2, countOnReplica("account"));
+        Assert.assertEquals(2, countOnReplica("message"));
+
+        messageDao.delete(message);
+        Assert.assertFalse(messageDao.getById(message.getMessage_id()).isPresent());
+        Assert.assertEquals(1, countOnReplica("message"));
+    }
+
+    /**
+     * The replica keeps each message's version, so a message read from it carries the version its ETag names.
+     */
+    @Test
+    public void versionsAreShipped() throws Exception {
+        Message message = messageDao.insert(new Message(1, "first", 1669947800L));
+        message.setMessage_text("second");
+        Assert.assertTrue(messageDao.update(message));
+        message.setMessage_text("third");
+        Assert.assertTrue(messageDao.update(message, 2));
+        for (int i = 0; i < 100 && replicaLag() > 0; i++) {
+            Thread.sleep(10);
+        }
+
+        Assert.assertEquals(1, countOnReplica("message WHERE message_id = " + message.getMessage_id()
+                + " AND version = 3"));
+        MessageDao.VersionedMessage read = messageDao.getVersionedById(message.getMessage_id()).get();
+        Assert.assertEquals(message, read.getMessage());
+        Assert.assertEquals(3, read.getVersion());
+    }
+
+    /**
+     * A request that writes with a bearer token holds the account's later reads to that write, even a GET sending
+     * the same token and no X-Consistency-Token header; a GET without the token is not held to it.
+     */
+    @Test
+    public void tokenHoldsReadsToTheAccountsLastWrite() throws Exception {
+        // Never started, so the replica applies nothing and the account's write stays ahead of it
+        ReplicaSet lagging = new ReplicaSet(ConnectionPool.shared("primary", ConnectionUtil::getConnection),
+                new ConnectionPool[] { replicaPool }, 0, 64);
+        SessionTokenService tokens = new SessionTokenService();
+        AuthFilter authFilter = new AuthFilter(tokens);
+        ConsistencyFilter consistencyFilter = new ConsistencyFilter(lagging);
+        String authorization = "Bearer " + tokens.issue(1);
+
+        Context post = request(HandlerType.POST, "/messages", authorization);
+        authFilter.authenticate(post);
+        consistencyFilter.before(post);
+        lagging.write(() -> 1, written -> ReplicaSet.Change.of(Query.MESSAGE_DELETE, 0));
+        long lsn = ReadConsistency.lastWrite();
+        Assert.assertTrue(lsn > 0);
+        consistencyFilter.after(post);
+        Mockito.verify(post).header("X-Consistency-Token", Long.toString(lsn));
+
+        Context get = request(HandlerType.GET, "/messages/1", authorization);
+        authFilter.authenticate(get);
+        consistencyFilter.before(get);
+        Assert.assertEquals(lsn, ReadConsistency.required());
+        consistencyFilter.after(get);
+
+        Context anonymous = request(HandlerType.GET, "/messages/1", null);
+        authFilter.authenticate(anonymous);
+        consistencyFilter.before(anonymous);
+        Assert.assertEquals(0, ReadConsistency.required());
+        consistencyFilter.after(anonymous);
+    }
+
+    /**
+     * A message created by the pipeline is inserted on a worker thread, yet its log position comes back to the
+     * request for the X-Consistency-Token header, and the account's next GET is held to it and reads the message.
+     */
+    @Test
+    public void createdMessageHoldsTheNextReadToItsWrite() throws Exception {
+        ReplicaSet lagging = new ReplicaSet(ConnectionPool.shared("primary", ConnectionUtil::getConnection),
+                new ConnectionPool[] { replicaPool }, 0, 64);
+        MessageDao laggingMessages = new MessageDao(
+                new ShardRouter(new ConnectionPool[] { lagging.primary() }, 1), lagging);
+        MessageCreationPipeline pipeline = new MessageCreationPipeline(new ObjectMapper(),
+                new AccountService(new AccountDao(lagging)), new MessageService(laggingMessages),
+                new RateLimitFilter());
+        SessionTokenService tokens = new SessionTokenService();
+        AuthFilter authFilter = new AuthFilter(tokens);
+        ConsistencyFilter consistencyFilter = new ConsistencyFilter(lagging);
+        String authorization = "Bearer " + tokens.issue(1);
+        try {
+            Context post = request(HandlerType.POST, "/messages", authorization);
+            authFilter.authenticate(post);
+            consistencyFilter.before(post);
+            MessageCreationPipeline.Creation creation = pipeline.submit(
+                    "{\"posted_by\": 1, \"message_text\": \"staged\", \"time_posted_epoch\": 1669947800}"
+                            .getBytes(StandardCharsets.UTF_8), AuthFilter.authenticatedAccount(post));
+            creation.getDone().get(5, TimeUnit.SECONDS);
+            // The write was made on a worker, so only the creation knows its position
+            Assert.assertEquals(0, ReadConsistency.lastWrite());
+            long lsn = creation.getWriteLsn();
+            Assert.assertTrue(lsn > 0);
+            consistencyFilter.noteWrite(post, lsn);
+            consistencyFilter.after(post);
+            Mockito.verify(post).header("X-Consistency-Token", Long.toString(lsn));
+
+            Context get = request(HandlerType.GET, "/messages/" + creation.getCreated().getMessage_id(),
+                    authorization);
+            authFilter.authenticate(get);
+            consistencyFilter.before(get);
+            Assert.assertEquals(lsn, ReadConsistency.required());
+            Assert.assertEquals(creation.getCreated(),
+                    laggingMessages.getById(creation.getCreated().getMessage_id()).orElse(null));
+            consistencyFilter.after(get);
+        } finally {
+            pipeline.stop();
+        }
+    }
+
+    // A context of the given request which keeps its attributes
+    private static Context request(HandlerType method, String path, String authorization) {
+        Context ctx = Mockito.mock(Context.class);
+        Map<String, Object> attributes = new HashMap<>();
+        Mockito.when(ctx.method()).thenReturn(method);
+        Mockito.when(ctx.path()).thenReturn(path);
+        Mockito.when(ctx.header("Authorization")).thenReturn(authorization);
+        Mockito.doAnswer(call -> attributes.put(call.getArgument(0), call.getArgument(1)))
+                .when(ctx).attribute(Mockito.anyString(), Mockito.any());
+        Mockito.when(ctx.attribute(Mockito.anyString())).thenAnswer(call -> attributes.get(call.getArgument(0)));
+        return ctx;
+    }
+
+    @SuppressWarnings("unchecked")
+    private long replicaLag() {
+        List<Map<String, Object>> described = (List<Map<String, Object>>) replicas.describe().get("replicas");
+        return ((Number) described.get(0).get("lag")).longValue();
+    }
+
+    private int countOnReplica(String table) throws Exception {
+        Connection conn = replicaPool.borrow();
+        try (Statement statement = conn.createStatement();
+                ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM " + table)) {
+            rs.next();
+            return rs.getInt(1);
+        } finally {
+            replicaPool.release(conn);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Controller.ResponseCache;
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class ResponseCacheTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient for interacting
+     * locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Reading GET localhost:8080/messages/1 and GET localhost:8080/accounts/1/messages, changing the row behind the
+     * application's back, reading again, then updating the message with PATCH localhost:8080/messages/1
+     *
+     * Expected Response:
+     *  The second reads are served from the cache and still show the old text; after the update both show the new
+     *  text
+     */
+    @Test
+    public void cachedUntilTheMessageChanges() throws IOException, InterruptedException, SQLException {
+        Assert.assertTrue(get("/messages/1").body().contains("test message 1"));
+        Assert.assertTrue(get("/accounts/1/messages").body().contains("test message 1"));
+
+        setTextInDatabase(1, "changed in the database");
+        Assert.assertTrue(get("/messages/1").body().contains("test message 1"));
+        Assert.assertTrue(get("/accounts/1/messages").body().contains("test message 1"));
+
+        HttpRequest patch = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/1"))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\": \"updated message\"}"))
+                .header("Content-Type", "application/json")
+                .build();
+        Assert.assertEquals(200, webClient.send(patch, HttpResponse.BodyHandlers.ofString()).statusCode());
+        Assert.assertTrue(get("/messages/1").body().contains("updated message"));
+        Assert.assertTrue(get("/accounts/1/messages").body().contains("updated message"));
+    }
+
+    /**
+     * Sending GET localhost:8080/accounts/1/messages for a feed larger than the gzip threshold, with and without
+     * Accept-Encoding: gzip
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: gzipped once, with Content-Encoding: gzip, when the client accepts it; the same JSON either way
+     */
+    @Test
+    public void largeResponsesAreGzippedForClientsThatAcceptIt() throws IOException, InterruptedException,
+            SQLException {
+        Connection connection = ConnectionUtil.getConnection();
+        try (PreparedStatement ps = connection.prepareStatement(
+                "insert into message (posted_by, message_text, time_posted_epoch) values (1, ?, ?)")) {
+            for (int i = 0; i < 50; i++) {
+                ps.setString(1, "a message long enough to make the feed worth compressing, number " + i);
+                ps.setLong(2, 1669947793L + i);
+                ps.executeUpdate();
+            }
+        }
+
+        HttpResponse<String> plain = get("/accounts/1/messages");
+        Assert.assertFalse(plain.headers().firstValue("Content-Encoding").isPresent());
+        for (int i = 0; i < 2; i++) {
+            HttpRequest request = HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:8080/accounts/1/messages"))
+                    .header("Accept-Encoding", "gzip")
+                    .build();
+            HttpResponse<byte[]> gzipped = webClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+            Assert.assertEquals("gzip", gzipped.headers().firstValue("Content-Encoding").orElse(null));
+            try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzipped.body()))) {
+                Assert.assertEquals(plain.body(), new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    /**
+     * The cache holds at most its byte limit, evicting the least recently used response first, and does not store
+     * a response loaded before its key changed.
+     */
+    @Test
+    public void boundedByBytesAndVersioned() {
+        // Room for two 100-byte responses with their overhead, not three
+        ResponseCache cache = new ResponseCache(500, 1000, 1500);
+        long first = ResponseCache.messageKey(1);
+        long second = ResponseCache.messageKey(2);
+        long third = ResponseCache.messageKey(3);
+        cache.put(first, cache.version(first), new byte[100]);
+        cache.put(second, cache.version(second), new byte[100]);
+        Assert.assertNotNull(cache.get(first));
+        cache.put(third, cache.version(third), new byte[100]);
+        Assert.assertNotNull(cache.get(first));
+        Assert.assertNull(cache.get(second));
+        Assert.assertNotNull(cache.get(third));
+
+        long feed = ResponseCache.feedKey(1);
+        long version = cache.version(feed);
+        cache.messageChanged(4, 1);
+        cache.put(feed, version, new byte[10]);
+        Assert.assertNull(cache.get(feed));
+        cache.put(feed, cache.version(feed), new byte[10]);
+        Assert.assertNotNull(cache.get(feed));
+    }
+
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder().uri(URI.create("http://localhost:8080" + path)).build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, response.statusCode());
+        return response;
+    }
+
+    private static void setTextInDatabase(int messageId, String text) throws SQLException {
+        try (PreparedStatement ps = ConnectionUtil.getConnection()
+                .prepareStatement("update message set message_text = ? where message_id = ?")) {
+            ps.setString(1, text);
+            ps.setInt(2, messageId);
+            ps.executeUpdate();
+        }
+    }
+}
@@ -0,0 +1,144 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class RetrieveMessagesByTimeTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Posting messages at three later times, then sending an http request to
+     * GET localhost:8080/messages?since=1669947793&until=1669947795&limit=2
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: the two newest messages inside the range, newest first
+     */
+    @Test
+    public void getMessagesInTimeRange() throws IOException, InterruptedException {
+        postMessage("second", 1669947793);
+        postMessage("third", 1669947794);
+        postMessage("fourth", 1669947795);
+
+        List<Message> actualResult = get("/messages?since=1669947793&until=1669947795&limit=2");
+
+        List<Message> expectedResult = new ArrayList<>();
+        expectedResult.add(new Message(4, 1, "fourth", 1669947795));
+        expectedResult.add(new Message(3, 1, "third", 1669947794));
+        Assert.assertEquals(expectedResult, actualResult);
+    }
+
+    /**
+     * Posting a message, then sending an http request to GET localhost:8080/messages/recent?limit=2
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: the new message followed by the seeded one
+     */
+    @Test
+    public void getRecentMessages() throws IOException, InterruptedException {
+        postMessage("newest", 1669947800);
+
+        List<Message> actualResult = get("/messages/recent?limit=2");
+
+        List<Message> expectedResult = new ArrayList<>();
+        expectedResult.add(new Message(2, 1, "newest", 1669947800));
+        expectedResult.add(new Message(1, 1, "test message 1", 1669947792));
+        Assert.assertEquals(expectedResult, actualResult);
+    }
+
+    /**
+     * With a window of two messages, deleting the newest one and asking for two still returns two, and a message
+     * posted afterwards is followed by the next newest rather than a gap.
+     */
+    @Test
+    public void getRecentMessagesAfterDeletes() throws IOException, InterruptedException {
+        app.stop();
+        System.setProperty("messages.recent.capacity", "2");
+        try {
+            socialMediaController = new SocialMediaController();
+            app = socialMediaController.startAPI();
+            app.start(8080);
+        } finally {
+            System.clearProperty("messages.recent.capacity");
+        }
+        postMessage("second", 1669947793);
+        postMessage("third", 1669947794);
+        HttpRequest delete = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/3"))
+                .DELETE()
+                .build();
+        Assert.assertEquals(200, webClient.send(delete, HttpResponse.BodyHandlers.ofString()).statusCode());
+
+        List<Message> expectedResult = new ArrayList<>();
+        expectedResult.add(new Message(2, 1, "second", 1669947793));
+        expectedResult.add(new Message(1, 1, "test message 1", 1669947792));
+        Assert.assertEquals(expectedResult, get("/messages/recent?limit=2"));
+
+        postMessage("fourth", 1669947795);
+        expectedResult.add(0, new Message(4, 1, "fourth", 1669947795));
+        Assert.assertEquals(expectedResult, get("/messages/recent?limit=3"));
+    }
+
+    private void postMessage(String text, long epoch) throws IOException, InterruptedException {
+        HttpRequest postMessageRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{"+
+                        "\"posted_by\":1, " +
+                        "\"message_text\": \"" + text + "\", " +
+                        "\"time_posted_epoch\": " + epoch + "}"))
+                .header("Content-Type", "application/json")
+                .build();
+        HttpResponse<String> response = webClient.send(postMessageRequest, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, response.statusCode());
+    }
+
+    private List<Message> get(String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, response.statusCode());
+        return objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+    }
+}
@@ -0,0 +1,70 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Util.ConnectionUtil;
+import Util.SchemaInitializer;
+
+public class SchemaInitializerTest {
+    Connection conn;
+
+    /**
+     * Before every test, reset the test database and open an empty in-memory database.
+     */
+    @Before
+    public void setUp() throws SQLException {
+        ConnectionUtil.resetTestDatabase();
+        conn = DriverManager.getConnection("jdbc:h2:mem:schema-initializer-test", "sa", "sa");
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        conn.close();
+    }
+
+    /**
+     * The production schema is applied once, then only checked.
+     */
+    @Test
+    public void schemaIsAppliedOnce() throws SQLException {
+        Assert.assertTrue(SchemaInitializer.ensure(conn));
+        Assert.assertFalse(SchemaInitializer.ensure(conn));
+    }
+
+    /**
+     * The production schema creates the same columns as the test schema, so the two scripts cannot drift apart.
+     */
+    @Test
+    public void schemaMatchesTestSchema() throws SQLException {
+        SchemaInitializer.ensure(conn);
+        String[] tables = { "ACCOUNT", "MESSAGE", "MESSAGE_VERSION", "ACCOUNT_STATS", "MESSAGE_REACTION",
+                "MESSAGE_REACTION_COUNT" };
+        for (String table : tables) {
+            Assert.assertEquals(table, columns(ConnectionUtil.getConnection(), table), columns(conn, table));
+        }
+    }
+
+    private static List<String> columns(Connection conn, String table) throws SQLException {
+        List<String> columns = new ArrayList<>();
+        try (PreparedStatement ps = conn.prepareStatement("SELECT column_name, data_type, is_nullable "
+                + "FROM information_schema.columns WHERE table_schema = 'PUBLIC' AND table_name = ? "
+                + "ORDER BY ordinal_position")) {
+            ps.setString(1, table);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    columns.add(rs.getString(1) + " " + rs.getString(2) + " " + rs.getString(3));
+                }
+            }
+        }
+        return columns;
+    }
+}
@@ -0,0 +1,251 @@
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.h2.tools.RunScript;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import DAO.MessageDao;
+import DAO.MessageResharder;
+import Model.Message;
+import Model.MessageVersion;
+import Util.ConnectionPool;
+import Util.ShardRouter;
+
+public class ShardedMessagesTest {
+    private static final int SHARDS = 3;
+
+    ConnectionPool[] pools;
+    ShardRouter router;
+    MessageDao messageDao;
+
+    /**
+     * Before every test, create three empty file-backed H2 shards and a MessageDao routing over them.
+     */
+    @Before
+    public void setUp() throws Exception {
+        pools = new ConnectionPool[SHARDS];
+        for (int shard = 0; shard < SHARDS; shard++) {
+            pools[shard] = new ConnectionPool("test-shard-" + shard, "jdbc:h2:./h2/test-shard-" + shard, "sa", "sa",
+                    2, 1000);
+            Connection conn = pools[shard].borrow();
+            try (Statement statement = conn.createStatement()) {
+                statement.execute("DROP TABLE IF EXISTS message_version");
+                statement.execute("DROP TABLE IF EXISTS message");
+                statement.execute("DROP TABLE IF EXISTS shard_range");
+            }
+            // Shards 1 and up get their schema from the router; the primary is set up here
+            if (shard == 0) {
+                RunScript.execute(conn, new InputStreamReader(
+                        getClass().getClassLoader().getResourceAsStream("SocialMediaShard.sql"),
+                        StandardCharsets.UTF_8));
+            }
+            pools[shard].release(conn);
+        }
+        router = new ShardRouter(pools, 8);
+        router.initialise();
+        messageDao = new MessageDao(router);
+    }
+
+    @After
+    public void tearDown() {
+        for (ConnectionPool pool : pools) {
+            pool.close();
+        }
+    }
+
+    /**
+     * Messages of many accounts are spread over the shards with globally unique IDs, and every read path finds
+     * them all in the right order.
+     */
+    @Test
+    public void messagesAreSpreadAndGatheredAcrossShards() {
+        Set<Integer> ids = new HashSet<>();
+        Set<Integer> originShards = new HashSet<>();
+        for (int account = 1; account <= 60; account++) {
+            Message message = messageDao.insert(new Message(account, "message " + account, 1669947792L + account));
+            Assert.assertTrue(ids.add(message.getMessage_id()));
+            Assert.assertEquals(router.writeShardFor(account), router.originShardOf(message.getMessage_id()));
+            originShards.add(router.originShardOf(message.getMessage_id()));
+        }
+        Assert.assertEquals(SHARDS, originShards.size());
+
+        for (int id : ids) {
+            Assert.assertTrue(messageDao.getById(id).isPresent());
+        }
+        List<Integer> idList = new ArrayList<>(ids);
+        List<Message> byIds = messageDao.getByIds(idList);
+        Assert.assertEquals(60, byIds.size());
+        for (int i = 0; i < byIds.size(); i++) {
+            Assert.assertEquals((int) idList.get(i), byIds.get(i).getMessage_id());
+        }
+        List<Message> all = messageDao.getAll();
+        Assert.assertEquals(60, all.size());
+        for (int i = 1; i < all.size(); i++) {
+            Assert.assertTrue(all.get(i - 1).getMessage_id() < all.get(i).getMessage_id());
+        }
+        List<Message> latest = messageDao.getLatestMessages(5);
+        Assert.assertEquals(5, latest.size());
+        for (int i = 0; i < 5; i++) {
+            Assert.assertEquals(60 - i, latest.get(i).getPosted_by());
+        }
+        List<Message> range = messageDao.getMessagesInRange(1669947792L + 10, 1669947792L + 19, 100);
+        Assert.assertEquals(10, range.size());
+        Assert.assertEquals(19, range.get(0).getPosted_by());
+        Assert.assertEquals(1, messageDao.getMessagesByAccountId(42).size());
+    }
+
+    /**
+     * Moving a range to another shard keeps every message readable and leaves it only on the new owner.
+     */
+    @Test
+    public void movingARangeKeepsItsMessages() throws InterruptedException {
+        int account = 7;
+        int point = router.pointFor(account);
+        int source = router.ownerOf(point);
+        int target = (source + 1) % SHARDS;
+        Message message = messageDao.insert(new Message(account, "before the move", 1669947800L));
+
+        MessageResharder resharder = new MessageResharder(router, messageDao);
+        MessageResharder.Move move = resharder.start(point, target);
+        for (int i = 0; i < 100 && !move.isFinished(); i++) {
+            Thread.sleep(50);
+        }
+
+        Assert.assertEquals(MessageResharder.Phase.DONE, move.getPhase());
+        Assert.assertEquals(target, router.ownerOf(point));
+        Assert.assertEquals(target, router.writeShardFor(account));
+        Assert.assertEquals(message, messageDao.getById(message.getMessage_id()).orElse(null));
+        Assert.assertEquals(List.of(message), messageDao.getByIds(List.of(message.getMessage_id())));
+        Assert.assertEquals(1, messageDao.getMessagesByAccountId(account).size());
+        Assert.assertEquals(1, messageDao.getAll().size());
+    }
+
+    /**
+     * A moved message keeps its version and edit history, a message deleted before the move stays deleted, and
+     * neither leaves rows behind on the source shard.
+     */
+    @Test
+    public void movingARangeKeepsVersionsHistoryAndDeletions() throws Exception {
+        int account = 7;
+        int point = router.pointFor(account);
+        int source = router.ownerOf(point);
+        int target = (source + 1) % SHARDS;
+        Message message = messageDao.insert(new Message(account, "first", 1669947800L));
+        message.setMessage_text("second");
+        Assert.assertTrue(messageDao.update(message));
+        message.setMessage_text("third");
+        Assert.assertTrue(messageDao.update(message));
+        Message deleted = messageDao.insert(new Message(account, "deleted", 1669947801L));
+        Assert.assertTrue(messageDao.delete(deleted));
+
+        MessageResharder resharder = new MessageResharder(router, messageDao);
+        MessageResharder.Move move = resharder.start(point, target);
+        for (int i = 0; i < 100 && !move.isFinished(); i++) {
+            Thread.sleep(50);
+        }
+        Assert.assertEquals(MessageResharder.Phase.DONE, move.getPhase());
+
+        List<MessageVersion> history = messageDao.getHistory(message.getMessage_id(), Integer.MAX_VALUE, 10);
+        Assert.assertEquals(3, history.size());
+        Assert.assertEquals(3, history.get(0).getVersion());
+        Assert.assertEquals("third", history.get(0).getMessage_text());
+        Assert.assertEquals("first", history.get(2).getMessage_text());
+        // The version carried over, so a write expecting an older one is still refused
+        message.setMessage_text("fourth");
+        Assert.assertFalse(messageDao.update(message, 2));
+        Assert.assertTrue(messageDao.update(message, 3));
+
+        Assert.assertFalse(messageDao.getById(deleted.getMessage_id()).isPresent());
+        Assert.assertEquals(1, count(target, "SELECT COUNT(*) FROM message WHERE message_id = "
+                + deleted.getMessage_id() + " AND deleted_epoch IS NOT NULL"));
+        Assert.assertEquals(0, count(source, "SELECT COUNT(*) FROM message WHERE posted_by = " + account));
+        Assert.assertEquals(0, count(source, "SELECT COUNT(*) FROM message_version WHERE message_id = "
+                + message.getMessage_id()));
+    }
+
+    /**
+     * While a range is moving, an account's messages are read from both shards and merged by ID: a message already
+     * copied is listed once, and the list stays in ID order.
+     */
+    @Test
+    public void messagesOfAMovingAccountAreMergedInOrder() throws SQLException {
+        int account = 7;
+        int point = router.pointFor(account);
+        int source = router.ownerOf(point);
+        int target = (source + 1) % SHARDS;
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            ids.add(messageDao.insert(new Message(account, "before " + i, 1669947800L + i)).getMessage_id());
+        }
+        router.beginMigration(point, target);
+        try {
+            execute(target, "INSERT INTO message (message_id, posted_by, message_text, time_posted_epoch) VALUES ("
+                    + ids.get(2) + ", " + account + ", 'before 2', 1669947802)");
+            ids.add(messageDao.insert(new Message(account, "during", 1669947810L)).getMessage_id());
+
+            List<Message> messages = messageDao.getMessagesByAccountId(account);
+            List<Integer> read = new ArrayList<>();
+            for (Message message : messages) {
+                read.add(message.getMessage_id());
+            }
+            List<Integer> expected = new ArrayList<>(ids);
+            expected.sort(null);
+            Assert.assertEquals(expected, read);
+        } finally {
+            router.abortMigration(point);
+        }
+    }
+
+    /**
+     * A copy read before an update made to both shards does not overwrite the newer row already on the target.
+     */
+    @Test
+    public void movingARangeKeepsNewerRowsOnTheTarget() throws Exception {
+        int account = 7;
+        int point = router.pointFor(account);
+        int source = router.ownerOf(point);
+        int target = (source + 1) % SHARDS;
+        Message message = messageDao.insert(new Message(account, "first", 1669947800L));
+        // As if an update had reached the target after the copy was read from the source
+        execute(target, "INSERT INTO message (message_id, posted_by, message_text, time_posted_epoch, version) "
+                + "VALUES (" + message.getMessage_id() + ", " + account + ", 'newer', 1669947800, 2)");
+
+        MessageResharder resharder = new MessageResharder(router, messageDao);
+        MessageResharder.Move move = resharder.start(point, target);
+        for (int i = 0; i < 100 && !move.isFinished(); i++) {
+            Thread.sleep(50);
+        }
+        Assert.assertEquals(MessageResharder.Phase.DONE, move.getPhase());
+        Assert.assertEquals("newer", messageDao.getById(message.getMessage_id()).get().getMessage_text());
+    }
+
+    private void execute(int shard, String sql) throws SQLException {
+        Connection conn = pools[shard].borrow();
+        try (Statement statement = conn.createStatement()) {
+            statement.execute(sql);
+        } finally {
+            pools[shard].release(conn);
+        }
+    }
+
+    private int count(int shard, String sql) throws SQLException {
+        Connection conn = pools[shard].borrow();
+        try (Statement statement = conn.createStatement(); ResultSet rs = statement.executeQuery(sql)) {
+            rs.next();
+            return rs.getInt(1);
+        } finally {
+            pools[shard].release(conn);
+        }
+    }
+}
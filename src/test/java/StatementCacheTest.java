@@ -0,0 +1,56 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import DAO.Query;
+import DAO.StatementCache;
+import Util.ConnectionPool;
+import Util.SchemaInitializer;
+
+public class StatementCacheTest {
+
+    /**
+     * A statement is reused by the thread that prepared it, and once the pool closes its connection the statement
+     * is closed and the cache no longer holds the connection.
+     */
+    @Test
+    public void statementsAreClosedWithTheirConnection() throws SQLException {
+        ConnectionPool pool = new ConnectionPool("statement-cache",
+                "jdbc:h2:mem:statement-cache;DB_CLOSE_DELAY=-1", "sa", "", 1, 1_000);
+        Connection conn = pool.borrow();
+        SchemaInitializer.ensure(conn);
+        PreparedStatement ps = StatementCache.prepare(conn, Query.MESSAGE_BY_ID);
+        Assert.assertSame(ps, StatementCache.prepare(conn, Query.MESSAGE_BY_ID));
+        int cached = StatementCache.size();
+
+        pool.release(conn);
+        pool.close();
+
+        Assert.assertTrue(conn.isClosed());
+        Assert.assertTrue(ps.isClosed());
+        Assert.assertEquals(cached - 1, StatementCache.size());
+    }
+
+    /**
+     * A connection borrowed when the pool is closed is closed, with its statements, when it is released.
+     */
+    @Test
+    public void connectionBorrowedAtCloseIsClosedOnRelease() throws SQLException {
+        ConnectionPool pool = new ConnectionPool("statement-cache-borrowed",
+                "jdbc:h2:mem:statement-cache-borrowed;DB_CLOSE_DELAY=-1", "sa", "", 1, 1_000);
+        Connection conn = pool.borrow();
+        SchemaInitializer.ensure(conn);
+        PreparedStatement ps = StatementCache.prepare(conn, Query.MESSAGE_BY_ID);
+
+        pool.close();
+        Assert.assertFalse(conn.isClosed());
+        pool.release(conn);
+
+        Assert.assertTrue(conn.isClosed());
+        Assert.assertTrue(ps.isClosed());
+        Assert.assertEquals(0, pool.getOpenCount());
+    }
+}
@@ -0,0 +1,42 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import Util.StorageProfile;
+
+public class StorageProfileTest {
+
+    /**
+     * Each profile opens the file database with its own settings, except ephemeral, which opens an in-memory
+     * database named after the file.
+     */
+    @Test
+    public void profilesChooseTheUrl() {
+        Assert.assertEquals("jdbc:h2:./h2/db", StorageProfile.DEFAULT.url("jdbc:h2:./h2/db"));
+        Assert.assertEquals("jdbc:h2:./h2/db;WRITE_DELAY=0;CACHE_SIZE=65536",
+                StorageProfile.DURABLE.url("jdbc:h2:./h2/db"));
+        Assert.assertEquals("jdbc:h2:./h2/db;WRITE_DELAY=2000;CACHE_SIZE=262144",
+                StorageProfile.THROUGHPUT.url("jdbc:h2:./h2/db"));
+        Assert.assertEquals("jdbc:h2:mem:db;DB_CLOSE_DELAY=-1", StorageProfile.EPHEMERAL.url("jdbc:h2:./h2/db"));
+    }
+
+    /**
+     * The settings of the durable profile are the ones the database runs with.
+     */
+    @Test
+    public void durableSettingsAreApplied() throws SQLException {
+        try (Connection conn = DriverManager.getConnection(
+                StorageProfile.DURABLE.url("jdbc:h2:mem:storage-profile-test"), "sa", "sa");
+                Statement statement = conn.createStatement();
+                ResultSet rs = statement.executeQuery("select setting_value from information_schema.settings"
+                        + " where setting_name = 'WRITE_DELAY'")) {
+            Assert.assertTrue(rs.next());
+            Assert.assertEquals("0", rs.getString(1));
+        }
+    }
+}
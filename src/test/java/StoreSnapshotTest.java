@@ -0,0 +1,259 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import DAO.ChangeCapture;
+import DAO.ChangeEvent;
+import DAO.MessageDao;
+import DAO.ReplicaSet;
+import DAO.StoreSnapshotter;
+import Model.Message;
+import Util.ColumnarTable;
+import Util.ConnectionPool;
+import Util.ConnectionUtil;
+import Util.SegmentedLog;
+import Util.ShardRouter;
+
+public class StoreSnapshotTest {
+    Path dir;
+    ShardRouter router;
+    StoreSnapshotter snapshotter;
+
+    /**
+     * Before every test, reset the database and create a snapshotter of it writing groups of two rows, so that
+     * every table spans several groups.
+     */
+    @Before
+    public void setUp() throws IOException {
+        ConnectionUtil.resetTestDatabase();
+        dir = Files.createTempDirectory("snapshots");
+        System.setProperty("snapshot.row-group-rows", "2");
+        try {
+            router = new ShardRouter(
+                    new ConnectionPool[] { ConnectionPool.shared("shard-0", ConnectionUtil::getConnection) }, 1);
+            snapshotter = new StoreSnapshotter(router, dir);
+        } finally {
+            System.clearProperty("snapshot.row-group-rows");
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        snapshotter.stop();
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    /**
+     * Numbers, nulls, plain and dictionary-encoded text come back as they went in, and IDs read in order take
+     * about a byte each.
+     */
+    @Test
+    public void columnGroupRoundTrips() throws IOException {
+        ColumnarTable group = new ColumnarTable("message", new String[] { "id", "text", "kind", "deleted" },
+                new byte[] { ColumnarTable.NUMBER, ColumnarTable.TEXT, ColumnarTable.TEXT, ColumnarTable.NUMBER },
+                1000);
+        for (int i = 0; i < 1000; i++) {
+            int row = group.addRow();
+            group.setNumber(row, 0, 1_000_000 + i);
+            group.setText(row, 1, i % 7 == 0 ? null : "text " + i + " \u00e9");
+            group.setText(row, 2, i % 2 == 0 ? "even" : "odd");
+            if (i % 3 == 0) {
+                group.setNumber(row, 3, Long.MIN_VALUE + i);
+            }
+        }
+        byte[] encoded = group.encode();
+        ColumnarTable decoded = ColumnarTable.decode(encoded);
+
+        Assert.assertEquals("message", decoded.getTable());
+        Assert.assertEquals(1000, decoded.size());
+        for (int row = 0; row < 1000; row++) {
+            Assert.assertEquals(1_000_000 + row, decoded.getNumber(row, 0));
+            Assert.assertEquals(group.getText(row, 1), decoded.getText(row, 1));
+            Assert.assertEquals(group.getText(row, 2), decoded.getText(row, 2));
+            Assert.assertEquals(row % 3 != 0, decoded.isNull(row, 3));
+            if (row % 3 == 0) {
+                Assert.assertEquals(Long.MIN_VALUE + row, decoded.getNumber(row, 3));
+            }
+        }
+        ColumnarTable idsOnly = new ColumnarTable("message", new String[] { "id" },
+                new byte[] { ColumnarTable.NUMBER }, 1000);
+        for (int i = 0; i < 1000; i++) {
+            idsOnly.setNumber(idsOnly.addRow(), 0, 1_000_000 + i);
+        }
+        Assert.assertTrue(idsOnly.encode().length < 1_100);
+    }
+
+    /**
+     * A restore brings back the tables as they were when the snapshot was taken, with the indexes and foreign keys
+     * it dropped and the cache size it raised while loading, and new rows are then given IDs after the restored ones; a damaged snapshot is
+     * refused before anything is changed.
+     */
+    @Test
+    public void restoreBringsBackTheSnapshot() throws IOException, SQLException {
+        MessageDao messageDao = new MessageDao();
+        for (int i = 0; i < 5; i++) {
+            messageDao.insert(new Message(1, "message " + i, 1669947800L + i));
+        }
+        List<String> taken = dump();
+        List<String> schema = indexesAndKeys();
+        String cacheSize = cacheSize();
+        Path file = snapshotter.snapshot();
+
+        execute("DELETE FROM message WHERE message_id = 2");
+        execute("INSERT INTO account (username, password) VALUES ('after the snapshot', 'password')");
+        Assert.assertNotEquals(taken, dump());
+
+        // The other tables, such as the edit history and the stats, are restored too
+        Assert.assertTrue(snapshotter.restore(file) >= taken.size());
+        Assert.assertEquals(taken, dump());
+        Assert.assertEquals(schema, indexesAndKeys());
+        Assert.assertEquals(cacheSize, cacheSize());
+        Message inserted = messageDao.insert(new Message(1, "after the restore", 1669947900L));
+        Assert.assertEquals(7, inserted.getMessage_id());
+
+        Path damaged = dir.resolve("damaged.snap");
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(damaged, bytes);
+        try {
+            snapshotter.restore(damaged);
+            Assert.fail("A damaged snapshot was restored");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage().contains("checksum"));
+        }
+        Assert.assertEquals(8, dump().size());
+    }
+
+    /**
+     * An index a restore dropped and died before creating again is created by the next restore, from the definition
+     * it recorded.
+     */
+    @Test
+    public void restoreCreatesTheIndexesADeadRestoreDropped() throws IOException, SQLException {
+        List<String> schema = indexesAndKeys();
+        Path file = snapshotter.snapshot();
+        execute("CREATE TABLE IF NOT EXISTS snapshot_restore_index (ordinal int primary key, ddl varchar)");
+        execute("INSERT INTO snapshot_restore_index VALUES (0, 'CREATE INDEX \"PUBLIC\".\"MESSAGE_DELETED_IDX\" "
+                + "ON \"PUBLIC\".\"MESSAGE\"(\"DELETED_EPOCH\" NULLS FIRST)')");
+        execute("DROP INDEX message_deleted_idx");
+
+        snapshotter.restore(file);
+        Assert.assertEquals(schema, indexesAndKeys());
+        try (Statement statement = ConnectionUtil.getConnection().createStatement();
+                ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM snapshot_restore_index")) {
+            rs.next();
+            Assert.assertEquals(0, rs.getInt(1));
+        }
+    }
+
+    /**
+     * No snapshot is taken while a range is being moved between shards, as part of it could be in the file twice.
+     */
+    @Test
+    public void snapshotRefusedWhileARangeMoves() throws IOException {
+        router.beginMigration(0, 0);
+        try {
+            snapshotter.snapshot();
+            Assert.fail("A snapshot was taken during a move");
+        } catch (IllegalStateException e) {
+            Assert.assertTrue(e.getMessage().contains("moved"));
+        } finally {
+            router.abortMigration(0);
+        }
+        Assert.assertNotNull(snapshotter.snapshot());
+    }
+
+    /**
+     * A restore is refused while there are read replicas, which it would not reach, and otherwise recorded in the
+     * change log so that its consumers know the events before it no longer describe the tables.
+     */
+    @Test
+    public void restoreIsRecordedAndRefusedWithReplicas() throws IOException {
+        Path file = snapshotter.snapshot();
+        ReplicaSet replicas = new ReplicaSet(ConnectionPool.shared("primary", ConnectionUtil::getConnection),
+                new ConnectionPool[] { ConnectionPool.shared("replica-0", ConnectionUtil::getConnection) }, 0, 1);
+        try {
+            new StoreSnapshotter(router, replicas, ChangeCapture.disabled(), dir).restore(file);
+            Assert.fail("A restore ran with replicas");
+        } catch (IllegalStateException e) {
+            Assert.assertTrue(e.getMessage().contains("replicas"));
+        }
+
+        try (SegmentedLog log = new SegmentedLog(dir.resolve("cdc"), 4096, Long.MAX_VALUE, Long.MAX_VALUE, false)) {
+            ChangeCapture capture = new ChangeCapture(log);
+            new StoreSnapshotter(router, ReplicaSet.none(), capture, dir).restore(file);
+            List<ChangeCapture.Entry> entries = capture.read(0, 10);
+            Assert.assertEquals(1, entries.size());
+            Assert.assertEquals(ChangeEvent.STORE, entries.get(0).getEvent().getEntity());
+            Assert.assertEquals(ChangeEvent.RESTORE, entries.get(0).getEvent().getType());
+        }
+    }
+
+    private static List<String> dump() throws SQLException {
+        List<String> rows = new ArrayList<>();
+        try (Statement statement = ConnectionUtil.getConnection().createStatement()) {
+            try (ResultSet rs = statement.executeQuery("SELECT * FROM account ORDER BY account_id")) {
+                while (rs.next()) {
+                    rows.add("account " + rs.getInt(1) + " " + rs.getString(2) + " " + rs.getObject(4));
+                }
+            }
+            try (ResultSet rs = statement.executeQuery("SELECT * FROM message ORDER BY message_id")) {
+                while (rs.next()) {
+                    rows.add("message " + rs.getInt(1) + " " + rs.getInt(2) + " " + rs.getString(3) + " "
+                            + rs.getLong(4) + " " + rs.getInt(5) + " " + rs.getObject(6));
+                }
+            }
+        }
+        return rows;
+    }
+
+    // The statements creating the indexes and constraints of the tables dump() reads, sorted as indexes created
+    // again are listed in the order they were created
+    private static List<String> indexesAndKeys() throws SQLException {
+        List<String> statements = new ArrayList<>();
+        try (Statement statement = ConnectionUtil.getConnection().createStatement();
+                ResultSet rs = statement.executeQuery("SCRIPT NODATA NOPASSWORDS NOSETTINGS TABLE account, message")) {
+            while (rs.next()) {
+                String ddl = rs.getString(1);
+                if (ddl.startsWith("CREATE INDEX") || ddl.startsWith("ALTER TABLE")) {
+                    statements.add(ddl);
+                }
+            }
+        }
+        Assert.assertEquals(statements.toString(), 6, statements.size());
+        Collections.sort(statements);
+        return statements;
+    }
+
+    private static String cacheSize() throws SQLException {
+        try (Statement statement = ConnectionUtil.getConnection().createStatement();
+                ResultSet rs = statement.executeQuery("SELECT SETTING_VALUE FROM INFORMATION_SCHEMA.SETTINGS "
+                        + "WHERE SETTING_NAME = 'info.CACHE_MAX_SIZE'")) {
+            Assert.assertTrue(rs.next());
+            return rs.getString(1);
+        }
+    }
+
+    private static void execute(String sql) throws SQLException {
+        Connection conn = ConnectionUtil.getConnection();
+        try (Statement statement = conn.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.h2.api.ErrorCode;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import DAO.AccountDao;
+import DAO.DaoException;
+import DAO.MessageDao;
+import DAO.StatementCache;
+import DAO.TransactionTemplate;
+import Model.Account;
+import Model.Message;
+import Service.AccountStatsTracker;
+import Service.MessageService;
+import Util.ConnectionUtil;
+import Util.UnitOfWork;
+
+public class TransactionTemplateTest {
+    AccountDao accountDao;
+    MessageDao messageDao;
+    TransactionTemplate transactions;
+
+    /**
+     * Before every test, reset the database and create the DAOs and a template that retries up to three times.
+     * Statements cached against the dropped tables are closed, as H2 misses write conflicts through them.
+     */
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+        StatementCache.clear();
+        accountDao = new AccountDao();
+        messageDao = new MessageDao();
+        transactions = new TransactionTemplate(true, UnitOfWork.Isolation.REPEATABLE_READ, 3, 1);
+    }
+
+    /**
+     * Writes made by different DAOs in one unit of work are invisible to other connections until the work returns,
+     * and then all visible.
+     */
+    @Test
+    public void daosJoinOneTransactionThatCommitsOnce() throws SQLException {
+        transactions.execute(() -> {
+            Assert.assertTrue(UnitOfWork.isActive());
+            accountDao.insert(new Account("transaction user", "password"));
+            messageDao.update(new Message(1, 1, "changed in a transaction", 1669947792));
+            Assert.assertTrue(accountDao.findAccountByUsername("transaction user").isPresent());
+            try {
+                Assert.assertFalse(committedAccountExists("transaction user"));
+                Assert.assertEquals("test message 1", committedText(1));
+            } catch (SQLException e) {
+                throw new AssertionError(e);
+            }
+            return null;
+        });
+        Assert.assertFalse(UnitOfWork.isActive());
+        Assert.assertTrue(committedAccountExists("transaction user"));
+        Assert.assertEquals("changed in a transaction", committedText(1));
+    }
+
+    /**
+     * Work that throws leaves nothing behind, and is not retried.
+     */
+    @Test
+    public void rollsBackWhenTheWorkThrows() throws SQLException {
+        AtomicInteger attempts = new AtomicInteger();
+        try {
+            transactions.execute(() -> {
+                attempts.incrementAndGet();
+                accountDao.insert(new Account("rolled back user", "password"));
+                messageDao.update(new Message(1, 1, "rolled back", 1669947792));
+                throw new IllegalStateException("the work failed");
+            });
+            Assert.fail("The work's exception should be rethrown");
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("the work failed", e.getMessage());
+        }
+        Assert.assertEquals(1, attempts.get());
+        Assert.assertFalse(committedAccountExists("rolled back user"));
+        Assert.assertEquals("test message 1", committedText(1));
+        Assert.assertFalse(accountDao.findAccountByUsername("rolled back user").isPresent());
+    }
+
+    /**
+     * Work that updates a row another transaction changed after the work read it fails to serialize, and is run
+     * again from the start, this time reading the new row.
+     */
+    @Test
+    public void retriesWhenARowChangedSinceItWasRead() throws SQLException {
+        AtomicInteger attempts = new AtomicInteger();
+        String replaced = transactions.execute(() -> {
+            String read = messageDao.getById(1).get().getMessage_text();
+            if (attempts.incrementAndGet() == 1) {
+                try {
+                    setCommittedText(1, "changed concurrently");
+                } catch (SQLException e) {
+                    throw new AssertionError(e);
+                }
+            }
+            messageDao.update(new Message(1, 1, "changed after " + read, 1669947792));
+            return read;
+        });
+        Assert.assertEquals(2, attempts.get());
+        Assert.assertEquals("changed concurrently", replaced);
+        Assert.assertEquals("changed after changed concurrently", committedText(1));
+    }
+
+    /**
+     * An update retried after a conflict charges the author's rate limit once, not once per attempt.
+     */
+    @Test
+    public void updateChargesTheAuthorOnceAcrossRetries() throws SQLException {
+        MessageService messageService = new MessageService(messageDao, new AccountStatsTracker());
+        AtomicInteger charges = new AtomicInteger();
+        try {
+            Message updated = messageService.updateMessage(new Message(1, 1, "charged once", 1669947792),
+                    Optional.empty(), author -> {
+                        if (charges.incrementAndGet() == 1) {
+                            // Fails this attempt as a conflict would, so that the transaction is run again
+                            throw new DaoException("conflict", new SQLException("conflict", "40001",
+                                    ErrorCode.DEADLOCK_1));
+                        }
+                    });
+            Assert.assertEquals("charged once", updated.getMessage_text());
+        } finally {
+            messageService.stop();
+        }
+        Assert.assertEquals(1, charges.get());
+        Assert.assertEquals("charged once", committedText(1));
+    }
+
+    // The shared connection is outside every unit of work, so it only sees committed rows
+    private static boolean committedAccountExists(String username) throws SQLException {
+        try (PreparedStatement ps = ConnectionUtil.getConnection()
+                .prepareStatement("select count(*) from account where username = ?")) {
+            ps.setString(1, username);
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                return rs.getInt(1) > 0;
+            }
+        }
+    }
+
+    private static String committedText(int messageId) throws SQLException {
+        try (PreparedStatement ps = ConnectionUtil.getConnection()
+                .prepareStatement("select message_text from message where message_id = ?")) {
+            ps.setInt(1, messageId);
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                return rs.getString(1);
+            }
+        }
+    }
+
+    private static void setCommittedText(int messageId, String text) throws SQLException {
+        try (PreparedStatement ps = ConnectionUtil.getConnection()
+                .prepareStatement("update message set message_text = ? where message_id = ?")) {
+            ps.setString(1, text);
+            ps.setInt(2, messageId);
+            ps.executeUpdate();
+        }
+    }
+}